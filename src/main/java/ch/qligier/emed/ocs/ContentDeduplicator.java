@@ -0,0 +1,89 @@
+package ch.qligier.emed.ocs;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A copier of files that deduplicates them by content hash: the first copy of a content is a regular copy, the next
+ * copies of the same content are hard links to it. The identical include files of multiple versions and bundles are
+ * then stored once. If the file system doesn't support hard links, the files are copied.
+ * <p>
+ * The copier is thread-safe.
+ *
+ * @author Quentin Ligier
+ */
+public class ContentDeduplicator {
+
+    /**
+     * The first copy of each content, by content hash.
+     */
+    private final ConcurrentMap<String, Path> copies = new ConcurrentHashMap<>();
+
+    /**
+     * The number of copies that have been replaced by hard links.
+     */
+    private final LongAdder links = new LongAdder();
+
+    /**
+     * The number of bytes that have not been copied thanks to the hard links.
+     */
+    private final LongAdder savedBytes = new LongAdder();
+
+    /**
+     * Copies a file, or links it to an identical copy. The target file is replaced if it exists, unless it's already
+     * the first copy of that content.
+     *
+     * @param source The source file.
+     * @param target The target file.
+     * @throws IOException if the file cannot be copied.
+     */
+    public void copy(@NonNull final Path source,
+                     @NonNull final Path target) throws IOException {
+        final Path absoluteTarget = target.toAbsolutePath().normalize();
+        final String contentHash = Utils.contentHash(source);
+        final Path firstCopy = this.copies.putIfAbsent(contentHash, absoluteTarget);
+        if (firstCopy != null && Files.isRegularFile(firstCopy)) {
+            if (firstCopy.equals(absoluteTarget)) {
+                return;
+            }
+            Files.deleteIfExists(absoluteTarget);
+            try {
+                Files.createLink(absoluteTarget, firstCopy);
+                this.links.increment();
+                this.savedBytes.add(Files.size(firstCopy));
+                return;
+            } catch (final UnsupportedOperationException | IOException exception) {
+                // The file system doesn't support hard links, or not across these directories
+            }
+        } else if (firstCopy != null) {
+            // The first copy has been deleted, this one replaces it
+            this.copies.put(contentHash, absoluteTarget);
+        }
+        Files.copy(source, absoluteTarget, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the number of copies that have been replaced by hard links.
+     *
+     * @return the number of links.
+     */
+    public long getLinks() {
+        return this.links.sum();
+    }
+
+    /**
+     * Returns the number of bytes that have not been copied thanks to the hard links.
+     *
+     * @return the number of saved bytes.
+     */
+    public long getSavedBytes() {
+        return this.savedBytes.sum();
+    }
+}
@@ -1,17 +1,41 @@
 package ch.qligier.emed.ocs;
 
+import ch.qligier.emed.ocs.fastpath.FastPathProgram;
+import ch.qligier.emed.ocs.metrics.ConversionReport;
+import ch.qligier.emed.ocs.metrics.DefinitionStatistics;
+import ch.qligier.emed.ocs.metrics.DocumentMetrics;
+import ch.qligier.emed.ocs.metrics.VariantMetrics;
+import ch.qligier.emed.ocs.profiling.RuleProfile;
+import ch.qligier.emed.ocs.profiling.RuleStatistics;
 import ch.qligier.emed.ocs.schematron.AmbuTransformer;
 import ch.qligier.emed.ocs.schematron.CdaChEmedSchematronOptimizer;
 import ch.qligier.emed.ocs.schematron.DefinitionTransformer;
+import ch.qligier.emed.ocs.schematron.IncludeCache;
+import ch.qligier.emed.ocs.schematron.IncludeManifest;
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import ch.qligier.emed.ocs.schematron.ProfileGuidedTransformer;
+import ch.qligier.emed.ocs.schematron.definition.ExpressionTable;
+import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
+import ch.qligier.emed.ocs.valueset.ValueSetIndex;
+import ch.qligier.emed.ocs.valueset.ValueSetIndexWriter;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 /**
  *
@@ -19,14 +43,24 @@ import java.util.logging.Logger;
 public class OptimizedSchematronConverter {
 
     /**
-     * Directory in which to read the Schematron files.
+     * Directory in which to read the Schematron files, one subdirectory per specification version.
      */
-    private static final String SCHEMATRON_INPUT_DIR = "input/1.0.2/";
+    private static final String SCHEMATRON_INPUT_DIR = "input/";
 
     /**
-     * Directory in which to write the XSLT files.
+     * Directory in which to write the XSLT files, one subdirectory per specification version.
      */
-    private static final String SCHEMATRON_OUTPUT_DIR = "dist/1.0.2/";
+    private static final String SCHEMATRON_OUTPUT_DIR = "dist/";
+
+    /**
+     * The specification version that is converted if none is given.
+     */
+    private static final String DEFAULT_VERSION = "1.0.2";
+
+    /**
+     * The option that declares the comma-separated specification versions to convert.
+     */
+    private static final String VERSIONS_OPTION = "--versions=";
 
     /**
      * List of CDA-CH-EMED Schematron source files.
@@ -35,119 +69,296 @@ public class OptimizedSchematronConverter {
         "cdachemed-MTP", "cdachemed-PRE", "cdachemed-DIS", "cdachemed-PADV", "cdachemed-PML", "cdachemed-PMLC"
     );
 
-    private static final String INCLUDE_DIR = "include/";
+    /**
+     * Directory in which to write the per-type bundles, in the output directory. Each bundle contains the stylesheets
+     * of a document type and only the included files they reference.
+     */
+    private static final String BUNDLE_DIR = "bundles/";
+
+    /**
+     * The name of the JSON report of the conversion stages and optimization statistics.
+     */
+    private static final String CONVERSION_REPORT_FILENAME = "conversion-report.json";
+
+    /**
+     * The number of top-cost rules of a rule profile to log.
+     */
+    private static final int TOP_COST_RULES = 10;
 
     private static final Logger LOG = Logger.getLogger(OptimizedSchematronConverter.class.getName());
 
     /**
-     * @param args
+     * Converts the Schematron files of one or more specification versions, from {@code input/[version]/} to
+     * {@code dist/[version]/}. The versions are converted concurrently; they share the parsed included files, the
+     * interned expressions and their rewrites, and the parsed value sets, all deduplicated by content. The identical
+     * included files and stylesheets are stored once (hard links).
+     *
+     * @param args The option {@code --versions=1.0.2,0.98.0} (1.0.2 by default), and an optional rule profile file (see
+     *             {@link RuleProfile}) that guides the order of patterns and asserts.
      */
     public static void main(final String[] args) throws Exception {
-        final File outputDir = new File(SCHEMATRON_OUTPUT_DIR);
-        if (outputDir.isDirectory()) {
-            Files.delete(outputDir.toPath());
-
+        final List<String> versions = new ArrayList<>();
+        String ruleProfileFile = null;
+        for (final String arg : args) {
+            if (arg.startsWith(VERSIONS_OPTION)) {
+                Stream.of(arg.substring(VERSIONS_OPTION.length()).split(","))
+                    .map(String::strip)
+                    .filter(version -> !version.isEmpty() && !versions.contains(version))
+                    .forEach(versions::add);
+            } else if (ruleProfileFile == null) {
+                ruleProfileFile = arg;
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+        if (versions.isEmpty()) {
+            versions.add(DEFAULT_VERSION);
         }
-        Files.createDirectories(outputDir.toPath());
 
-        final List<DefinitionTransformer> definitionTransformers = List.of(
+        final List<DefinitionTransformer> definitionTransformers = new ArrayList<>(List.of(
             new AmbuTransformer()
-        );
+        ));
+        if (ruleProfileFile != null) {
+            final RuleProfile ruleProfile = RuleProfile.read(new File(ruleProfileFile));
+            logTopCostRules(ruleProfile);
+            definitionTransformers.add(new ProfileGuidedTransformer(ruleProfile));
+        }
+        final SharedWork sharedWork = new SharedWork(List.copyOf(definitionTransformers),
+            OutputProfile.loadDefaultProfiles(), new ContentDeduplicator(), new ValueSetIndexWriter.Cache());
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(versions.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<?>> conversions = new ArrayList<>(versions.size());
+            for (final String version : versions) {
+                conversions.add(executor.submit(() -> {
+                    convertVersion(version, sharedWork);
+                    return null;
+                }));
+            }
+            for (final Future<?> conversion : conversions) {
+                try {
+                    conversion.get();
+                } catch (final ExecutionException exception) {
+                    if (exception.getCause() instanceof final Exception cause) {
+                        throw cause;
+                    }
+                    throw exception;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final IncludeCache includeCache = CdaChEmedSchematronOptimizer.getIncludeCache();
+        LOG.info("- Parsed " + includeCache.getMisses() + " included files, reused " + includeCache.getHits()
+            + " times and " + includeCache.getContentHits() + " times from identical files");
+        final ExpressionTable expressionTable = ExpressionTable.shared();
+        LOG.info("- Interned " + expressionTable.size() + " distinct expressions, rewrote "
+            + expressionTable.getRewriteMisses() + " and reused " + expressionTable.getRewriteHits() + " rewrites");
+        LOG.info("- Parsed " + sharedWork.getValueSetCache().size() + " distinct value sets, reused "
+            + sharedWork.getValueSetCache().getHits() + " times");
+        LOG.info("- Linked " + sharedWork.getDeduplicator().getLinks() + " identical files, saving "
+            + sharedWork.getDeduplicator().getSavedBytes() / 1024 + " KiB");
+        LOG.info("End of conversion, the stage metrics are in " + CONVERSION_REPORT_FILENAME);
+    }
+
+    /**
+     * Converts the Schematron files of a specification version.
+     *
+     * @param version    The specification version.
+     * @param sharedWork The work that is shared by all versions.
+     * @throws Exception if a Schematron file is missing or the transformation fails.
+     */
+    private static void convertVersion(@NonNull final String version,
+                                       @NonNull final SharedWork sharedWork) throws Exception {
+        final Path inputDir = Path.of(SCHEMATRON_INPUT_DIR, version);
+        final Path outputDir = Path.of(SCHEMATRON_OUTPUT_DIR, version);
+        if (Files.isDirectory(outputDir)) {
+            // The identical files of the other versions are hard links, they keep their content
+            Utils.deleteRecursively(outputDir);
+        }
+        Files.createDirectories(outputDir);
 
-        copyIncludes();
+        final ConversionReport report = new ConversionReport();
+        final Map<String, IncludeManifest> manifestsPerType = new LinkedHashMap<>();
         for (final String schematronFilename : SCHEMATRON_FILES) {
-            final File schematronFile = Path.of(SCHEMATRON_INPUT_DIR, schematronFilename + ".sch").toFile();
-            optimizeSchematronFile(
-                schematronFile,
-                Path.of(SCHEMATRON_OUTPUT_DIR, schematronFilename + "-all.xslt").toFile(),
-                definitionTransformers,
-                null);
-            optimizeSchematronFile(
-                schematronFile,
-                Path.of(SCHEMATRON_OUTPUT_DIR, schematronFilename + "-error.xslt").toFile(),
-                definitionTransformers,
-                "error");
+            final File schematronFile = inputDir.resolve(schematronFilename + ".sch").toFile();
+            manifestsPerType.put(schematronFilename, optimizeSchematronFile(schematronFile, schematronFilename,
+                version, outputDir, sharedWork, report.addDocument(schematronFilename)));
         }
-        cleanIncludes();
-        LOG.info("End of conversion");
+        report.getStages().run("bundleIncludes",
+            () -> bundleIncludes(version, inputDir, outputDir, manifestsPerType, sharedWork));
+        report.write(outputDir.resolve(CONVERSION_REPORT_FILENAME).toFile());
+        LOG.info("- [" + version + "] Converted");
     }
 
     /**
-     * Ensures that a specific Schematron file exists; tries to create it by converting the Schematron file if it does
-     * not.
+     * Converts a Schematron file to one XSLT file per output profile, and a fast path program for the profiles that use
+     * it. The Schematron file is only parsed once, each profile is applied to a copy of the parsed definition. The
+     * included files that are referenced by each XSLT file are listed in its manifest.
      *
-     * @param schematronFile The source Schematron file.
-     * @param xsltFile       The target XSLT file.
+     * @param schematronFile     The source Schematron file.
+     * @param schematronFilename The base name of the XSLT files.
+     * @param version            The specification version.
+     * @param outputDir          The directory in which to write the XSLT files.
+     * @param sharedWork         The work that is shared by all versions.
+     * @param metrics            The metrics of the document type, the stages of each profile are added to it.
+     * @return the included files that are referenced by the XSLT files of all profiles.
      * @throws Exception if the Schematron file is missing or the transformation fails.
      */
-    private static void optimizeSchematronFile(@NonNull final File schematronFile,
-                                               @NonNull final File xsltFile,
-                                               @NonNull final List<DefinitionTransformer> definitionTransformers,
-                                               final String roleToKeep) throws Exception {
-        LOG.info("- Transforming " + schematronFile.getName());
-        final File optimizedSchematronFile = File.createTempFile("cdachemed_", "_sch");
-        optimizedSchematronFile.deleteOnExit();
+    @NonNull
+    private static IncludeManifest optimizeSchematronFile(@NonNull final File schematronFile,
+                                                          @NonNull final String schematronFilename,
+                                                          @NonNull final String version,
+                                                          @NonNull final Path outputDir,
+                                                          @NonNull final SharedWork sharedWork,
+                                                          @NonNull final DocumentMetrics metrics) throws Exception {
+        final String logPrefix = "  + [" + version + " " + schematronFilename + "] ";
+        LOG.info("- [" + version + "] Transforming " + schematronFile.getName());
         if (!schematronFile.isFile() || !schematronFile.canRead()) {
             throw new FileNotFoundException("The Schematron file cannot be found: " + schematronFile);
         }
+        final SchematronDefinition definition =
+            CdaChEmedSchematronOptimizer.parseDefinition(schematronFile, metrics.getStages());
+        final DefinitionStatistics parsedStatistics = DefinitionStatistics.of(definition);
+        final IncludeManifest typeManifest = new IncludeManifest();
+
+        for (final OutputProfile profile : sharedWork.getOutputProfiles()) {
+            final File xsltFile = outputDir.resolve(schematronFilename + "-" + profile.getName() + ".xslt").toFile();
+            final File optimizedSchematronFile = File.createTempFile("cdachemed_", "_sch");
+            optimizedSchematronFile.deleteOnExit();
 
-        LOG.info("  + Optimizing the Schematron definition");
-        CdaChEmedSchematronOptimizer.optimizeSchematron(schematronFile, optimizedSchematronFile,
-            definitionTransformers, roleToKeep);
-        LOG.info("  + Converting it to XSLT");
-        CdaChEmedSchematronOptimizer.convertToXslt(optimizedSchematronFile, xsltFile);
-        Files.delete(optimizedSchematronFile.toPath());
-        LOG.info("  + Done");
+            LOG.info(logPrefix + "Optimizing the Schematron definition for the profile '" + profile.getName() + "'");
+            final VariantMetrics variant = metrics.addVariant(profile.getName());
+            final SchematronDefinition profileDefinition = definition.copy();
+            variant.setBefore(parsedStatistics);
+            final FastPathProgram fastPathProgram = CdaChEmedSchematronOptimizer.optimizeDefinition(
+                profileDefinition, optimizedSchematronFile, sharedWork.getDefinitionTransformers(), profile,
+                variant.getStages());
+            variant.setAfter(DefinitionStatistics.of(profileDefinition));
+            final IncludeManifest manifest =
+                variant.getStages().record("includeManifest", () -> IncludeManifest.of(profileDefinition));
+            manifest.write(outputDir.resolve(
+                schematronFilename + "-" + profile.getName() + IncludeManifest.FILE_EXTENSION));
+            typeManifest.addAll(manifest);
+            if (fastPathProgram != null) {
+                LOG.info(logPrefix + "Writing the fast path program (" + fastPathProgram.countAsserts() + " asserts)");
+                variant.getStages().run("writeFastPath", () -> fastPathProgram.write(outputDir.resolve(
+                    schematronFilename + "-" + profile.getName() + FastPathProgram.FILE_EXTENSION).toFile()));
+            }
+            LOG.info(logPrefix + "Converting it to XSLT");
+            variant.getStages().run("convertToXslt", () -> CdaChEmedSchematronOptimizer.convertToXslt(
+                optimizedSchematronFile, xsltFile, profile.isFailFast(), profile.isProfiling()));
+            Files.delete(optimizedSchematronFile.toPath());
+            LOG.info(String.format("%sConverted in %d ms: %d asserts and %d descendant axes, from %d and %d", logPrefix,
+                variant.getStages().getTotalNanos() / 1_000_000, variant.getAfter().getAsserts(),
+                variant.getAfter().getDescendantAxes(), parsedStatistics.getAsserts(),
+                parsedStatistics.getDescendantAxes()));
+        }
+        LOG.info(logPrefix + "Done, " + typeManifest.getIncludes().size() + " included files are referenced");
+        return typeManifest;
     }
 
     /**
+     * Logs the rules with the highest cumulative evaluation time of a rule profile, they are the first candidates for
+     * upstream fixes.
      *
-     * @throws IOException
+     * @param ruleProfile The rule profile.
      */
-    private static void copyIncludes() throws IOException {
-        LOG.info("- Copying 'includes/' directory");
-        final File srcDirectory = Path.of(SCHEMATRON_INPUT_DIR, INCLUDE_DIR).toFile();
-        final File distDirectory = Path.of(SCHEMATRON_OUTPUT_DIR, INCLUDE_DIR).toFile();
-        Files.createDirectories(distDirectory.toPath());
-        for (final File srcFile : Utils.listFiles(srcDirectory)) {
-            Files.copy(srcFile.toPath(), Path.of(SCHEMATRON_OUTPUT_DIR, INCLUDE_DIR, srcFile.getName()));
+    private static void logTopCostRules(@NonNull final RuleProfile ruleProfile) {
+        LOG.info("- Loaded a rule profile of " + ruleProfile.getDocuments() + " documents, top-cost rules:");
+        final long totalNanos = Math.max(1, ruleProfile.getTotalNanos());
+        for (final RuleStatistics rule : ruleProfile.getTopCostRules(TOP_COST_RULES)) {
+            LOG.warning(String.format("  + %s: %.1f%% of the time, %d fires, %d failures", rule.getRuleId(),
+                100.0 * rule.getNanos() / totalNanos, rule.getFires(), rule.getFailures()));
         }
     }
 
     /**
-     * Clean the 'include/' directory by deleting all files that are not used by the Schematron.
+     * Copies the referenced included files in the output directory, next to the XSLT files, and creates a bundle per
+     * document type. A bundle contains the XSLT files, fast path programs and manifests of the document type, and only
+     * the included files that they reference. The unreferenced included files are never copied. If a profile uses the
+     * value set index, the referenced value sets are also compiled in an index, in the output directory and in each
+     * bundle. The identical files are linked by the deduplicator of the shared work.
+     *
+     * @param version          The specification version.
+     * @param inputDir         The directory of the Schematron files.
+     * @param outputDir        The directory of the XSLT files.
+     * @param manifestsPerType The manifest of the included files, by document type.
+     * @param sharedWork       The work that is shared by all versions.
+     * @throws Exception if an included file is missing or a file cannot be copied.
      */
-    private static void cleanIncludes() throws IOException {
-        LOG.info("- Cleaning the 'include/' directory");
-
-        final List<String> xsltContents = Utils.listFiles(new File(SCHEMATRON_OUTPUT_DIR)).stream()
-            .filter(file -> file.getName().endsWith(".xslt"))
-            .map(Utils::readFileToString).toList();
-
-        final File dir = new File(SCHEMATRON_OUTPUT_DIR + INCLUDE_DIR);
-        int nbDeletedFiles = 0;
-        for (final File includeFile : Utils.listFiles(dir)) {
-            // Only the value set files (starting with "voc-") are still linked
-            if (!includeFile.getName().startsWith("voc-")) {
-                Files.delete(includeFile.toPath());
-                ++nbDeletedFiles;
-                continue;
-            }
+    private static void bundleIncludes(@NonNull final String version,
+                                       @NonNull final Path inputDir,
+                                       @NonNull final Path outputDir,
+                                       @NonNull final Map<String, IncludeManifest> manifestsPerType,
+                                       @NonNull final SharedWork sharedWork) throws Exception {
+        LOG.info("- [" + version + "] Copying the referenced included files");
+        final ContentDeduplicator deduplicator = sharedWork.getDeduplicator();
+        final IncludeManifest allIncludes = new IncludeManifest();
+        manifestsPerType.values().forEach(allIncludes::addAll);
+        allIncludes.copyIncludes(inputDir, outputDir, deduplicator);
+        LOG.info("  + [" + version + "] Copied " + allIncludes.getIncludes().size() + " included files");
+        final boolean valueSetIndex = sharedWork.getOutputProfiles().stream().anyMatch(OutputProfile::isValueSetIndex);
+        if (valueSetIndex) {
+            new ValueSetIndexWriter(sharedWork.getValueSetCache()).addValueSets(outputDir, allIncludes.getIncludes())
+                .write(outputDir.resolve(ValueSetIndex.FILE_NAME));
+        }
 
-            // We check if the file is actually included in any XSLT file
-            boolean deleteInclude = true;
-            for (final String xsltContent : xsltContents) {
-                if (xsltContent.contains(includeFile.getName())) {
-                    deleteInclude = false;
-                    break;
+        for (final Map.Entry<String, IncludeManifest> typeManifest : manifestsPerType.entrySet()) {
+            final Path bundleDir = outputDir.resolve(BUNDLE_DIR).resolve(typeManifest.getKey());
+            Files.createDirectories(bundleDir);
+            for (final OutputProfile profile : sharedWork.getOutputProfiles()) {
+                final String baseName = typeManifest.getKey() + "-" + profile.getName();
+                for (final String extension : List.of(".xslt", FastPathProgram.FILE_EXTENSION,
+                    IncludeManifest.FILE_EXTENSION)) {
+                    final Path outputFile = outputDir.resolve(baseName + extension);
+                    if (Files.isRegularFile(outputFile)) {
+                        deduplicator.copy(outputFile, bundleDir.resolve(baseName + extension));
+                    }
                 }
             }
-
-            if (deleteInclude) {
-                Files.delete(includeFile.toPath());
-                ++nbDeletedFiles;
+            typeManifest.getValue().copyIncludes(outputDir, bundleDir, deduplicator);
+            if (valueSetIndex) {
+                new ValueSetIndexWriter(sharedWork.getValueSetCache())
+                    .addValueSets(bundleDir, typeManifest.getValue().getIncludes())
+                    .write(bundleDir.resolve(ValueSetIndex.FILE_NAME));
             }
+            LOG.info("  + [" + version + "] Bundled " + typeManifest.getKey() + " with "
+                + typeManifest.getValue().getIncludes().size() + " included files");
         }
-        LOG.info("  + Cleaned " + nbDeletedFiles + " useless includes");
+    }
+
+    /**
+     * The work that is shared by the conversions of all versions.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static final class SharedWork {
+
+        /**
+         * The transformers to apply, they are stateless.
+         */
+        @NonNull
+        private final List<DefinitionTransformer> definitionTransformers;
+
+        /**
+         * The output profiles.
+         */
+        @NonNull
+        private final List<OutputProfile> outputProfiles;
+
+        /**
+         * The deduplicator of the copied files.
+         */
+        @NonNull
+        private final ContentDeduplicator deduplicator;
+
+        /**
+         * The cache of the parsed value sets.
+         */
+        @NonNull
+        private final ValueSetIndexWriter.Cache valueSetCache;
     }
 }
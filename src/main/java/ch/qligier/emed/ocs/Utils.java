@@ -6,11 +6,18 @@ import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -46,6 +53,69 @@ public class Utils {
         return -1;
     }
 
+    /**
+     * Computes the content hash of a file: the hexadecimal SHA-256 digest of its bytes. Files with the same content
+     * hash are considered identical.
+     *
+     * @param file The file.
+     * @return the content hash.
+     * @throws IOException if the file cannot be read.
+     */
+    @NonNull
+    public static String contentHash(@NonNull final Path file) throws IOException {
+        final MessageDigest digest = newContentDigest();
+        try (final InputStream inputStream = Files.newInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the content hash of bytes, as {@link #contentHash(Path)} does for a file.
+     *
+     * @param content The bytes.
+     * @return the content hash.
+     */
+    @NonNull
+    public static String contentHash(@NonNull final byte[] content) {
+        return HexFormat.of().formatHex(newContentDigest().digest(content));
+    }
+
+    /**
+     * Deletes a directory and its content, the files before their directories. The hard links to the deleted files
+     * keep their content.
+     *
+     * @param directory The directory to delete.
+     * @throws IOException if a file or a directory cannot be deleted.
+     */
+    public static void deleteRecursively(@NonNull final Path directory) throws IOException {
+        final List<Path> paths;
+        try (final Stream<Path> stream = Files.walk(directory)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (final Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Creates the message digest of the content hashes, see {@link #contentHash(Path)}.
+     *
+     * @return a new SHA-256 message digest.
+     */
+    @NonNull
+    public static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not supported", exception);
+        }
+    }
+
     /**
      * Initializes and configures a {@link DocumentBuilder} that is not vulnerable to XXE injections (XInclude, Billions
      * Laugh Attack, ...). It's also suitable for OpenSAML processing.
@@ -72,6 +142,22 @@ public class Utils {
         return factory.newDocumentBuilder();
     }
 
+    /**
+     * Initializes and configures a namespace-aware {@link XMLInputFactory} that is protected against XXE attacks. The
+     * adjacent text and CDATA sections are coalesced.
+     *
+     * @return a configured {@link XMLInputFactory}.
+     */
+    @NonNull
+    public static XMLInputFactory newSafeXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newDefaultFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
     /**
      * Initializes and configures a {@link Transformer}.
      *
@@ -0,0 +1,97 @@
+package ch.qligier.emed.ocs.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The summary of a batch validation: the document counts, the throughput, the latency percentiles and the peak heap
+ * memory.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class BatchSummary {
+
+    /**
+     * The number of documents.
+     */
+    private final int documents;
+
+    /**
+     * The number of valid documents, i.e. without failed assert with the role 'error'.
+     */
+    private final int valid;
+
+    /**
+     * The number of invalid documents.
+     */
+    private final int invalid;
+
+    /**
+     * The number of documents whose type is not detected.
+     */
+    private final int unknown;
+
+    /**
+     * The number of documents that cannot be read or validated.
+     */
+    private final int failed;
+
+    /**
+     * The elapsed time of the batch, in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * The median latency of a document, in nanoseconds.
+     */
+    private final long p50Nanos;
+
+    /**
+     * The 99th percentile of the latency of a document, in nanoseconds.
+     */
+    private final long p99Nanos;
+
+    /**
+     * The peak used heap memory during the batch, in bytes.
+     */
+    private final long peakHeapBytes;
+
+    /**
+     * Returns the throughput of the batch.
+     *
+     * @return the number of documents per second.
+     */
+    public double getDocumentsPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.documents * 1e9 / this.elapsedNanos;
+    }
+
+    /**
+     * Returns a percentile of latencies, with the nearest-rank method.
+     *
+     * @param latencies  The latencies, in nanoseconds. Sorted in place.
+     * @param percentile The percentile, between 0 and 100.
+     * @return the latency percentile, or 0 if there are no latencies.
+     */
+    static long percentile(@NonNull final long[] latencies,
+                           final double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        Arrays.sort(latencies);
+        final int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+        return latencies[Math.max(0, rank - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d documents (%d valid, %d invalid, %d unknown, %d failed) in %.1f s: %.1f documents/s, "
+                + "p50 %.1f ms, p99 %.1f ms, peak heap %d MiB", this.documents, this.valid, this.invalid, this.unknown,
+            this.failed, this.elapsedNanos / 1e9, this.getDocumentsPerSecond(), this.p50Nanos / 1e6,
+            this.p99Nanos / 1e6, this.peakHeapBytes >> 20);
+    }
+}
@@ -0,0 +1,390 @@
+package ch.qligier.emed.ocs.batch;
+
+import ch.qligier.emed.ocs.fastpath.FastPathProgram;
+import ch.qligier.emed.ocs.fastpath.HybridValidator;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.ValidationReport;
+import ch.qligier.emed.ocs.valueset.ValueSetFunction;
+import ch.qligier.emed.ocs.valueset.ValueSetIndex;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A validator of corpora of CDA-CH-EMED documents. The XML files of a directory tree, and the XML entries of the ZIP
+ * archives it contains, are validated in parallel; the archives are read without being extracted. The type of each
+ * document is detected from its head, and the document is validated by the validator of that type, that is compiled
+ * once and shared by all workers. Each document is read once: the stream is rewound after the detection, so the
+ * archive entries are only decompressed once.
+ * <p>
+ * A compact tab-separated result line is written per document, in the order of completion, with its latency and size
+ * to chart the latency against the document size. The batch summary reports the throughput, the latency percentiles
+ * and the peak heap memory.
+ *
+ * @author Quentin Ligier
+ */
+public class BatchValidator {
+
+    private static final Logger LOG = Logger.getLogger(BatchValidator.class.getName());
+
+    /**
+     * The header of the result lines.
+     */
+    public static final String RESULT_HEADER = "document\ttype\tstatus\tfailed_asserts\terrors\tmicros\tbytes\tmessage";
+
+    /**
+     * The maximum number of bytes that the type detection may read before the document is rewound for its validation.
+     * The buffer only grows to the head that is actually read.
+     */
+    private static final int DETECTION_MARK_LIMIT = 1 << 20;
+
+    /**
+     * The validators, by document type.
+     */
+    private final Map<String, DocumentValidator> validators;
+
+    /**
+     * The detector of the document types.
+     */
+    private final DocumentTypeDetector detector;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * Constructor.
+     *
+     * @param validators The validators, by document type. They shall be thread-safe.
+     * @param detector   The detector of the document types.
+     * @param threads    The number of worker threads.
+     */
+    public BatchValidator(@NonNull final Map<String, DocumentValidator> validators,
+                          @NonNull final DocumentTypeDetector detector,
+                          final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads shall be positive");
+        }
+        this.validators = Map.copyOf(validators);
+        this.detector = detector;
+        this.threads = threads;
+    }
+
+    /**
+     * Validates a corpus with the XSLT files of a profile, on all cores.
+     *
+     * @param args The XSLT directory, the profile (e.g. 'error'), the corpus directory and the result file.
+     * @throws Exception if the XSLT files cannot be compiled or the corpus cannot be read.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 4) {
+            throw new IllegalArgumentException(
+                "Usage: BatchValidator <xslt directory> <profile> <corpus directory> <result file>");
+        }
+        final Path xsltDir = Path.of(args[0]);
+        final Processor processor = new Processor(false);
+        if (Files.isRegularFile(xsltDir.resolve(ValueSetIndex.FILE_NAME))) {
+            ValueSetFunction.register(processor, ValueSetIndex.open(xsltDir.resolve(ValueSetIndex.FILE_NAME)));
+        }
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        final Map<String, DocumentValidator> validators = new TreeMap<>();
+        for (final String type : detector.getTypes()) {
+            final String baseName = "cdachemed-" + type + "-" + args[1];
+            final Path xsltFile = xsltDir.resolve(baseName + ".xslt");
+            if (!Files.isRegularFile(xsltFile)) {
+                continue;
+            }
+            if (Files.isRegularFile(xsltDir.resolve(baseName + FastPathProgram.FILE_EXTENSION))) {
+                validators.put(type, HybridValidator.fromFile(processor, xsltFile.toFile())::validate);
+            } else {
+                validators.put(type, CdaChEmedValidator.fromFile(processor, xsltFile.toFile())::validate);
+            }
+        }
+        LOG.info("Validating the types " + validators.keySet() + " with the profile '" + args[1] + "'");
+
+        final BatchValidator batchValidator = new BatchValidator(validators, detector,
+            Runtime.getRuntime().availableProcessors());
+        try (final Writer results = Files.newBufferedWriter(Path.of(args[3]), StandardCharsets.UTF_8)) {
+            LOG.info(batchValidator.validate(Path.of(args[2]), results).toString());
+        }
+    }
+
+    /**
+     * Validates the documents of a corpus.
+     *
+     * @param corpus  The corpus directory.
+     * @param results The writer of the result lines. It's not closed.
+     * @return the batch summary.
+     * @throws IOException          if the corpus cannot be read or the results cannot be written.
+     * @throws InterruptedException if the batch is interrupted.
+     */
+    @NonNull
+    public BatchSummary validate(@NonNull final Path corpus,
+                                 @NonNull final Writer results) throws IOException, InterruptedException {
+        final List<ZipFile> archives = new ArrayList<>();
+        try {
+            final List<CorpusDocument> documents = listDocuments(corpus, archives);
+            final long[] latencies = new long[documents.size()];
+            final AtomicInteger[] statusCounts = new AtomicInteger[Status.values().length];
+            Arrays.setAll(statusCounts, i -> new AtomicInteger());
+            final IOException[] writeFailure = new IOException[1];
+
+            final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            results.write(RESULT_HEADER);
+            results.write('\n');
+
+            final long start = System.nanoTime();
+            final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+            try {
+                for (int i = 0; i < documents.size(); ++i) {
+                    final int index = i;
+                    executor.execute(() -> {
+                        final long documentStart = System.nanoTime();
+                        final Result result = this.validate(documents.get(index));
+                        latencies[index] = System.nanoTime() - documentStart;
+                        statusCounts[result.getStatus().ordinal()].incrementAndGet();
+                        final String line = String.join("\t", clean(documents.get(index).getName()),
+                            result.getType() == null ? "-" : result.getType(),
+                            result.getStatus().name().toLowerCase(Locale.ROOT),
+                            String.valueOf(result.getFailedAsserts()), String.valueOf(result.getErrors()),
+                            String.valueOf(latencies[index] / 1000), String.valueOf(documents.get(index).getSize()),
+                            clean(result.getMessage())) + "\n";
+                        synchronized (results) {
+                            try {
+                                results.write(line);
+                            } catch (final IOException exception) {
+                                writeFailure[0] = exception;
+                            }
+                        }
+                    });
+                }
+            } finally {
+                executor.shutdown();
+                if (!executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+            final long elapsedNanos = System.nanoTime() - start;
+            synchronized (results) {
+                if (writeFailure[0] != null) {
+                    throw writeFailure[0];
+                }
+                results.flush();
+            }
+
+            final long peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            return new BatchSummary(documents.size(), statusCounts[Status.VALID.ordinal()].get(),
+                statusCounts[Status.INVALID.ordinal()].get(), statusCounts[Status.UNKNOWN.ordinal()].get(),
+                statusCounts[Status.FAILED.ordinal()].get(), elapsedNanos, BatchSummary.percentile(latencies, 50),
+                BatchSummary.percentile(latencies, 99), peakHeapBytes);
+        } finally {
+            for (final ZipFile archive : archives) {
+                archive.close();
+            }
+        }
+    }
+
+    /**
+     * Detects the type of a document and validates it.
+     *
+     * @param document The corpus document.
+     * @return the validation result.
+     */
+    @NonNull
+    private Result validate(@NonNull final CorpusDocument document) {
+        String type = null;
+        try {
+            final ValidationReport report;
+            try (final InputStream inputStream = new BufferedInputStream(document.getOpener().open())) {
+                inputStream.mark(DETECTION_MARK_LIMIT);
+                type = this.detector.detect(inputStream);
+                final DocumentValidator validator = type == null ? null : this.validators.get(type);
+                if (validator == null) {
+                    return new Result(type, Status.UNKNOWN, 0, 0, null);
+                }
+                inputStream.reset();
+                report = validator.validate(new StreamSource(inputStream));
+            }
+            final int errors = (int) report.getFailedAsserts().stream()
+                .filter(finding -> "error".equals(finding.getRole()))
+                .count();
+            final Status status = errors > 0 || report.isTerminated() ? Status.INVALID : Status.VALID;
+            return new Result(type, status, report.getFailedAsserts().size(), errors, null);
+        } catch (final IOException | XMLStreamException | SaxonApiException | RuntimeException exception) {
+            return new Result(type, Status.FAILED, 0, 0, exception.getMessage());
+        }
+    }
+
+    /**
+     * Lists the documents of a corpus: the XML files, and the XML entries of the ZIP archives.
+     *
+     * @param corpus   The corpus directory.
+     * @param archives The list to which the opened archives are added, to be closed by the caller.
+     * @return the corpus documents, sorted by name.
+     * @throws IOException if the corpus cannot be read.
+     */
+    @NonNull
+    private static List<CorpusDocument> listDocuments(@NonNull final Path corpus,
+                                                      @NonNull final List<ZipFile> archives) throws IOException {
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.walk(corpus)) {
+            files = stream.filter(Files::isRegularFile).sorted().toList();
+        }
+        final List<CorpusDocument> documents = new ArrayList<>(files.size());
+        for (final Path file : files) {
+            final String fileName = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            final String name = corpus.relativize(file).toString();
+            if (fileName.endsWith(".xml")) {
+                documents.add(new CorpusDocument(name, Files.size(file), () -> Files.newInputStream(file)));
+            } else if (fileName.endsWith(".zip")) {
+                final ZipFile archive = new ZipFile(file.toFile());
+                archives.add(archive);
+                archive.stream()
+                    .filter(entry -> !entry.isDirectory() && entry.getName().toLowerCase(Locale.ROOT).endsWith(".xml"))
+                    .sorted(Comparator.comparing(ZipEntry::getName))
+                    .forEach(entry -> documents.add(new CorpusDocument(name + "!/" + entry.getName(), entry.getSize(),
+                        () -> archive.getInputStream(entry))));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Removes the tabs and line breaks of a value of a result line.
+     *
+     * @param value The value, or {@code null}.
+     * @return the cleaned value, or an empty string.
+     */
+    @NonNull
+    private static String clean(final String value) {
+        return value == null ? "" : value.replaceAll("[\t\r\n]+", " ");
+    }
+
+    /**
+     * A validator of a document type. {@link CdaChEmedValidator#validate(Source)} and
+     * {@link HybridValidator#validate(Source)} are document validators.
+     */
+    @FunctionalInterface
+    public interface DocumentValidator {
+
+        /**
+         * Validates a document.
+         *
+         * @param source The document to validate.
+         * @return the validation report.
+         * @throws SaxonApiException if the document cannot be validated.
+         */
+        @NonNull
+        ValidationReport validate(@NonNull Source source) throws SaxonApiException;
+    }
+
+    /**
+     * The status of a validated document.
+     */
+    private enum Status {
+        VALID,
+        INVALID,
+        UNKNOWN,
+        FAILED
+    }
+
+    /**
+     * A document of a corpus, a file or an archive entry.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static class CorpusDocument {
+
+        /**
+         * The document name, relative to the corpus directory.
+         */
+        private final String name;
+
+        /**
+         * The document size, in bytes, or -1 if it's unknown.
+         */
+        private final long size;
+
+        /**
+         * The opener of the document content.
+         */
+        private final Opener opener;
+    }
+
+    /**
+     * An opener of a document content.
+     */
+    @FunctionalInterface
+    private interface Opener {
+
+        /**
+         * Opens the document content.
+         *
+         * @return a new input stream.
+         * @throws IOException if the document cannot be opened.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * The result of the validation of a document.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static class Result {
+
+        /**
+         * The document type, or {@code null} if it's not detected.
+         */
+        private final String type;
+
+        /**
+         * The status.
+         */
+        private final Status status;
+
+        /**
+         * The number of failed asserts.
+         */
+        private final int failedAsserts;
+
+        /**
+         * The number of failed asserts with the role 'error'.
+         */
+        private final int errors;
+
+        /**
+         * The error message if the document cannot be validated, or {@code null}.
+         */
+        private final String message;
+    }
+}
@@ -0,0 +1,151 @@
+package ch.qligier.emed.ocs.batch;
+
+import ch.qligier.emed.ocs.Utils;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * A detector of the type of CDA-CH-EMED documents (MTP, PRE, DIS, ...) by the templateId root of their
+ * ClinicalDocument element. Only the head of the document is read: the detection stops at the first child of the
+ * ClinicalDocument element that is not a realmCode, a typeId or a templateId.
+ * <p>
+ * The detector is thread-safe.
+ *
+ * @author Quentin Ligier
+ */
+public class DocumentTypeDetector {
+
+    /**
+     * The resource of the default document types.
+     */
+    public static final String DEFAULT_TYPES_RESOURCE = "/document-types.properties";
+
+    /**
+     * The namespace of the CDA elements.
+     */
+    private static final String HL7_NAMESPACE = "urn:hl7-org:v3";
+
+    /**
+     * The StAX factory, that is thread-safe once configured.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = Utils.newSafeXmlInputFactory();
+
+    /**
+     * The document types, by templateId root.
+     */
+    private final Map<String, String> types;
+
+    /**
+     * Constructor.
+     *
+     * @param types The document types, by templateId root.
+     */
+    public DocumentTypeDetector(@NonNull final Map<String, String> types) {
+        this.types = Map.copyOf(types);
+    }
+
+    /**
+     * Loads the detector of the default document types.
+     *
+     * @return the detector.
+     * @throws IOException if the default document types cannot be read.
+     */
+    @NonNull
+    public static DocumentTypeDetector loadDefault() throws IOException {
+        try (final InputStream inputStream = DocumentTypeDetector.class.getResourceAsStream(DEFAULT_TYPES_RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("The default document types cannot be found: " + DEFAULT_TYPES_RESOURCE);
+            }
+            final Properties properties = new Properties();
+            properties.load(inputStream);
+            final Map<String, String> types = new HashMap<>();
+            properties.stringPropertyNames().forEach(root -> types.put(root, properties.getProperty(root).strip()));
+            return new DocumentTypeDetector(types);
+        }
+    }
+
+    /**
+     * Returns the detectable document types.
+     *
+     * @return the sorted document types.
+     */
+    @NonNull
+    public Collection<String> getTypes() {
+        return new TreeSet<>(this.types.values());
+    }
+
+    /**
+     * Returns the templateId root of a document type.
+     *
+     * @param type The document type.
+     * @return the templateId root, or {@code null} if the type is unknown.
+     */
+    @Nullable
+    public String getTemplateId(@NonNull final String type) {
+        return this.types.entrySet().stream()
+            .filter(entry -> entry.getValue().equals(type))
+            .map(Map.Entry::getKey)
+            .sorted()
+            .findFirst()
+            .orElse(null);
+    }
+
+    /**
+     * Detects the type of a document.
+     *
+     * @param inputStream The document content. It's not closed.
+     * @return the document type, or {@code null} if it's not a known CDA-CH-EMED document.
+     * @throws XMLStreamException if the document is not well-formed.
+     */
+    @Nullable
+    public String detect(@NonNull final InputStream inputStream) throws XMLStreamException {
+        final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+        try {
+            reader.nextTag();
+            if (!HL7_NAMESPACE.equals(reader.getNamespaceURI()) || !"ClinicalDocument".equals(reader.getLocalName())) {
+                return null;
+            }
+            int depth = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT && --depth < 0) {
+                    return null;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT || depth++ > 0) {
+                    continue;
+                }
+                if (!HL7_NAMESPACE.equals(reader.getNamespaceURI())) {
+                    return null;
+                }
+                switch (reader.getLocalName()) {
+                    case "realmCode", "typeId" -> {
+                    }
+                    case "templateId" -> {
+                        final String type = this.types.get(reader.getAttributeValue(null, "root"));
+                        if (type != null) {
+                            return type;
+                        }
+                    }
+                    default -> {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * The batch validation of corpora of CDA-CH-EMED documents with the optimized XSLT files.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.batch;
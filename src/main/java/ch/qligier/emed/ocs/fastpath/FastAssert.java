@@ -0,0 +1,54 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import ch.qligier.emed.ocs.schematron.definition.SchematronMessage;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * A compiled assert or report of the fast path.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastAssert {
+
+    /**
+     * Whether it's a report (a finding is raised when the test is true) rather than an assert (a finding is raised
+     * when the test is false).
+     */
+    private final boolean report;
+
+    /**
+     * The original test as an XPath expression.
+     */
+    @NonNull
+    private final String test;
+
+    /**
+     * The role, or {@code null} if it's not specified.
+     */
+    @Nullable
+    private final String role;
+
+    /**
+     * The compiled test.
+     */
+    @NonNull
+    private final FastExpression expression;
+
+    /**
+     * The original message, kept to write the fast path program.
+     */
+    @NonNull
+    private final SchematronMessage sourceMessage;
+
+    /**
+     * The compiled message.
+     */
+    @NonNull
+    private final FastMessage message;
+}
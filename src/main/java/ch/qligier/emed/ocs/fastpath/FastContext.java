@@ -0,0 +1,81 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+
+import java.util.List;
+
+/**
+ * A compiled rule context of the supported XSLT pattern subset: the document node ({@code /}) or a list of element
+ * steps separated by child ({@code /}) or descendant ({@code //}) separators, e.g.
+ * {@code //*[hl7:templateId[@root='2.16.756.5.30.1.1.10.1.3']]/hl7:id}.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastContext {
+
+    /**
+     * The element steps. It's empty if the context is the document node.
+     */
+    @NonNull
+    private final List<FastStep> steps;
+
+    /**
+     * Whether each step is separated from the previous one by a descendant separator ({@code //}) rather than a child
+     * separator ({@code /}). The first value applies to the separator before the first step.
+     */
+    @NonNull
+    private final List<Boolean> descendantSeparators;
+
+    /**
+     * Whether the first step is anchored to the document node by a leading separator.
+     */
+    private final boolean anchored;
+
+    /**
+     * Returns whether a node matches the context, like an XSLT template pattern.
+     *
+     * @param node The node to test.
+     * @return {@code true} if the node matches the context, {@code false} otherwise.
+     */
+    public boolean matches(@NonNull final XdmNode node) {
+        if (this.steps.isEmpty()) {
+            return node.getNodeKind() == XdmNodeKind.DOCUMENT;
+        }
+        return this.matches(node, this.steps.size() - 1);
+    }
+
+    /**
+     * Recursively matches a node against a step and its ancestors against the previous steps.
+     *
+     * @param node      The node to test.
+     * @param stepIndex The index of the step to match.
+     * @return {@code true} if the node matches the step, {@code false} otherwise.
+     */
+    private boolean matches(@NonNull final XdmNode node,
+                            final int stepIndex) {
+        if (!this.steps.get(stepIndex).matches(node)) {
+            return false;
+        }
+        final XdmNode parent = node.getParent();
+        if (stepIndex == 0) {
+            // A leading '/' requires the document element, a leading '//' or no separator matches any element
+            return !this.anchored || this.descendantSeparators.get(0)
+                || (parent != null && parent.getNodeKind() == XdmNodeKind.DOCUMENT);
+        }
+        if (!this.descendantSeparators.get(stepIndex)) {
+            return parent != null && this.matches(parent, stepIndex - 1);
+        }
+        for (XdmNode ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+            if (this.matches(ancestor, stepIndex - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
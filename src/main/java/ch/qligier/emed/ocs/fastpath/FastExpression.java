@@ -0,0 +1,22 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.NonNull;
+import net.sf.saxon.s9api.XdmNode;
+
+/**
+ * A compiled XPath expression of the supported subset, evaluated as a boolean on a context node.
+ *
+ * @author Quentin Ligier
+ * @see FastExpressionParser
+ */
+@FunctionalInterface
+public interface FastExpression {
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param context The context node.
+     * @return the effective boolean value of the expression.
+     */
+    boolean evaluate(@NonNull final XdmNode context);
+}
@@ -0,0 +1,490 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.NonNull;
+import net.sf.saxon.s9api.QName;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntPredicate;
+
+/**
+ * A parser of the XPath subset that is supported by the fast path. Expressions outside of the subset are rejected,
+ * they are left to the XSLT engine.
+ * <p>
+ * The supported tests are made of {@code or}, {@code and}, {@code not()}, {@code true()}, {@code false()} and
+ * parentheses around:
+ * <ul>
+ *     <li>relative paths of child element steps, optionally ending with an attribute step, e.g. {@code hl7:title} or
+ *     {@code hl7:code/@code}, tested for existence;</li>
+ *     <li>comparisons of such a path to a string literal with {@code =} or {@code !=};</li>
+ *     <li>comparisons of {@code count(path)} or {@code string-length(@attribute)} to an integer.</li>
+ * </ul>
+ * Steps are a QName or {@code *}, with any number of predicates of the same subset. Positional predicates, variables,
+ * axes other than child and attribute, and all other functions are unsupported.
+ *
+ * @author Quentin Ligier
+ */
+public class FastExpressionParser {
+
+    /**
+     * The expression to parse.
+     */
+    @NonNull
+    private final String expression;
+
+    /**
+     * The namespaces, by their prefix.
+     */
+    @NonNull
+    private final Map<String, String> namespaces;
+
+    /**
+     * The current position in the expression.
+     */
+    private int position = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param expression The expression to parse.
+     * @param namespaces The namespaces, by their prefix.
+     */
+    private FastExpressionParser(@NonNull final String expression,
+                                 @NonNull final Map<String, String> namespaces) {
+        this.expression = expression;
+        this.namespaces = namespaces;
+    }
+
+    /**
+     * Compiles an assert or report test.
+     *
+     * @param expression The XPath expression.
+     * @param namespaces The namespaces, by their prefix.
+     * @return the compiled expression, or an empty optional if the expression is not supported.
+     */
+    @NonNull
+    public static Optional<FastExpression> parseTest(@NonNull final String expression,
+                                                     @NonNull final Map<String, String> namespaces) {
+        final FastExpressionParser parser = new FastExpressionParser(expression, namespaces);
+        try {
+            final FastExpression compiled = parser.parseOr();
+            parser.expectEnd();
+            return Optional.of(compiled);
+        } catch (final UnsupportedExpressionException exception) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Compiles a rule context.
+     *
+     * @param context    The XSLT pattern.
+     * @param namespaces The namespaces, by their prefix.
+     * @return the compiled context, or an empty optional if the context is not supported.
+     */
+    @NonNull
+    public static Optional<FastContext> parseContext(@NonNull final String context,
+                                                     @NonNull final Map<String, String> namespaces) {
+        if ("/".equals(context.strip())) {
+            return Optional.of(new FastContext(List.of(), List.of(), true));
+        }
+        final FastExpressionParser parser = new FastExpressionParser(context, namespaces);
+        try {
+            return Optional.of(parser.parseContext());
+        } catch (final UnsupportedExpressionException exception) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Parses a rule context made of element steps.
+     *
+     * @return the compiled context.
+     * @throws UnsupportedExpressionException if the context is not supported.
+     */
+    private FastContext parseContext() throws UnsupportedExpressionException {
+        final List<FastStep> steps = new ArrayList<>();
+        final List<Boolean> descendantSeparators = new ArrayList<>();
+        this.skipWhitespaces();
+        final boolean anchored = this.peek() == '/';
+        while (true) {
+            if (this.consume("//")) {
+                descendantSeparators.add(true);
+            } else if (this.consume("/")) {
+                descendantSeparators.add(false);
+            } else if (steps.isEmpty()) {
+                descendantSeparators.add(false);
+            } else {
+                throw new UnsupportedExpressionException();
+            }
+            steps.add(this.parseStep());
+            this.skipWhitespaces();
+            if (this.position == this.expression.length()) {
+                return new FastContext(List.copyOf(steps), List.copyOf(descendantSeparators), anchored);
+            }
+        }
+    }
+
+    /**
+     * Parses a sequence of expressions separated by {@code or}.
+     *
+     * @return the compiled expression.
+     * @throws UnsupportedExpressionException if the expression is not supported.
+     */
+    private FastExpression parseOr() throws UnsupportedExpressionException {
+        FastExpression expression = this.parseAnd();
+        while (this.consumeKeyword("or")) {
+            final FastExpression left = expression;
+            final FastExpression right = this.parseAnd();
+            expression = context -> left.evaluate(context) || right.evaluate(context);
+        }
+        return expression;
+    }
+
+    /**
+     * Parses a sequence of expressions separated by {@code and}.
+     *
+     * @return the compiled expression.
+     * @throws UnsupportedExpressionException if the expression is not supported.
+     */
+    private FastExpression parseAnd() throws UnsupportedExpressionException {
+        FastExpression expression = this.parsePrimary();
+        while (this.consumeKeyword("and")) {
+            final FastExpression left = expression;
+            final FastExpression right = this.parsePrimary();
+            expression = context -> left.evaluate(context) && right.evaluate(context);
+        }
+        return expression;
+    }
+
+    /**
+     * Parses a function call, a parenthesized expression, a path or a comparison.
+     *
+     * @return the compiled expression.
+     * @throws UnsupportedExpressionException if the expression is not supported.
+     */
+    private FastExpression parsePrimary() throws UnsupportedExpressionException {
+        if (this.consumeFunction("not")) {
+            final FastExpression negated = this.parseOr();
+            this.expect(')');
+            return context -> !negated.evaluate(context);
+        }
+        if (this.consumeFunction("true")) {
+            this.expect(')');
+            return context -> true;
+        }
+        if (this.consumeFunction("false")) {
+            this.expect(')');
+            return context -> false;
+        }
+        if (this.consumeFunction("count")) {
+            final FastPath path = this.parsePath();
+            this.expect(')');
+            final IntPredicate comparison = this.parseIntegerComparison();
+            return context -> comparison.test(path.count(context));
+        }
+        if (this.consumeFunction("string-length")) {
+            this.skipWhitespaces();
+            this.expect('@');
+            final QName attribute = this.parseQName();
+            this.expect(')');
+            final IntPredicate comparison = this.parseIntegerComparison();
+            return context -> {
+                final String value = context.getAttributeValue(attribute);
+                return comparison.test(value == null ? 0 : value.codePointCount(0, value.length()));
+            };
+        }
+        this.skipWhitespaces();
+        if (this.consume("(")) {
+            final FastExpression expression = this.parseOr();
+            this.expect(')');
+            return expression;
+        }
+
+        final FastPath path = this.parsePath();
+        this.skipWhitespaces();
+        if (this.consume("!=")) {
+            final String literal = this.parseStringLiteral();
+            return context -> path.anyValue(context, value -> !value.equals(literal));
+        }
+        if (this.consume("=")) {
+            final String literal = this.parseStringLiteral();
+            return context -> path.anyValue(context, literal::equals);
+        }
+        return path::exists;
+    }
+
+    /**
+     * Parses a relative path of child element steps, optionally ending with an attribute step.
+     *
+     * @return the compiled path.
+     * @throws UnsupportedExpressionException if the path is not supported.
+     */
+    private FastPath parsePath() throws UnsupportedExpressionException {
+        final List<FastStep> steps = new ArrayList<>();
+        this.skipWhitespaces();
+        while (true) {
+            if (this.consume("@")) {
+                return new FastPath(List.copyOf(steps), this.parseQName());
+            }
+            steps.add(this.parseStep());
+            this.skipWhitespaces();
+            if (this.expression.startsWith("//", this.position) || !this.consume("/")) {
+                return new FastPath(List.copyOf(steps), null);
+            }
+            this.skipWhitespaces();
+        }
+    }
+
+    /**
+     * Parses an element step: a name test and its predicates.
+     *
+     * @return the compiled step.
+     * @throws UnsupportedExpressionException if the step is not supported.
+     */
+    private FastStep parseStep() throws UnsupportedExpressionException {
+        this.skipWhitespaces();
+        final QName name = this.consume("*") ? null : this.parseQName();
+        final List<FastExpression> predicates = new ArrayList<>();
+        this.skipWhitespaces();
+        while (this.consume("[")) {
+            predicates.add(this.parseOr());
+            this.expect(']');
+            this.skipWhitespaces();
+        }
+        return new FastStep(name, List.copyOf(predicates));
+    }
+
+    /**
+     * Parses a QName and resolves its prefix.
+     *
+     * @return the resolved QName.
+     * @throws UnsupportedExpressionException if the QName is invalid or its prefix is unknown.
+     */
+    private QName parseQName() throws UnsupportedExpressionException {
+        final String first = this.parseNCName();
+        if (this.position < this.expression.length() - 1 && this.peek() == ':'
+            && isNameChar(this.expression.charAt(this.position + 1))) {
+            ++this.position;
+            final String localName = this.parseNCName();
+            final String uri = this.namespaces.get(first);
+            if (uri == null) {
+                throw new UnsupportedExpressionException();
+            }
+            return new QName(first, uri, localName);
+        }
+        // Unprefixed names are in no namespace, for elements as well as attributes
+        return new QName("", first);
+    }
+
+    /**
+     * Parses an NCName.
+     *
+     * @return the NCName.
+     * @throws UnsupportedExpressionException if there is no NCName at the current position.
+     */
+    private String parseNCName() throws UnsupportedExpressionException {
+        final int start = this.position;
+        if (start >= this.expression.length() || !isNameStartChar(this.expression.charAt(start))) {
+            throw new UnsupportedExpressionException();
+        }
+        while (this.position < this.expression.length() && isNameChar(this.expression.charAt(this.position))) {
+            ++this.position;
+        }
+        return this.expression.substring(start, this.position);
+    }
+
+    /**
+     * Parses a string literal, with doubled quotes as escaped quotes.
+     *
+     * @return the literal value.
+     * @throws UnsupportedExpressionException if there is no string literal at the current position.
+     */
+    private String parseStringLiteral() throws UnsupportedExpressionException {
+        this.skipWhitespaces();
+        final char quote = this.peek();
+        if (quote != '\'' && quote != '"') {
+            throw new UnsupportedExpressionException();
+        }
+        ++this.position;
+        final StringBuilder builder = new StringBuilder();
+        while (this.position < this.expression.length()) {
+            final char character = this.expression.charAt(this.position++);
+            if (character != quote) {
+                builder.append(character);
+            } else if (this.position < this.expression.length() && this.peek() == quote) {
+                builder.append(quote);
+                ++this.position;
+            } else {
+                return builder.toString();
+            }
+        }
+        throw new UnsupportedExpressionException();
+    }
+
+    /**
+     * Parses a comparison operator followed by an integer literal.
+     *
+     * @return the comparison as a predicate on the left operand.
+     * @throws UnsupportedExpressionException if there is no such comparison at the current position.
+     */
+    private IntPredicate parseIntegerComparison() throws UnsupportedExpressionException {
+        this.skipWhitespaces();
+        final String operator;
+        if (this.consume("!=")) {
+            operator = "!=";
+        } else if (this.consume("<=")) {
+            operator = "<=";
+        } else if (this.consume(">=")) {
+            operator = ">=";
+        } else if (this.consume("=")) {
+            operator = "=";
+        } else if (this.consume("<")) {
+            operator = "<";
+        } else if (this.consume(">")) {
+            operator = ">";
+        } else {
+            throw new UnsupportedExpressionException();
+        }
+        this.skipWhitespaces();
+        final int start = this.position;
+        while (this.position < this.expression.length() && Character.isDigit(this.peek())) {
+            ++this.position;
+        }
+        if (start == this.position || this.position - start > 9
+            || (this.position < this.expression.length() && (isNameChar(this.peek()) || this.peek() == '.'))) {
+            throw new UnsupportedExpressionException();
+        }
+        final int value = Integer.parseInt(this.expression.substring(start, this.position));
+        return switch (operator) {
+            case "!=" -> operand -> operand != value;
+            case "<=" -> operand -> operand <= value;
+            case ">=" -> operand -> operand >= value;
+            case "<" -> operand -> operand < value;
+            case ">" -> operand -> operand > value;
+            default -> operand -> operand == value;
+        };
+    }
+
+    /**
+     * Consumes a function name and its opening parenthesis if they are at the current position.
+     *
+     * @param name The function name.
+     * @return {@code true} if the function call was consumed, {@code false} otherwise.
+     */
+    private boolean consumeFunction(@NonNull final String name) {
+        final int start = this.position;
+        this.skipWhitespaces();
+        if (this.expression.startsWith(name, this.position)) {
+            this.position += name.length();
+            this.skipWhitespaces();
+            if (this.consume("(")) {
+                return true;
+            }
+        }
+        this.position = start;
+        return false;
+    }
+
+    /**
+     * Consumes an operator keyword ({@code or}, {@code and}) if it's at the current position.
+     *
+     * @param keyword The keyword.
+     * @return {@code true} if the keyword was consumed, {@code false} otherwise.
+     */
+    private boolean consumeKeyword(@NonNull final String keyword) {
+        this.skipWhitespaces();
+        final int end = this.position + keyword.length();
+        if (this.expression.startsWith(keyword, this.position)
+            && (end == this.expression.length() || !isNameChar(this.expression.charAt(end)))) {
+            this.position = end;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes a string if it's at the current position.
+     *
+     * @param string The string to consume.
+     * @return {@code true} if the string was consumed, {@code false} otherwise.
+     */
+    private boolean consume(@NonNull final String string) {
+        if (this.expression.startsWith(string, this.position)) {
+            this.position += string.length();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes an expected character, after optional whitespaces.
+     *
+     * @param character The expected character.
+     * @throws UnsupportedExpressionException if the character is not at the current position.
+     */
+    private void expect(final char character) throws UnsupportedExpressionException {
+        this.skipWhitespaces();
+        if (this.position >= this.expression.length() || this.peek() != character) {
+            throw new UnsupportedExpressionException();
+        }
+        ++this.position;
+    }
+
+    /**
+     * Checks that the whole expression has been consumed, except trailing whitespaces.
+     *
+     * @throws UnsupportedExpressionException if the expression has not been consumed.
+     */
+    private void expectEnd() throws UnsupportedExpressionException {
+        this.skipWhitespaces();
+        if (this.position != this.expression.length()) {
+            throw new UnsupportedExpressionException();
+        }
+    }
+
+    /**
+     * Returns the character at the current position, or {@code 0} at the end of the expression.
+     *
+     * @return the current character.
+     */
+    private char peek() {
+        return this.position < this.expression.length() ? this.expression.charAt(this.position) : 0;
+    }
+
+    /**
+     * Skips the whitespaces at the current position.
+     */
+    private void skipWhitespaces() {
+        while (this.position < this.expression.length() && Character.isWhitespace(this.peek())) {
+            ++this.position;
+        }
+    }
+
+    private static boolean isNameStartChar(final char character) {
+        return Character.isLetter(character) || character == '_';
+    }
+
+    private static boolean isNameChar(final char character) {
+        return isNameStartChar(character) || Character.isDigit(character) || character == '-' || character == '.';
+    }
+
+    /**
+     * An exception thrown when the expression is outside of the supported subset.
+     */
+    private static class UnsupportedExpressionException extends Exception {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor. The stack trace is not filled, the exception is only used for control flow.
+         */
+        UnsupportedExpressionException() {
+            super(null, null, false, false);
+        }
+    }
+}
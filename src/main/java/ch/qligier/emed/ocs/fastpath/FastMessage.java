@@ -0,0 +1,161 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import ch.qligier.emed.ocs.schematron.definition.SchematronMessage;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A compiled assert or report message. Only messages made of text, {@code <name/>} and {@code <value-of/>} elements
+ * that select an attribute or the context node are supported.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastMessage {
+
+    /**
+     * The message parts.
+     */
+    @NonNull
+    private final List<Part> parts;
+
+    /**
+     * Compiles a Schematron message.
+     *
+     * @param message    The Schematron message.
+     * @param namespaces The namespaces, by their prefix.
+     * @return the compiled message, or an empty optional if the message is not supported.
+     */
+    @NonNull
+    public static Optional<FastMessage> fromMessage(@NonNull final SchematronMessage message,
+                                                    @NonNull final Map<String, String> namespaces) {
+        final List<Part> parts = new ArrayList<>(message.getParts().size());
+        for (final SchematronMessage.Part messagePart : message.getParts()) {
+            final Part part = toPart(messagePart, namespaces);
+            if (part == null) {
+                return Optional.empty();
+            }
+            parts.add(part);
+        }
+        return Optional.of(new FastMessage(List.copyOf(parts)));
+    }
+
+    /**
+     * Renders the message for a context node, like the XSLT would.
+     *
+     * @param context The context node.
+     * @return the rendered message.
+     */
+    @NonNull
+    public String render(@NonNull final XdmNode context) {
+        final StringBuilder builder = new StringBuilder();
+        for (final Part part : this.parts) {
+            switch (part.getKind()) {
+                case TEXT -> builder.append(part.getText());
+                case NAME -> {
+                    if (context.getNodeKind() == XdmNodeKind.ELEMENT) {
+                        final QName name = context.getNodeName();
+                        if (!name.getPrefix().isEmpty()) {
+                            builder.append(name.getPrefix()).append(':');
+                        }
+                        builder.append(name.getLocalName());
+                    }
+                }
+                case CONTEXT_VALUE -> builder.append(context.getStringValue());
+                case ATTRIBUTE_VALUE -> {
+                    final String value = context.getAttributeValue(part.getAttribute());
+                    if (value != null) {
+                        builder.append(value);
+                    }
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Converts a Schematron message part to a compiled message part.
+     *
+     * @param messagePart The Schematron message part.
+     * @param namespaces  The namespaces, by their prefix.
+     * @return the compiled message part, or {@code null} if the part is not supported.
+     */
+    @Nullable
+    private static Part toPart(@NonNull final SchematronMessage.Part messagePart,
+                               @NonNull final Map<String, String> namespaces) {
+        if (messagePart.getKind() == SchematronMessage.Part.Kind.TEXT) {
+            return new Part(Part.Kind.TEXT, messagePart.getValue(), null);
+        }
+        if (messagePart.getKind() == SchematronMessage.Part.Kind.NAME) {
+            return messagePart.getValue() == null ? new Part(Part.Kind.NAME, null, null) : null;
+        }
+        if (messagePart.getKind() != SchematronMessage.Part.Kind.VALUE_OF) {
+            return null;
+        }
+        final String select = messagePart.getValue().strip();
+        if (".".equals(select)) {
+            return new Part(Part.Kind.CONTEXT_VALUE, null, null);
+        }
+        if (!select.matches("@[\\p{L}_][\\p{L}\\d_.-]*(:[\\p{L}_][\\p{L}\\d_.-]*)?")) {
+            return null;
+        }
+        final String attributeName = select.substring(1);
+        final int colonIndex = attributeName.indexOf(':');
+        if (colonIndex < 0) {
+            return new Part(Part.Kind.ATTRIBUTE_VALUE, null, new QName("", attributeName));
+        }
+        final String uri = namespaces.get(attributeName.substring(0, colonIndex));
+        if (uri == null) {
+            return null;
+        }
+        return new Part(Part.Kind.ATTRIBUTE_VALUE, null,
+            new QName(attributeName.substring(0, colonIndex), uri, attributeName.substring(colonIndex + 1)));
+    }
+
+    /**
+     * A part of a compiled message.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Part {
+
+        /**
+         * The kind of part.
+         */
+        @NonNull
+        private final Kind kind;
+
+        /**
+         * The text of a {@link Kind#TEXT} part, {@code null} otherwise.
+         */
+        @Nullable
+        private final String text;
+
+        /**
+         * The attribute name of an {@link Kind#ATTRIBUTE_VALUE} part, {@code null} otherwise.
+         */
+        @Nullable
+        private final QName attribute;
+
+        /**
+         * The kinds of message parts.
+         */
+        public enum Kind {
+            TEXT,
+            NAME,
+            CONTEXT_VALUE,
+            ATTRIBUTE_VALUE
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A compiled relative path of the supported XPath subset: a list of child element steps, optionally followed by an
+ * attribute step ({@code hl7:code/@code}, {@code @nullFlavor}).
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastPath {
+
+    /**
+     * The child element steps.
+     */
+    @NonNull
+    private final List<FastStep> steps;
+
+    /**
+     * The name of the final attribute step, or {@code null} if the path selects elements.
+     */
+    @Nullable
+    private final QName attribute;
+
+    /**
+     * Returns whether the path selects at least one node.
+     *
+     * @param context The context node.
+     * @return {@code true} if the path selects a node, {@code false} otherwise.
+     */
+    public boolean exists(@NonNull final XdmNode context) {
+        return this.anyValue(context, value -> true);
+    }
+
+    /**
+     * Returns whether the string value of any selected node matches a predicate (XPath general comparison).
+     *
+     * @param context   The context node.
+     * @param predicate The predicate on the string values.
+     * @return {@code true} if a selected node matches, {@code false} otherwise.
+     */
+    public boolean anyValue(@NonNull final XdmNode context,
+                            @NonNull final Predicate<String> predicate) {
+        return this.anyValue(context, 0, predicate);
+    }
+
+    /**
+     * Counts the selected nodes.
+     *
+     * @param context The context node.
+     * @return the number of selected nodes.
+     */
+    public int count(@NonNull final XdmNode context) {
+        return this.count(context, 0);
+    }
+
+    /**
+     * Recursively looks for a selected node whose string value matches a predicate.
+     *
+     * @param node      The node selected by the previous step.
+     * @param stepIndex The index of the next step.
+     * @param predicate The predicate on the string values.
+     * @return {@code true} if a selected node matches, {@code false} otherwise.
+     */
+    private boolean anyValue(@NonNull final XdmNode node,
+                             final int stepIndex,
+                             @NonNull final Predicate<String> predicate) {
+        if (stepIndex == this.steps.size()) {
+            if (this.attribute == null) {
+                return predicate.test(node.getStringValue());
+            }
+            final String value = node.getAttributeValue(this.attribute);
+            return value != null && predicate.test(value);
+        }
+        final FastStep step = this.steps.get(stepIndex);
+        for (final XdmNode child : node.children()) {
+            if (step.matches(child) && this.anyValue(child, stepIndex + 1, predicate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recursively counts the selected nodes.
+     *
+     * @param node      The node selected by the previous step.
+     * @param stepIndex The index of the next step.
+     * @return the number of selected nodes.
+     */
+    private int count(@NonNull final XdmNode node,
+                      final int stepIndex) {
+        if (stepIndex == this.steps.size()) {
+            return (this.attribute == null || node.getAttributeValue(this.attribute) != null) ? 1 : 0;
+        }
+        final FastStep step = this.steps.get(stepIndex);
+        int count = 0;
+        for (final XdmNode child : node.children()) {
+            if (step.matches(child)) {
+                count += this.count(child, stepIndex + 1);
+            }
+        }
+        return count;
+    }
+}
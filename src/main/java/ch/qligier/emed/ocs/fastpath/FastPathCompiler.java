@@ -0,0 +1,128 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * The compiler of the fast path: it moves the supported asserts and reports of a Schematron definition to a fast path
+ * program, the remaining ones are left in the definition and converted to XSLT.
+ * <p>
+ * In a pattern, a node only fires the first rule whose context matches. The fast path keeps that semantic: a rule is
+ * only compiled if its context and the contexts of all previous rules of the pattern are supported, and a rule that
+ * would become empty (and thus dropped from the XSLT) keeps one assert if it can shadow the next rules.
+ *
+ * @author Quentin Ligier
+ */
+public class FastPathCompiler {
+
+    private FastPathCompiler() {}
+
+    /**
+     * Extracts the supported asserts and reports of a definition to a fast path program. The extracted asserts and
+     * reports are removed from the definition; the rules that are modified have their extends resolved.
+     *
+     * @param definition The Schematron definition, after all other optimizations. Mutated.
+     * @return the fast path program.
+     */
+    @NonNull
+    public static FastPathProgram extract(@NonNull final SchematronDefinition definition) {
+        final Map<String, String> namespaces = Map.copyOf(definition.getNamespaces());
+        final List<String> patternIds = definition.getPatterns().stream().map(SchematronPattern::getId).toList();
+        final List<FastPattern> patterns = new ArrayList<>();
+        // Only the concrete rules are modified, the resolved abstract rules stay valid
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
+
+        for (final SchematronPattern pattern : definition.getPatterns()) {
+            final List<String> ruleIds = definition.getRulesPerPattern().getOrDefault(pattern.getId(), List.of())
+                .stream()
+                .filter(ruleId -> definition.getDefinedRules().containsKey(ruleId))
+                .filter(ruleId -> !definition.getDefinedRules().get(ruleId).isAbstract())
+                .toList();
+
+            final List<FastRule> rules = new ArrayList<>();
+            int lastCompiledIndex = -1;
+            for (int i = 0; i < ruleIds.size(); ++i) {
+                final SchematronRule rule = definition.getDefinedRules().get(ruleIds.get(i));
+                final Optional<FastContext> matcher = FastExpressionParser.parseContext(rule.getContext(), namespaces);
+                if (matcher.isEmpty()) {
+                    // The fast path can't tell which nodes fire this rule, so it can't evaluate the next ones
+                    break;
+                }
+
+                final List<SchematronRuleChild> remainingChildren = new ArrayList<>();
+                final List<FastAssert> compiledAsserts = new ArrayList<>();
+                final List<String> tests = new ArrayList<>();
+                SchematronRuleChild lastCompiledChild = null;
+                for (final SchematronRuleChild child : resolver.getResolvedRule(rule.getId()).getChildren()) {
+                    if (child instanceof final SchematronAssert schematronAssert) {
+                        tests.add(schematronAssert.getTest());
+                    } else if (child instanceof final SchematronReport schematronReport) {
+                        tests.add(schematronReport.getTest());
+                    }
+                    final FastAssert compiledAssert = compile(child, namespaces);
+                    if (compiledAssert == null) {
+                        remainingChildren.add(child);
+                    } else {
+                        compiledAsserts.add(compiledAssert);
+                        lastCompiledChild = child;
+                    }
+                }
+                if (remainingChildren.isEmpty() && lastCompiledChild != null && i < ruleIds.size() - 1) {
+                    // Keep the rule in the XSLT, it shadows the next rules of the pattern
+                    compiledAsserts.remove(compiledAsserts.size() - 1);
+                    remainingChildren.add(lastCompiledChild);
+                }
+                if (!compiledAsserts.isEmpty()) {
+                    rule.setChildren(remainingChildren);
+                    lastCompiledIndex = i;
+                }
+                rules.add(new FastRule(rule.getId(), rule.getContext(), matcher.get(), List.copyOf(compiledAsserts),
+                    List.copyOf(tests)));
+            }
+
+            if (lastCompiledIndex >= 0) {
+                patterns.add(new FastPattern(pattern.getId(), List.copyOf(rules.subList(0, lastCompiledIndex + 1))));
+            }
+        }
+        return new FastPathProgram(namespaces, patternIds, List.copyOf(patterns));
+    }
+
+    /**
+     * Compiles an assert or a report.
+     *
+     * @param child      The rule child.
+     * @param namespaces The namespaces, by their prefix.
+     * @return the compiled assert, or {@code null} if the child is not an assert or report, or if it's not supported.
+     */
+    @Nullable
+    static FastAssert compile(@NonNull final SchematronRuleChild child,
+                              @NonNull final Map<String, String> namespaces) {
+        final boolean isReport;
+        final String test;
+        final String role;
+        final SchematronMessage sourceMessage;
+        if (child instanceof final SchematronAssert schematronAssert) {
+            isReport = false;
+            test = schematronAssert.getTest();
+            role = schematronAssert.getRole();
+            sourceMessage = Objects.requireNonNullElse(schematronAssert.getMessage(), SchematronMessage.EMPTY);
+        } else if (child instanceof final SchematronReport schematronReport) {
+            isReport = true;
+            test = schematronReport.getTest();
+            role = schematronReport.getRole();
+            sourceMessage = Objects.requireNonNullElse(schematronReport.getMessage(), SchematronMessage.EMPTY);
+        } else {
+            return null;
+        }
+
+        final Optional<FastExpression> expression = FastExpressionParser.parseTest(test, namespaces);
+        final Optional<FastMessage> message = FastMessage.fromMessage(sourceMessage, namespaces);
+        if (expression.isEmpty() || message.isEmpty()) {
+            return null;
+        }
+        return new FastAssert(isReport, test, role, expression.get(), sourceMessage, message.get());
+    }
+}
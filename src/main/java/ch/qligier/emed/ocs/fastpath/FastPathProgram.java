@@ -0,0 +1,412 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.schematron.definition.SchematronMessage;
+import ch.qligier.emed.ocs.validator.SvrlFinding;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A fast path program: the compiled rules that are evaluated in Java instead of XSLT.
+ * <p>
+ * The program is written next to the XSLT file it complements, as an XML file that keeps the original contexts, tests
+ * and messages. They are compiled again when the program is read.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastPathProgram {
+
+    /**
+     * The file extension of the fast path programs.
+     */
+    public static final String FILE_EXTENSION = ".fastpath.xml";
+
+    /**
+     * The namespaces, by their prefix.
+     */
+    @NonNull
+    private final Map<String, String> namespaces;
+
+    /**
+     * The IDs of all patterns of the definition, in the definition order.
+     */
+    @NonNull
+    private final List<String> patternIds;
+
+    /**
+     * The patterns that contain compiled rules, in the definition order.
+     */
+    @NonNull
+    private final List<FastPattern> patterns;
+
+    /**
+     * Returns the number of compiled asserts and reports.
+     *
+     * @return the number of compiled asserts and reports.
+     */
+    public int countAsserts() {
+        return this.patterns.stream()
+            .flatMap(pattern -> pattern.getRules().stream())
+            .mapToInt(rule -> rule.getAsserts().size())
+            .sum();
+    }
+
+    /**
+     * Evaluates the program on a document in a single pass. The document node and each element are matched against
+     * the rules of each pattern, like the XSLT templates; the findings are returned grouped by pattern, then in
+     * document order.
+     *
+     * @param document The document node.
+     * @return the list of findings.
+     */
+    @NonNull
+    public List<SvrlFinding> evaluate(@NonNull final XdmNode document) {
+        final List<List<SvrlFinding>> findingsPerPattern = new ArrayList<>(this.patterns.size());
+        for (int i = 0; i < this.patterns.size(); ++i) {
+            findingsPerPattern.add(new ArrayList<>());
+        }
+
+        for (final XdmNode node : (Iterable<XdmNode>) () -> document.axisIterator(Axis.DESCENDANT_OR_SELF)) {
+            if (node.getNodeKind() != XdmNodeKind.ELEMENT && node.getNodeKind() != XdmNodeKind.DOCUMENT) {
+                continue;
+            }
+            String location = null;
+            for (int i = 0; i < this.patterns.size(); ++i) {
+                final FastPattern pattern = this.patterns.get(i);
+                final FastRule rule = pattern.getRules().stream()
+                    .filter(candidate -> candidate.getMatcher().matches(node))
+                    .findFirst()
+                    .orElse(null);
+                if (rule == null) {
+                    continue;
+                }
+                for (final FastAssert fastAssert : rule.getAsserts()) {
+                    if (fastAssert.getExpression().evaluate(node) != fastAssert.isReport()) {
+                        continue;
+                    }
+                    if (location == null) {
+                        location = getLocation(node);
+                    }
+                    findingsPerPattern.get(i).add(new SvrlFinding(
+                        fastAssert.isReport() ? SvrlFinding.Kind.SUCCESSFUL_REPORT : SvrlFinding.Kind.FAILED_ASSERT,
+                        pattern.getId(),
+                        rule.getId(),
+                        fastAssert.getTest(),
+                        fastAssert.getRole(),
+                        location,
+                        fastAssert.getMessage().render(node).strip()
+                    ));
+                }
+            }
+        }
+        return findingsPerPattern.stream().flatMap(List::stream).toList();
+    }
+
+    /**
+     * Returns the order of the findings in the SVRL output of the whole definition: by pattern, then in document
+     * order, then by rule and by assert in the definition order. It allows merging the findings of the program with
+     * the ones of the XSLT file it complements.
+     *
+     * @param document The validated document node.
+     * @return the comparator of findings.
+     */
+    @NonNull
+    public Comparator<SvrlFinding> getFindingOrder(@NonNull final XdmNode document) {
+        final Map<String, Integer> patternPositions = positions(this.patternIds);
+        final Map<String, Integer> rulePositions = new HashMap<>();
+        final Map<String, Map<String, Integer>> testPositions = new HashMap<>();
+        for (final FastPattern pattern : this.patterns) {
+            for (int i = 0; i < pattern.getRules().size(); ++i) {
+                final FastRule rule = pattern.getRules().get(i);
+                rulePositions.put(rule.getId(), i);
+                testPositions.put(rule.getId(), positions(rule.getTests()));
+            }
+        }
+        final Map<String, Integer> locationPositions = new HashMap<>();
+        indexLocations(document, "", locationPositions);
+
+        return Comparator.<SvrlFinding>comparingInt(finding -> position(patternPositions, finding.getPatternId()))
+            .thenComparingInt(finding -> locationPosition(locationPositions, finding.getLocation()))
+            .thenComparingInt(finding -> position(rulePositions, finding.getRuleId()))
+            .thenComparingInt(finding -> position(
+                testPositions.getOrDefault(finding.getRuleId(), Map.of()), finding.getTest()));
+    }
+
+    /**
+     * Writes the program to a file.
+     *
+     * @param destinationFile The file to write.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws TransformerException         if an unrecoverable error occurs during the course of the XML rendering.
+     */
+    public void write(@NonNull final File destinationFile) throws ParserConfigurationException, TransformerException {
+        final Document document = Utils.newSafeDocumentBuilder().newDocument();
+        final Element rootElement = document.createElement("fast-path");
+        document.appendChild(rootElement);
+        for (final Map.Entry<String, String> namespace : this.namespaces.entrySet()) {
+            final Element namespaceElement = document.createElement("ns");
+            namespaceElement.setAttribute("prefix", namespace.getKey());
+            namespaceElement.setAttribute("uri", namespace.getValue());
+            rootElement.appendChild(namespaceElement);
+        }
+        for (final String patternId : this.patternIds) {
+            final Element patternIdElement = document.createElement("active-pattern");
+            patternIdElement.setAttribute("id", patternId);
+            rootElement.appendChild(patternIdElement);
+        }
+        for (final FastPattern pattern : this.patterns) {
+            final Element patternElement = document.createElement("pattern");
+            patternElement.setAttribute("id", pattern.getId());
+            for (final FastRule rule : pattern.getRules()) {
+                final Element ruleElement = document.createElement("rule");
+                ruleElement.setAttribute("id", rule.getId());
+                ruleElement.setAttribute("context", rule.getContext());
+                final Iterator<FastAssert> asserts = rule.getAsserts().iterator();
+                FastAssert nextAssert = asserts.hasNext() ? asserts.next() : null;
+                for (final String test : rule.getTests()) {
+                    if (nextAssert == null || !nextAssert.getTest().equals(test)) {
+                        // The assert is left to the XSLT, only its position is kept
+                        final Element remainingElement = document.createElement("remaining");
+                        remainingElement.setAttribute("test", test);
+                        ruleElement.appendChild(remainingElement);
+                        continue;
+                    }
+                    final Element assertElement = document.createElement(nextAssert.isReport() ? "report" : "assert");
+                    assertElement.setAttribute("test", nextAssert.getTest());
+                    if (nextAssert.getRole() != null) {
+                        assertElement.setAttribute("role", nextAssert.getRole());
+                    }
+                    nextAssert.getSourceMessage().appendTo(assertElement);
+                    ruleElement.appendChild(assertElement);
+                    nextAssert = asserts.hasNext() ? asserts.next() : null;
+                }
+                patternElement.appendChild(ruleElement);
+            }
+            rootElement.appendChild(patternElement);
+        }
+        Utils.newTransformer().transform(new DOMSource(document), new StreamResult(destinationFile));
+    }
+
+    /**
+     * Reads and compiles a program from a file.
+     *
+     * @param programFile The file to read.
+     * @return the compiled program.
+     * @throws IOException                  if any IO error occurs, or if the program is invalid.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws SAXException                 if any parsing error occurs.
+     */
+    @NonNull
+    public static FastPathProgram read(@NonNull final File programFile)
+        throws IOException, ParserConfigurationException, SAXException {
+        final Element rootElement = Utils.newSafeDocumentBuilder().parse(programFile).getDocumentElement();
+        final Map<String, String> namespaces = new HashMap<>();
+        for (final Element namespaceElement : childElements(rootElement, "ns")) {
+            namespaces.put(namespaceElement.getAttribute("prefix"), namespaceElement.getAttribute("uri"));
+        }
+        final List<String> patternIds = childElements(rootElement, "active-pattern").stream()
+            .map(patternIdElement -> patternIdElement.getAttribute("id"))
+            .toList();
+
+        final List<FastPattern> patterns = new ArrayList<>();
+        for (final Element patternElement : childElements(rootElement, "pattern")) {
+            final List<FastRule> rules = new ArrayList<>();
+            for (final Element ruleElement : childElements(patternElement, "rule")) {
+                final String context = ruleElement.getAttribute("context");
+                final FastContext matcher = FastExpressionParser.parseContext(context, namespaces)
+                    .orElseThrow(() -> new IOException("Unsupported context in the fast path program: " + context));
+                final List<FastAssert> asserts = new ArrayList<>();
+                final List<String> tests = new ArrayList<>();
+                for (final Element assertElement : childElements(ruleElement, null)) {
+                    final String test = assertElement.getAttribute("test");
+                    tests.add(test);
+                    if ("remaining".equals(assertElement.getTagName())) {
+                        continue;
+                    }
+                    final FastExpression expression = FastExpressionParser.parseTest(test, namespaces)
+                        .orElseThrow(() -> new IOException("Unsupported test in the fast path program: " + test));
+                    final SchematronMessage sourceMessage = SchematronMessage.fromNodes(assertElement.getChildNodes());
+                    final FastMessage message = FastMessage.fromMessage(sourceMessage, namespaces)
+                        .orElseThrow(() -> new IOException("Unsupported message in the fast path program: " + test));
+                    asserts.add(new FastAssert(
+                        "report".equals(assertElement.getTagName()),
+                        test,
+                        assertElement.hasAttribute("role") ? assertElement.getAttribute("role") : null,
+                        expression,
+                        sourceMessage,
+                        message
+                    ));
+                }
+                rules.add(new FastRule(ruleElement.getAttribute("id"), context, matcher, List.copyOf(asserts),
+                    List.copyOf(tests)));
+            }
+            patterns.add(new FastPattern(patternElement.getAttribute("id"), List.copyOf(rules)));
+        }
+        return new FastPathProgram(namespaces, patternIds, List.copyOf(patterns));
+    }
+
+    /**
+     * Returns the location of a node, in the format of the SVRL 'location' attribute.
+     *
+     * @param node The document node or an element.
+     * @return the location of the node.
+     */
+    @NonNull
+    static String getLocation(@NonNull final XdmNode node) {
+        if (node.getNodeKind() == XdmNodeKind.DOCUMENT) {
+            // The XSLT renders the location of the document element for the document node
+            for (final XdmNode child : node.children()) {
+                if (child.getNodeKind() == XdmNodeKind.ELEMENT) {
+                    return getLocation(child);
+                }
+            }
+            return "";
+        }
+        final Deque<String> steps = new ArrayDeque<>();
+        for (XdmNode element = node; element != null && element.getNodeKind() == XdmNodeKind.ELEMENT;
+             element = element.getParent()) {
+            final XdmNode current = element;
+            final String namespaceUri = current.getNodeName().getNamespaceURI();
+            final String localName = current.getNodeName().getLocalName();
+            int position = 1;
+            for (final XdmNode sibling : (Iterable<XdmNode>) () -> current.axisIterator(Axis.PRECEDING_SIBLING)) {
+                if (sibling.getNodeKind() == XdmNodeKind.ELEMENT
+                    && sibling.getNodeName().getLocalName().equals(localName)
+                    && sibling.getNodeName().getNamespaceURI().equals(namespaceUri)) {
+                    ++position;
+                }
+            }
+            steps.push(getStep(namespaceUri, localName, position));
+        }
+        return String.join("", steps);
+    }
+
+    /**
+     * Returns a step of the location of an element, in the format of the SVRL 'location' attribute.
+     *
+     * @param namespaceUri The namespace URI of the element, empty if it has none.
+     * @param localName    The local name of the element.
+     * @param position     The position of the element among its siblings of the same name.
+     * @return the location step.
+     */
+    @NonNull
+    private static String getStep(@NonNull final String namespaceUri,
+                                  @NonNull final String localName,
+                                  final int position) {
+        if (namespaceUri.isEmpty()) {
+            return "/" + localName + "[" + position + "]";
+        }
+        return "/*:" + localName + "[namespace-uri()='" + namespaceUri + "'][" + position + "]";
+    }
+
+    /**
+     * Indexes the locations of the descendant elements of a node, in document order.
+     *
+     * @param parent         The document node or an element.
+     * @param parentLocation The location of the parent node, empty for the document node.
+     * @param positions      The positions in document order, by location. Mutated.
+     */
+    private static void indexLocations(@NonNull final XdmNode parent,
+                                       @NonNull final String parentLocation,
+                                       @NonNull final Map<String, Integer> positions) {
+        final Map<QName, Integer> counters = new HashMap<>();
+        for (final XdmNode child : parent.children()) {
+            if (child.getNodeKind() != XdmNodeKind.ELEMENT) {
+                continue;
+            }
+            final QName name = child.getNodeName();
+            final int position = counters.merge(name, 1, Integer::sum);
+            final String location = parentLocation + getStep(name.getNamespaceURI(), name.getLocalName(), position);
+            positions.put(location, positions.size());
+            indexLocations(child, location, positions);
+        }
+    }
+
+    /**
+     * Returns the position of a location in document order. An attribute has the position of its parent element.
+     *
+     * @param positions The positions in document order, by location.
+     * @param location  The location of a finding.
+     * @return the position, or {@link Integer#MAX_VALUE} if the location is unknown.
+     */
+    private static int locationPosition(@NonNull final Map<String, Integer> positions,
+                                        @Nullable final String location) {
+        if (location == null) {
+            return Integer.MAX_VALUE;
+        }
+        final int attributeIndex = location.lastIndexOf("/@");
+        final String elementLocation = (attributeIndex > 0) ? location.substring(0, attributeIndex) : location;
+        return positions.getOrDefault(elementLocation, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the position of a key in a map of positions.
+     *
+     * @param positions The positions, by key.
+     * @param key       The key.
+     * @return the position, or {@link Integer#MAX_VALUE} if the key is unknown.
+     */
+    private static int position(@NonNull final Map<String, Integer> positions,
+                                @Nullable final String key) {
+        if (key == null) {
+            return Integer.MAX_VALUE;
+        }
+        return positions.getOrDefault(key, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the positions of the values of a list. A duplicated value keeps its first position.
+     *
+     * @param values The list of values.
+     * @return the positions, by value.
+     */
+    @NonNull
+    private static Map<String, Integer> positions(@NonNull final List<String> values) {
+        final Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < values.size(); ++i) {
+            positions.putIfAbsent(values.get(i), i);
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the child elements of an element.
+     *
+     * @param element The parent element.
+     * @param tagName The tag name of the elements to return, or {@code null} to return all child elements.
+     * @return the list of child elements.
+     */
+    @NonNull
+    private static List<Element> childElements(@NonNull final Element element,
+                                               final String tagName) {
+        final List<Element> elements = new ArrayList<>();
+        final NodeList nodes = element.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            if (nodes.item(i) instanceof final Element child
+                && (tagName == null || tagName.equals(child.getTagName()))) {
+                elements.add(child);
+            }
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,29 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * A pattern of the fast path: its rules are tried in order on each node and only the first matching rule fires.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastPattern {
+
+    /**
+     * The pattern ID.
+     */
+    @NonNull
+    private final String id;
+
+    /**
+     * The compiled rules, in the definition order.
+     */
+    @NonNull
+    private final List<FastRule> rules;
+}
@@ -0,0 +1,48 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * A compiled rule of the fast path. A rule without asserts is only kept for its context: it shadows the next rules
+ * of the pattern like in the XSLT.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastRule {
+
+    /**
+     * The rule ID.
+     */
+    @NonNull
+    private final String id;
+
+    /**
+     * The original context as an XSLT pattern.
+     */
+    @NonNull
+    private final String context;
+
+    /**
+     * The compiled context.
+     */
+    @NonNull
+    private final FastContext matcher;
+
+    /**
+     * The compiled asserts and reports, in the definition order.
+     */
+    @NonNull
+    private final List<FastAssert> asserts;
+
+    /**
+     * The tests of all asserts and reports of the rule, including the ones left to the XSLT, in the definition order.
+     */
+    @NonNull
+    private final List<String> tests;
+}
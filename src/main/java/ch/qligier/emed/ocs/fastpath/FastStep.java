@@ -0,0 +1,52 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * A compiled element step of the supported XPath subset: a name test ({@code hl7:id} or {@code *}) and its
+ * predicates.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class FastStep {
+
+    /**
+     * The element name, or {@code null} for the wildcard name test.
+     */
+    @Nullable
+    private final QName name;
+
+    /**
+     * The predicates, all of them shall be true.
+     */
+    @NonNull
+    private final List<FastExpression> predicates;
+
+    /**
+     * Returns whether a node is an element that matches the name test and the predicates.
+     *
+     * @param node The node to test.
+     * @return {@code true} if the node matches the step, {@code false} otherwise.
+     */
+    public boolean matches(@NonNull final XdmNode node) {
+        if (node.getNodeKind() != XdmNodeKind.ELEMENT || (this.name != null && !this.name.equals(node.getNodeName()))) {
+            return false;
+        }
+        for (final FastExpression predicate : this.predicates) {
+            if (!predicate.evaluate(node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.SvrlFinding;
+import ch.qligier.emed.ocs.validator.ValidationReport;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import javax.xml.transform.Source;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hybrid validator of CDA-CH-EMED documents: the document is parsed once, the fast path program is evaluated in Java
+ * and the XSLT file (generated from the same profile) evaluates the remaining asserts. Both findings are merged in a
+ * single report, in the order of the SVRL output of the whole definition.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+public class HybridValidator {
+
+    /**
+     * The Saxon processor, used to parse the documents.
+     */
+    @NonNull
+    private final Processor processor;
+
+    /**
+     * The validator of the remaining asserts.
+     */
+    @NonNull
+    private final CdaChEmedValidator xsltValidator;
+
+    /**
+     * The fast path program.
+     */
+    @NonNull
+    private final FastPathProgram program;
+
+    /**
+     * Constructor.
+     *
+     * @param processor     The Saxon processor, used to parse the documents.
+     * @param xsltValidator The validator of the remaining asserts.
+     * @param program       The fast path program.
+     */
+    public HybridValidator(@NonNull final Processor processor,
+                           @NonNull final CdaChEmedValidator xsltValidator,
+                           @NonNull final FastPathProgram program) {
+        this.processor = processor;
+        this.xsltValidator = xsltValidator;
+        this.program = program;
+    }
+
+    /**
+     * Creates a hybrid validator from an XSLT file and its fast path program, that is expected next to it
+     * ({@code cdachemed-MTP-error-hybrid.xslt} and {@code cdachemed-MTP-error-hybrid.fastpath.xml}).
+     *
+     * @param processor The Saxon processor.
+     * @param xsltFile  The optimized XSLT file.
+     * @return the hybrid validator.
+     * @throws Exception if the XSLT file cannot be compiled or the fast path program cannot be read.
+     */
+    @NonNull
+    public static HybridValidator fromFile(@NonNull final Processor processor,
+                                           @NonNull final File xsltFile) throws Exception {
+        final String baseName = xsltFile.getName().replaceFirst("\\.xslt?$", "");
+        final File programFile = new File(xsltFile.getParentFile(), baseName + FastPathProgram.FILE_EXTENSION);
+        return new HybridValidator(processor, CdaChEmedValidator.fromFile(processor, xsltFile),
+            FastPathProgram.read(programFile));
+    }
+
+    /**
+     * Validates a document.
+     *
+     * @param source The document to validate.
+     * @return the merged validation report.
+     * @throws SaxonApiException if the document cannot be parsed or the transformation fails.
+     */
+    @NonNull
+    public ValidationReport validate(@NonNull final Source source) throws SaxonApiException {
+        final XdmNode document = this.processor.newDocumentBuilder().build(source);
+        final ValidationReport xsltReport = this.xsltValidator.validate(document.asSource());
+        final List<SvrlFinding> fastFindings = this.program.evaluate(document);
+        if (fastFindings.isEmpty()) {
+            return xsltReport;
+        }
+        final List<SvrlFinding> findings = new ArrayList<>(xsltReport.getFindings());
+        findings.addAll(fastFindings);
+        if (!xsltReport.getFindings().isEmpty()) {
+            // Both lists are already sorted, the sort is stable
+            findings.sort(this.program.getFindingOrder(document));
+        }
+        return new ValidationReport(findings, xsltReport.isTerminated());
+    }
+}
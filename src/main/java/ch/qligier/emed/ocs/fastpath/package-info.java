@@ -0,0 +1,7 @@
+/**
+ * The fast path of the hybrid validator: the simplest structural asserts are evaluated by compiled Java predicates
+ * in a single pass over the document, the remaining asserts are evaluated by the optimized XSLT files.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.fastpath;
@@ -0,0 +1,456 @@
+package ch.qligier.emed.ocs.generator;
+
+import ch.qligier.emed.ocs.batch.DocumentTypeDetector;
+import lombok.NonNull;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * A generator of synthetic CDA-CH-EMED documents (MTP, PRE, DIS, PADV, PML and PMLC), to measure the validation
+ * throughput and memory against the document size. A document has a header, a medication section with a number of
+ * entries, and optionally an original representation section with an embedded attachment of a given size. The section
+ * and its entries declare the templateIds of the document type; the entries are substance administrations, supplies
+ * (DIS) or observations (PADV).
+ * <p>
+ * The error density is the ratio of the entries that have an invalid identifier (without root, or with an empty
+ * extension), that the identifier rule of the entry template detects; the errors are spread evenly over the entries.
+ * A document with a positive error density also has an unsupported language code in its header, so that it's invalid
+ * even with a single entry. Each injected error fails a single assert.
+ * <p>
+ * The documents are written with a {@link XMLStreamWriter}, the memory use does not depend on their size. The same
+ * seed generates the same documents. The generator is thread-safe.
+ *
+ * @author Quentin Ligier
+ */
+public class DocumentGenerator {
+
+    private static final Logger LOG = Logger.getLogger(DocumentGenerator.class.getName());
+
+    /**
+     * The maximum number of entries of a document.
+     */
+    public static final int MAX_ENTRIES = 10_000;
+
+    /**
+     * The namespace of the CDA elements.
+     */
+    private static final String HL7_NAMESPACE = "urn:hl7-org:v3";
+
+    /**
+     * The templateId root of the medication section, by document type.
+     */
+    private static final Map<String, String> SECTION_TEMPLATE_IDS = Map.of(
+        "MTP", "2.16.756.5.30.1.1.10.3.1",
+        "PRE", "2.16.756.5.30.1.1.10.3.2",
+        "DIS", "2.16.756.5.30.1.1.10.3.3",
+        "PADV", "2.16.756.5.30.1.1.10.3.4",
+        "PML", "2.16.756.5.30.1.1.10.3.5",
+        "PMLC", "2.16.756.5.30.1.1.10.3.6"
+    );
+
+    /**
+     * The templateId root of the entries, by document type.
+     */
+    private static final Map<String, String> ENTRY_TEMPLATE_IDS = Map.of(
+        "MTP", "2.16.756.5.30.1.1.10.4.2",
+        "PRE", "2.16.756.5.30.1.1.10.4.3",
+        "DIS", "2.16.756.5.30.1.1.10.4.4",
+        "PADV", "2.16.756.5.30.1.1.10.4.5",
+        "PML", "2.16.756.5.30.1.1.10.4.6",
+        "PMLC", "2.16.756.5.30.1.1.10.4.7"
+    );
+
+    /**
+     * The root of the generated identifiers, in the example OID arc.
+     */
+    private static final String ID_ROOT = "2.999.1";
+
+    /**
+     * The code system of the GTIN product codes.
+     */
+    private static final String GTIN_CODE_SYSTEM = "2.51.1.1";
+
+    /**
+     * The code system of the language codes.
+     */
+    private static final String LANGUAGE_CODE_SYSTEM = "2.16.756.5.30.1.127.3.10.1.5";
+
+    /**
+     * The code system of the pharmaceutical advice status codes.
+     */
+    private static final String ADVICE_STATUS_CODE_SYSTEM = "1.3.6.1.4.1.19376.1.9.2.1";
+
+    /**
+     * The LOINC code of the medication section, by document type.
+     */
+    private static final Map<String, String> SECTION_CODES = Map.of(
+        "MTP", "10160-0",
+        "PRE", "57828-6",
+        "DIS", "60590-7",
+        "PADV", "61357-7",
+        "PML", "10160-0",
+        "PMLC", "10160-0"
+    );
+
+    /**
+     * The number of attachment bytes that are encoded at once, a multiple of 3 to avoid Base64 padding.
+     */
+    private static final int ATTACHMENT_CHUNK = 3 * 1024;
+
+    /**
+     * The factory of stream writers.
+     */
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newDefaultFactory();
+
+    /**
+     * The detector of the document types, that knows their templateId.
+     */
+    private final DocumentTypeDetector detector;
+
+    /**
+     * The seed of the generated content.
+     */
+    private final long seed;
+
+    /**
+     * Constructor.
+     *
+     * @param detector The detector of the document types, that knows their templateId.
+     * @param seed     The seed of the generated content.
+     */
+    public DocumentGenerator(@NonNull final DocumentTypeDetector detector,
+                             final long seed) {
+        this.detector = detector;
+        this.seed = seed;
+    }
+
+    /**
+     * Generates documents in a directory, e.g. to be validated by the batch validator.
+     *
+     * @param args The output directory, the comma-separated entry counts, the attachment size in bytes, the error
+     *             density and optionally the comma-separated document types (all by default).
+     * @throws Exception if the documents cannot be generated.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 4 && args.length != 5) {
+            throw new IllegalArgumentException("Usage: DocumentGenerator <output directory> <entry counts> "
+                + "<attachment bytes> <error density> [types]");
+        }
+        final Path outputDir = Path.of(args[0]);
+        final int attachmentBytes = Integer.parseInt(args[2]);
+        final double errorDensity = Double.parseDouble(args[3]);
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        final Collection<String> types = args.length == 5 ? List.of(args[4].split(",")) : detector.getTypes();
+        final DocumentGenerator generator = new DocumentGenerator(detector, 0);
+
+        Files.createDirectories(outputDir);
+        for (final String type : types) {
+            for (final String entries : args[1].split(",")) {
+                final Path file = outputDir.resolve(fileName(type, Integer.parseInt(entries), errorDensity));
+                try (final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    generator.generate(type, Integer.parseInt(entries), attachmentBytes, errorDensity, outputStream);
+                }
+                LOG.info("Generated " + file + " (" + (Files.size(file) >> 10) + " KiB)");
+            }
+        }
+    }
+
+    /**
+     * Returns the file name of a generated document, e.g. 'MTP-00100-valid.xml'.
+     *
+     * @param type         The document type.
+     * @param entries      The number of entries.
+     * @param errorDensity The error density.
+     * @return the file name.
+     */
+    @NonNull
+    public static String fileName(@NonNull final String type,
+                                  final int entries,
+                                  final double errorDensity) {
+        return String.format(Locale.ROOT, "%s-%05d-%s.xml", type, entries,
+            errorDensity > 0 ? "invalid" : "valid");
+    }
+
+    /**
+     * Returns whether a document type can be generated.
+     *
+     * @param type The document type, e.g. 'MTP'.
+     * @return {@code true} if the type is supported, {@code false} otherwise.
+     */
+    public boolean supports(@NonNull final String type) {
+        return SECTION_CODES.containsKey(type) && this.detector.getTemplateId(type) != null;
+    }
+
+    /**
+     * Generates a document.
+     *
+     * @param type            The document type, e.g. 'MTP'.
+     * @param entries         The number of entries, from 1 to {@link #MAX_ENTRIES}.
+     * @param attachmentBytes The size of the embedded attachment before its Base64 encoding, 0 for none.
+     * @param errorDensity    The ratio of invalid entries, from 0 to 1.
+     * @return the document content.
+     * @throws XMLStreamException if the document cannot be written.
+     */
+    @NonNull
+    public byte[] generate(@NonNull final String type,
+                           final int entries,
+                           final int attachmentBytes,
+                           final double errorDensity) throws XMLStreamException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        this.generate(type, entries, attachmentBytes, errorDensity, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Generates a document.
+     *
+     * @param type            The document type, e.g. 'MTP'.
+     * @param entries         The number of entries, from 1 to {@link #MAX_ENTRIES}.
+     * @param attachmentBytes The size of the embedded attachment before its Base64 encoding, 0 for none.
+     * @param errorDensity    The ratio of invalid entries, from 0 to 1.
+     * @param outputStream    The output stream. It's not closed.
+     * @return the number of injected errors, i.e. the number of failed asserts.
+     * @throws XMLStreamException if the document cannot be written.
+     */
+    public int generate(@NonNull final String type,
+                        final int entries,
+                        final int attachmentBytes,
+                        final double errorDensity,
+                        @NonNull final OutputStream outputStream) throws XMLStreamException {
+        final String templateId = this.detector.getTemplateId(type);
+        if (!this.supports(type)) {
+            throw new IllegalArgumentException("The document type '" + type + "' is not supported");
+        }
+        if (entries < 1 || entries > MAX_ENTRIES) {
+            throw new IllegalArgumentException("The number of entries shall be between 1 and " + MAX_ENTRIES);
+        }
+        if (attachmentBytes < 0 || errorDensity < 0 || errorDensity > 1) {
+            throw new IllegalArgumentException("The attachment size and the error density shall be positive, and "
+                + "the error density at most 1");
+        }
+        final Random random = new Random(this.seed);
+        int errors = 0;
+
+        final XMLStreamWriter writer = this.outputFactory.createXMLStreamWriter(outputStream,
+            StandardCharsets.UTF_8.name());
+        writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+        writer.setDefaultNamespace(HL7_NAMESPACE);
+        writer.writeStartElement(HL7_NAMESPACE, "ClinicalDocument");
+        writer.writeDefaultNamespace(HL7_NAMESPACE);
+        writeEmptyElement(writer, "realmCode", "code", "CH");
+        writeEmptyElement(writer, "typeId", "root", "2.16.840.1.113883.1.3", "extension", "POCD_HD000040");
+        writeEmptyElement(writer, "templateId", "root", templateId);
+        writeEmptyElement(writer, "id", "root", ID_ROOT, "extension", "doc-" + Long.toHexString(random.nextLong()));
+        writeTextElement(writer, "title", "Synthetic " + type + " document with " + entries + " entries");
+        writeEmptyElement(writer, "effectiveTime", "value", "20220201120000+0100");
+        if (errorDensity > 0) {
+            // An unsupported language makes the document invalid, whatever its number of entries
+            writeEmptyElement(writer, "languageCode", "code", "en-US", "codeSystem", LANGUAGE_CODE_SYSTEM);
+            ++errors;
+        } else {
+            writeEmptyElement(writer, "languageCode", "code", "de-CH", "codeSystem", LANGUAGE_CODE_SYSTEM);
+        }
+
+        writer.writeStartElement(HL7_NAMESPACE, "component");
+        writer.writeStartElement(HL7_NAMESPACE, "structuredBody");
+        writer.writeStartElement(HL7_NAMESPACE, "component");
+        writer.writeStartElement(HL7_NAMESPACE, "section");
+        writeEmptyElement(writer, "templateId", "root", SECTION_TEMPLATE_IDS.get(type));
+        writeEmptyElement(writer, "code", "code", SECTION_CODES.get(type), "codeSystem", "2.16.840.1.113883.6.1");
+        writeTextElement(writer, "title", "Medication");
+        for (int i = 0; i < entries; ++i) {
+            // The invalid entries are spread evenly: the entry i is invalid if it completes a new error
+            final boolean invalid = Math.floor((i + 1) * errorDensity) > Math.floor(i * errorDensity);
+            writeEntry(writer, type, i, random, invalid);
+            if (invalid) {
+                ++errors;
+            }
+        }
+        writer.writeEndElement(); // section
+        writer.writeEndElement(); // component
+        if (attachmentBytes > 0) {
+            writeAttachment(writer, attachmentBytes, random);
+        }
+        writer.writeEndElement(); // structuredBody
+        writer.writeEndElement(); // component
+        writer.writeEndElement(); // ClinicalDocument
+        writer.writeEndDocument();
+        writer.close();
+        return errors;
+    }
+
+    /**
+     * Writes an entry of a document type: a supply for the DIS documents, an observation for the PADV documents and a
+     * substance administration for the others.
+     *
+     * @param writer  The stream writer.
+     * @param type    The document type.
+     * @param index   The entry index.
+     * @param random  The random generator.
+     * @param invalid Whether the entry identifier shall be invalid.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeEntry(@NonNull final XMLStreamWriter writer,
+                                   @NonNull final String type,
+                                   final int index,
+                                   @NonNull final Random random,
+                                   final boolean invalid) throws XMLStreamException {
+        writer.writeStartElement(HL7_NAMESPACE, "entry");
+        switch (type) {
+            case "DIS" -> {
+                writer.writeStartElement(HL7_NAMESPACE, "supply");
+                writer.writeAttribute("classCode", "SPLY");
+                writer.writeAttribute("moodCode", "EVN");
+                writeEntryIdentification(writer, type, index, invalid);
+                writeEmptyElement(writer, "quantity", "value", String.valueOf(1 + random.nextInt(3)));
+                writer.writeStartElement(HL7_NAMESPACE, "product");
+                writeProduct(writer, index, random);
+                writer.writeEndElement(); // product
+            }
+            case "PADV" -> {
+                writer.writeStartElement(HL7_NAMESPACE, "observation");
+                writer.writeAttribute("classCode", "OBS");
+                writer.writeAttribute("moodCode", "EVN");
+                writeEntryIdentification(writer, type, index, invalid);
+                writeEmptyElement(writer, "code", "code", "OK", "codeSystem", ADVICE_STATUS_CODE_SYSTEM);
+                writeTextElement(writer, "text", "Advice " + index + ": no change");
+            }
+            default -> {
+                writer.writeStartElement(HL7_NAMESPACE, "substanceAdministration");
+                writer.writeAttribute("classCode", "SBADM");
+                writer.writeAttribute("moodCode", "PML".equals(type) ? "EVN" : "INT");
+                writeEntryIdentification(writer, type, index, invalid);
+                writeTextElement(writer, "text", "Take " + (1 + random.nextInt(3)) + " tablet(s) per day");
+                writeEmptyElement(writer, "doseQuantity", "value", String.valueOf(1 + random.nextInt(3)));
+                writer.writeStartElement(HL7_NAMESPACE, "consumable");
+                writeProduct(writer, index, random);
+                writer.writeEndElement(); // consumable
+            }
+        }
+        writer.writeEndElement(); // supply, observation or substanceAdministration
+        writer.writeEndElement(); // entry
+    }
+
+    /**
+     * Writes the templateId and the identifier of an entry.
+     *
+     * @param writer  The stream writer.
+     * @param type    The document type.
+     * @param index   The entry index.
+     * @param invalid Whether the identifier shall be invalid: without root or with an empty extension.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeEntryIdentification(@NonNull final XMLStreamWriter writer,
+                                                 @NonNull final String type,
+                                                 final int index,
+                                                 final boolean invalid) throws XMLStreamException {
+        writeEmptyElement(writer, "templateId", "root", ENTRY_TEMPLATE_IDS.get(type));
+        if (!invalid) {
+            writeEmptyElement(writer, "id", "root", ID_ROOT, "extension", "entry-" + index);
+        } else if (index % 2 == 0) {
+            writeEmptyElement(writer, "id", "extension", "entry-" + index);
+        } else {
+            writeEmptyElement(writer, "id", "root", ID_ROOT, "extension", "");
+        }
+    }
+
+    /**
+     * Writes a manufactured product, identified by its GTIN.
+     *
+     * @param writer The stream writer.
+     * @param index  The entry index.
+     * @param random The random generator.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeProduct(@NonNull final XMLStreamWriter writer,
+                                     final int index,
+                                     @NonNull final Random random) throws XMLStreamException {
+        writer.writeStartElement(HL7_NAMESPACE, "manufacturedProduct");
+        writer.writeStartElement(HL7_NAMESPACE, "manufacturedMaterial");
+        writeEmptyElement(writer, "code", "code", String.format(Locale.ROOT, "7680%09d", random.nextInt(1_000_000_000)),
+            "codeSystem", GTIN_CODE_SYSTEM);
+        writeTextElement(writer, "name", "Product " + index);
+        writer.writeEndElement(); // manufacturedMaterial
+        writer.writeEndElement(); // manufacturedProduct
+    }
+
+    /**
+     * Writes the original representation section, with an embedded PDF attachment of random bytes.
+     *
+     * @param writer          The stream writer.
+     * @param attachmentBytes The size of the attachment before its Base64 encoding.
+     * @param random          The random generator.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeAttachment(@NonNull final XMLStreamWriter writer,
+                                        final int attachmentBytes,
+                                        @NonNull final Random random) throws XMLStreamException {
+        writer.writeStartElement(HL7_NAMESPACE, "component");
+        writer.writeStartElement(HL7_NAMESPACE, "section");
+        writeTextElement(writer, "title", "Original representation");
+        writer.writeStartElement(HL7_NAMESPACE, "entry");
+        writer.writeStartElement(HL7_NAMESPACE, "observationMedia");
+        writer.writeAttribute("classCode", "OBS");
+        writer.writeAttribute("moodCode", "EVN");
+        writer.writeStartElement(HL7_NAMESPACE, "value");
+        writer.writeAttribute("mediaType", "application/pdf");
+        writer.writeAttribute("representation", "B64");
+        final Base64.Encoder encoder = Base64.getEncoder();
+        final byte[] chunk = new byte[ATTACHMENT_CHUNK];
+        for (int written = 0; written < attachmentBytes; written += chunk.length) {
+            random.nextBytes(chunk);
+            final byte[] bytes = attachmentBytes - written < chunk.length
+                ? Arrays.copyOf(chunk, attachmentBytes - written)
+                : chunk;
+            writer.writeCharacters(encoder.encodeToString(bytes));
+        }
+        writer.writeEndElement(); // value
+        writer.writeEndElement(); // observationMedia
+        writer.writeEndElement(); // entry
+        writer.writeEndElement(); // section
+        writer.writeEndElement(); // component
+    }
+
+    /**
+     * Writes an empty CDA element with its attributes.
+     *
+     * @param writer     The stream writer.
+     * @param localName  The element name.
+     * @param attributes The attribute names and values, alternated.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeEmptyElement(@NonNull final XMLStreamWriter writer,
+                                          @NonNull final String localName,
+                                          @NonNull final String... attributes) throws XMLStreamException {
+        writer.writeEmptyElement(HL7_NAMESPACE, localName);
+        for (int i = 0; i < attributes.length; i += 2) {
+            writer.writeAttribute(attributes[i], attributes[i + 1]);
+        }
+    }
+
+    /**
+     * Writes a CDA element with a text content.
+     *
+     * @param writer    The stream writer.
+     * @param localName The element name.
+     * @param text      The text content.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeTextElement(@NonNull final XMLStreamWriter writer,
+                                         @NonNull final String localName,
+                                         @NonNull final String text) throws XMLStreamException {
+        writer.writeStartElement(HL7_NAMESPACE, localName);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * The generation of synthetic CDA-CH-EMED documents, to measure the validation against the document size.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.generator;
@@ -0,0 +1,180 @@
+package ch.qligier.emed.ocs.metrics;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The report of a conversion run: the global stages (e.g. the copy and cleaning of the includes) and the metrics of
+ * each document type. It's written as a JSON file, to track the regressions of the build time and of the generated
+ * XSLT cost over the specification versions.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+public class ConversionReport {
+
+    /**
+     * The indentation of the JSON output.
+     */
+    private static final String INDENT = "  ";
+
+    /**
+     * The recorder of the global stages.
+     */
+    @NonNull
+    private final StageRecorder stages = new StageRecorder();
+
+    /**
+     * The metrics of each document type, in the order of conversion.
+     */
+    @NonNull
+    private final List<DocumentMetrics> documents = new ArrayList<>();
+
+    /**
+     * Adds the metrics of a new document type.
+     *
+     * @param name The name of the document type.
+     * @return the document metrics.
+     */
+    @NonNull
+    public DocumentMetrics addDocument(@NonNull final String name) {
+        final DocumentMetrics document = new DocumentMetrics(name);
+        this.documents.add(document);
+        return document;
+    }
+
+    /**
+     * Writes the report to a JSON file.
+     *
+     * @param reportFile The file to write.
+     * @throws IOException if any IO error occurs.
+     */
+    public void write(@NonNull final File reportFile) throws IOException {
+        Files.writeString(reportFile.toPath(), this.toJson(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders the report as JSON.
+     *
+     * @return the JSON report.
+     */
+    @NonNull
+    public String toJson() {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        appendStages(json, this.stages, 1);
+        json.append(",\n").append(INDENT).append("\"documents\": [");
+        for (int i = 0; i < this.documents.size(); ++i) {
+            final DocumentMetrics document = this.documents.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(INDENT.repeat(2)).append("{\n");
+            json.append(INDENT.repeat(3)).append("\"name\": ").append(quote(document.getName())).append(",\n");
+            appendStages(json, document.getStages(), 3);
+            json.append(",\n").append(INDENT.repeat(3)).append("\"variants\": [");
+            for (int j = 0; j < document.getVariants().size(); ++j) {
+                final VariantMetrics variant = document.getVariants().get(j);
+                json.append(j == 0 ? "\n" : ",\n").append(INDENT.repeat(4)).append("{\n");
+                json.append(INDENT.repeat(5)).append("\"profile\": ").append(quote(variant.getProfile())).append(",\n");
+                appendStages(json, variant.getStages(), 5);
+                json.append(",\n");
+                appendStatistics(json, "before", variant.getBefore(), 5);
+                json.append(",\n");
+                appendStatistics(json, "after", variant.getAfter(), 5);
+                json.append('\n').append(INDENT.repeat(4)).append('}');
+            }
+            json.append(document.getVariants().isEmpty() ? "" : "\n" + INDENT.repeat(3)).append("]\n");
+            json.append(INDENT.repeat(2)).append('}');
+        }
+        json.append(this.documents.isEmpty() ? "" : "\n" + INDENT).append("]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * Appends the 'stages' member and the 'totalNanos' member of a stage recorder.
+     *
+     * @param json     The JSON builder.
+     * @param recorder The stage recorder.
+     * @param level    The indentation level of the members.
+     */
+    private static void appendStages(@NonNull final StringBuilder json,
+                                     @NonNull final StageRecorder recorder,
+                                     final int level) {
+        final String indent = INDENT.repeat(level);
+        json.append(indent).append("\"totalNanos\": ").append(recorder.getTotalNanos()).append(",\n");
+        json.append(indent).append("\"stages\": [");
+        for (int i = 0; i < recorder.getStages().size(); ++i) {
+            final StageMetrics stage = recorder.getStages().get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(indent).append(INDENT)
+                .append("{\"name\": ").append(quote(stage.getName()))
+                .append(", \"nanos\": ").append(stage.getNanos())
+                .append(", \"allocatedBytes\": ").append(stage.getAllocatedBytes())
+                .append(", \"usedHeapBytes\": ").append(stage.getUsedHeapBytes())
+                .append('}');
+        }
+        json.append(recorder.getStages().isEmpty() ? "" : "\n" + indent).append(']');
+    }
+
+    /**
+     * Appends a member of definition statistics.
+     *
+     * @param json       The JSON builder.
+     * @param name       The member name.
+     * @param statistics The definition statistics, or {@code null}.
+     * @param level      The indentation level of the member.
+     */
+    private static void appendStatistics(@NonNull final StringBuilder json,
+                                         @NonNull final String name,
+                                         @Nullable final DefinitionStatistics statistics,
+                                         final int level) {
+        json.append(INDENT.repeat(level)).append(quote(name)).append(": ");
+        if (statistics == null) {
+            json.append("null");
+            return;
+        }
+        json.append("{\"patterns\": ").append(statistics.getPatterns())
+            .append(", \"rules\": ").append(statistics.getRules())
+            .append(", \"asserts\": ").append(statistics.getAsserts())
+            .append(", \"reports\": ").append(statistics.getReports())
+            .append(", \"lets\": ").append(statistics.getLets())
+            .append(", \"xpathLength\": ").append(statistics.getXpathLength())
+            .append(", \"descendantAxes\": ").append(statistics.getDescendantAxes())
+            .append('}');
+    }
+
+    /**
+     * Quotes and escapes a JSON string.
+     *
+     * @param value The string value.
+     * @return the JSON string.
+     */
+    @NonNull
+    public static String quote(@NonNull final String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char character = value.charAt(i);
+            switch (character) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (character < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        builder.append(character);
+                    }
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
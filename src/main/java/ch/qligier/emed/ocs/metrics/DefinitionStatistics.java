@@ -0,0 +1,120 @@
+package ch.qligier.emed.ocs.metrics;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The statistics of a Schematron definition, to compare it before and after its optimization. The rules are counted as
+ * they are defined (the abstract rules included and the extends unresolved), like they are written in the XSLT.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class DefinitionStatistics {
+
+    /**
+     * The number of patterns.
+     */
+    private final int patterns;
+
+    /**
+     * The number of defined rules, including the abstract ones.
+     */
+    private final int rules;
+
+    /**
+     * The number of asserts.
+     */
+    private final int asserts;
+
+    /**
+     * The number of reports.
+     */
+    private final int reports;
+
+    /**
+     * The number of variables.
+     */
+    private final int lets;
+
+    /**
+     * The total length of the XPath expressions (rule contexts, tests and variable values).
+     */
+    private final long xpathLength;
+
+    /**
+     * The number of descendant axis steps ('//') in the XPath expressions, outside string literals.
+     */
+    private final int descendantAxes;
+
+    /**
+     * Computes the statistics of a Schematron definition.
+     *
+     * @param definition The Schematron definition.
+     * @return the definition statistics.
+     */
+    @NonNull
+    public static DefinitionStatistics of(@NonNull final SchematronDefinition definition) {
+        int asserts = 0;
+        int reports = 0;
+        int lets = 0;
+        long xpathLength = 0;
+        int descendantAxes = 0;
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            if (rule.getContext() != null) {
+                xpathLength += rule.getContext().length();
+                descendantAxes += countDescendantAxes(rule.getContext());
+            }
+            for (final SchematronRuleChild child : rule.getChildren()) {
+                final String expression;
+                if (child instanceof final SchematronAssert schematronAssert) {
+                    ++asserts;
+                    expression = schematronAssert.getTest();
+                } else if (child instanceof final SchematronReport schematronReport) {
+                    ++reports;
+                    expression = schematronReport.getTest();
+                } else if (child instanceof final SchematronLet schematronLet) {
+                    ++lets;
+                    expression = schematronLet.getValue();
+                } else {
+                    continue;
+                }
+                if (expression != null) {
+                    xpathLength += expression.length();
+                    descendantAxes += countDescendantAxes(expression);
+                }
+            }
+        }
+        return new DefinitionStatistics(definition.getPatterns().size(), definition.getDefinedRules().size(), asserts,
+            reports, lets, xpathLength, descendantAxes);
+    }
+
+    /**
+     * Counts the descendant axis steps ('//') of an XPath expression. The string literals are skipped, they often
+     * contain URLs.
+     *
+     * @param xpathExpression The XPath expression.
+     * @return the number of descendant axis steps.
+     */
+    static int countDescendantAxes(@NonNull final String xpathExpression) {
+        int count = 0;
+        char quote = 0;
+        for (int i = 0; i < xpathExpression.length(); ++i) {
+            final char character = xpathExpression.charAt(i);
+            if (quote != 0) {
+                if (character == quote) {
+                    quote = 0;
+                }
+            } else if (character == '\'' || character == '"') {
+                quote = character;
+            } else if (character == '/' && i + 1 < xpathExpression.length() && xpathExpression.charAt(i + 1) == '/') {
+                ++count;
+                ++i;
+            }
+        }
+        return count;
+    }
+}
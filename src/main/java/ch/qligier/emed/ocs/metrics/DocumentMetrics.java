@@ -0,0 +1,57 @@
+package ch.qligier.emed.ocs.metrics;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The metrics of the conversion of a document type: the stages that are common to all output profiles (the include
+ * resolution and the parsing), and the metrics of each variant.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+public class DocumentMetrics {
+
+    /**
+     * The name of the document type, i.e. the base name of its Schematron file.
+     */
+    @NonNull
+    private final String name;
+
+    /**
+     * The recorder of the common stages.
+     */
+    @NonNull
+    private final StageRecorder stages = new StageRecorder();
+
+    /**
+     * The metrics of each variant, in the order of conversion.
+     */
+    @NonNull
+    private final List<VariantMetrics> variants = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param name The name of the document type.
+     */
+    public DocumentMetrics(@NonNull final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds the metrics of a new variant.
+     *
+     * @param profile The name of the output profile.
+     * @return the variant metrics.
+     */
+    @NonNull
+    public VariantMetrics addVariant(@NonNull final String profile) {
+        final VariantMetrics variant = new VariantMetrics(profile);
+        this.variants.add(variant);
+        return variant;
+    }
+}
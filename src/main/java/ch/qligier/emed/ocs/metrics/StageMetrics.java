@@ -0,0 +1,36 @@
+package ch.qligier.emed.ocs.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * The metrics of a stage of the conversion pipeline.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+public class StageMetrics {
+
+    /**
+     * The stage name.
+     */
+    @NonNull
+    private final String name;
+
+    /**
+     * The elapsed time, in nanoseconds.
+     */
+    private final long nanos;
+
+    /**
+     * The bytes allocated by the current thread during the stage, or {@code -1} if the JVM does not measure it.
+     */
+    private final long allocatedBytes;
+
+    /**
+     * The used heap memory at the end of the stage, in bytes.
+     */
+    private final long usedHeapBytes;
+}
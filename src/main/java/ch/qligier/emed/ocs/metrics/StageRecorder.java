@@ -0,0 +1,129 @@
+package ch.qligier.emed.ocs.metrics;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorder of the stages of the conversion pipeline. Each stage is run on the current thread and its time, allocated
+ * bytes and used heap memory are recorded, in the order in which the stages are run.
+ *
+ * @author Quentin Ligier
+ */
+public class StageRecorder {
+
+    /**
+     * The JVM thread system, to measure the allocated bytes.
+     */
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The JVM memory system, to measure the used heap memory.
+     */
+    private static final MemoryMXBean MEMORY_BEAN = ManagementFactory.getMemoryMXBean();
+
+    /**
+     * The metrics of the recorded stages, in the order in which they were run.
+     */
+    @Getter
+    @NonNull
+    private final List<StageMetrics> stages = new ArrayList<>();
+
+    /**
+     * Runs and records a stage that returns a value.
+     *
+     * @param name  The stage name.
+     * @param stage The stage to run.
+     * @param <T>   The type of the returned value.
+     * @return the value returned by the stage.
+     * @throws Exception if the stage fails. The stage is not recorded in that case.
+     */
+    public <T> T record(@NonNull final String name,
+                        @NonNull final Stage<T> stage) throws Exception {
+        final long allocatedBytesBefore = getAllocatedBytes();
+        final long start = System.nanoTime();
+        final T result = stage.run();
+        final long nanos = System.nanoTime() - start;
+        final long allocatedBytesAfter = getAllocatedBytes();
+        this.stages.add(new StageMetrics(
+            name,
+            nanos,
+            allocatedBytesBefore < 0 ? -1 : allocatedBytesAfter - allocatedBytesBefore,
+            MEMORY_BEAN.getHeapMemoryUsage().getUsed()
+        ));
+        return result;
+    }
+
+    /**
+     * Runs and records a stage that returns nothing.
+     *
+     * @param name   The stage name.
+     * @param action The stage to run.
+     * @throws Exception if the stage fails. The stage is not recorded in that case.
+     */
+    public void run(@NonNull final String name,
+                    @NonNull final Action action) throws Exception {
+        this.record(name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Returns the total elapsed time of the recorded stages.
+     *
+     * @return the total elapsed time, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return this.stages.stream().mapToLong(StageMetrics::getNanos).sum();
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread since its start.
+     *
+     * @return the number of allocated bytes, or {@code -1} if the JVM does not measure it.
+     */
+    private static long getAllocatedBytes() {
+        if (THREAD_BEAN instanceof final com.sun.management.ThreadMXBean threadBean
+            && threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+            return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * A stage that returns a value.
+     *
+     * @param <T> The type of the returned value.
+     */
+    @FunctionalInterface
+    public interface Stage<T> {
+
+        /**
+         * Runs the stage.
+         *
+         * @return the stage value.
+         * @throws Exception if the stage fails.
+         */
+        T run() throws Exception;
+    }
+
+    /**
+     * A stage that returns nothing.
+     */
+    @FunctionalInterface
+    public interface Action {
+
+        /**
+         * Runs the stage.
+         *
+         * @throws Exception if the stage fails.
+         */
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,52 @@
+package ch.qligier.emed.ocs.metrics;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
+
+/**
+ * The metrics of the conversion of a document type for an output profile: the stages from the optimization of the
+ * definition to the XSLT conversion, and the definition statistics before and after the optimization.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+public class VariantMetrics {
+
+    /**
+     * The name of the output profile.
+     */
+    @NonNull
+    private final String profile;
+
+    /**
+     * The recorder of the variant stages.
+     */
+    @NonNull
+    private final StageRecorder stages = new StageRecorder();
+
+    /**
+     * The definition statistics before the optimization, or {@code null} if they haven't been computed.
+     */
+    @Setter
+    @Nullable
+    private DefinitionStatistics before;
+
+    /**
+     * The definition statistics after the optimization, or {@code null} if they haven't been computed.
+     */
+    @Setter
+    @Nullable
+    private DefinitionStatistics after;
+
+    /**
+     * Constructor.
+     *
+     * @param profile The name of the output profile.
+     */
+    public VariantMetrics(@NonNull final String profile) {
+        this.profile = profile;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * The instrumentation of the conversion pipeline: the time and memory of each stage, and the statistics of the
+ * Schematron definitions before and after their optimization, reported as a JSON file.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.metrics;
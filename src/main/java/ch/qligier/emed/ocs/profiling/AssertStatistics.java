@@ -0,0 +1,54 @@
+package ch.qligier.emed.ocs.profiling;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NonNull;
+
+/**
+ * The statistics of an assert or report over a profiled corpus.
+ *
+ * @author Quentin Ligier
+ */
+@Data
+@AllArgsConstructor
+public class AssertStatistics {
+
+    /**
+     * The test as an XPath expression, it identifies the assert in its rule.
+     */
+    @NonNull
+    private String test;
+
+    /**
+     * The number of evaluations.
+     */
+    private long evaluations;
+
+    /**
+     * The number of failed asserts or successful reports.
+     */
+    private long failures;
+
+    /**
+     * The cumulative evaluation time, in nanoseconds.
+     */
+    private long nanos;
+
+    /**
+     * Returns the ratio of evaluations that failed.
+     *
+     * @return the failure rate, between 0 and 1.
+     */
+    public double getFailureRate() {
+        return this.evaluations == 0 ? 0 : (double) this.failures / this.evaluations;
+    }
+
+    /**
+     * Returns the mean evaluation time.
+     *
+     * @return the mean evaluation time, in nanoseconds.
+     */
+    public double getMeanNanos() {
+        return this.evaluations == 0 ? 0 : (double) this.nanos / this.evaluations;
+    }
+}
@@ -0,0 +1,104 @@
+package ch.qligier.emed.ocs.profiling;
+
+import lombok.NonNull;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.EmptySequence;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.SequenceType;
+
+import javax.annotation.Nullable;
+
+/**
+ * The {@code prof:mark(ruleId, index)} extension function of the profiling XSLT files. It forwards the marks to the
+ * listener of the current thread, if any, and returns an empty sequence.
+ *
+ * @author Quentin Ligier
+ */
+public class MarkFunction extends ExtensionFunctionDefinition {
+
+    /**
+     * The listener of the marks of the transformation running on the current thread.
+     */
+    private static final ThreadLocal<Listener> ACTIVE_LISTENER = new ThreadLocal<>();
+
+    /**
+     * Registers the extension function in a Saxon processor, before compiling profiling XSLT files.
+     *
+     * @param processor The Saxon processor.
+     */
+    public static void register(@NonNull final Processor processor) {
+        processor.registerExtensionFunction(new MarkFunction());
+    }
+
+    /**
+     * Sets the listener of the marks of the transformations running on the current thread.
+     *
+     * @param listener The listener, or {@code null} to remove it.
+     */
+    public static void setListener(@Nullable final Listener listener) {
+        if (listener == null) {
+            ACTIVE_LISTENER.remove();
+        } else {
+            ACTIVE_LISTENER.set(listener);
+        }
+    }
+
+    @Override
+    public StructuredQName getFunctionQName() {
+        return new StructuredQName(ProfilingStylesheet.PREFIX, ProfilingStylesheet.NAMESPACE,
+            ProfilingStylesheet.MARK_FUNCTION);
+    }
+
+    @Override
+    public SequenceType[] getArgumentTypes() {
+        return new SequenceType[]{SequenceType.SINGLE_STRING, SequenceType.SINGLE_INTEGER};
+    }
+
+    @Override
+    public SequenceType getResultType(final SequenceType[] suppliedArgumentTypes) {
+        // Not declared as an empty sequence, otherwise the call could be optimized away
+        return SequenceType.OPTIONAL_STRING;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
+
+    @Override
+    public ExtensionFunctionCall makeCallExpression() {
+        return new ExtensionFunctionCall() {
+            @Override
+            public Sequence call(final XPathContext context,
+                                 final Sequence[] arguments) throws XPathException {
+                final Listener listener = ACTIVE_LISTENER.get();
+                if (listener != null) {
+                    listener.mark(arguments[0].head().getStringValue(),
+                        (int) ((NumericValue) arguments[1].head()).longValue());
+                }
+                return EmptySequence.getInstance();
+            }
+        };
+    }
+
+    /**
+     * A listener of the marks of a profiling XSLT.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Records a mark.
+         *
+         * @param ruleId The ID of the rule template.
+         * @param index  The index of the next assert, or the number of asserts for the last mark of the template.
+         */
+        void mark(@NonNull String ruleId, int index);
+    }
+}
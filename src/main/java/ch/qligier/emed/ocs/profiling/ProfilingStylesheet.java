@@ -0,0 +1,207 @@
+package ch.qligier.emed.ocs.profiling;
+
+import ch.qligier.emed.ocs.Utils;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XsltExecutable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.dom.DOMSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The profiling variant of the optimized XSLT files.
+ * <p>
+ * In each rule template, a call to the {@code prof:mark(ruleId, index)} extension function is inserted before each
+ * assert or report, and before the recursive {@code xsl:apply-templates}. The time between two marks is the
+ * evaluation time of an assert; the first mark counts a fire of the rule. The extension function is provided by
+ * {@link MarkFunction}.
+ *
+ * @author Quentin Ligier
+ */
+public class ProfilingStylesheet {
+
+    /**
+     * The namespace of the profiling extension functions.
+     */
+    public static final String NAMESPACE = "urn:ch:qligier:emed:ocs:profiling";
+
+    /**
+     * The prefix of the profiling extension functions in the XSLT files.
+     */
+    static final String PREFIX = "prof";
+
+    /**
+     * The local name of the mark extension function.
+     */
+    static final String MARK_FUNCTION = "mark";
+
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+    private static final String SVRL_NAMESPACE = "http://purl.oclc.org/dsdl/svrl";
+
+    private ProfilingStylesheet() {}
+
+    /**
+     * Instruments an optimized XSLT document for profiling.
+     *
+     * @param xsltDocument The XSLT document. Mutated.
+     */
+    public static void instrument(@NonNull final Document xsltDocument) {
+        final Element stylesheet = xsltDocument.getDocumentElement();
+        stylesheet.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + PREFIX, NAMESPACE);
+        final String excludedPrefixes = stylesheet.getAttribute("exclude-result-prefixes");
+        stylesheet.setAttribute("exclude-result-prefixes", (excludedPrefixes + " " + PREFIX).strip());
+
+        for (final Element template : findRuleTemplates(xsltDocument)) {
+            final String ruleId = getRuleId(template);
+            final List<Element> assertBlocks = findAssertBlocks(template);
+            for (int i = 0; i < assertBlocks.size(); ++i) {
+                template.insertBefore(newMark(xsltDocument, ruleId, i), assertBlocks.get(i));
+            }
+            final Element mark = newMark(xsltDocument, ruleId, assertBlocks.size());
+            final Node applyTemplates = findLastChild(template, "apply-templates");
+            if (applyTemplates != null) {
+                template.insertBefore(mark, applyTemplates);
+            } else {
+                template.appendChild(mark);
+            }
+        }
+    }
+
+    /**
+     * Compiles the profiling variant of an XSLT file, that is instrumented in memory if needed. The marks are received
+     * by the {@link MarkFunction.Listener} of the thread that runs the transformation.
+     *
+     * @param processor The Saxon processor, in which the mark function is registered ({@link MarkFunction#register}).
+     * @param xsltFile  The optimized XSLT file, or its profiling variant.
+     * @return the compiled profiling XSLT.
+     * @throws Exception if the XSLT file cannot be read or compiled.
+     */
+    @NonNull
+    public static XsltExecutable compile(@NonNull final Processor processor,
+                                         @NonNull final File xsltFile) throws Exception {
+        final Document xsltDocument = Utils.newSafeDocumentBuilder().parse(xsltFile);
+        if (!xsltDocument.getDocumentElement().hasAttribute("xmlns:" + PREFIX)) {
+            instrument(xsltDocument);
+        }
+        return processor.newXsltCompiler().compile(new DOMSource(xsltDocument, xsltFile.toURI().toString()));
+    }
+
+    /**
+     * Reads the tests of the asserts and reports of each rule, in the order of their marks.
+     *
+     * @param xsltDocument The XSLT document, instrumented or not.
+     * @return the lists of tests, by rule ID.
+     */
+    @NonNull
+    public static Map<String, List<String>> readRuleTests(@NonNull final Document xsltDocument) {
+        final Map<String, List<String>> ruleTests = new LinkedHashMap<>();
+        for (final Element template : findRuleTemplates(xsltDocument)) {
+            final List<String> tests = new ArrayList<>();
+            for (final Element block : findAssertBlocks(template)) {
+                if ("if".equals(block.getLocalName())) {
+                    tests.add(block.getAttribute("test"));
+                } else {
+                    tests.add(((Element) findLastChild(block, "when")).getAttribute("test"));
+                }
+            }
+            ruleTests.put(getRuleId(template), tests);
+        }
+        return ruleTests;
+    }
+
+    /**
+     * Finds the rule templates, i.e. the templates that output an {@code svrl:fired-rule} element.
+     *
+     * @param xsltDocument The XSLT document.
+     * @return the list of rule templates.
+     */
+    @NonNull
+    private static List<Element> findRuleTemplates(@NonNull final Document xsltDocument) {
+        final List<Element> templates = new ArrayList<>();
+        final NodeList nodes = xsltDocument.getDocumentElement().getElementsByTagNameNS(XSLT_NAMESPACE, "template");
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            final Element template = (Element) nodes.item(i);
+            if (getRuleId(template) != null) {
+                templates.add(template);
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Returns the rule ID of a template.
+     *
+     * @param template The template.
+     * @return the rule ID, or {@code null} if the template is not a rule template.
+     */
+    private static String getRuleId(@NonNull final Element template) {
+        for (Node child = template.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof final Element element && SVRL_NAMESPACE.equals(element.getNamespaceURI())
+                && "fired-rule".equals(element.getLocalName()) && element.hasAttribute("id")) {
+                return element.getAttribute("id");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the assert ({@code xsl:choose}) and report ({@code xsl:if}) blocks of a rule template.
+     *
+     * @param template The rule template.
+     * @return the list of blocks, in the definition order.
+     */
+    @NonNull
+    private static List<Element> findAssertBlocks(@NonNull final Element template) {
+        final List<Element> blocks = new ArrayList<>();
+        for (Node child = template.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof final Element element && XSLT_NAMESPACE.equals(element.getNamespaceURI())
+                && ("choose".equals(element.getLocalName()) || "if".equals(element.getLocalName()))) {
+                blocks.add(element);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Finds the last XSLT child element with a given local name.
+     *
+     * @param parent    The parent element.
+     * @param localName The local name of the XSLT element.
+     * @return the last matching child, or {@code null} if there is none.
+     */
+    private static Node findLastChild(@NonNull final Element parent,
+                                      @NonNull final String localName) {
+        for (Node child = parent.getLastChild(); child != null; child = child.getPreviousSibling()) {
+            if (XSLT_NAMESPACE.equals(child.getNamespaceURI()) && localName.equals(child.getLocalName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a mark instruction.
+     *
+     * @param xsltDocument The XSLT document.
+     * @param ruleId       The rule ID.
+     * @param index        The index of the next assert, or the number of asserts for the last mark.
+     * @return the {@code xsl:sequence} element.
+     */
+    @NonNull
+    private static Element newMark(@NonNull final Document xsltDocument,
+                                   @NonNull final String ruleId,
+                                   final int index) {
+        final Element mark = xsltDocument.createElementNS(XSLT_NAMESPACE, "xsl:sequence");
+        mark.setAttribute("select",
+            PREFIX + ":" + MARK_FUNCTION + "('" + ruleId.replace("'", "''") + "', " + index + ")");
+        return mark;
+    }
+}
@@ -0,0 +1,212 @@
+package ch.qligier.emed.ocs.profiling;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * A rule profile: the statistics of the rules and asserts of an XSLT file over a corpus of documents.
+ * <p>
+ * It's written as a tab-separated file: a {@code documents} line with the number of profiled documents, a header line,
+ * then one line per assert or report with the rule ID, the rule fires, the assert index, evaluations, failures,
+ * cumulative time in nanoseconds and test. Tabs, line breaks and backslashes in tests are escaped with a backslash.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+public class RuleProfile {
+
+    /**
+     * The header line of the profile files.
+     */
+    static final String HEADER = "rule_id\tfires\tassert_index\tevaluations\tfailures\tnanos\ttest";
+
+    /**
+     * The number of profiled documents.
+     */
+    private long documents;
+
+    /**
+     * The rule statistics, by rule ID.
+     */
+    @NonNull
+    private final Map<String, RuleStatistics> rules = new LinkedHashMap<>();
+
+    /**
+     * Returns the statistics of a rule.
+     *
+     * @param ruleId The rule ID.
+     * @return the rule statistics, or {@code null} if the rule has never fired.
+     */
+    @Nullable
+    public RuleStatistics getRule(@NonNull final String ruleId) {
+        return this.rules.get(ruleId);
+    }
+
+    /**
+     * Returns the rules with the highest cumulative evaluation time.
+     *
+     * @param limit The maximum number of rules to return.
+     * @return the rule statistics, by descending cumulative evaluation time.
+     */
+    @NonNull
+    public List<RuleStatistics> getTopCostRules(final int limit) {
+        return this.rules.values().stream()
+            .sorted(Comparator.comparingLong(RuleStatistics::getNanos).reversed())
+            .limit(limit)
+            .toList();
+    }
+
+    /**
+     * Returns the cumulative evaluation time of all rules.
+     *
+     * @return the cumulative evaluation time, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return this.rules.values().stream().mapToLong(RuleStatistics::getNanos).sum();
+    }
+
+    /**
+     * Increments the number of profiled documents.
+     */
+    void addDocument() {
+        ++this.documents;
+    }
+
+    /**
+     * Returns the statistics of a rule, creating them if needed.
+     *
+     * @param ruleId The rule ID.
+     * @param tests  The tests of the rule asserts and reports, in the rule order.
+     * @return the rule statistics.
+     */
+    @NonNull
+    RuleStatistics getOrCreateRule(@NonNull final String ruleId,
+                                   @NonNull final List<String> tests) {
+        return this.rules.computeIfAbsent(ruleId, id -> {
+            final List<AssertStatistics> asserts = new ArrayList<>(tests.size());
+            for (final String test : tests) {
+                asserts.add(new AssertStatistics(test, 0, 0, 0));
+            }
+            return new RuleStatistics(id, 0, asserts);
+        });
+    }
+
+    /**
+     * Writes the profile to a file.
+     *
+     * @param profileFile The file to write.
+     * @throws IOException if any IO error occurs.
+     */
+    public void write(@NonNull final File profileFile) throws IOException {
+        try (final BufferedWriter writer = Files.newBufferedWriter(profileFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("documents\t" + this.documents);
+            writer.newLine();
+            writer.write(HEADER);
+            writer.newLine();
+            for (final RuleStatistics rule : this.rules.values()) {
+                for (int i = 0; i < rule.getAsserts().size(); ++i) {
+                    final AssertStatistics statistics = rule.getAsserts().get(i);
+                    writer.write(String.join("\t",
+                        rule.getRuleId(),
+                        String.valueOf(rule.getFires()),
+                        String.valueOf(i),
+                        String.valueOf(statistics.getEvaluations()),
+                        String.valueOf(statistics.getFailures()),
+                        String.valueOf(statistics.getNanos()),
+                        escape(statistics.getTest())));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a profile from a file.
+     *
+     * @param profileFile The file to read.
+     * @return the rule profile.
+     * @throws IOException if any IO error occurs or if the file is not a valid profile.
+     */
+    @NonNull
+    public static RuleProfile read(@NonNull final File profileFile) throws IOException {
+        final RuleProfile profile = new RuleProfile();
+        try (final BufferedReader reader = Files.newBufferedReader(profileFile.toPath(), StandardCharsets.UTF_8)) {
+            final String documentsLine = reader.readLine();
+            if (documentsLine == null || !documentsLine.startsWith("documents\t")
+                || !HEADER.equals(reader.readLine())) {
+                throw new IOException("The file is not a rule profile: " + profileFile);
+            }
+            try {
+                profile.documents = Long.parseLong(documentsLine.substring("documents\t".length()));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    final String[] columns = line.split("\t", 7);
+                    if (columns.length != 7) {
+                        throw new IOException("Invalid line in the rule profile: " + line);
+                    }
+                    final RuleStatistics rule = profile.rules.computeIfAbsent(columns[0],
+                        id -> new RuleStatistics(id, 0, new ArrayList<>()));
+                    rule.setFires(Long.parseLong(columns[1]));
+                    rule.getAsserts().add(new AssertStatistics(
+                        unescape(columns[6]),
+                        Long.parseLong(columns[3]),
+                        Long.parseLong(columns[4]),
+                        Long.parseLong(columns[5])
+                    ));
+                }
+            } catch (final NumberFormatException exception) {
+                throw new IOException("Invalid number in the rule profile: " + profileFile, exception);
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Escapes a value for a tab-separated line.
+     *
+     * @param value The value to escape.
+     * @return the escaped value.
+     */
+    @NonNull
+    static String escape(@NonNull final String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Unescapes a value of a tab-separated line.
+     *
+     * @param value The escaped value.
+     * @return the original value.
+     */
+    @NonNull
+    static String unescape(@NonNull final String value) {
+        final StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            final char character = value.charAt(i);
+            if (character != '\\' || i == value.length() - 1) {
+                builder.append(character);
+                continue;
+            }
+            final char escaped = value.charAt(++i);
+            builder.append(switch (escaped) {
+                case 't' -> '\t';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                default -> escaped;
+            });
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package ch.qligier.emed.ocs.profiling;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.validator.SvrlFinding;
+import ch.qligier.emed.ocs.validator.ValidationReport;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.*;
+import org.w3c.dom.Document;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A profiler of the optimized XSLT files. It runs the profiling variant of an XSLT file (see
+ * {@link ProfilingStylesheet}) over documents and accumulates the rule fires, the assert evaluations and their time;
+ * the failures are counted from the SVRL output.
+ * <p>
+ * A profiler is not thread-safe, a corpus is profiled sequentially to keep the timings comparable.
+ *
+ * @author Quentin Ligier
+ */
+public class RuleProfiler {
+
+    private static final Logger LOG = Logger.getLogger(RuleProfiler.class.getName());
+
+    /**
+     * The compiled profiling XSLT.
+     */
+    private final XsltExecutable executable;
+
+    /**
+     * The tests of the asserts and reports of each rule, by rule ID.
+     */
+    private final Map<String, List<String>> ruleTests;
+
+    /**
+     * The accumulated profile.
+     */
+    @Getter
+    private final RuleProfile profile = new RuleProfile();
+
+    /**
+     * The statistics of the rule that fired last, or {@code null}.
+     */
+    private RuleStatistics currentRule;
+
+    /**
+     * The time of the last mark, in nanoseconds.
+     */
+    private long lastMarkNanos;
+
+    /**
+     * Constructor. The XSLT file is instrumented in memory if it's not the profiling variant.
+     *
+     * @param processor The Saxon processor. The profiling extension function is registered on it.
+     * @param xsltFile  The optimized XSLT file, or its profiling variant.
+     * @throws Exception if the XSLT file cannot be read or compiled.
+     */
+    public RuleProfiler(@NonNull final Processor processor,
+                        @NonNull final File xsltFile) throws Exception {
+        final Document xsltDocument = Utils.newSafeDocumentBuilder().parse(xsltFile);
+        if (!xsltDocument.getDocumentElement().hasAttribute("xmlns:" + ProfilingStylesheet.PREFIX)) {
+            ProfilingStylesheet.instrument(xsltDocument);
+        }
+        this.ruleTests = ProfilingStylesheet.readRuleTests(xsltDocument);
+
+        MarkFunction.register(processor);
+        this.executable = processor.newXsltCompiler()
+            .compile(new DOMSource(xsltDocument, xsltFile.toURI().toString()));
+    }
+
+    /**
+     * Profiles the validation of a document.
+     *
+     * @param source The document to validate.
+     * @return the validation report.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public ValidationReport profile(@NonNull final Source source) throws SaxonApiException {
+        final Xslt30Transformer transformer = this.executable.load30();
+        final XdmDestination destination = new XdmDestination();
+        MarkFunction.setListener(this::mark);
+        try {
+            transformer.transform(source, destination);
+        } finally {
+            MarkFunction.setListener(null);
+            this.currentRule = null;
+        }
+
+        final ValidationReport report = ValidationReport.fromSvrl(destination.getXdmNode(), false);
+        for (final SvrlFinding finding : report.getFindings()) {
+            final RuleStatistics rule = finding.getRuleId() == null ? null : this.profile.getRule(finding.getRuleId());
+            final AssertStatistics statistics = rule == null ? null : rule.getAssert(finding.getTest());
+            if (statistics != null) {
+                statistics.setFailures(statistics.getFailures() + 1);
+            }
+        }
+        this.profile.addDocument();
+        return report;
+    }
+
+    /**
+     * Records a mark of the profiling XSLT.
+     *
+     * @param ruleId The ID of the rule template.
+     * @param index  The index of the next assert, or the number of asserts for the last mark of the template.
+     */
+    private void mark(@NonNull final String ruleId,
+                      final int index) {
+        final long nanos = System.nanoTime();
+        if (index == 0) {
+            this.currentRule = this.profile.getOrCreateRule(ruleId, this.ruleTests.getOrDefault(ruleId, List.of()));
+            this.currentRule.setFires(this.currentRule.getFires() + 1);
+        } else if (this.currentRule != null && this.currentRule.getRuleId().equals(ruleId)
+            && index <= this.currentRule.getAsserts().size()) {
+            final AssertStatistics statistics = this.currentRule.getAsserts().get(index - 1);
+            statistics.setEvaluations(statistics.getEvaluations() + 1);
+            statistics.setNanos(statistics.getNanos() + nanos - this.lastMarkNanos);
+        }
+        // The time spent in the mark itself is not attributed to the next assert
+        this.lastMarkNanos = System.nanoTime();
+    }
+
+    /**
+     * Profiles an XSLT file over a corpus of documents and writes the rule profile.
+     *
+     * @param args The XSLT file, the directory of the XML documents and the profile file to write.
+     * @throws Exception if the profiling fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: RuleProfiler <xslt file> <corpus directory> <profile file>");
+        }
+        final RuleProfiler profiler = new RuleProfiler(new Processor(false), new File(args[0]));
+        for (final File document : Utils.listFiles(new File(args[1]))) {
+            if (document.getName().endsWith(".xml")) {
+                profiler.profile(new StreamSource(document));
+            }
+        }
+        profiler.getProfile().write(new File(args[2]));
+
+        final RuleProfile profile = profiler.getProfile();
+        LOG.info("Profiled " + profile.getDocuments() + " documents, " + profile.getRules().size() + " rules fired");
+        final long totalNanos = Math.max(1, profile.getTotalNanos());
+        for (final RuleStatistics rule : profile.getTopCostRules(10)) {
+            LOG.info(String.format("- %s: %d fires, %d failures, %.1f%% of the time", rule.getRuleId(),
+                rule.getFires(), rule.getFailures(), 100.0 * rule.getNanos() / totalNanos));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ch.qligier.emed.ocs.profiling;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * The statistics of a rule over a profiled corpus.
+ *
+ * @author Quentin Ligier
+ */
+@Data
+@AllArgsConstructor
+public class RuleStatistics {
+
+    /**
+     * The rule ID.
+     */
+    @NonNull
+    private String ruleId;
+
+    /**
+     * The number of times the rule has fired.
+     */
+    private long fires;
+
+    /**
+     * The statistics of the rule asserts and reports, in the rule order.
+     */
+    @NonNull
+    private List<AssertStatistics> asserts;
+
+    /**
+     * Returns the cumulative evaluation time of the rule asserts and reports.
+     *
+     * @return the cumulative evaluation time, in nanoseconds.
+     */
+    public long getNanos() {
+        return this.asserts.stream().mapToLong(AssertStatistics::getNanos).sum();
+    }
+
+    /**
+     * Returns the number of failed asserts and successful reports of the rule.
+     *
+     * @return the number of failures.
+     */
+    public long getFailures() {
+        return this.asserts.stream().mapToLong(AssertStatistics::getFailures).sum();
+    }
+
+    /**
+     * Returns the statistics of an assert or report.
+     *
+     * @param test The test as an XPath expression.
+     * @return the statistics, or {@code null} if the test is unknown.
+     */
+    public AssertStatistics getAssert(@NonNull final String test) {
+        return this.asserts.stream().filter(statistics -> test.equals(statistics.getTest())).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * The profiling of the optimized XSLT files: an instrumented variant of the XSLT files records the fires, failures and
+ * evaluation time of each rule and assert over a corpus of documents, in a rule profile that guides the conversion.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.profiling;
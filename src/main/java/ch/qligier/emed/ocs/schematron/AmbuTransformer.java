@@ -1,11 +1,9 @@
 package ch.qligier.emed.ocs.schematron;
 
-import ch.qligier.emed.ocs.schematron.definition.SchematronAssert;
 import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
-import ch.qligier.emed.ocs.schematron.definition.SchematronRule;
-import ch.qligier.emed.ocs.schematron.definition.SchematronRuleChild;
 import lombok.NonNull;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -17,28 +15,32 @@ import java.util.Set;
  **/
 public class AmbuTransformer implements DefinitionTransformer {
 
+    /**
+     * The literal that selects the asserts whose value set references are replaced.
+     */
+    private static final String VALUE_SET_LOOKUP = "doc('include/voc";
+
     /**
      * Applies the transformation to the Schematron definition.
      *
      * @param definition The Schematron definition. Mutated.
      */
     public void transform(@NonNull final SchematronDefinition definition) {
-        // Remove forbidden rules
-        for (final String forbiddenRuleId : getForbiddenRules()) {
-            definition.getEnabledRules().remove(forbiddenRuleId);
-            definition.getDefinedRules().remove(forbiddenRuleId);
-        }
-
-        // Replace value set references
-        for (final SchematronRule rule : definition.getDefinedRules().values()) {
-            for (final SchematronRuleChild child : rule.getChildren()) {
-                if (child instanceof final SchematronAssert asser && asser.getTest().contains("doc('include/voc")) {
-                    for (final var entry : getValueSetReplacementMap().entrySet()) {
-                        asser.setTest(asser.getTest().replace(entry.getKey(), entry.getValue()));
-                    }
-                }
-            }
-        }
+        new RewritePipeline(List.of(this.getRewrites())).apply(definition);
+    }
+
+    /**
+     * Returns the rewrites of the transformer: the forbidden rules are removed and the value set references are
+     * replaced in the asserts that look up a value set.
+     *
+     * @return the rewrites.
+     */
+    @NonNull
+    @Override
+    public ExpressionRewrites getRewrites() {
+        return new ExpressionRewrites()
+            .removeRules(getForbiddenRules())
+            .replaceLiterals(VALUE_SET_LOOKUP, getValueSetReplacementMap());
     }
 
     public static Map<String, String> getValueSetReplacementMap() {
@@ -1,12 +1,21 @@
 package ch.qligier.emed.ocs.schematron;
 
 import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.fastpath.FastPathCompiler;
+import ch.qligier.emed.ocs.fastpath.FastPathProgram;
+import ch.qligier.emed.ocs.metrics.StageRecorder;
+import ch.qligier.emed.ocs.profiling.ProfilingStylesheet;
 import ch.qligier.emed.ocs.schematron.definition.*;
 import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import ch.qligier.emed.ocs.valueset.ValueSetLookupRewriter;
 import com.helger.commons.io.resource.FileSystemResource;
 import com.helger.schematron.sch.TransformerCustomizerSCH;
 import com.helger.schematron.sch.SchematronProviderXSLTFromSCH;
 import lombok.NonNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.annotation.Nullable;
@@ -18,8 +27,8 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
+import java.io.Writer;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,6 +50,37 @@ public class CdaChEmedSchematronOptimizer {
      */
     private static final Pattern WHITESPACES_IN_ATTR_SELECTOR_PATTERN = Pattern.compile("(\\[@[a-zA-Z0-9]+)\\s*=\\s*");
 
+    /**
+     * The estimated cost of a descendant axis step ('//') in an XPath expression, in addition to its length.
+     */
+    private static final int DESCENDANT_AXIS_COST = 100;
+
+    /**
+     * The estimated cost of an external document lookup ('doc(') in an XPath expression, in addition to its length.
+     */
+    private static final int DOCUMENT_LOOKUP_COST = 1000;
+
+    /**
+     * The namespace of the XSLT elements.
+     */
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+
+    /**
+     * The namespace of the SVRL elements.
+     */
+    private static final String SVRL_NAMESPACE = "http://purl.oclc.org/dsdl/svrl";
+
+    /**
+     * The cache of the included files, shared by all the parsed Schematron files: the CDA-CH-EMED Schematron files
+     * include the same files, that are only parsed once.
+     */
+    private static final IncludeCache INCLUDE_CACHE = new IncludeCache();
+
+    /**
+     * The name of the XPath normalization in the expression tables, see {@link #transform(String)}.
+     */
+    private static final String TRANSFORM_REWRITE_NAME = "cdachemed-transform";
+
     /**
      * Optimizes a Schematron file without any transformer.
      *
@@ -62,10 +102,10 @@ public class CdaChEmedSchematronOptimizer {
     /**
      * Optimizes a Schematron file.
      *
-     * @param schematronFile The original Schematron file to convert.
-     * @param optimizedFile  The optimized Schematron file to write.
-     * @param definitionTransformers   The transformers to apply.
-     * @param roleToKeep     The only assert/report role to keep, or {@code null} to disable filtering.
+     * @param schematronFile         The original Schematron file to convert.
+     * @param optimizedFile          The optimized Schematron file to write.
+     * @param definitionTransformers The transformers to apply.
+     * @param roleToKeep             The only assert/report role to keep, or {@code null} to disable filtering.
      * @throws IOException                  if any IO error occurs.
      * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
      * @throws SAXException                 if any parsing error occurs.
@@ -76,52 +116,207 @@ public class CdaChEmedSchematronOptimizer {
                                           @NonNull final File optimizedFile,
                                           @NonNull final List<DefinitionTransformer> definitionTransformers,
                                           @Nullable final String roleToKeep) throws Exception {
-        final SchematronParser parser = new SchematronParser();
-        final SchematronDefinition definition = parser.parse(schematronFile);
+        optimizeSchematron(schematronFile, optimizedFile, definitionTransformers, roleToKeep, false);
+    }
+
+    /**
+     * Optimizes a Schematron file, optionally for a fail-fast validation. In that case, the patterns are ordered so
+     * that the cheapest ones and the template-ID one are evaluated first.
+     *
+     * @param schematronFile         The original Schematron file to convert.
+     * @param optimizedFile          The optimized Schematron file to write.
+     * @param definitionTransformers The transformers to apply.
+     * @param roleToKeep             The only assert/report role to keep, or {@code null} to disable filtering.
+     * @param failFast               Whether the definition is optimized for a fail-fast validation.
+     * @throws IOException                  if any IO error occurs.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws SAXException                 if any parsing error occurs.
+     * @throws SchematronParsingException   if the Schematron file is invalid.
+     * @throws TransformerException         if an unrecoverable error occurs during the course of the XML rendering.
+     */
+    public static void optimizeSchematron(@NonNull final File schematronFile,
+                                          @NonNull final File optimizedFile,
+                                          @NonNull final List<DefinitionTransformer> definitionTransformers,
+                                          @Nullable final String roleToKeep,
+                                          final boolean failFast) throws Exception {
+        optimizeSchematron(schematronFile, optimizedFile, definitionTransformers,
+            OutputProfile.forRole(roleToKeep, failFast));
+    }
+
+    /**
+     * Optimizes a Schematron file for an output profile.
+     *
+     * @param schematronFile         The original Schematron file to convert.
+     * @param optimizedFile          The optimized Schematron file to write.
+     * @param definitionTransformers The transformers to apply.
+     * @param profile                The output profile.
+     * @throws IOException                  if any IO error occurs.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws SAXException                 if any parsing error occurs.
+     * @throws SchematronParsingException   if the Schematron file is invalid.
+     * @throws TransformerException         if an unrecoverable error occurs during the course of the XML rendering.
+     */
+    public static void optimizeSchematron(@NonNull final File schematronFile,
+                                          @NonNull final File optimizedFile,
+                                          @NonNull final List<DefinitionTransformer> definitionTransformers,
+                                          @NonNull final OutputProfile profile) throws Exception {
+        optimizeDefinition(parseDefinition(schematronFile), optimizedFile, definitionTransformers, profile);
+    }
+
+    /**
+     * Parses a Schematron file and applies the changes that are common to all output profiles. The definition can
+     * then be copied and optimized for each profile with
+     * {@link #optimizeDefinition(SchematronDefinition, File, List, OutputProfile)}.
+     *
+     * @param schematronFile The original Schematron file to parse.
+     * @return the parsed Schematron definition.
+     * @throws IOException                  if any IO error occurs.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws SAXException                 if any parsing error occurs.
+     * @throws SchematronParsingException   if the Schematron file is invalid.
+     */
+    @NonNull
+    public static SchematronDefinition parseDefinition(@NonNull final File schematronFile) throws Exception {
+        return parseDefinition(schematronFile, new StageRecorder());
+    }
+
+    /**
+     * Parses a Schematron file with the {@link StreamingSchematronParser} and applies the changes that are common to
+     * all output profiles, recording the parsing stage (the includes are resolved while parsing).
+     *
+     * @param schematronFile The original Schematron file to parse.
+     * @param recorder       The recorder of the stages.
+     * @return the parsed Schematron definition.
+     * @throws IOException                  if any IO error occurs.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws SAXException                 if any parsing error occurs.
+     * @throws SchematronParsingException   if the Schematron file is invalid.
+     */
+    @NonNull
+    public static SchematronDefinition parseDefinition(@NonNull final File schematronFile,
+                                                       @NonNull final StageRecorder recorder) throws Exception {
+        final StreamingSchematronParser parser = new StreamingSchematronParser(INCLUDE_CACHE);
+        final SchematronDefinition definition = recorder.record("parse", () -> parser.parse(schematronFile));
 
         // Change the role from 'warn' to 'error' from the only assertion of the first pattern.
         // This will force an error if the CCE document is missing template IDs, otherwise this would only be a warning.
-        final String ruleId = definition.getPatterns().stream()
-            .filter(pattern -> definition.getRulesPerPattern().get(pattern.getId()).size() == 1)
-            .findFirst()
-            .map(pattern -> definition.getRulesPerPattern().get(pattern.getId()).get(0))
-            .orElse(null);
-        ((SchematronAssert) definition.getDefinedRules().get(ruleId).getChildren().get(0)).setRole("error");
-
-        for (final SchematronRule rule : definition.getDefinedRules().values()) {
-            if (roleToKeep != null) {
-                // Remove all reports and all asserts whose role are different from roleToKeep
-                rule.setChildren(
-                    rule.getChildren().stream()
-                        .filter((SchematronRuleChild child) -> {
-                            if (child instanceof final SchematronAssert schematronAssert) {
-                                return roleToKeep.equals(schematronAssert.getRole());
-                            } else if (child instanceof final SchematronReport schematronReport) {
-                                return roleToKeep.equals(schematronReport.getRole());
-                            } else {
-                                return true; // Keep the variables
-                            }
-                        }).toList()
-                );
-            }
+        final String ruleId = findTemplateIdRuleId(definition);
+        if (ruleId != null && definition.getDefinedRules().get(ruleId).getChildren().get(0)
+            instanceof final SchematronAssert templateIdAssert) {
+            templateIdAssert.setRole("error");
+        }
+        return definition;
+    }
 
-            // Normalize all XPath expression
-            if (rule.getContext() != null) {
-                rule.setContext(transform(rule.getContext()));
-            }
-            for (final SchematronRuleChild child : rule.getChildren()) {
-                if (child instanceof final SchematronAssert childAssert) {
-                    childAssert.setTest(transform(childAssert.getTest()));
-                }
+    /**
+     * Returns the cache of the included files that is used by {@link #parseDefinition(File, StageRecorder)}.
+     *
+     * @return the shared include cache.
+     */
+    @NonNull
+    public static IncludeCache getIncludeCache() {
+        return INCLUDE_CACHE;
+    }
+
+    /**
+     * Optimizes a parsed Schematron definition for an output profile and writes it.
+     *
+     * @param definition             The parsed Schematron definition. Mutated.
+     * @param optimizedFile          The optimized Schematron file to write.
+     * @param definitionTransformers The transformers to apply.
+     * @param profile                The output profile.
+     * @return the fast path program that has been extracted from the definition, or {@code null} if the profile does
+     * not use the fast path.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws TransformerException         if an unrecoverable error occurs during the course of the XML rendering.
+     */
+    @Nullable
+    public static FastPathProgram optimizeDefinition(@NonNull final SchematronDefinition definition,
+                                                     @NonNull final File optimizedFile,
+                                                     @NonNull final List<DefinitionTransformer> definitionTransformers,
+                                                     @NonNull final OutputProfile profile) throws Exception {
+        return optimizeDefinition(definition, optimizedFile, definitionTransformers, profile, new StageRecorder());
+    }
+
+    /**
+     * Optimizes a parsed Schematron definition for an output profile and writes it, recording each stage: the rewrite
+     * (the role filtering, the XPath transformation and the declarative transformers, in a single traversal), each
+     * other transformer, the value set lookup rewrite, the fail-fast ordering, the fast path extraction and the
+     * writing.
+     *
+     * @param definition             The parsed Schematron definition. Mutated.
+     * @param optimizedFile          The optimized Schematron file to write.
+     * @param definitionTransformers The transformers to apply.
+     * @param profile                The output profile.
+     * @param recorder               The recorder of the stages.
+     * @return the fast path program that has been extracted from the definition, or {@code null} if the profile does
+     * not use the fast path.
+     * @throws ParserConfigurationException if the implementation is not available or cannot be instantiated.
+     * @throws TransformerException         if an unrecoverable error occurs during the course of the XML rendering.
+     */
+    @Nullable
+    public static FastPathProgram optimizeDefinition(@NonNull final SchematronDefinition definition,
+                                                     @NonNull final File optimizedFile,
+                                                     @NonNull final List<DefinitionTransformer> definitionTransformers,
+                                                     @NonNull final OutputProfile profile,
+                                                     @NonNull final StageRecorder recorder) throws Exception {
+        // The role filtering, the XPath normalization and the declarative transformers are applied in one traversal
+        final List<ExpressionRewrites> rewrites = new ArrayList<>();
+        rewrites.add(profile.toRewrites());
+        for (final var transformer : definitionTransformers) {
+            if (transformer.getRewrites() != null) {
+                rewrites.add(transformer.getRewrites());
             }
         }
+        recorder.run("rewrite", () -> {
+            definition.getPatterns().removeIf(pattern -> !profile.keepsPattern(pattern.getId()));
+            // The normalization results are shared by all the definitions and output profiles
+            new RewritePipeline(definition.getExpressionTable().memoize(TRANSFORM_REWRITE_NAME,
+                CdaChEmedSchematronOptimizer::transform), rewrites).apply(definition);
+        });
 
         for (final var transformer : definitionTransformers) {
-            transformer.transform(definition);
+            if (transformer.getRewrites() == null) {
+                recorder.run("transformer:" + transformer.getClass().getSimpleName(),
+                    () -> transformer.transform(definition));
+            }
+        }
+
+        if (profile.isValueSetIndex()) {
+            recorder.run("valueSetIndex", () -> ValueSetLookupRewriter.rewrite(definition));
+        }
+
+        if (profile.isFailFast() && definitionTransformers.stream().noneMatch(DefinitionTransformer::ordersPatterns)) {
+            recorder.run("failFastOrdering",
+                () -> orderPatternsForFailFast(definition, findTemplateIdRuleId(definition)));
         }
 
-        final SchematronWriter writer = new SchematronWriter();
-        writer.writeSchematron(definition, optimizedFile);
+        // Move the simplest asserts to the fast path, the XSLT only keeps the remaining ones
+        FastPathProgram fastPathProgram = null;
+        if (profile.isFastPath()) {
+            fastPathProgram = recorder.record("fastPathExtraction", () -> FastPathCompiler.extract(definition));
+        }
+
+        final StreamingSchematronWriter writer = new StreamingSchematronWriter();
+        recorder.run("writeSchematron", () -> writer.writeSchematron(definition, optimizedFile));
+        return fastPathProgram;
+    }
+
+    /**
+     * Finds the rule that checks the presence of the document template ID: the only rule of the first pattern that
+     * contains a single rule.
+     *
+     * @param definition The Schematron definition.
+     * @return the rule ID or {@code null} if there is no such rule.
+     */
+    @Nullable
+    static String findTemplateIdRuleId(@NonNull final SchematronDefinition definition) {
+        return definition.getPatterns().stream()
+            .filter(pattern -> definition.getRulesPerPattern().getOrDefault(pattern.getId(), List.of()).size() == 1)
+            .findFirst()
+            .map(pattern -> definition.getRulesPerPattern().get(pattern.getId()).get(0))
+            .filter(ruleId -> definition.getDefinedRules().containsKey(ruleId))
+            .orElse(null);
     }
 
     /**
@@ -132,15 +327,185 @@ public class CdaChEmedSchematronOptimizer {
      */
     public static void convertToXslt(@NonNull final File schematronFile,
                                      @NonNull final File xsltFile) throws TransformerException, IOException {
+        convertToXslt(schematronFile, xsltFile, false);
+    }
+
+    /**
+     * Transforms a Schematron file to a 'compiled', XSLT file. A fail-fast XSLT terminates the transformation at the
+     * first failed assert with an {@code xsl:message} that contains the fired rule and the failed assert (with its
+     * location), instead of producing a complete SVRL report.
+     *
+     * @param schematronFile The source Schematron file.
+     * @param xsltFile       The destination XSLT file.
+     * @param failFast       Whether the XSLT shall terminate at the first failed assert.
+     */
+    public static void convertToXslt(@NonNull final File schematronFile,
+                                     @NonNull final File xsltFile,
+                                     final boolean failFast) throws TransformerException, IOException {
+        convertToXslt(schematronFile, xsltFile, failFast, false);
+    }
+
+    /**
+     * Transforms a Schematron file to a 'compiled', XSLT file, optionally as a fail-fast XSLT and/or as the profiling
+     * variant (see {@link ProfilingStylesheet}). The patterns whose rules are anchored on template IDs only traverse
+     * the anchor elements (see {@link TemplateIdDispatch}).
+     *
+     * @param schematronFile The source Schematron file.
+     * @param xsltFile       The destination XSLT file.
+     * @param failFast       Whether the XSLT shall terminate at the first failed assert.
+     * @param profiling      Whether the XSLT shall be instrumented for profiling.
+     */
+    public static void convertToXslt(@NonNull final File schematronFile,
+                                     @NonNull final File xsltFile,
+                                     final boolean failFast,
+                                     final boolean profiling) throws TransformerException, IOException {
         final TransformerCustomizerSCH transformerCustomizer = new TransformerCustomizerSCH();
+        if (failFast) {
+            transformerCustomizer.setParameters(Map.of("terminate", "assert"));
+        }
         final SchematronProviderXSLTFromSCH xsltTransformer =
             new SchematronProviderXSLTFromSCH(new FileSystemResource(schematronFile), transformerCustomizer);
+        final Document xsltDocument = xsltTransformer.getXSLTDocument();
+        if (xsltDocument == null) {
+            throw new TransformerException("The Schematron file cannot be converted to XSLT: " + schematronFile);
+        }
+        if (failFast) {
+            embedFailedAssertInTerminationMessages(xsltDocument);
+        }
+        TemplateIdDispatch.rewrite(xsltDocument);
+        if (profiling) {
+            ProfilingStylesheet.instrument(xsltDocument);
+        }
 
         final Transformer xmlTransformer = Utils.newTransformer();
-        xmlTransformer.transform(
-            new DOMSource(xsltTransformer.getXSLTDocument()),
-            new StreamResult(new FileWriter(xsltFile))
-        );
+        try (final Writer writer = new FileWriter(xsltFile)) {
+            xmlTransformer.transform(new DOMSource(xsltDocument), new StreamResult(writer));
+        }
+    }
+
+    /**
+     * Replaces the content of the termination messages of a fail-fast XSLT by a copy of the fired rule and of the
+     * failed assert that precedes them. The caller of the XSLT receives them in the message and does not have to rely
+     * on the incomplete SVRL output.
+     *
+     * @param xsltDocument The XSLT document. Mutated.
+     */
+    static void embedFailedAssertInTerminationMessages(@NonNull final Document xsltDocument) {
+        final NodeList messages = xsltDocument.getElementsByTagNameNS(XSLT_NAMESPACE, "message");
+        for (int i = 0; i < messages.getLength(); ++i) {
+            final Element message = (Element) messages.item(i);
+            if (!"yes".equals(message.getAttribute("terminate"))) {
+                continue;
+            }
+            Node failedAssert = message.getPreviousSibling();
+            while (failedAssert != null && !(SVRL_NAMESPACE.equals(failedAssert.getNamespaceURI())
+                && "failed-assert".equals(failedAssert.getLocalName()))) {
+                failedAssert = failedAssert.getPreviousSibling();
+            }
+            if (failedAssert == null) {
+                continue;
+            }
+            Node template = message.getParentNode();
+            while (template != null && !(XSLT_NAMESPACE.equals(template.getNamespaceURI())
+                && "template".equals(template.getLocalName()))) {
+                template = template.getParentNode();
+            }
+
+            while (message.hasChildNodes()) {
+                message.removeChild(message.getFirstChild());
+            }
+            if (template instanceof final Element templateElement) {
+                final NodeList firedRules = templateElement.getElementsByTagNameNS(SVRL_NAMESPACE, "fired-rule");
+                if (firedRules.getLength() > 0) {
+                    message.appendChild(firedRules.item(0).cloneNode(true));
+                }
+            }
+            message.appendChild(failedAssert.cloneNode(true));
+        }
+    }
+
+    /**
+     * Orders the patterns of a definition for a fail-fast validation: the pattern that contains the leading rule comes
+     * first, then the other patterns by ascending estimated cost. The order of patterns has no influence on the
+     * validation outcome, only on the order in which failed asserts are found.
+     *
+     * @param definition    The Schematron definition. Mutated.
+     * @param leadingRuleId The ID of the rule whose pattern shall come first, or {@code null}.
+     */
+    static void orderPatternsForFailFast(@NonNull final SchematronDefinition definition,
+                                         @Nullable final String leadingRuleId) {
+        final Map<String, Long> costs = new HashMap<>();
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
+        for (final SchematronPattern pattern : definition.getPatterns()) {
+            final List<String> ruleIds = definition.getRulesPerPattern().getOrDefault(pattern.getId(), List.of());
+            if (leadingRuleId != null && ruleIds.contains(leadingRuleId)) {
+                costs.put(pattern.getId(), -1L);
+                continue;
+            }
+            long cost = 0;
+            for (final String ruleId : ruleIds) {
+                if (definition.getDefinedRules().containsKey(ruleId)) {
+                    cost += estimateRuleCost(resolver.getResolvedRule(ruleId));
+                }
+            }
+            costs.put(pattern.getId(), cost);
+        }
+
+        final List<SchematronPattern> orderedPatterns = new ArrayList<>(definition.getPatterns());
+        orderedPatterns.sort(Comparator.comparingLong(pattern -> costs.get(pattern.getId())));
+        definition.getPatterns().clear();
+        definition.getPatterns().addAll(orderedPatterns);
+    }
+
+    /**
+     * Estimates the evaluation cost of a resolved rule from its XPath expressions.
+     *
+     * @param rule The resolved rule.
+     * @return the estimated cost.
+     */
+    static long estimateRuleCost(@NonNull final SchematronRule rule) {
+        long cost = rule.getContext() != null ? estimateExpressionCost(rule.getContext()) : 0;
+        for (final SchematronRuleChild child : rule.getChildren()) {
+            if (child instanceof final SchematronAssert schematronAssert) {
+                cost += estimateExpressionCost(schematronAssert.getTest());
+            } else if (child instanceof final SchematronReport schematronReport) {
+                cost += estimateExpressionCost(schematronReport.getTest());
+            } else if (child instanceof final SchematronLet schematronLet) {
+                cost += estimateExpressionCost(schematronLet.getValue());
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Estimates the evaluation cost of an XPath expression. The estimation is based on its length, descendant axis
+     * steps and external document lookups, which are the most expensive operations in CDA-CH-EMED expressions.
+     *
+     * @param xpathExpression The XPath expression.
+     * @return the estimated cost.
+     */
+    static long estimateExpressionCost(@NonNull final String xpathExpression) {
+        return xpathExpression.length()
+            + (long) DESCENDANT_AXIS_COST * countOccurrences(xpathExpression, "//")
+            + (long) DOCUMENT_LOOKUP_COST * countOccurrences(xpathExpression, "doc(");
+    }
+
+    /**
+     * Counts the non-overlapping occurrences of a substring in a string.
+     *
+     * @param string    The string in which to search.
+     * @param substring The substring to count.
+     * @return the number of occurrences.
+     */
+    private static int countOccurrences(@NonNull final String string,
+                                        @NonNull final String substring) {
+        int count = 0;
+        int index = string.indexOf(substring);
+        while (index >= 0) {
+            ++count;
+            index = string.indexOf(substring, index + substring.length());
+        }
+        return count;
     }
 
     /**
@@ -3,6 +3,8 @@ package ch.qligier.emed.ocs.schematron;
 import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
 import lombok.NonNull;
 
+import javax.annotation.Nullable;
+
 /**
  * A Schematron definition transformer.
  *
@@ -16,4 +18,26 @@ public interface DefinitionTransformer {
      * @param definition The Schematron definition. Mutated.
      */
     void transform(@NonNull final SchematronDefinition definition);
+
+    /**
+     * Returns whether the transformer sets the order of the patterns. If so, the patterns are not reordered by the
+     * estimated cost of the fail-fast profiles.
+     *
+     * @return {@code true} if the transformer orders the patterns, {@code false} otherwise.
+     */
+    default boolean ordersPatterns() {
+        return false;
+    }
+
+    /**
+     * Returns the declarative rewrites of the transformer. If the transformer declares rewrites, the optimizer applies
+     * them with the rewrites of the other transformers in a single traversal of the definition, with a
+     * {@link RewritePipeline}, instead of calling {@link #transform(SchematronDefinition)}.
+     *
+     * @return the rewrites, or {@code null} if the transformation is not declarative.
+     */
+    @Nullable
+    default ExpressionRewrites getRewrites() {
+        return null;
+    }
 }
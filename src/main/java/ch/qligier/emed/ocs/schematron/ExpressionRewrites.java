@@ -0,0 +1,156 @@
+package ch.qligier.emed.ocs.schematron;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The declarative rewrites of a Schematron definition: rule removals, role filtering, role changes and literal
+ * replacements in the assert tests. The rewrites of all transformers are applied together by a
+ * {@link RewritePipeline}, in a single traversal of the definition.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+public class ExpressionRewrites {
+
+    /**
+     * The IDs of the rules to remove.
+     */
+    private final Set<String> removedRuleIds = new LinkedHashSet<>();
+
+    /**
+     * The roles of the asserts and reports to keep, or {@code null} to keep all of them.
+     */
+    @Nullable
+    private Set<String> keptRoles;
+
+    /**
+     * The new roles of the asserts and reports, by current role.
+     */
+    private final Map<String, String> roleChanges = new LinkedHashMap<>();
+
+    /**
+     * The literal replacements in the assert tests.
+     */
+    private final List<LiteralReplacement> literalReplacements = new ArrayList<>();
+
+    /**
+     * Removes rules.
+     *
+     * @param ruleIds The IDs of the rules to remove.
+     * @return this instance.
+     */
+    @NonNull
+    public ExpressionRewrites removeRules(@NonNull final Collection<String> ruleIds) {
+        this.removedRuleIds.addAll(ruleIds);
+        return this;
+    }
+
+    /**
+     * Removes the asserts and reports whose role is not kept. The asserts and reports without role are removed.
+     *
+     * @param roles The roles to keep.
+     * @return this instance.
+     */
+    @NonNull
+    public ExpressionRewrites keepRoles(@NonNull final Set<String> roles) {
+        this.keptRoles = Set.copyOf(roles);
+        return this;
+    }
+
+    /**
+     * Changes the role of the asserts and reports. The role filtering applies to the current role.
+     *
+     * @param role    The current role.
+     * @param newRole The new role.
+     * @return this instance.
+     */
+    @NonNull
+    public ExpressionRewrites changeRole(@NonNull final String role,
+                                         @NonNull final String newRole) {
+        this.roleChanges.put(role, newRole);
+        return this;
+    }
+
+    /**
+     * Replaces literals in the assert tests.
+     *
+     * @param guard        A literal that shall be contained in the test for the replacements to apply, or
+     *                     {@code null} to apply them to all tests.
+     * @param replacements The replacements, by literal.
+     * @return this instance.
+     */
+    @NonNull
+    public ExpressionRewrites replaceLiterals(@Nullable final String guard,
+                                              @NonNull final Map<String, String> replacements) {
+        for (final Map.Entry<String, String> replacement : replacements.entrySet()) {
+            this.literalReplacements.add(new LiteralReplacement(replacement.getKey(), replacement.getValue(), guard));
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether an assert or report role is kept.
+     *
+     * @param role The role, or {@code null} if it's not specified.
+     * @return {@code true} if the role is kept, {@code false} otherwise.
+     */
+    public boolean keepsRole(@Nullable final String role) {
+        return this.keptRoles == null || (role != null && this.keptRoles.contains(role));
+    }
+
+    /**
+     * A literal replacement in the assert tests.
+     */
+    @Getter
+    public static final class LiteralReplacement {
+
+        /**
+         * The literal to replace.
+         */
+        @NonNull
+        private final String literal;
+
+        /**
+         * The replacement.
+         */
+        @NonNull
+        private final String replacement;
+
+        /**
+         * The literal that shall be contained in the test, or {@code null}.
+         */
+        @Nullable
+        private final String guard;
+
+        /**
+         * Constructor.
+         *
+         * @param literal     The literal to replace.
+         * @param replacement The replacement.
+         * @param guard       The literal that shall be contained in the test, or {@code null}.
+         */
+        LiteralReplacement(@NonNull final String literal,
+                           @NonNull final String replacement,
+                           @Nullable final String guard) {
+            this.literal = literal;
+            this.replacement = replacement;
+            this.guard = guard;
+        }
+
+        /**
+         * Returns the guard as a predicate of the test.
+         *
+         * @return the predicate.
+         */
+        @NonNull
+        Predicate<String> getGuardPredicate() {
+            final String requiredLiteral = this.guard;
+            return requiredLiteral == null ? test -> true : test -> test.contains(requiredLiteral);
+        }
+    }
+}
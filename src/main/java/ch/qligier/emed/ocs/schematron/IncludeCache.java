@@ -0,0 +1,155 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import lombok.NonNull;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the parsed included Schematron files, shared by {@link StreamingSchematronParser} instances. The files
+ * are keyed by their real path and are parsed again when their modification time or size changes, so that a build of
+ * all the Schematron files parses each include once. The parsed files are also keyed by their content hash: the
+ * identical files at different paths, e.g. the unchanged includes of two specification versions, are parsed once.
+ * <p>
+ * The cache is thread-safe. Two threads that miss the same file at the same time may both parse it, the last one
+ * wins; both results are equivalent.
+ *
+ * @author Quentin Ligier
+ */
+public class IncludeCache {
+
+    /**
+     * The parsed files, by real path.
+     */
+    private final ConcurrentMap<Path, IncludedFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * The root fragments of the parsed files, by content hash.
+     */
+    private final ConcurrentMap<String, Optional<IncludedFile.Fragment>> contents = new ConcurrentHashMap<>();
+
+    /**
+     * The number of lookups that found an up-to-date file.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that had to parse the file.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of outdated or new files that have been found by their content hash.
+     */
+    private final LongAdder contentHits = new LongAdder();
+
+    /**
+     * Returns the parsed content of a file, parsing it if it's missing or outdated and no file with the same content
+     * has been parsed.
+     *
+     * @param path   The file path.
+     * @param loader The parser of the file.
+     * @return the root fragment of the file, or {@code null} if it's ignored by the parser.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     */
+    IncludedFile.Fragment get(@NonNull final Path path,
+                              @NonNull final Loader loader)
+        throws IOException, SAXException, SchematronParsingException {
+        final Path realPath = path.toRealPath();
+        final BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        final IncludedFile cachedFile = this.files.get(realPath);
+        if (cachedFile != null && cachedFile.getLastModifiedTime().equals(attributes.lastModifiedTime())
+            && cachedFile.getSize() == attributes.size()) {
+            this.hits.increment();
+            return cachedFile.getRoot();
+        }
+
+        final String contentHash = Utils.contentHash(realPath);
+        final Optional<IncludedFile.Fragment> cachedContent = this.contents.get(contentHash);
+        final IncludedFile.Fragment root;
+        if (cachedContent != null) {
+            this.contentHits.increment();
+            root = cachedContent.orElse(null);
+        } else {
+            this.misses.increment();
+            root = loader.load(path);
+            this.contents.put(contentHash, Optional.ofNullable(root));
+        }
+        this.files.put(realPath, new IncludedFile(attributes.lastModifiedTime(), attributes.size(), root));
+        return root;
+    }
+
+    /**
+     * Returns the number of lookups that found an up-to-date file.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to parse the file.
+     *
+     * @return the number of cache misses, i.e. the number of parsed includes.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Returns the number of outdated or new files that have been found by their content hash, instead of being parsed.
+     *
+     * @return the number of content hits.
+     */
+    public long getContentHits() {
+        return this.contentHits.sum();
+    }
+
+    /**
+     * Returns the number of cached files.
+     *
+     * @return the cache size.
+     */
+    public int size() {
+        return this.files.size();
+    }
+
+    /**
+     * Removes all cached files.
+     */
+    public void clear() {
+        this.files.clear();
+        this.contents.clear();
+    }
+
+    /**
+     * A parser of an included file.
+     */
+    @FunctionalInterface
+    interface Loader {
+
+        /**
+         * Parses an included file.
+         *
+         * @param path The file path.
+         * @return the root fragment of the file, or {@code null} if it's ignored by the parser.
+         * @throws IOException                if any IO errors occur.
+         * @throws SAXException               if any parse errors occur.
+         * @throws SchematronParsingException if the Schematron file is invalid.
+         */
+        IncludedFile.Fragment load(@NonNull final Path path)
+            throws IOException, SAXException, SchematronParsingException;
+    }
+}
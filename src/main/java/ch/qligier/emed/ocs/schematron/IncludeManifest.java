@@ -0,0 +1,162 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.ContentDeduplicator;
+import ch.qligier.emed.ocs.schematron.definition.*;
+import ch.qligier.emed.ocs.valueset.ValueSetFunction;
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The manifest of the files that are loaded by a stylesheet through the XPath functions {@code doc()} and
+ * {@code document()}, e.g. the value set files, or that are looked up in the value set index through the
+ * {@link ValueSetFunction}. The references are collected from the expressions of the optimized definition, i.e. from
+ * the rules that are actually written in the stylesheet.
+ * <p>
+ * The manifest is written next to the stylesheet, one reference per line, relative to the stylesheet directory. It's
+ * used to copy only the needed files in the output directory.
+ *
+ * @author Quentin Ligier
+ */
+public class IncludeManifest {
+
+    /**
+     * The extension of the manifest files, appended to the base name of the stylesheet.
+     */
+    public static final String FILE_EXTENSION = ".includes";
+
+    /**
+     * The pattern of a reference to an included file: a relative path in a string literal first argument of
+     * {@code doc()}, {@code document()} or of the value set function.
+     */
+    private static final Pattern INCLUDE_REFERENCE = Pattern.compile("\\b(?:doc(?:ument)?|"
+        + ValueSetFunction.PREFIX + ":" + ValueSetFunction.LOCAL_NAME + ")\\(\\s*(['\"])(include/[^'\"]+)\\1");
+
+    /**
+     * The references to the included files, relative to the stylesheet directory and sorted.
+     */
+    @Getter
+    private final SortedSet<String> includes = new TreeSet<>();
+
+    /**
+     * Collects the references to the included files of a Schematron definition. Only the non-abstract rules are
+     * considered, with their extends resolved, like they are written in the stylesheet.
+     *
+     * @param definition The optimized Schematron definition.
+     * @return the manifest of the definition.
+     */
+    @NonNull
+    public static IncludeManifest of(@NonNull final SchematronDefinition definition) {
+        final IncludeManifest manifest = new IncludeManifest();
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            if (rule.isAbstract()) {
+                continue;
+            }
+            final SchematronRule resolvedRule = resolver.getResolvedRule(rule.getId());
+            manifest.collect(resolvedRule.getContext());
+            for (final SchematronRuleChild child : resolvedRule.getChildren()) {
+                if (child instanceof final SchematronAssert schematronAssert) {
+                    manifest.collect(schematronAssert.getTest());
+                } else if (child instanceof final SchematronReport schematronReport) {
+                    manifest.collect(schematronReport.getTest());
+                } else if (child instanceof final SchematronLet schematronLet) {
+                    manifest.collect(schematronLet.getValue());
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads a manifest file.
+     *
+     * @param manifestFile The manifest file.
+     * @return the read manifest.
+     * @throws IOException if the file cannot be read.
+     */
+    @NonNull
+    public static IncludeManifest read(@NonNull final Path manifestFile) throws IOException {
+        final IncludeManifest manifest = new IncludeManifest();
+        for (final String line : Files.readAllLines(manifestFile, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                manifest.includes.add(line.strip());
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest, one reference per line.
+     *
+     * @param manifestFile The destination file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(@NonNull final Path manifestFile) throws IOException {
+        Files.write(manifestFile, this.includes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds the references of another manifest to this one.
+     *
+     * @param other The other manifest.
+     */
+    public void addAll(@NonNull final IncludeManifest other) {
+        this.includes.addAll(other.includes);
+    }
+
+    /**
+     * Copies the referenced files from a source directory to a target directory. The files that are already present in
+     * the target directory are replaced.
+     *
+     * @param sourceDirectory The directory to which the references are relative in the source.
+     * @param targetDirectory The directory to which the references are relative in the target.
+     * @throws IOException if a referenced file is missing or cannot be copied.
+     */
+    public void copyIncludes(@NonNull final Path sourceDirectory,
+                             @NonNull final Path targetDirectory) throws IOException {
+        this.copyIncludes(sourceDirectory, targetDirectory, new ContentDeduplicator());
+    }
+
+    /**
+     * Copies the referenced files from a source directory to a target directory, the identical files are linked by the
+     * deduplicator. The files that are already present in the target directory are replaced.
+     *
+     * @param sourceDirectory The directory to which the references are relative in the source.
+     * @param targetDirectory The directory to which the references are relative in the target.
+     * @param deduplicator    The deduplicator of the copied files, that can be shared by multiple copies.
+     * @throws IOException if a referenced file is missing or cannot be copied.
+     */
+    public void copyIncludes(@NonNull final Path sourceDirectory,
+                             @NonNull final Path targetDirectory,
+                             @NonNull final ContentDeduplicator deduplicator) throws IOException {
+        for (final String include : this.includes) {
+            final Path target = targetDirectory.resolve(include);
+            Files.createDirectories(target.getParent());
+            deduplicator.copy(sourceDirectory.resolve(include), target);
+        }
+    }
+
+    /**
+     * Collects the references to the included files of an XPath expression.
+     *
+     * @param expression The XPath expression, or {@code null}.
+     */
+    private void collect(@Nullable final String expression) {
+        if (expression == null || !expression.contains("include/")) {
+            return;
+        }
+        final Matcher matcher = INCLUDE_REFERENCE.matcher(expression);
+        while (matcher.find()) {
+            this.includes.add(matcher.group(2));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.SchematronPattern;
+import ch.qligier.emed.ocs.schematron.definition.SchematronRule;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The parsed content of an included Schematron file, as stored in the {@link IncludeCache}: the root element of the
+ * file, as a fragment.
+ * <p>
+ * The fragments are never modified once parsed, they are shared by the parsers and threads. The rules and patterns are
+ * only handed out as copies; the nested includes are kept as references and resolved by the parser, so that each file
+ * is cached once and the cyclic includes are still detected. The fragments don't depend on the location of the file,
+ * the files with the same content share them.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@AllArgsConstructor
+final class IncludedFile {
+
+    /**
+     * The last modification time of the file when it was parsed.
+     */
+    @NonNull
+    private final FileTime lastModifiedTime;
+
+    /**
+     * The size of the file when it was parsed, in bytes.
+     */
+    private final long size;
+
+    /**
+     * The root element of the file, or {@code null} if it's ignored by the parser.
+     */
+    @Nullable
+    private final Fragment root;
+
+    /**
+     * Generates a rule or pattern ID, for the elements that have none.
+     *
+     * @return a new unique ID.
+     */
+    @NonNull
+    static String generateId() {
+        return "id_" + UUID.randomUUID().toString().replace("-", "_");
+    }
+
+    /**
+     * An element of an included file.
+     */
+    interface Fragment {
+    }
+
+    /**
+     * An 'include' element, the 'href' attribute is resolved lazily against the directory of the including file.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class IncludeFragment implements Fragment {
+
+        /**
+         * The value of the 'href' attribute, or an empty string.
+         */
+        @NonNull
+        private final String href;
+    }
+
+    /**
+     * A 'ns' element. The attributes are checked when the fragment is used at the root, like the other parsers do.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class NamespaceFragment implements Fragment {
+
+        /**
+         * The namespace prefix, or {@code null}.
+         */
+        @Nullable
+        private final String prefix;
+
+        /**
+         * The namespace URI, or {@code null}.
+         */
+        @Nullable
+        private final String uri;
+    }
+
+    /**
+     * A 'title' element.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class TitleFragment implements Fragment {
+
+        /**
+         * The stripped title.
+         */
+        @NonNull
+        private final String title;
+    }
+
+    /**
+     * A 'rule' element.
+     */
+    @AllArgsConstructor
+    static final class RuleFragment implements Fragment {
+
+        /**
+         * The parsed rule, never handed out.
+         */
+        @NonNull
+        private final SchematronRule rule;
+
+        /**
+         * Whether the rule ID has been generated.
+         */
+        private final boolean generatedId;
+
+        /**
+         * Returns a copy of the rule. A new ID is generated if the rule has none in the file, as the file may be
+         * included multiple times.
+         *
+         * @param patternId The pattern ID if it has been defined or {@code null}.
+         * @return the copied rule.
+         */
+        @NonNull
+        SchematronRule newRule(@Nullable final String patternId) {
+            final SchematronRule copy = this.rule.clone();
+            if (this.generatedId) {
+                copy.setId(generateId());
+            }
+            copy.setPattern(patternId);
+            return copy;
+        }
+    }
+
+    /**
+     * A 'pattern' element, with its rules and the includes of its rules.
+     */
+    @AllArgsConstructor
+    static final class PatternFragment implements Fragment {
+
+        /**
+         * The parsed pattern, never handed out.
+         */
+        @NonNull
+        private final SchematronPattern pattern;
+
+        /**
+         * Whether the pattern ID has been generated.
+         */
+        private final boolean generatedId;
+
+        /**
+         * The rules and includes of the pattern, in document order.
+         */
+        @Getter
+        @NonNull
+        private final List<Fragment> children;
+
+        /**
+         * Returns a copy of the pattern. A new ID is generated if the pattern has none in the file.
+         *
+         * @return the copied pattern.
+         */
+        @NonNull
+        SchematronPattern newPattern() {
+            final SchematronPattern copy = this.pattern.clone();
+            if (this.generatedId) {
+                copy.setId(generateId());
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ch.qligier.emed.ocs.schematron;
+
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A replacer of multiple literal patterns in a single scan of the input. The patterns are stored in a trie: at each
+ * position of the input, the trie is walked to find the longest pattern that starts there. The positions whose
+ * character does not start any pattern are skipped with a single lookup.
+ * <p>
+ * The matches are leftmost-longest and don't overlap, and the replacements are not scanned again. This is the same
+ * result as chained {@link String#replace(CharSequence, CharSequence)} calls, as long as no pattern overlaps another
+ * one or a replacement.
+ *
+ * @author Quentin Ligier
+ */
+final class LiteralReplacer {
+
+    /**
+     * The root of the trie of patterns.
+     */
+    private final Node root = new Node();
+
+    /**
+     * Whether no pattern has been added.
+     */
+    private boolean empty = true;
+
+    /**
+     * Adds a pattern. A pattern added twice keeps the last replacement.
+     *
+     * @param pattern     The literal pattern, not empty.
+     * @param replacement The replacement.
+     * @param guard       The guard of the replacement, it's called with the whole input when the pattern matches.
+     */
+    void add(@NonNull final String pattern,
+             @NonNull final String replacement,
+             @NonNull final Predicate<String> guard) {
+        if (pattern.isEmpty()) {
+            throw new IllegalArgumentException("The pattern shall not be empty");
+        }
+        Node node = this.root;
+        for (int i = 0; i < pattern.length(); ++i) {
+            node = node.children.computeIfAbsent(pattern.charAt(i), character -> new Node());
+        }
+        node.replacement = replacement;
+        node.guard = guard;
+        this.empty = false;
+    }
+
+    /**
+     * Returns whether no pattern has been added.
+     *
+     * @return {@code true} if the replacer has no pattern, {@code false} otherwise.
+     */
+    boolean isEmpty() {
+        return this.empty;
+    }
+
+    /**
+     * Replaces the patterns in an input.
+     *
+     * @param input The input.
+     * @return the input with the patterns replaced, or the input itself if no pattern has been replaced.
+     */
+    @NonNull
+    String replace(@NonNull final String input) {
+        if (this.empty) {
+            return input;
+        }
+        StringBuilder output = null;
+        int copiedUntil = 0;
+        int position = 0;
+        while (position < input.length()) {
+            Node node = this.root.children.get(input.charAt(position));
+            Node match = null;
+            int matchEnd = -1;
+            int end = position + 1;
+            while (node != null) {
+                if (node.replacement != null && node.guard.test(input)) {
+                    match = node;
+                    matchEnd = end;
+                }
+                node = end < input.length() ? node.children.get(input.charAt(end)) : null;
+                ++end;
+            }
+            if (match == null) {
+                ++position;
+                continue;
+            }
+            if (output == null) {
+                output = new StringBuilder(input.length() + 16);
+            }
+            output.append(input, copiedUntil, position).append(match.replacement);
+            copiedUntil = matchEnd;
+            position = matchEnd;
+        }
+        if (output == null) {
+            return input;
+        }
+        return output.append(input, copiedUntil, input.length()).toString();
+    }
+
+    /**
+     * A node of the trie.
+     */
+    private static final class Node {
+
+        /**
+         * The child nodes, by next character.
+         */
+        private final Map<Character, Node> children = new HashMap<>(4);
+
+        /**
+         * The replacement if a pattern ends at this node, {@code null} otherwise.
+         */
+        @Nullable
+        private String replacement;
+
+        /**
+         * The guard of the replacement if a pattern ends at this node, {@code null} otherwise.
+         */
+        @Nullable
+        private Predicate<String> guard;
+    }
+}
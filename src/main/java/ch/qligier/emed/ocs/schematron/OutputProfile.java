@@ -0,0 +1,246 @@
+package ch.qligier.emed.ocs.schematron;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An output profile of the conversion: the roles, patterns and rules that are kept in a generated XSLT file.
+ * <p>
+ * Profiles are declared in a properties file, see {@code output-profiles.properties} for the default profiles and the
+ * configuration keys.
+ *
+ * @author Quentin Ligier
+ */
+@Data
+@AllArgsConstructor
+public class OutputProfile {
+
+    /**
+     * The classpath resource of the default output profiles.
+     */
+    public static final String DEFAULT_PROFILES_RESOURCE = "/output-profiles.properties";
+
+    /**
+     * The profile name. It's used as the suffix of the generated file name.
+     */
+    @NonNull
+    private String name;
+
+    /**
+     * The assert/report roles to keep. All roles are kept if it's empty.
+     */
+    @NonNull
+    private Set<String> roles;
+
+    /**
+     * The IDs of the patterns to keep. All patterns are kept if it's empty.
+     */
+    @NonNull
+    private Set<String> includedPatternIds;
+
+    /**
+     * The IDs of the patterns to remove.
+     */
+    @NonNull
+    private Set<String> excludedPatternIds;
+
+    /**
+     * The IDs of the rules to remove.
+     */
+    @NonNull
+    private Set<String> forbiddenRuleIds;
+
+    /**
+     * Whether the XSLT file terminates at the first failed assert.
+     */
+    private boolean failFast;
+
+    /**
+     * Whether the supported asserts and reports are moved to a fast path program that is evaluated in Java, next to
+     * the XSLT file. It can't be combined with {@link #failFast}.
+     */
+    private boolean fastPath;
+
+    /**
+     * Whether the XSLT file is the profiling variant, that records the rule and assert statistics with the
+     * {@link ch.qligier.emed.ocs.profiling.RuleProfiler}.
+     */
+    private boolean profiling;
+
+    /**
+     * Whether the value set lookups are answered by the value set index, through the
+     * {@link ch.qligier.emed.ocs.valueset.ValueSetFunction}, instead of loading the value set files.
+     */
+    private boolean valueSetIndex;
+
+    /**
+     * Creates a profile that keeps a single role, or everything.
+     *
+     * @param roleToKeep The only assert/report role to keep, or {@code null} to disable filtering.
+     * @param failFast   Whether the XSLT file terminates at the first failed assert.
+     * @return the output profile.
+     */
+    @NonNull
+    public static OutputProfile forRole(@Nullable final String roleToKeep,
+                                        final boolean failFast) {
+        return new OutputProfile(
+            roleToKeep == null ? "all" : roleToKeep,
+            roleToKeep == null ? Set.of() : Set.of(roleToKeep),
+            Set.of(),
+            Set.of(),
+            Set.of(),
+            failFast,
+            false,
+            false,
+            false
+        );
+    }
+
+    /**
+     * Returns whether the profile filters the asserts and reports by their role.
+     *
+     * @return {@code true} if only some roles are kept, {@code false} otherwise.
+     */
+    public boolean filtersRoles() {
+        return !this.roles.isEmpty();
+    }
+
+    /**
+     * Returns whether an assert or report role is kept by the profile.
+     *
+     * @param role The role, or {@code null} if it's not specified.
+     * @return {@code true} if the role is kept, {@code false} otherwise.
+     */
+    public boolean keepsRole(@Nullable final String role) {
+        return this.roles.isEmpty() || (role != null && this.roles.contains(role));
+    }
+
+    /**
+     * Returns the rewrites of the rules that are filtered by the profile: the forbidden rules and, if the profile
+     * filters roles, the roles to keep.
+     *
+     * @return the rewrites of the profile.
+     */
+    @NonNull
+    public ExpressionRewrites toRewrites() {
+        final ExpressionRewrites rewrites = new ExpressionRewrites().removeRules(this.forbiddenRuleIds);
+        if (this.filtersRoles()) {
+            rewrites.keepRoles(this.roles);
+        }
+        return rewrites;
+    }
+
+    /**
+     * Returns whether a pattern is kept by the profile.
+     *
+     * @param patternId The pattern ID.
+     * @return {@code true} if the pattern is kept, {@code false} otherwise.
+     */
+    public boolean keepsPattern(@NonNull final String patternId) {
+        return (this.includedPatternIds.isEmpty() || this.includedPatternIds.contains(patternId))
+            && !this.excludedPatternIds.contains(patternId);
+    }
+
+    /**
+     * Loads the default output profiles.
+     *
+     * @return the list of output profiles, in the declared order.
+     * @throws IOException if the default profiles cannot be read.
+     */
+    @NonNull
+    public static List<OutputProfile> loadDefaultProfiles() throws IOException {
+        try (final InputStream inputStream = OutputProfile.class.getResourceAsStream(DEFAULT_PROFILES_RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("The default output profiles cannot be found: " + DEFAULT_PROFILES_RESOURCE);
+            }
+            final Properties properties = new Properties();
+            properties.load(inputStream);
+            return fromProperties(properties);
+        }
+    }
+
+    /**
+     * Parses the output profiles from their properties.
+     *
+     * @param properties The properties that declare the profiles.
+     * @return the list of output profiles, in the declared order.
+     * @throws IllegalArgumentException if the properties are invalid.
+     */
+    @NonNull
+    public static List<OutputProfile> fromProperties(@NonNull final Properties properties) {
+        final List<String> names = Stream.of(properties.getProperty("profiles", "").split(","))
+            .map(String::strip)
+            .filter(item -> !item.isEmpty())
+            .toList();
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("The 'profiles' property shall declare at least one profile");
+        }
+        if (new HashSet<>(names).size() != names.size()) {
+            throw new IllegalArgumentException("The 'profiles' property shall not declare a profile twice");
+        }
+
+        final List<OutputProfile> profiles = new ArrayList<>(names.size());
+        for (final String name : names) {
+            final String prefix = "profile." + name + ".";
+            final boolean failFast = parseBoolean(properties, prefix + "failFast");
+            final boolean fastPath = parseBoolean(properties, prefix + "fastPath");
+            if (failFast && fastPath) {
+                throw new IllegalArgumentException("The profile '" + name + "' can't be both fail-fast and fast path");
+            }
+            profiles.add(new OutputProfile(
+                name,
+                parseList(properties.getProperty(prefix + "roles")),
+                parseList(properties.getProperty(prefix + "includedPatterns")),
+                parseList(properties.getProperty(prefix + "excludedPatterns")),
+                parseList(properties.getProperty(prefix + "forbiddenRules")),
+                failFast,
+                fastPath,
+                parseBoolean(properties, prefix + "profiling"),
+                parseBoolean(properties, prefix + "valueSetIndex")
+            ));
+        }
+        return profiles;
+    }
+
+    /**
+     * Parses a boolean property, that is {@code false} by default.
+     *
+     * @param properties The properties that declare the profiles.
+     * @param key        The property key.
+     * @return the boolean value.
+     * @throws IllegalArgumentException if the value is neither true nor false.
+     */
+    private static boolean parseBoolean(@NonNull final Properties properties,
+                                        @NonNull final String key) {
+        final String value = properties.getProperty(key, "false").strip();
+        if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+            throw new IllegalArgumentException("The property '" + key + "' shall be either true or false");
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Parses a comma-separated list of values.
+     *
+     * @param value The property value, or {@code null}.
+     * @return the ordered set of non-empty values.
+     */
+    @NonNull
+    private static Set<String> parseList(@Nullable final String value) {
+        if (value == null) {
+            return Set.of();
+        }
+        return Stream.of(value.split(","))
+            .map(String::strip)
+            .filter(item -> !item.isEmpty())
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+}
@@ -0,0 +1,192 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.profiling.AssertStatistics;
+import ch.qligier.emed.ocs.profiling.RuleProfile;
+import ch.qligier.emed.ocs.profiling.RuleStatistics;
+import ch.qligier.emed.ocs.schematron.definition.*;
+import lombok.NonNull;
+
+import java.util.*;
+
+/**
+ * A transformer that orders the patterns and the asserts of each rule from a rule profile: the cheap and
+ * likely-to-fail ones first. The order has no influence on the validation outcome, only on the time to find the first
+ * failed assert.
+ * <p>
+ * Each assert or pattern is ranked by its mean cost divided by its (smoothed) failure probability. The asserts and
+ * patterns that are missing from the profile keep their order, after the profiled ones; the pattern of the document
+ * template ID stays first.
+ *
+ * @author Quentin Ligier
+ */
+public class ProfileGuidedTransformer implements DefinitionTransformer {
+
+    /**
+     * The rule profile.
+     */
+    @NonNull
+    private final RuleProfile profile;
+
+    /**
+     * Constructor.
+     *
+     * @param profile The rule profile.
+     */
+    public ProfileGuidedTransformer(@NonNull final RuleProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Applies the transformation to the Schematron definition.
+     *
+     * @param definition The Schematron definition. Mutated.
+     */
+    @Override
+    public void transform(@NonNull final SchematronDefinition definition) {
+        // Only the concrete rules are reordered, the resolved abstract rules stay valid
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            final RuleStatistics statistics = this.profile.getRule(rule.getId());
+            if (!rule.isAbstract() && statistics != null) {
+                this.orderAsserts(resolver, rule, statistics);
+            }
+        }
+        if (this.profile.getDocuments() > 0) {
+            this.orderPatterns(definition);
+        }
+    }
+
+    /**
+     * The patterns are ordered by this transformer.
+     *
+     * @return {@code true}.
+     */
+    @Override
+    public boolean ordersPatterns() {
+        return true;
+    }
+
+    /**
+     * Orders the asserts and reports of a rule. The rule is left untouched if a variable is declared after an assert
+     * or report, as it may be used by the next ones.
+     *
+     * @param resolver   The resolver of the rule inheritance.
+     * @param rule       The rule. Mutated.
+     * @param statistics The rule statistics.
+     */
+    private void orderAsserts(@NonNull final ExtendsResolver resolver,
+                              @NonNull final SchematronRule rule,
+                              @NonNull final RuleStatistics statistics) {
+        final List<SchematronRuleChild> children = resolver.getResolvedRule(rule.getId()).getChildren();
+        final int firstTestIndex = indexOfFirstTest(children);
+        if (firstTestIndex < 0) {
+            return;
+        }
+        final List<SchematronRuleChild> tests = children.subList(firstTestIndex, children.size());
+        if (tests.stream()
+            .anyMatch(child -> !(child instanceof SchematronAssert) && !(child instanceof SchematronReport))) {
+            return;
+        }
+
+        final List<SchematronRuleChild> orderedTests = new ArrayList<>(tests);
+        orderedTests.sort(Comparator.comparingDouble(child -> rankAssert(statistics.getAssert(getTest(child)))));
+        if (!orderedTests.equals(tests)) {
+            final List<SchematronRuleChild> orderedChildren = new ArrayList<>(children.subList(0, firstTestIndex));
+            orderedChildren.addAll(orderedTests);
+            rule.setChildren(orderedChildren);
+        }
+    }
+
+    /**
+     * Orders the patterns. The pattern of the document template ID stays first.
+     *
+     * @param definition The Schematron definition. Mutated.
+     */
+    private void orderPatterns(@NonNull final SchematronDefinition definition) {
+        final String leadingRuleId = CdaChEmedSchematronOptimizer.findTemplateIdRuleId(definition);
+        final Map<String, Double> ranks = new HashMap<>();
+        for (final SchematronPattern pattern : definition.getPatterns()) {
+            final List<String> ruleIds = definition.getRulesPerPattern().getOrDefault(pattern.getId(), List.of());
+            if (leadingRuleId != null && ruleIds.contains(leadingRuleId)) {
+                ranks.put(pattern.getId(), Double.NEGATIVE_INFINITY);
+                continue;
+            }
+            long nanos = 0;
+            long failures = 0;
+            boolean profiled = false;
+            for (final String ruleId : ruleIds) {
+                final RuleStatistics statistics = this.profile.getRule(ruleId);
+                if (statistics != null) {
+                    nanos += statistics.getNanos();
+                    failures += statistics.getFailures();
+                    profiled = true;
+                }
+            }
+            ranks.put(pattern.getId(), profiled
+                ? rank((double) nanos / this.profile.getDocuments(), failures, this.profile.getDocuments())
+                : Double.POSITIVE_INFINITY);
+        }
+
+        final List<SchematronPattern> orderedPatterns = new ArrayList<>(definition.getPatterns());
+        orderedPatterns.sort(Comparator.comparingDouble(pattern -> ranks.get(pattern.getId())));
+        definition.getPatterns().clear();
+        definition.getPatterns().addAll(orderedPatterns);
+    }
+
+    /**
+     * Ranks an assert or report.
+     *
+     * @param statistics The assert statistics, or {@code null} if it's missing from the profile.
+     * @return the rank, the lowest first.
+     */
+    private static double rankAssert(final AssertStatistics statistics) {
+        if (statistics == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return rank(statistics.getMeanNanos(), statistics.getFailures(), statistics.getEvaluations());
+    }
+
+    /**
+     * Ranks a cost by its failure probability, with a Laplace smoothing of the probability so that asserts that never
+     * failed are still ordered by cost.
+     *
+     * @param meanCost The mean cost.
+     * @param failures The number of failures.
+     * @param trials   The number of evaluations.
+     * @return the rank, the lowest first.
+     */
+    private static double rank(final double meanCost,
+                               final long failures,
+                               final long trials) {
+        return meanCost * (trials + 2) / (failures + 1);
+    }
+
+    /**
+     * Returns the index of the first assert or report.
+     *
+     * @param children The rule children.
+     * @return the index, or {@code -1} if there is no assert or report.
+     */
+    private static int indexOfFirstTest(@NonNull final List<SchematronRuleChild> children) {
+        for (int i = 0; i < children.size(); ++i) {
+            if (children.get(i) instanceof SchematronAssert || children.get(i) instanceof SchematronReport) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the test of an assert or report.
+     *
+     * @param child The assert or report.
+     * @return the test as an XPath expression.
+     */
+    @NonNull
+    private static String getTest(@NonNull final SchematronRuleChild child) {
+        if (child instanceof final SchematronAssert schematronAssert) {
+            return schematronAssert.getTest();
+        }
+        return ((SchematronReport) child).getTest();
+    }
+}
@@ -0,0 +1,161 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * The engine that applies the {@link ExpressionRewrites} of multiple transformers in a single traversal of a
+ * Schematron definition. For each rule, the context is normalized; for each assert and report, the role is filtered
+ * and changed; for each kept assert, the test is normalized and the literals are replaced.
+ * <p>
+ * The literal replacements of all transformers are matched together by a {@link LiteralReplacer}, the cost of the
+ * traversal does not depend on the number of transformers and replacements. Each distinct test is rewritten once, the
+ * results are interned in the {@link ExpressionTable} of the definition.
+ *
+ * @author Quentin Ligier
+ */
+public class RewritePipeline {
+
+    /**
+     * The normalizer of the rule contexts and assert tests, applied before the literal replacements.
+     */
+    @NonNull
+    private final UnaryOperator<String> normalizer;
+
+    /**
+     * The IDs of the rules to remove.
+     */
+    private final Set<String> removedRuleIds = new HashSet<>();
+
+    /**
+     * The rewrites that filter roles.
+     */
+    private final List<ExpressionRewrites> roleFilters = new ArrayList<>();
+
+    /**
+     * The new roles of the asserts and reports, by current role.
+     */
+    private final Map<String, String> roleChanges = new HashMap<>();
+
+    /**
+     * The replacer of all the literals.
+     */
+    private final LiteralReplacer replacer = new LiteralReplacer();
+
+    /**
+     * The rewritten assert tests, by original test. The same tests are repeated in many rules.
+     */
+    private final Map<String, String> rewrittenTests = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param normalizer The normalizer of the rule contexts and assert tests.
+     * @param rewrites   The rewrites to apply. If multiple rewrites change the same role or replace the same literal,
+     *                   the last one wins.
+     */
+    public RewritePipeline(@NonNull final UnaryOperator<String> normalizer,
+                           @NonNull final List<ExpressionRewrites> rewrites) {
+        this.normalizer = normalizer;
+        for (final ExpressionRewrites rewrite : rewrites) {
+            this.removedRuleIds.addAll(rewrite.getRemovedRuleIds());
+            if (rewrite.getKeptRoles() != null) {
+                this.roleFilters.add(rewrite);
+            }
+            this.roleChanges.putAll(rewrite.getRoleChanges());
+            for (final ExpressionRewrites.LiteralReplacement replacement : rewrite.getLiteralReplacements()) {
+                this.replacer.add(replacement.getLiteral(), replacement.getReplacement(),
+                    replacement.getGuardPredicate());
+            }
+        }
+    }
+
+    /**
+     * Constructor, without normalizer.
+     *
+     * @param rewrites The rewrites to apply.
+     */
+    public RewritePipeline(@NonNull final List<ExpressionRewrites> rewrites) {
+        this(UnaryOperator.identity(), rewrites);
+    }
+
+    /**
+     * Applies the rewrites to the Schematron definition.
+     *
+     * @param definition The Schematron definition. Mutated.
+     */
+    public void apply(@NonNull final SchematronDefinition definition) {
+        final ExpressionTable expressionTable = definition.getExpressionTable();
+        for (final String removedRuleId : this.removedRuleIds) {
+            definition.getEnabledRules().remove(removedRuleId);
+            definition.getDefinedRules().remove(removedRuleId);
+        }
+
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            if (rule.getContext() != null) {
+                rule.setContext(expressionTable.intern(this.normalizer.apply(rule.getContext())));
+            }
+
+            List<SchematronRuleChild> keptChildren = null;
+            final List<SchematronRuleChild> children = rule.getChildren();
+            for (int i = 0; i < children.size(); ++i) {
+                final SchematronRuleChild child = children.get(i);
+                final boolean kept;
+                if (child instanceof final SchematronAssert schematronAssert) {
+                    kept = this.keepsRole(schematronAssert.getRole());
+                    if (kept) {
+                        schematronAssert.setRole(this.changeRole(schematronAssert.getRole()));
+                        schematronAssert.setTest(this.rewrittenTests.computeIfAbsent(schematronAssert.getTest(),
+                            test -> expressionTable.intern(this.replacer.replace(this.normalizer.apply(test)))));
+                    }
+                } else if (child instanceof final SchematronReport schematronReport) {
+                    kept = this.keepsRole(schematronReport.getRole());
+                    if (kept) {
+                        schematronReport.setRole(this.changeRole(schematronReport.getRole()));
+                    }
+                } else {
+                    kept = true; // Keep the variables and the extends
+                }
+
+                if (!kept && keptChildren == null) {
+                    keptChildren = new ArrayList<>(children.subList(0, i));
+                } else if (kept && keptChildren != null) {
+                    keptChildren.add(child);
+                }
+            }
+            if (keptChildren != null) {
+                rule.setChildren(keptChildren);
+            }
+        }
+    }
+
+    /**
+     * Returns whether an assert or report role is kept by all the role filters.
+     *
+     * @param role The role, or {@code null} if it's not specified.
+     * @return {@code true} if the role is kept, {@code false} otherwise.
+     */
+    private boolean keepsRole(@Nullable final String role) {
+        for (final ExpressionRewrites roleFilter : this.roleFilters) {
+            if (!roleFilter.keepsRole(role)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Changes an assert or report role.
+     *
+     * @param role The role, or {@code null} if it's not specified.
+     * @return the new role.
+     */
+    @Nullable
+    private String changeRole(@Nullable final String role) {
+        return role == null ? null : this.roleChanges.getOrDefault(role, role);
+    }
+}
@@ -2,6 +2,7 @@ package ch.qligier.emed.ocs.schematron;
 
 import ch.qligier.emed.ocs.Utils;
 import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import ch.qligier.emed.ocs.schematron.definition.ExtendsResolver;
 import ch.qligier.emed.ocs.schematron.definition.SchematronConstants;
 import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
 import ch.qligier.emed.ocs.schematron.definition.SchematronPattern;
@@ -60,16 +61,27 @@ public class SchematronParser {
      */
     @NonNull
     public SchematronDefinition parse(@NonNull final File definitionFile) throws IOException, SAXException, SchematronParsingException {
+        return this.parse(this.resolveIncludes(definitionFile));
+    }
+
+    /**
+     * Parses a Schematron document and resolves its includes: the included files replace the 'include' elements at
+     * the root and in the patterns.
+     *
+     * @param definitionFile The {@link File} instance that points to the Schematron XML file.
+     * @return the Schematron document, without includes.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     */
+    @NonNull
+    public Document resolveIncludes(@NonNull final File definitionFile)
+        throws IOException, SAXException, SchematronParsingException {
         final Document doc = this.documentBuilder.parse(definitionFile);
         final Element root = doc.getDocumentElement();
         final Path rootPath = Paths.get(definitionFile.getParentFile().getAbsolutePath());
-        final SchematronDefinition definition = new SchematronDefinition();
-
         final NodeList nodes = root.getChildNodes();
 
-        /*
-         * First pass, we resolve the includes
-         */
         for (int i = 0; i < nodes.getLength(); ++i) {
             if (nodes.item(i).getNodeType() != Node.ELEMENT_NODE) {
                 continue;
@@ -110,9 +122,25 @@ public class SchematronParser {
                 }
             }
         }
+        return doc;
+    }
+
+    /**
+     * Parses a Schematron document whose includes have been resolved (see {@link #resolveIncludes(File)}) and returns
+     * its definition as an instance of {@link SchematronDefinition}.
+     *
+     * @param doc The Schematron document, without includes.
+     * @return the parsed Schematron definition.
+     * @throws SchematronParsingException if the Schematron document is invalid.
+     */
+    @NonNull
+    public SchematronDefinition parse(@NonNull final Document doc) throws SchematronParsingException {
+        final Element root = doc.getDocumentElement();
+        final SchematronDefinition definition = new SchematronDefinition();
+        final NodeList nodes = root.getChildNodes();
 
         /*
-         * Second pass, we define namespaces, rules and patterns
+         * First pass, we define namespaces, rules and patterns
          */
         definition.setQueryBinding(root.getAttribute("queryBinding"));
         for (int i = 0; i < nodes.getLength(); ++i) {
@@ -147,7 +175,7 @@ public class SchematronParser {
         }
 
         /*
-         * Third pass, we activate rules and patterns
+         * Second pass, we activate rules and patterns
          */
         for (int i = 0; i < nodes.getLength(); ++i) {
             if (nodes.item(i).getNodeType() != Node.ELEMENT_NODE) {
@@ -168,6 +196,8 @@ public class SchematronParser {
             }
         }
 
+        new ExtendsResolver(definition).resolveAll();
+        definition.getExpressionTable().internAll(definition);
         return definition;
     }
 
@@ -5,7 +5,6 @@ import ch.qligier.emed.ocs.schematron.definition.*;
 import lombok.NonNull;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
@@ -83,12 +82,13 @@ public class SchematronWriter {
         }
 
         // Add patterns and rules
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
         for (final SchematronPattern pattern : definition.getPatterns()) {
             final Element patternElement =
                 document.createElementNS(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.PATTERN_TAG_NAME);
             patternElement.setAttribute("id", pattern.getId());
 
-            for (final SchematronRule rule : getOptimizedRulesForPattern(definition, pattern.getId())) {
+            for (final SchematronRule rule : getOptimizedRulesForPattern(definition, resolver, pattern.getId())) {
                 final Element ruleElement =
                     document.createElementNS(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.RULE_TAG_NAME);
                 ruleElement.setAttribute("id", rule.getId());
@@ -100,8 +100,8 @@ public class SchematronWriter {
                             document.createElementNS(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.ASSERT_TAG_NAME);
                         assertElement.setAttribute("test", schematronAssert.getTest());
                         assertElement.setAttribute("role", schematronAssert.getRole());
-                        for (final Node messageNode : schematronAssert.getMessageNodes()) {
-                            assertElement.appendChild(document.importNode(messageNode, true));
+                        if (schematronAssert.getMessage() != null) {
+                            schematronAssert.getMessage().appendTo(assertElement);
                         }
                         ruleElement.appendChild(assertElement);
                     } else if (child instanceof final SchematronReport schematronReport) {
@@ -109,8 +109,8 @@ public class SchematronWriter {
                             document.createElementNS(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.REPORT_TAG_NAME);
                         reportElement.setAttribute("test", schematronReport.getTest());
                         reportElement.setAttribute("role", schematronReport.getRole());
-                        for (final Node messageNode : schematronReport.getMessageNodes()) {
-                            reportElement.appendChild(document.importNode(messageNode, true));
+                        if (schematronReport.getMessage() != null) {
+                            schematronReport.getMessage().appendTo(reportElement);
                         }
                         ruleElement.appendChild(reportElement);
                     } else if (child instanceof final SchematronLet schematronLet) {
@@ -142,64 +142,25 @@ public class SchematronWriter {
      * Returns the optimized rules that are contained in a pattern.
      *
      * @param definition The original Schematron definition.
+     * @param resolver   The resolver of the rule inheritance.
      * @param patternId  The pattern ID.
      * @return a list of optimized Schematron rules.
      */
     @NonNull
     private List<SchematronRule> getOptimizedRulesForPattern(@NonNull final SchematronDefinition definition,
+                                                             @NonNull final ExtendsResolver resolver,
                                                              @NonNull final String patternId) {
         if (!definition.getRulesPerPattern().containsKey(patternId)) {
             throw new IllegalArgumentException("The pattern cannot be found in the definition");
         }
 
-        // List of rules to process and return
+        // List of rules to process and return, the 'extends' elements are replaced by the children of the extended
+        // rules
         return definition.getRulesPerPattern().get(patternId).stream()
             .map(ruleId -> definition.getDefinedRules().get(ruleId))
             .filter(Objects::nonNull)
             .filter(rule -> !rule.isAbstract())
-            .map(rule -> optimizeRule(definition, rule))
+            .map(rule -> resolver.getResolvedRule(rule.getId()))
             .toList();
     }
-
-    /**
-     * Transforms a regular rule to an optimized rule by resolving extends, transforming XPath expressions and removing
-     * non-error assertions.
-     *
-     * @param definition The original Schematron definition.
-     * @param rule       The rule to optimize.
-     * @return the transformed rule.
-     */
-    @NonNull
-    private SchematronRule optimizeRule(@NonNull final SchematronDefinition definition,
-                                        @NonNull final SchematronRule rule) {
-        final SchematronRule optimizeRule = rule.clone();
-        // Remove children that are 'extends' elements and replace them by their own list of children
-        optimizeRule.setChildren(resolveExtendedChildren(definition, rule));
-        return optimizeRule;
-    }
-
-    /**
-     * Resolves the list of children of an extended rule.
-     *
-     * @param definition The original Schematron definition.
-     * @param rule       The extended rule.
-     * @return the list of children of the parent rule and all extended rules.
-     */
-    @NonNull
-    private List<SchematronRuleChild> resolveExtendedChildren(@NonNull final SchematronDefinition definition,
-                                                              @NonNull final SchematronRule rule) {
-        final List<SchematronRuleChild> children = new ArrayList<>(rule.getChildren());
-        if (children.stream().anyMatch(SchematronExtends.class::isInstance)) {
-            final int index = Utils.listIndexOf(children, SchematronExtends.class::isInstance);
-            final SchematronExtends extend = (SchematronExtends) children.get(index);
-            children.remove(index);
-            final List<SchematronRuleChild> newChildren =
-                resolveExtendedChildren(definition, definition.getDefinedRules().get(extend.getExtendsRuleId()));
-            final ListIterator<SchematronRuleChild> listIterator = newChildren.listIterator(newChildren.size());
-            while (listIterator.hasPrevious()) {
-                children.add(index, listIterator.previous());
-            }
-        }
-        return children;
-    }
 }
@@ -0,0 +1,652 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.schematron.definition.*;
+import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import lombok.NonNull;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A streaming parser of Schematron files, built on {@link XMLStreamReader}. It produces the same definitions as
+ * {@link SchematronParser} in a single forward pass, without building the DOM of the Schematron file and of its
+ * includes.
+ * <p>
+ * The includes are resolved recursively, relatively to the including file. The included files are parsed once and
+ * kept in an {@link IncludeCache}, that can be shared by multiple parsers. When parsing a Schematron file, all but the
+ * main phase are ignored.
+ *
+ * @author Quentin Ligier
+ */
+public class StreamingSchematronParser {
+
+    /**
+     * The factory of stream readers.
+     */
+    private final XMLInputFactory inputFactory = Utils.newSafeXmlInputFactory();
+
+    /**
+     * The cache of the parsed included files.
+     */
+    private final IncludeCache includeCache;
+
+    /**
+     * Constructor, with a cache of the included files that is private to the parser.
+     */
+    public StreamingSchematronParser() {
+        this(new IncludeCache());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param includeCache The cache of the parsed included files.
+     */
+    public StreamingSchematronParser(@NonNull final IncludeCache includeCache) {
+        this.includeCache = includeCache;
+    }
+
+    /**
+     * Parses a Schematron file and returns its definition as an instance of {@link SchematronDefinition}. No
+     * transformation operation is applied during the parsing.
+     *
+     * @param definitionFile The {@link File} instance that points to the Schematron XML file.
+     * @return the parsed Schematron definition.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     */
+    @NonNull
+    public SchematronDefinition parse(@NonNull final File definitionFile)
+        throws IOException, SAXException, SchematronParsingException {
+        final SchematronDefinition definition = new SchematronDefinition();
+        final Path definitionPath = definitionFile.toPath().toAbsolutePath().normalize();
+        final Deque<Path> includes = new ArrayDeque<>();
+        includes.push(definitionPath);
+        this.streamFile(definitionPath, reader -> {
+            definition.setQueryBinding(getAttributeOrEmpty(reader, "queryBinding"));
+            while (nextChildElement(reader)) {
+                this.parseRootChild(reader, definition, includes);
+            }
+        });
+        new ExtendsResolver(definition).resolveAll();
+        definition.getExpressionTable().internAll(definition);
+        return definition;
+    }
+
+    /**
+     * Parses a child element of the root element.
+     *
+     * @param reader     The stream reader, positioned on the start of the element.
+     * @param definition The Schematron definition.
+     * @param includes   The files being included, to detect cyclic includes.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     * @throws XMLStreamException         if any stream error occurs.
+     */
+    private void parseRootChild(@NonNull final XMLStreamReader reader,
+                                @NonNull final SchematronDefinition definition,
+                                @NonNull final Deque<Path> includes)
+        throws IOException, SAXException, SchematronParsingException, XMLStreamException {
+        switch (getQualifiedName(reader)) {
+            case SchematronConstants.PATTERN_TAG_NAME -> this.parsePattern(reader, definition, includes);
+            case SchematronConstants.RULE_TAG_NAME -> addRootRule(parseRule(reader, null), definition);
+            default -> {
+                final IncludedFile.Fragment fragment = parseFragment(reader);
+                if (fragment != null) {
+                    this.addRootFragment(fragment, definition, includes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an element of the root, or the root element of a file included at the root, to the definition.
+     *
+     * @param fragment   The parsed element.
+     * @param definition The Schematron definition.
+     * @param includes   The files being included, to detect cyclic includes.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     */
+    private void addRootFragment(@NonNull final IncludedFile.Fragment fragment,
+                                 @NonNull final SchematronDefinition definition,
+                                 @NonNull final Deque<Path> includes)
+        throws IOException, SAXException, SchematronParsingException {
+        if (fragment instanceof final IncludedFile.IncludeFragment include) {
+            if (include.getHref().isEmpty()) {
+                throw new SchematronParsingException("An 'include' element must have a valid 'href' attribute");
+            }
+            final Path includedPath = resolveInclude(include, includes);
+            final IncludedFile.Fragment includedRoot = this.enterInclude(includedPath, includes);
+            try {
+                if (includedRoot != null) {
+                    this.addRootFragment(includedRoot, definition, includes);
+                }
+            } finally {
+                includes.pop();
+            }
+        } else if (fragment instanceof final IncludedFile.NamespaceFragment namespace) {
+            if (namespace.getPrefix() == null || namespace.getUri() == null) {
+                throw new SchematronParsingException("A 'ns' element is missing its 'prefix' and/or 'uri' attributes");
+            }
+            definition.getNamespaces().put(namespace.getPrefix(), namespace.getUri());
+        } else if (fragment instanceof final IncludedFile.TitleFragment title) {
+            definition.setTitle(title.getTitle());
+        } else if (fragment instanceof final IncludedFile.RuleFragment rule) {
+            addRootRule(rule.newRule(null), definition);
+        } else if (fragment instanceof final IncludedFile.PatternFragment pattern) {
+            final SchematronPattern newPattern = pattern.newPattern();
+            definition.getRulesPerPattern().computeIfAbsent(newPattern.getId(), id -> new ArrayList<>());
+            for (final IncludedFile.Fragment child : pattern.getChildren()) {
+                this.addPatternFragment(child, newPattern.getId(), definition, includes);
+            }
+            definition.getPatterns().add(newPattern);
+        }
+    }
+
+    /**
+     * Parses a 'pattern' element of the root and adds it and its rules to the definition.
+     *
+     * @param reader     The stream reader, positioned on the start of the element.
+     * @param definition The Schematron definition.
+     * @param includes   The files being included, to detect cyclic includes.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     * @throws XMLStreamException         if any stream error occurs.
+     */
+    private void parsePattern(@NonNull final XMLStreamReader reader,
+                              @NonNull final SchematronDefinition definition,
+                              @NonNull final Deque<Path> includes)
+        throws IOException, SAXException, SchematronParsingException, XMLStreamException {
+        final SchematronAttributes attributes = withDefaultId(getAttributes(reader), IncludedFile.generateId());
+        final SchematronPattern pattern = SchematronPattern.fromAttributes(attributes);
+        final String patternId = pattern.getId();
+        definition.getRulesPerPattern().computeIfAbsent(patternId, id -> new ArrayList<>());
+
+        while (nextChildElement(reader)) {
+            final String name = getQualifiedName(reader);
+            final String href = getAttributeOrEmpty(reader, "href");
+            if (SchematronConstants.RULE_TAG_NAME.equals(name)) {
+                addPatternRule(parseRule(reader, patternId), patternId, definition);
+            } else if (SchematronConstants.INCLUDE_TAG_NAME.equals(name) && !href.isEmpty()) {
+                skipElement(reader);
+                this.addPatternFragment(new IncludedFile.IncludeFragment(href), patternId, definition, includes);
+            } else {
+                skipElement(reader);
+            }
+        }
+        definition.getPatterns().add(pattern);
+    }
+
+    /**
+     * Adds a child of a pattern, or the root element of a file included in a pattern, to the definition. Only the
+     * rules are kept.
+     *
+     * @param fragment   The parsed element.
+     * @param patternId  The pattern ID.
+     * @param definition The Schematron definition.
+     * @param includes   The files being included, to detect cyclic includes.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     */
+    private void addPatternFragment(@NonNull final IncludedFile.Fragment fragment,
+                                    @NonNull final String patternId,
+                                    @NonNull final SchematronDefinition definition,
+                                    @NonNull final Deque<Path> includes)
+        throws IOException, SAXException, SchematronParsingException {
+        if (fragment instanceof final IncludedFile.RuleFragment rule) {
+            addPatternRule(rule.newRule(patternId), patternId, definition);
+        } else if (fragment instanceof final IncludedFile.IncludeFragment include && !include.getHref().isEmpty()) {
+            final Path includedPath = resolveInclude(include, includes);
+            final IncludedFile.Fragment includedRoot = this.enterInclude(includedPath, includes);
+            try {
+                // Unlike the pattern children, the root of the included file can only be a rule
+                if (includedRoot instanceof IncludedFile.RuleFragment) {
+                    this.addPatternFragment(includedRoot, patternId, definition, includes);
+                }
+            } finally {
+                includes.pop();
+            }
+        }
+    }
+
+    /**
+     * Resolves an include against the directory of the file that contains it, i.e. the last entered file. The
+     * fragments don't depend on the location of their file, so the files with the same content can share them.
+     *
+     * @param include  The include.
+     * @param includes The files being included.
+     * @return the path of the included file.
+     */
+    @NonNull
+    private static Path resolveInclude(@NonNull final IncludedFile.IncludeFragment include,
+                                       @NonNull final Deque<Path> includes) {
+        return includes.element().resolveSibling(include.getHref()).normalize();
+    }
+
+    /**
+     * Enters an included file: checks that the include is not cyclic and returns the root element of the file, from
+     * the cache. The caller shall pop the file from the included files once done.
+     *
+     * @param path     The included file.
+     * @param includes The files being included. The file is pushed.
+     * @return the root element of the file, or {@code null} if it's ignored.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid, or if the include is cyclic.
+     */
+    @Nullable
+    private IncludedFile.Fragment enterInclude(@NonNull final Path path,
+                                               @NonNull final Deque<Path> includes)
+        throws IOException, SAXException, SchematronParsingException {
+        if (includes.contains(path)) {
+            throw new SchematronParsingException("The Schematron file is included cyclically: " + path);
+        }
+        final IncludedFile.Fragment root = this.includeCache.get(path, includedPath -> {
+            final IncludedFile.Fragment[] fragment = new IncludedFile.Fragment[1];
+            this.streamFile(includedPath, reader -> fragment[0] = parseFragment(reader));
+            return fragment[0];
+        });
+        includes.push(path);
+        return root;
+    }
+
+    /**
+     * Parses an element that can be the root of an included file. The nested includes are not resolved.
+     *
+     * @param reader  The stream reader, positioned on the start of the element.
+     * @return the parsed element, or {@code null} if it's ignored.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     * @throws XMLStreamException         if any stream error occurs.
+     */
+    @Nullable
+    private static IncludedFile.Fragment parseFragment(@NonNull final XMLStreamReader reader)
+        throws SchematronParsingException, XMLStreamException {
+        switch (getQualifiedName(reader)) {
+            case SchematronConstants.INCLUDE_TAG_NAME -> {
+                final String href = getAttributeOrEmpty(reader, "href");
+                skipElement(reader);
+                return new IncludedFile.IncludeFragment(href);
+            }
+            case SchematronConstants.NAMESPACE_TAG_NAME -> {
+                final String prefix = reader.getAttributeValue(null, "prefix");
+                final String uri = reader.getAttributeValue(null, "uri");
+                skipElement(reader);
+                return new IncludedFile.NamespaceFragment(prefix, uri);
+            }
+            case SchematronConstants.TITLE_TAG_NAME -> {
+                return new IncludedFile.TitleFragment(readLeadingText(reader).strip());
+            }
+            case SchematronConstants.RULE_TAG_NAME -> {
+                final boolean generatedId = getAttributeOrEmpty(reader, "id").isEmpty();
+                return new IncludedFile.RuleFragment(parseRule(reader, null), generatedId);
+            }
+            case SchematronConstants.PATTERN_TAG_NAME -> {
+                final SchematronAttributes attributes = getAttributes(reader);
+                final SchematronPattern pattern =
+                    SchematronPattern.fromAttributes(withDefaultId(attributes, IncludedFile.generateId()));
+                final List<IncludedFile.Fragment> children = new ArrayList<>();
+                while (nextChildElement(reader)) {
+                    final String name = getQualifiedName(reader);
+                    final String href = getAttributeOrEmpty(reader, "href");
+                    if (SchematronConstants.RULE_TAG_NAME.equals(name)) {
+                        final boolean generatedId = getAttributeOrEmpty(reader, "id").isEmpty();
+                        children.add(new IncludedFile.RuleFragment(parseRule(reader, null), generatedId));
+                    } else if (SchematronConstants.INCLUDE_TAG_NAME.equals(name) && !href.isEmpty()) {
+                        skipElement(reader);
+                        children.add(new IncludedFile.IncludeFragment(href));
+                    } else {
+                        skipElement(reader);
+                    }
+                }
+                return new IncludedFile.PatternFragment(pattern, !attributes.has("id"), List.copyOf(children));
+            }
+            default -> {
+                skipElement(reader);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Adds a rule of the root to the definition.
+     *
+     * @param rule       The parsed rule.
+     * @param definition The Schematron definition.
+     */
+    private static void addRootRule(@NonNull final SchematronRule rule,
+                                    @NonNull final SchematronDefinition definition) {
+        definition.getDefinedRules().put(rule.getId(), rule);
+        if (!rule.isAbstract()) {
+            definition.getEnabledRules().add(rule.getId());
+        }
+    }
+
+    /**
+     * Adds a rule of a pattern to the definition.
+     *
+     * @param rule       The parsed rule.
+     * @param patternId  The pattern ID.
+     * @param definition The Schematron definition.
+     */
+    private static void addPatternRule(@NonNull final SchematronRule rule,
+                                       @NonNull final String patternId,
+                                       @NonNull final SchematronDefinition definition) {
+        definition.getDefinedRules().put(rule.getId(), rule);
+        if (!rule.isAbstract()) {
+            definition.getRulesPerPattern().get(patternId).add(rule.getId());
+        }
+    }
+
+    /**
+     * Parses a 'rule' element.
+     *
+     * @param reader    The stream reader, positioned on the start of the element.
+     * @param patternId The pattern ID if it has been defined or {@code null}.
+     * @return the parsed rule.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     * @throws XMLStreamException         if any stream error occurs.
+     */
+    @NonNull
+    private static SchematronRule parseRule(@NonNull final XMLStreamReader reader,
+                                            @Nullable final String patternId)
+        throws SchematronParsingException, XMLStreamException {
+        // Like the DOM parser, an ID is generated before the attributes are checked
+        final SchematronRule rule =
+            SchematronRule.fromAttributes(withDefaultId(getAttributes(reader), IncludedFile.generateId()));
+        rule.setPattern(patternId);
+
+        while (nextChildElement(reader)) {
+            switch (getQualifiedName(reader)) {
+                case SchematronConstants.EXTENDS_TAG_NAME -> {
+                    rule.getChildren().add(SchematronExtends.fromAttributes(getAttributes(reader)));
+                    skipElement(reader);
+                }
+                case SchematronConstants.LET_TAG_NAME -> {
+                    rule.getChildren().add(SchematronLet.fromAttributes(getAttributes(reader)));
+                    skipElement(reader);
+                }
+                case SchematronConstants.ASSERT_TAG_NAME -> {
+                    final SchematronAttributes attributes = getAttributes(reader);
+                    rule.getChildren().add(SchematronAssert.fromAttributes(attributes, readMessage(reader)));
+                }
+                case SchematronConstants.REPORT_TAG_NAME -> {
+                    final SchematronAttributes attributes = getAttributes(reader);
+                    rule.getChildren().add(SchematronReport.fromAttributes(attributes, readMessage(reader)));
+                }
+                default -> skipElement(reader);
+            }
+        }
+        return rule;
+    }
+
+    /**
+     * Reads the message of an 'assert' or 'report' element.
+     *
+     * @param reader The stream reader, positioned on the start of the element.
+     * @return the message.
+     * @throws XMLStreamException if any stream error occurs.
+     */
+    @NonNull
+    private static SchematronMessage readMessage(@NonNull final XMLStreamReader reader) throws XMLStreamException {
+        return SchematronMessage.of(readMessageParts(reader));
+    }
+
+    /**
+     * Reads the message parts of an element, up to its end.
+     *
+     * @param reader The stream reader, positioned on the start of the element.
+     * @return the message parts.
+     * @throws XMLStreamException if any stream error occurs.
+     */
+    @NonNull
+    private static List<SchematronMessage.Part> readMessageParts(@NonNull final XMLStreamReader reader)
+        throws XMLStreamException {
+        final List<SchematronMessage.Part> parts = new ArrayList<>();
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+                    parts.add(SchematronMessage.Part.text(reader.getText()));
+                case XMLStreamConstants.START_ELEMENT -> {
+                    final String localName = reader.getLocalName();
+                    if (SchematronConstants.VALUE_OF_TAG_NAME.equals(localName)) {
+                        parts.add(SchematronMessage.Part.valueOf(getAttributeOrEmpty(reader, "select")));
+                        skipElement(reader);
+                    } else if (SchematronConstants.VALUE_NAME_NAME.equals(localName)) {
+                        parts.add(SchematronMessage.Part.name(reader.getAttributeValue(null, "path")));
+                        skipElement(reader);
+                    } else {
+                        final String namespace = reader.getNamespaceURI();
+                        final Map<String, String> attributes = new LinkedHashMap<>();
+                        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+                            final String prefix = reader.getAttributePrefix(i);
+                            final String attributeName = prefix == null || prefix.isEmpty()
+                                ? reader.getAttributeLocalName(i)
+                                : prefix + ":" + reader.getAttributeLocalName(i);
+                            attributes.put(attributeName, reader.getAttributeValue(i));
+                        }
+                        parts.add(SchematronMessage.Part.element(
+                            namespace == null || namespace.isEmpty() ? null : namespace, localName, attributes,
+                            readMessageParts(reader)));
+                    }
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    return parts;
+                }
+                default -> {
+                    // Comments and processing instructions are not rendered in the message
+                }
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Reads the text of an element up to its first child that is not a text, and skips the rest of the element.
+     *
+     * @param reader The stream reader, positioned on the start of the element.
+     * @return the leading text.
+     * @throws SchematronParsingException if the element does not start with a text.
+     * @throws XMLStreamException         if any stream error occurs.
+     */
+    @NonNull
+    private static String readLeadingText(@NonNull final XMLStreamReader reader)
+        throws SchematronParsingException, XMLStreamException {
+        final StringBuilder text = new StringBuilder();
+        int event = reader.next();
+        while (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+            || event == XMLStreamConstants.SPACE) {
+            text.append(reader.getText());
+            event = reader.next();
+        }
+        if (text.isEmpty()) {
+            throw new SchematronParsingException("The '" + SchematronConstants.TITLE_TAG_NAME
+                + "' element shall start with a text");
+        }
+        if (event == XMLStreamConstants.START_ELEMENT) {
+            // Skip the child element and the end of the element
+            skipElement(reader, 2);
+        } else if (event != XMLStreamConstants.END_ELEMENT) {
+            skipElement(reader, 1);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Streams a file to a handler. The handler receives the reader positioned on the start of the root element and
+     * must consume the root element.
+     *
+     * @param path    The file to stream.
+     * @param handler The handler of the root element.
+     * @throws IOException                if any IO errors occur.
+     * @throws SAXException               if any parse errors occur.
+     * @throws SchematronParsingException if the Schematron file is invalid.
+     */
+    private void streamFile(@NonNull final Path path,
+                            @NonNull final RootHandler handler)
+        throws IOException, SAXException, SchematronParsingException {
+        try (final InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+            final XMLStreamReader reader =
+                this.inputFactory.createXMLStreamReader(path.toUri().toString(), inputStream);
+            try {
+                while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    if (reader.getEventType() == XMLStreamConstants.DTD) {
+                        throw new SAXException("DOCTYPE is disallowed in the Schematron file: " + path);
+                    }
+                }
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                    throw new SAXException("The Schematron file has no root element: " + path);
+                }
+                handler.handle(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (final XMLStreamException exception) {
+            throw new SAXException("The Schematron file cannot be parsed: " + path, exception);
+        }
+    }
+
+    /**
+     * Moves the reader to the next child element of the current element.
+     *
+     * @param reader The stream reader, positioned on the start of an element or on the end of a child element.
+     * @return {@code true} if the reader is positioned on the start of a child element, {@code false} if it's
+     * positioned on the end of the current element.
+     * @throws XMLStreamException if any stream error occurs.
+     */
+    private static boolean nextChildElement(@NonNull final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the current element and its content.
+     *
+     * @param reader The stream reader, positioned on the start of the element. It's positioned on its end afterwards.
+     * @throws XMLStreamException if any stream error occurs.
+     */
+    private static void skipElement(@NonNull final XMLStreamReader reader) throws XMLStreamException {
+        skipElement(reader, 1);
+    }
+
+    /**
+     * Skips events up to the end of an ancestor element.
+     *
+     * @param reader The stream reader.
+     * @param depth  The number of element ends to reach, 1 for the current element.
+     * @throws XMLStreamException if any stream error occurs.
+     */
+    private static void skipElement(@NonNull final XMLStreamReader reader,
+                                    final int depth) throws XMLStreamException {
+        int remainingDepth = depth;
+        while (remainingDepth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++remainingDepth;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --remainingDepth;
+            }
+        }
+    }
+
+    /**
+     * Returns the qualified name of the current element, like {@link org.w3c.dom.Node#getNodeName()}.
+     *
+     * @param reader The stream reader, positioned on the start of an element.
+     * @return the qualified name.
+     */
+    @NonNull
+    private static String getQualifiedName(@NonNull final XMLStreamReader reader) {
+        final String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    /**
+     * Returns the value of an unqualified attribute of the current element, or the empty string if it's missing.
+     *
+     * @param reader The stream reader, positioned on the start of an element.
+     * @param name   The attribute name.
+     * @return the attribute value or the empty string.
+     */
+    @NonNull
+    private static String getAttributeOrEmpty(@NonNull final XMLStreamReader reader,
+                                              @NonNull final String name) {
+        final String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Copies the unqualified attributes of the current element.
+     *
+     * @param reader The stream reader, positioned on the start of an element.
+     * @return the element attributes.
+     */
+    @NonNull
+    private static SchematronAttributes getAttributes(@NonNull final XMLStreamReader reader) {
+        final Map<String, String> attributes = new HashMap<>(reader.getAttributeCount() * 2);
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            final String namespace = reader.getAttributeNamespace(i);
+            if (namespace == null || namespace.isEmpty()) {
+                attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+        return attributes::get;
+    }
+
+    /**
+     * Adds an ID to attributes that have none, like the DOM parser does before parsing a rule or a pattern.
+     *
+     * @param attributes The element attributes.
+     * @param defaultId  The ID to use if the 'id' attribute is missing.
+     * @return the attributes with an ID.
+     */
+    @NonNull
+    private static SchematronAttributes withDefaultId(@NonNull final SchematronAttributes attributes,
+                                                      @NonNull final String defaultId) {
+        return name -> "id".equals(name) && !attributes.has(name) ? defaultId : attributes.get(name);
+    }
+
+    /**
+     * A handler of the root element of a streamed file.
+     */
+    @FunctionalInterface
+    private interface RootHandler {
+
+        /**
+         * Handles the root element.
+         *
+         * @param reader The stream reader, positioned on the start of the root element.
+         * @throws IOException                if any IO errors occur.
+         * @throws SAXException               if any parse errors occur.
+         * @throws SchematronParsingException if the Schematron file is invalid.
+         * @throws XMLStreamException         if any stream error occurs.
+         */
+        void handle(@NonNull final XMLStreamReader reader)
+            throws IOException, SAXException, SchematronParsingException, XMLStreamException;
+    }
+}
@@ -0,0 +1,252 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A streaming writer of optimized Schematron files, built on {@link XMLStreamWriter}. It writes the same content as
+ * {@link SchematronWriter} directly to a buffered stream, in pattern and rule order, without building a DOM: the
+ * memory use does not depend on the definition size.
+ *
+ * @author Quentin Ligier
+ */
+public class StreamingSchematronWriter {
+
+    /**
+     * The factory of stream writers.
+     */
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newDefaultFactory();
+
+    /**
+     * Writes a Schematron definition as a specialized file. The extends are resolved, the abstract rules are dropped,
+     * as well as the empty rules and patterns.
+     *
+     * @param definition      The original Schematron definition
+     * @param destinationFile The optimized file that will be written.
+     * @throws IOException        if any IO error occurs.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    public void writeSchematron(@NonNull final SchematronDefinition definition,
+                                @NonNull final File destinationFile) throws IOException, XMLStreamException {
+        if ((destinationFile.exists() && !Files.isWritable(destinationFile.toPath()))
+            || !Files.isWritable(destinationFile.getParentFile().toPath())) {
+            throw new IllegalArgumentException("The destination file is not writable");
+        }
+
+        try (final OutputStream outputStream =
+                 new BufferedOutputStream(Files.newOutputStream(destinationFile.toPath()))) {
+            final XMLStreamWriter writer =
+                this.outputFactory.createXMLStreamWriter(outputStream, StandardCharsets.UTF_8.name());
+            try {
+                this.writeDocument(definition, writer);
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the Schematron document.
+     *
+     * @param definition The original Schematron definition.
+     * @param writer     The stream writer.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private void writeDocument(@NonNull final SchematronDefinition definition,
+                               @NonNull final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+        writer.setDefaultNamespace(SchematronConstants.SCHEMATRON_NAMESPACE);
+        writer.writeStartElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.ROOT_TAG_NAME);
+        writer.writeDefaultNamespace(SchematronConstants.SCHEMATRON_NAMESPACE);
+        writeAttribute(writer, "queryBinding", definition.getQueryBinding());
+
+        // Add the title if it was defined
+        if (definition.getTitle() != null) {
+            writer.writeStartElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.TITLE_TAG_NAME);
+            writer.writeCharacters(definition.getTitle());
+            writer.writeEndElement();
+        }
+
+        // Add namespaces, they don't need any transformation
+        for (final Map.Entry<String, String> namespace : definition.getNamespaces().entrySet()) {
+            writer.writeEmptyElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.NAMESPACE_TAG_NAME);
+            writeAttribute(writer, "prefix", namespace.getKey());
+            writeAttribute(writer, "uri", namespace.getValue());
+        }
+
+        // Add patterns and rules, the empty ones are skipped
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
+        for (final SchematronPattern pattern : definition.getPatterns()) {
+            final List<SchematronRule> rules = this.getWrittenRules(definition, resolver, pattern.getId());
+            if (rules.isEmpty()) {
+                continue;
+            }
+            writer.writeStartElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.PATTERN_TAG_NAME);
+            writeAttribute(writer, "id", pattern.getId());
+            for (final SchematronRule rule : rules) {
+                this.writeRule(rule, writer);
+            }
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Returns the resolved rules of a pattern that are written, i.e. that are not abstract and not empty.
+     *
+     * @param definition The original Schematron definition.
+     * @param resolver   The resolver of the rule inheritance.
+     * @param patternId  The pattern ID.
+     * @return the list of resolved rules.
+     */
+    @NonNull
+    private List<SchematronRule> getWrittenRules(@NonNull final SchematronDefinition definition,
+                                                 @NonNull final ExtendsResolver resolver,
+                                                 @NonNull final String patternId) {
+        if (!definition.getRulesPerPattern().containsKey(patternId)) {
+            throw new IllegalArgumentException("The pattern cannot be found in the definition");
+        }
+        final List<SchematronRule> rules = new ArrayList<>();
+        for (final String ruleId : definition.getRulesPerPattern().get(patternId)) {
+            final SchematronRule rule = definition.getDefinedRules().get(ruleId);
+            if (rule == null || rule.isAbstract()) {
+                continue;
+            }
+            final SchematronRule resolvedRule = resolver.getResolvedRule(ruleId);
+            if (resolvedRule.getChildren().stream().anyMatch(StreamingSchematronWriter::isWritten)) {
+                rules.add(resolvedRule);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Writes a resolved rule.
+     *
+     * @param rule   The resolved rule.
+     * @param writer The stream writer.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private void writeRule(@NonNull final SchematronRule rule,
+                           @NonNull final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.RULE_TAG_NAME);
+        writeAttribute(writer, "id", rule.getId());
+        writeAttribute(writer, "context", rule.getContext());
+        for (final SchematronRuleChild child : rule.getChildren()) {
+            if (child instanceof final SchematronAssert schematronAssert) {
+                writer.writeStartElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.ASSERT_TAG_NAME);
+                writeAttribute(writer, "test", schematronAssert.getTest());
+                writeAttribute(writer, "role", schematronAssert.getRole());
+                writeMessage(writer, schematronAssert.getMessage());
+                writer.writeEndElement();
+            } else if (child instanceof final SchematronReport schematronReport) {
+                writer.writeStartElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.REPORT_TAG_NAME);
+                writeAttribute(writer, "test", schematronReport.getTest());
+                writeAttribute(writer, "role", schematronReport.getRole());
+                writeMessage(writer, schematronReport.getMessage());
+                writer.writeEndElement();
+            } else if (child instanceof final SchematronLet schematronLet) {
+                writer.writeEmptyElement(SchematronConstants.SCHEMATRON_NAMESPACE, SchematronConstants.LET_TAG_NAME);
+                writeAttribute(writer, "name", schematronLet.getName());
+                writeAttribute(writer, "value", schematronLet.getValue());
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes the message of an assert or report.
+     *
+     * @param writer  The stream writer, positioned in the assert or report element.
+     * @param message The message, or {@code null}.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeMessage(@NonNull final XMLStreamWriter writer,
+                                     @Nullable final SchematronMessage message) throws XMLStreamException {
+        if (message != null) {
+            writeMessageParts(writer, message.getParts(), SchematronConstants.SCHEMATRON_NAMESPACE);
+        }
+    }
+
+    /**
+     * Writes message parts.
+     *
+     * @param writer           The stream writer.
+     * @param parts            The message parts.
+     * @param defaultNamespace The default namespace of the parent element, it's also the namespace of the
+     *                         {@code value-of} and {@code name} elements.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeMessageParts(@NonNull final XMLStreamWriter writer,
+                                          @NonNull final List<SchematronMessage.Part> parts,
+                                          @NonNull final String defaultNamespace) throws XMLStreamException {
+        for (final SchematronMessage.Part part : parts) {
+            switch (part.getKind()) {
+                case TEXT -> writer.writeCharacters(part.getValue());
+                case VALUE_OF -> {
+                    writer.writeEmptyElement(defaultNamespace, SchematronConstants.VALUE_OF_TAG_NAME);
+                    writeAttribute(writer, "select", part.getValue());
+                }
+                case NAME -> {
+                    writer.writeEmptyElement(defaultNamespace, SchematronConstants.VALUE_NAME_NAME);
+                    if (part.getValue() != null) {
+                        writeAttribute(writer, "path", part.getValue());
+                    }
+                }
+                case ELEMENT -> {
+                    final String namespace = Objects.requireNonNullElse(part.getNamespace(), "");
+                    writer.writeStartElement("", part.getValue(), namespace);
+                    if (!namespace.equals(defaultNamespace)) {
+                        writer.writeDefaultNamespace(namespace);
+                    }
+                    for (final Map.Entry<String, String> attribute : part.getAttributes().entrySet()) {
+                        writeAttribute(writer, attribute.getKey(), attribute.getValue());
+                    }
+                    writeMessageParts(writer, part.getChildren(), namespace);
+                    writer.writeEndElement();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a rule child is written: the asserts, reports and variables are, the extends are resolved.
+     *
+     * @param child The rule child.
+     * @return {@code true} if the child is written, {@code false} otherwise.
+     */
+    private static boolean isWritten(@NonNull final SchematronRuleChild child) {
+        return child instanceof SchematronAssert || child instanceof SchematronReport || child instanceof SchematronLet;
+    }
+
+    /**
+     * Writes an attribute. Like in the DOM writer, a missing value is written as an empty attribute.
+     *
+     * @param writer The stream writer.
+     * @param name   The attribute name.
+     * @param value  The attribute value, or {@code null}.
+     * @throws XMLStreamException if an error occurs during the XML rendering.
+     */
+    private static void writeAttribute(@NonNull final XMLStreamWriter writer,
+                                       @NonNull final String name,
+                                       @Nullable final String value) throws XMLStreamException {
+        writer.writeAttribute(name, value == null ? "" : value);
+    }
+}
@@ -0,0 +1,250 @@
+package ch.qligier.emed.ocs.schematron;
+
+import lombok.NonNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The template ID dispatch of the XSLT files.
+ * <p>
+ * Most CDA-CH-EMED rule contexts are anchored on an element that has a given template ID, e.g.
+ * {@code //*[hl7:templateId[@root='2.16.756.5.30.1.1.10.1.3']]/hl7:id}. Each pattern is a mode that traverses the
+ * whole document, and each visited element is matched against the rule templates of the pattern. If all rules of a
+ * pattern are anchored, its traversal only has to start from the anchor elements: the templateId roots of the
+ * elements are indexed once by an {@code xsl:key}, and the pattern applies its templates to the outermost elements
+ * that are returned by the key lookup of its roots. The other elements can't match any rule of the pattern.
+ * <p>
+ * The fired rules and their findings are unchanged, in the same order.
+ *
+ * @author Quentin Ligier
+ */
+public class TemplateIdDispatch {
+
+    /**
+     * The namespace of the dispatch key.
+     */
+    public static final String NAMESPACE = "urn:ch:qligier:emed:ocs:dispatch";
+
+    /**
+     * The prefix of the dispatch key in the XSLT files.
+     */
+    static final String PREFIX = "dsp";
+
+    /**
+     * The name of the key that indexes the elements by templateId root.
+     */
+    public static final String KEY_NAME = PREFIX + ":templateId";
+
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+
+    /**
+     * A pattern that matches the template ID predicate of a rule context step.
+     */
+    private static final Pattern TEMPLATE_ID_PREDICATE_PATTERN =
+        Pattern.compile("^\\[hl7:templateId\\[@root\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")]]$");
+
+    /**
+     * A pattern that matches the element node test of a rule context step.
+     */
+    private static final Pattern ELEMENT_TEST_PATTERN = Pattern.compile("^(?:child::)?(?:\\*|[\\w.-]+:)?[\\w.*-]*$");
+
+    /**
+     * A pattern that matches the operators of a rule context that combine patterns.
+     */
+    private static final Pattern COMBINING_OPERATOR_PATTERN = Pattern.compile("\\s(?:union|intersect|except)\\s");
+
+    private TemplateIdDispatch() {}
+
+    /**
+     * Rewrites the traversal of the patterns whose rules are all anchored on template IDs.
+     *
+     * @param xsltDocument The XSLT document. Mutated.
+     * @return the number of rewritten patterns.
+     */
+    public static int rewrite(@NonNull final Document xsltDocument) {
+        final Element stylesheet = xsltDocument.getDocumentElement();
+        final Map<String, List<Element>> ruleTemplatesByMode = new HashMap<>();
+        final List<Element> traversals = new ArrayList<>();
+        final NodeList templates = stylesheet.getElementsByTagNameNS(XSLT_NAMESPACE, "template");
+        for (int i = 0; i < templates.getLength(); ++i) {
+            final Element template = (Element) templates.item(i);
+            if (!template.hasAttribute("mode")) {
+                if ("/".equals(template.getAttribute("match"))) {
+                    final NodeList applyTemplates = template.getElementsByTagNameNS(XSLT_NAMESPACE, "apply-templates");
+                    for (int j = 0; j < applyTemplates.getLength(); ++j) {
+                        final Element element = (Element) applyTemplates.item(j);
+                        if (element.hasAttribute("mode") && "/".equals(element.getAttribute("select"))) {
+                            traversals.add(element);
+                        }
+                    }
+                }
+            } else if (!template.getAttribute("priority").startsWith("-")) {
+                // The built-in templates of the pattern modes have a negative priority
+                ruleTemplatesByMode.computeIfAbsent(template.getAttribute("mode"), key -> new ArrayList<>())
+                    .add(template);
+            }
+        }
+
+        int rewritten = 0;
+        for (final Element traversal : traversals) {
+            final Set<String> roots = findAnchorRoots(
+                ruleTemplatesByMode.getOrDefault(traversal.getAttribute("mode"), List.of()));
+            if (roots == null) {
+                continue;
+            }
+            final String rootSequence = roots.stream()
+                .map(root -> "'" + root + "'")
+                .collect(Collectors.joining(", ", "(", ")"));
+            traversal.setAttribute("select", "key('" + KEY_NAME + "', " + rootSequence
+                + ")[not(ancestor::*[hl7:templateId/@root = " + rootSequence + "])]");
+            ++rewritten;
+        }
+
+        if (rewritten > 0) {
+            stylesheet.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + PREFIX, NAMESPACE);
+            final String excludedPrefixes = stylesheet.getAttribute("exclude-result-prefixes");
+            stylesheet.setAttribute("exclude-result-prefixes", (excludedPrefixes + " " + PREFIX).strip());
+            final Element key = xsltDocument.createElementNS(XSLT_NAMESPACE, "xsl:key");
+            key.setAttribute("name", KEY_NAME);
+            key.setAttribute("match", "*[hl7:templateId]");
+            key.setAttribute("use", "hl7:templateId/@root");
+            stylesheet.insertBefore(key, stylesheet.getFirstChild());
+        }
+        return rewritten;
+    }
+
+    /**
+     * Finds the template ID roots on which the rule templates of a pattern are anchored.
+     *
+     * @param ruleTemplates The rule templates of the pattern.
+     * @return the sorted roots, or {@code null} if a rule is not anchored or if there is no rule.
+     */
+    @Nullable
+    private static Set<String> findAnchorRoots(@NonNull final List<Element> ruleTemplates) {
+        if (ruleTemplates.isEmpty()) {
+            return null;
+        }
+        final Set<String> roots = new TreeSet<>();
+        for (final Element template : ruleTemplates) {
+            final Set<String> templateRoots = findAnchorRoots(template.getAttribute("match"));
+            if (templateRoots == null) {
+                return null;
+            }
+            roots.addAll(templateRoots);
+        }
+        return roots;
+    }
+
+    /**
+     * Finds the template ID roots on which a rule context is anchored: each alternative of the context shall have an
+     * element step with the predicate {@code [hl7:templateId[@root='...']]}. The matched nodes are then the anchor
+     * elements or their descendants, because the steps of a pattern can't go up.
+     *
+     * @param context The rule context, i.e. the match pattern of the rule template.
+     * @return the roots, or {@code null} if the context is not anchored.
+     */
+    @Nullable
+    static Set<String> findAnchorRoots(@NonNull final String context) {
+        final Set<String> roots = new TreeSet<>();
+        for (final String alternative : splitTopLevel(context, '|')) {
+            if (alternative == null || COMBINING_OPERATOR_PATTERN.matcher(" " + alternative + " ").find()) {
+                return null;
+            }
+            String root = null;
+            for (final String step : splitTopLevel(alternative, '/')) {
+                if (step == null) {
+                    return null;
+                }
+                root = findStepRoot(step.strip());
+                if (root != null) {
+                    break;
+                }
+            }
+            if (root == null) {
+                return null;
+            }
+            roots.add(root);
+        }
+        return roots;
+    }
+
+    /**
+     * Finds the template ID root of a step, if it's an element step with a template ID predicate.
+     *
+     * @param step The step.
+     * @return the root, or {@code null}.
+     */
+    @Nullable
+    private static String findStepRoot(@NonNull final String step) {
+        final int predicatesStart = step.indexOf('[');
+        if (predicatesStart <= 0 || !ELEMENT_TEST_PATTERN.matcher(step.substring(0, predicatesStart)).matches()) {
+            return null;
+        }
+        int depth = 0;
+        int start = predicatesStart;
+        char quote = 0;
+        for (int i = predicatesStart; i < step.length(); ++i) {
+            final char c = step.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[') {
+                if (depth++ == 0) {
+                    start = i;
+                }
+            } else if (c == ']' && --depth == 0) {
+                final Matcher matcher = TEMPLATE_ID_PREDICATE_PATTERN.matcher(step.substring(start, i + 1));
+                if (matcher.matches()) {
+                    final String root = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+                    return root.indexOf('\'') < 0 ? root : null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits an expression on a separator that is outside of the predicates, parentheses and string literals.
+     *
+     * @param expression The expression.
+     * @param separator  The separator.
+     * @return the parts, with {@code null} parts if the expression is unbalanced.
+     */
+    @NonNull
+    private static List<String> splitTopLevel(@NonNull final String expression,
+                                              final char separator) {
+        final List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < expression.length(); ++i) {
+            final char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[' || c == '(') {
+                ++depth;
+            } else if (c == ']' || c == ')') {
+                --depth;
+            } else if (c == separator && depth == 0) {
+                parts.add(expression.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(depth == 0 && quote == 0 ? expression.substring(start) : null);
+        return parts;
+    }
+}
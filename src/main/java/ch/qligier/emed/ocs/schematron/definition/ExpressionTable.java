@@ -0,0 +1,145 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * A table of the XPath expressions of Schematron definitions. The same expressions are repeated in many rules and
+ * definitions: the table interns them, so that each distinct expression is held once, and memoizes the rewrites of
+ * the expressions, so that each rewrite runs once per distinct expression.
+ * <p>
+ * The table is thread-safe. By default, all the definitions share the same table: the expressions and rewrite results
+ * are shared by all the parsed Schematron files and their copies.
+ *
+ * @author Quentin Ligier
+ */
+public class ExpressionTable {
+
+    /**
+     * The table that is shared by default by the definitions.
+     */
+    private static final ExpressionTable SHARED = new ExpressionTable();
+
+    /**
+     * The interned expressions.
+     */
+    private final ConcurrentMap<String, String> expressions = new ConcurrentHashMap<>();
+
+    /**
+     * The memoized results of the rewrites, by rewrite name and expression.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> rewrites = new ConcurrentHashMap<>();
+
+    /**
+     * The number of rewrites that have been found in the table.
+     */
+    private final LongAdder rewriteHits = new LongAdder();
+
+    /**
+     * The number of rewrites that have been run.
+     */
+    private final LongAdder rewriteMisses = new LongAdder();
+
+    /**
+     * Returns the table that is shared by default by the definitions.
+     *
+     * @return the shared expression table.
+     */
+    @NonNull
+    public static ExpressionTable shared() {
+        return SHARED;
+    }
+
+    /**
+     * Interns an expression.
+     *
+     * @param expression The expression, or {@code null}.
+     * @return the canonical instance of the expression, or {@code null}.
+     */
+    @Nullable
+    public String intern(@Nullable final String expression) {
+        if (expression == null) {
+            return null;
+        }
+        final String internedExpression = this.expressions.putIfAbsent(expression, expression);
+        return internedExpression == null ? expression : internedExpression;
+    }
+
+    /**
+     * Memoizes a rewrite of the expressions. The rewrite shall be a pure function: its results are shared by all the
+     * callers that use the same rewrite name.
+     *
+     * @param name    The unique name of the rewrite.
+     * @param rewrite The rewrite.
+     * @return the memoized rewrite, whose results are interned.
+     */
+    @NonNull
+    public UnaryOperator<String> memoize(@NonNull final String name,
+                                         @NonNull final UnaryOperator<String> rewrite) {
+        final ConcurrentMap<String, String> results = this.rewrites.computeIfAbsent(name,
+            rewriteName -> new ConcurrentHashMap<>());
+        return expression -> {
+            final String cachedResult = results.get(expression);
+            if (cachedResult != null) {
+                this.rewriteHits.increment();
+                return cachedResult;
+            }
+            this.rewriteMisses.increment();
+            final String result = this.intern(rewrite.apply(expression));
+            results.put(this.intern(expression), result);
+            return result;
+        };
+    }
+
+    /**
+     * Interns the expressions of a definition: the rule contexts, the assert and report tests and the variable values.
+     *
+     * @param definition The Schematron definition. Mutated.
+     */
+    public void internAll(@NonNull final SchematronDefinition definition) {
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            rule.setContext(this.intern(rule.getContext()));
+            for (final SchematronRuleChild child : rule.getChildren()) {
+                if (child instanceof final SchematronAssert schematronAssert) {
+                    schematronAssert.setTest(this.intern(schematronAssert.getTest()));
+                } else if (child instanceof final SchematronReport schematronReport) {
+                    schematronReport.setTest(this.intern(schematronReport.getTest()));
+                } else if (child instanceof final SchematronLet schematronLet) {
+                    schematronLet.setValue(this.intern(schematronLet.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct interned expressions.
+     *
+     * @return the table size.
+     */
+    public int size() {
+        return this.expressions.size();
+    }
+
+    /**
+     * Returns the number of rewrites that have been found in the table.
+     *
+     * @return the number of memoized rewrites hits.
+     */
+    public long getRewriteHits() {
+        return this.rewriteHits.sum();
+    }
+
+    /**
+     * Returns the number of rewrites that have been run.
+     *
+     * @return the number of memoized rewrites misses.
+     */
+    public long getRewriteMisses() {
+        return this.rewriteMisses.sum();
+    }
+}
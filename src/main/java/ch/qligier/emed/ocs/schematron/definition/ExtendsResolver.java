@@ -0,0 +1,122 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import lombok.NonNull;
+
+import java.util.*;
+
+/**
+ * The resolver of the rule inheritance of a Schematron definition: the 'extends' children of a rule are replaced by
+ * the resolved children of the extended rule, at the position of the 'extends' element to preserve the Schematron
+ * order.
+ * <p>
+ * Each rule is flattened once, after the rules it extends (i.e. in a topological order), and its resolved children are
+ * shared by all the rules that extend it. Resolving all the rules is thus linear in the definition size. The cyclic
+ * and dangling 'extends' are reported as {@link SchematronParsingException}s.
+ * <p>
+ * The resolver reflects the definition at the time of the resolution; it shall not be reused once the rules it has
+ * resolved are modified.
+ *
+ * @author Quentin Ligier
+ */
+public class ExtendsResolver {
+
+    /**
+     * The Schematron definition.
+     */
+    @NonNull
+    private final SchematronDefinition definition;
+
+    /**
+     * The immutable resolved children of the rules already resolved, by rule ID.
+     */
+    private final Map<String, List<SchematronRuleChild>> resolvedChildren = new HashMap<>();
+
+    /**
+     * The IDs of the rules being resolved, in the order of the 'extends' chain.
+     */
+    private final LinkedHashSet<String> resolving = new LinkedHashSet<>();
+
+    /**
+     * Constructor.
+     *
+     * @param definition The Schematron definition.
+     */
+    public ExtendsResolver(@NonNull final SchematronDefinition definition) {
+        this.definition = definition;
+    }
+
+    /**
+     * Resolves all the rules of the definition, to check their 'extends' children.
+     *
+     * @throws SchematronParsingException if an 'extends' is cyclic or references an undefined rule.
+     */
+    public void resolveAll() throws SchematronParsingException {
+        for (final String ruleId : this.definition.getDefinedRules().keySet()) {
+            this.resolve(ruleId);
+        }
+    }
+
+    /**
+     * Returns the resolved children of a rule, i.e. its own children where each 'extends' is replaced by the resolved
+     * children of the extended rule.
+     *
+     * @param ruleId The ID of the rule to resolve.
+     * @return the immutable list of resolved children, shared with the rules that extend this one.
+     * @throws SchematronParsingException if an 'extends' is cyclic or references an undefined rule.
+     */
+    @NonNull
+    public List<SchematronRuleChild> resolve(@NonNull final String ruleId) throws SchematronParsingException {
+        final List<SchematronRuleChild> cachedChildren = this.resolvedChildren.get(ruleId);
+        if (cachedChildren != null) {
+            return cachedChildren;
+        }
+        final SchematronRule rule = this.definition.getDefinedRules().get(ruleId);
+        if (rule == null) {
+            throw new IllegalArgumentException("The rule '" + ruleId + "' cannot be found in the definition");
+        }
+        if (!this.resolving.add(ruleId)) {
+            throw new SchematronParsingException("The rule '" + ruleId + "' extends itself: "
+                + String.join(" -> ", this.resolving) + " -> " + ruleId);
+        }
+
+        final List<SchematronRuleChild> children = new ArrayList<>(rule.getChildren().size());
+        for (final SchematronRuleChild child : rule.getChildren()) {
+            if (child instanceof final SchematronExtends extend) {
+                if (!this.definition.getDefinedRules().containsKey(extend.getExtendsRuleId())) {
+                    throw new SchematronParsingException("The rule '" + ruleId + "' extends the undefined rule '"
+                        + extend.getExtendsRuleId() + "'");
+                }
+                children.addAll(this.resolve(extend.getExtendsRuleId()));
+            } else {
+                children.add(child);
+            }
+        }
+        this.resolving.remove(ruleId);
+
+        final List<SchematronRuleChild> immutableChildren = Collections.unmodifiableList(children);
+        this.resolvedChildren.put(ruleId, immutableChildren);
+        return immutableChildren;
+    }
+
+    /**
+     * Gets a rule by its ID and resolves it. The definition is expected to have been checked by the parser, an invalid
+     * 'extends' is thus an illegal state.
+     *
+     * @param ruleId The ID of the rule to get.
+     * @return a copy of the rule that is self-contained (it does not extend other rules anymore), with a mutable list
+     * of children.
+     */
+    @NonNull
+    public SchematronRule getResolvedRule(@NonNull final String ruleId) {
+        final List<SchematronRuleChild> children;
+        try {
+            children = this.resolve(ruleId);
+        } catch (final SchematronParsingException exception) {
+            throw new IllegalStateException(exception.getMessage(), exception);
+        }
+        final SchematronRule rule = this.definition.getDefinedRules().get(ruleId);
+        return new SchematronRule(rule.getPattern(), rule.getId(), rule.getContext(), new ArrayList<>(children),
+            rule.isAbstract());
+    }
+}
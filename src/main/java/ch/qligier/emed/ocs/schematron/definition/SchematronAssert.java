@@ -6,11 +6,6 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * An assertion made about the context nodes.
@@ -38,9 +33,9 @@ public class SchematronAssert extends SchematronRuleChild {
     private String see;
 
     /**
-     * The list of {@link Node}s (text or tag) that makes the assert's detail message.
+     * The assert's detail message.
      */
-    private List<Node> messageNodes;
+    private SchematronMessage message;
 
     /**
      * Clones the current object.
@@ -48,7 +43,7 @@ public class SchematronAssert extends SchematronRuleChild {
      * @return the cloned object.
      */
     public SchematronAssert clone() {
-        return new SchematronAssert(role, test, see, messageNodes);
+        return new SchematronAssert(role, test, see, message);
     }
 
     /**
@@ -62,28 +57,29 @@ public class SchematronAssert extends SchematronRuleChild {
         if (!SchematronConstants.ASSERT_TAG_NAME.equalsIgnoreCase(assertElement.getTagName())) {
             throw new SchematronParsingException("The given node is not an 'assert' element");
         }
-        if (!assertElement.hasAttribute("test")) {
-            throw new SchematronParsingException("Missing attribute 'test' in 'assert' element");
-        }
-
-        final String role;
-        if (assertElement.hasAttribute("role")) {
-            role = assertElement.getAttribute("role");
-        } else {
-            role = null;
-        }
+        return fromAttributes(SchematronAttributes.of(assertElement),
+            SchematronMessage.fromNodes(assertElement.getChildNodes()));
+    }
 
-        final List<Node> messageNodes = new ArrayList<>();
-        final NodeList nodes = assertElement.getChildNodes();
-        for (int i = 0; i < nodes.getLength(); ++i) {
-            messageNodes.add(nodes.item(i));
+    /**
+     * Constructs a new instance from the attributes and the message of an {@code assert} element.
+     *
+     * @param attributes The element attributes.
+     * @param message    The detail message.
+     * @return a new instance of {@link SchematronAssert}.
+     * @throws SchematronParsingException if the attributes are invalid.
+     */
+    public static SchematronAssert fromAttributes(@NonNull final SchematronAttributes attributes,
+                                                  @NonNull final SchematronMessage message)
+        throws SchematronParsingException {
+        if (!attributes.has("test")) {
+            throw new SchematronParsingException("Missing attribute 'test' in 'assert' element");
         }
-
         return new SchematronAssert(
-            role,
-            assertElement.getAttribute("test"),
-            assertElement.getAttribute("see"),
-            messageNodes
+            attributes.get("role"),
+            attributes.get("test"),
+            attributes.getOrEmpty("see"),
+            message
         );
     }
 }
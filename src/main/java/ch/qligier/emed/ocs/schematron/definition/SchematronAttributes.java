@@ -0,0 +1,57 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import lombok.NonNull;
+import org.w3c.dom.Element;
+
+import javax.annotation.Nullable;
+
+/**
+ * The attributes of a Schematron element, independently of the way it's parsed (DOM or stream).
+ *
+ * @author Quentin Ligier
+ */
+@FunctionalInterface
+public interface SchematronAttributes {
+
+    /**
+     * Returns the value of an attribute.
+     *
+     * @param name The attribute name.
+     * @return the attribute value, or {@code null} if the element has no such attribute.
+     */
+    @Nullable
+    String get(@NonNull final String name);
+
+    /**
+     * Returns whether the element has an attribute.
+     *
+     * @param name The attribute name.
+     * @return {@code true} if the element has the attribute, {@code false} otherwise.
+     */
+    default boolean has(@NonNull final String name) {
+        return this.get(name) != null;
+    }
+
+    /**
+     * Returns the value of an attribute, or the empty string if the element has no such attribute.
+     *
+     * @param name The attribute name.
+     * @return the attribute value or the empty string.
+     */
+    @NonNull
+    default String getOrEmpty(@NonNull final String name) {
+        final String value = this.get(name);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Returns the attributes of a DOM element.
+     *
+     * @param element The DOM element.
+     * @return the element attributes.
+     */
+    @NonNull
+    static SchematronAttributes of(@NonNull final Element element) {
+        return name -> element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+}
@@ -1,10 +1,11 @@
 package ch.qligier.emed.ocs.schematron.definition;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
+import lombok.ToString;
 
 import java.util.*;
-import java.util.function.Predicate;
 
 /**
  * Data structure of a parsed Schematron file.
@@ -50,56 +51,47 @@ public class SchematronDefinition {
     private String queryBinding;
 
     /**
-     * Gets a rule by its ID and resolve it (i.e. all extended rules are aggregated into the given rule).
-     *
-     * @param ruleId The ID of the rule to get.
-     * @return an instance of rule that is self-contained (it does not extend other rules anymore).
+     * The table of the XPath expressions, shared with the copies of the definition. It's not part of the definition
+     * content.
      */
-    public SchematronRule getResolvedRule(@NonNull final String ruleId) {
-        final SchematronRule rule = this.getDefinedRules().get(ruleId).clone();
-        rule.setChildren(this.resolveExtendedChildren(rule));
-        return rule;
-    }
+    @NonNull
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private ExpressionTable expressionTable = ExpressionTable.shared();
 
     /**
-     * Resolves the extended rules from a given rule. The function is recursive and will call itself as many times as necessary to fully
-     * resolve all extended rules. Extended rules are added at the position the 'extend' tag was encountered to preserve the Schematron
-     * order.
+     * Copies the definition. Rules and patterns are deep-copied, so that the copy can be transformed without affecting
+     * the current definition.
      *
-     * @param extendedRule The instance of the rule to resolve.
-     * @return an instance of the rule that is self-contained (it does not extend other rules anymore).
+     * @return the copied definition.
      */
-    private List<SchematronRuleChild> resolveExtendedChildren(@NonNull final SchematronRule extendedRule) {
-        final List<SchematronRuleChild> children = new ArrayList<>(extendedRule.getChildren());
-        if (children.stream().anyMatch(child -> child instanceof SchematronExtends)) {
-            final int index = listIndexOf(children, child -> child instanceof SchematronExtends);
-            final SchematronExtends extend = (SchematronExtends) children.get(index);
-            children.remove(index);
-            final List<SchematronRuleChild> newChildren = resolveExtendedChildren(this.getDefinedRules().get(extend.getExtendsRuleId()));
-            final ListIterator<SchematronRuleChild> listIterator = newChildren.listIterator(newChildren.size());
-            while (listIterator.hasPrevious()) {
-                children.add(index, listIterator.previous());
-            }
+    public SchematronDefinition copy() {
+        final SchematronDefinition copy = new SchematronDefinition();
+        for (final Map.Entry<String, SchematronRule> entry : this.definedRules.entrySet()) {
+            copy.getDefinedRules().put(entry.getKey(), entry.getValue().clone());
+        }
+        for (final SchematronPattern pattern : this.patterns) {
+            copy.getPatterns().add(pattern.clone());
         }
-        return children;
+        copy.getEnabledRules().addAll(this.enabledRules);
+        for (final Map.Entry<String, List<String>> entry : this.rulesPerPattern.entrySet()) {
+            copy.getRulesPerPattern().put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        copy.getNamespaces().putAll(this.namespaces);
+        copy.setTitle(this.title);
+        copy.setQueryBinding(this.queryBinding);
+        copy.setExpressionTable(this.expressionTable);
+        return copy;
     }
 
     /**
-     * Returns the index in a given list of the first element that satisfies the provided predicate or {@code -1} if the
-     * list has no such elements.
+     * Gets a rule by its ID and resolve it (i.e. all extended rules are aggregated into the given rule). To resolve
+     * multiple rules, an {@link ExtendsResolver} shall be reused instead, it resolves each extended rule once.
      *
-     * @param list The list in which to search.
-     * @param predicate The predicate.
-     * @param <T> The object type of the list.
-     * @return the index of the satisfying element or {@code -1}.
+     * @param ruleId The ID of the rule to get.
+     * @return an instance of rule that is self-contained (it does not extend other rules anymore).
      */
-    private <T> int listIndexOf(@NonNull final List<T> list,
-                                @NonNull final Predicate<T> predicate) {
-        for (int i = 0; i < list.size(); ++i) {
-            if (predicate.test(list.get(i))) {
-                return i;
-            }
-        }
-        return -1;
+    public SchematronRule getResolvedRule(@NonNull final String ruleId) {
+        return new ExtendsResolver(this).getResolvedRule(ruleId);
     }
 }
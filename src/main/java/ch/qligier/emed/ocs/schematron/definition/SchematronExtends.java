@@ -42,10 +42,22 @@ public class SchematronExtends extends SchematronRuleChild implements Cloneable
         if (!SchematronConstants.EXTENDS_TAG_NAME.equalsIgnoreCase(extendsElement.getTagName())) {
             throw new SchematronParsingException("This is not an 'extends' element");
         }
-        if (!extendsElement.hasAttribute("rule")) {
+        return fromAttributes(SchematronAttributes.of(extendsElement));
+    }
+
+    /**
+     * Constructs a new instance from the attributes of an {@code extends} element.
+     *
+     * @param attributes The element attributes.
+     * @return a new instance of {@link SchematronExtends}.
+     * @throws SchematronParsingException if the attributes are invalid.
+     */
+    public static SchematronExtends fromAttributes(@NonNull final SchematronAttributes attributes)
+        throws SchematronParsingException {
+        if (!attributes.has("rule")) {
             throw new SchematronParsingException("Missing attribute 'rule' in 'extends' element");
         }
 
-        return new SchematronExtends(extendsElement.getAttribute("rule"));
+        return new SchematronExtends(attributes.get("rule"));
     }
 }
@@ -47,13 +47,25 @@ public class SchematronLet extends SchematronRuleChild {
         if (!SchematronConstants.LET_TAG_NAME.equalsIgnoreCase(letElement.getTagName())) {
             throw new SchematronParsingException("The given node is not a 'let' element");
         }
-        if (!letElement.hasAttribute("name") || !letElement.hasAttribute("value")) {
+        return fromAttributes(SchematronAttributes.of(letElement));
+    }
+
+    /**
+     * Constructs a new instance from the attributes of a {@code let} element.
+     *
+     * @param attributes The element attributes.
+     * @return a new instance of {@link SchematronLet}.
+     * @throws SchematronParsingException if the attributes are invalid.
+     */
+    public static SchematronLet fromAttributes(@NonNull final SchematronAttributes attributes)
+        throws SchematronParsingException {
+        if (!attributes.has("name") || !attributes.has("value")) {
             throw new SchematronParsingException("A 'let' element is missing its 'name' and/or 'value' attributes");
         }
 
         return new SchematronLet(
-            letElement.getAttribute("name"),
-            letElement.getAttribute("value")
+            attributes.get("name"),
+            attributes.get("value")
         );
     }
 }
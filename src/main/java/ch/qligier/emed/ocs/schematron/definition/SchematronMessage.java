@@ -0,0 +1,284 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nullable;
+import javax.xml.XMLConstants;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The detail message of an assert or report: text runs and {@code value-of}/{@code name} placeholders, and the other
+ * inline elements (e.g. {@code emph}) with their content.
+ * <p>
+ * The message is immutable and detached from the parsed document, it can be shared by the copies of a definition.
+ * Comments and processing instructions are dropped, they are not rendered in the message anyway.
+ *
+ * @author Quentin Ligier
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final class SchematronMessage {
+
+    /**
+     * The empty message.
+     */
+    public static final SchematronMessage EMPTY = new SchematronMessage(List.of());
+
+    /**
+     * The message parts.
+     */
+    @NonNull
+    private final List<Part> parts;
+
+    /**
+     * Creates a message from its parts.
+     *
+     * @param parts The message parts.
+     * @return the message.
+     */
+    @NonNull
+    public static SchematronMessage of(@NonNull final List<Part> parts) {
+        return parts.isEmpty() ? EMPTY : new SchematronMessage(mergeTexts(parts));
+    }
+
+    /**
+     * Parses a message from the child nodes of an {@code assert} or {@code report} element.
+     *
+     * @param nodes The child nodes.
+     * @return the message.
+     */
+    @NonNull
+    public static SchematronMessage fromNodes(@NonNull final NodeList nodes) {
+        return of(parseParts(nodes));
+    }
+
+    /**
+     * Appends the message to an element, as child nodes. The {@code value-of} and {@code name} elements are created
+     * in the namespace of the parent element.
+     *
+     * @param parent The {@code assert} or {@code report} element.
+     */
+    public void appendTo(@NonNull final Element parent) {
+        appendParts(parent, this.parts);
+    }
+
+    /**
+     * Parses the parts of a message.
+     *
+     * @param nodes The nodes (text or tag) that make the message.
+     * @return the message parts.
+     */
+    @NonNull
+    private static List<Part> parseParts(@NonNull final NodeList nodes) {
+        final List<Part> parts = new ArrayList<>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            final Node node = nodes.item(i);
+            switch (node.getNodeType()) {
+                case Node.TEXT_NODE, Node.CDATA_SECTION_NODE -> parts.add(Part.text(node.getNodeValue()));
+                case Node.ELEMENT_NODE -> {
+                    final Element element = (Element) node;
+                    final String localName =
+                        element.getLocalName() != null ? element.getLocalName() : element.getTagName();
+                    if (SchematronConstants.VALUE_OF_TAG_NAME.equals(localName)) {
+                        parts.add(Part.valueOf(element.getAttribute("select")));
+                    } else if (SchematronConstants.VALUE_NAME_NAME.equals(localName)) {
+                        parts.add(Part.name(element.hasAttribute("path") ? element.getAttribute("path") : null));
+                    } else {
+                        final Map<String, String> attributes = new LinkedHashMap<>();
+                        final NamedNodeMap attributeNodes = element.getAttributes();
+                        for (int j = 0; j < attributeNodes.getLength(); ++j) {
+                            final Node attribute = attributeNodes.item(j);
+                            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                                // The namespace declarations are not attributes of the message
+                                attributes.put(attribute.getNodeName(), attribute.getNodeValue());
+                            }
+                        }
+                        parts.add(Part.element(element.getNamespaceURI(), localName, attributes,
+                            parseParts(element.getChildNodes())));
+                    }
+                }
+                default -> {
+                    // Comments and processing instructions are not rendered in the message
+                }
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Merges the adjacent text parts, so that the message does not depend on how the parser splits the text.
+     *
+     * @param parts The message parts.
+     * @return the immutable list of merged parts.
+     */
+    @NonNull
+    private static List<Part> mergeTexts(@NonNull final List<Part> parts) {
+        final List<Part> mergedParts = new ArrayList<>(parts.size());
+        for (final Part part : parts) {
+            final int lastIndex = mergedParts.size() - 1;
+            if (part.getKind() == Part.Kind.TEXT && lastIndex >= 0
+                && mergedParts.get(lastIndex).getKind() == Part.Kind.TEXT) {
+                mergedParts.set(lastIndex, Part.text(mergedParts.get(lastIndex).getValue() + part.getValue()));
+            } else {
+                mergedParts.add(part);
+            }
+        }
+        return List.copyOf(mergedParts);
+    }
+
+    /**
+     * Appends message parts to an element.
+     *
+     * @param parent The parent element.
+     * @param parts  The message parts.
+     */
+    private static void appendParts(@NonNull final Element parent,
+                                    @NonNull final List<Part> parts) {
+        final Document document = parent.getOwnerDocument();
+        for (final Part part : parts) {
+            switch (part.getKind()) {
+                case TEXT -> parent.appendChild(document.createTextNode(part.getValue()));
+                case VALUE_OF -> {
+                    final Element element =
+                        document.createElementNS(parent.getNamespaceURI(), SchematronConstants.VALUE_OF_TAG_NAME);
+                    element.setAttribute("select", part.getValue());
+                    parent.appendChild(element);
+                }
+                case NAME -> {
+                    final Element element =
+                        document.createElementNS(parent.getNamespaceURI(), SchematronConstants.VALUE_NAME_NAME);
+                    if (part.getValue() != null) {
+                        element.setAttribute("path", part.getValue());
+                    }
+                    parent.appendChild(element);
+                }
+                case ELEMENT -> {
+                    final Element element = document.createElementNS(part.getNamespace(), part.getValue());
+                    for (final Map.Entry<String, String> attribute : part.getAttributes().entrySet()) {
+                        element.setAttribute(attribute.getKey(), attribute.getValue());
+                    }
+                    appendParts(element, part.getChildren());
+                    parent.appendChild(element);
+                }
+            }
+        }
+    }
+
+    /**
+     * A part of a message.
+     */
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Part {
+
+        /**
+         * The kind of part.
+         */
+        @NonNull
+        private final Kind kind;
+
+        /**
+         * The text of a {@link Kind#TEXT} part, the expression of a {@link Kind#VALUE_OF} part, the path of a
+         * {@link Kind#NAME} part (or {@code null}) or the local name of an {@link Kind#ELEMENT} part.
+         */
+        @Nullable
+        private final String value;
+
+        /**
+         * The namespace URI of an {@link Kind#ELEMENT} part, {@code null} otherwise.
+         */
+        @Nullable
+        private final String namespace;
+
+        /**
+         * The attributes of an {@link Kind#ELEMENT} part, empty otherwise.
+         */
+        @NonNull
+        private final Map<String, String> attributes;
+
+        /**
+         * The content of an {@link Kind#ELEMENT} part, empty otherwise.
+         */
+        @NonNull
+        private final List<Part> children;
+
+        /**
+         * Creates a text part.
+         *
+         * @param text The text.
+         * @return the message part.
+         */
+        @NonNull
+        public static Part text(@NonNull final String text) {
+            return new Part(Kind.TEXT, text, null, Map.of(), List.of());
+        }
+
+        /**
+         * Creates a {@code value-of} part.
+         *
+         * @param select The selected XPath expression.
+         * @return the message part.
+         */
+        @NonNull
+        public static Part valueOf(@NonNull final String select) {
+            return new Part(Kind.VALUE_OF, select, null, Map.of(), List.of());
+        }
+
+        /**
+         * Creates a {@code name} part.
+         *
+         * @param path The path of the named node, or {@code null} for the context node.
+         * @return the message part.
+         */
+        @NonNull
+        public static Part name(@Nullable final String path) {
+            return new Part(Kind.NAME, path, null, Map.of(), List.of());
+        }
+
+        /**
+         * Creates an inline element part.
+         *
+         * @param namespace  The namespace URI, or {@code null}.
+         * @param localName  The local name.
+         * @param attributes The attributes.
+         * @param children   The content.
+         * @return the message part.
+         */
+        @NonNull
+        public static Part element(@Nullable final String namespace,
+                                   @NonNull final String localName,
+                                   @NonNull final Map<String, String> attributes,
+                                   @NonNull final List<Part> children) {
+            return new Part(Kind.ELEMENT, localName, namespace,
+                Collections.unmodifiableMap(new LinkedHashMap<>(attributes)), mergeTexts(children));
+        }
+
+        /**
+         * The kinds of message parts.
+         */
+        public enum Kind {
+            TEXT,
+            VALUE_OF,
+            NAME,
+            ELEMENT
+        }
+    }
+}
@@ -18,7 +18,7 @@ import org.w3c.dom.Element;
 @AllArgsConstructor
 @NoArgsConstructor
 @Log
-public class SchematronPattern {
+public class SchematronPattern implements Cloneable {
 
     /**
      * The pattern ID. If it isn't set in the definition, the parser will generate one.
@@ -47,23 +47,36 @@ public class SchematronPattern {
         if (!SchematronConstants.PATTERN_TAG_NAME.equalsIgnoreCase(patternElement.getTagName())) {
             throw new SchematronParsingException("The given node is not an 'pattern' element");
         }
+        return fromAttributes(SchematronAttributes.of(patternElement));
+    }
 
+    /**
+     * Constructs a new instance from the attributes of a {@code pattern} element.
+     *
+     * @param attributes The element attributes.
+     * @return a new instance of {@link SchematronPattern}.
+     * @throws SchematronParsingException if the attributes are invalid.
+     */
+    public static SchematronPattern fromAttributes(@NonNull final SchematronAttributes attributes)
+        throws SchematronParsingException {
+        final String abstractValue = attributes.get("abstract");
         boolean isAbstract;
-        if (patternElement.hasAttribute("abstract") && "true".equalsIgnoreCase(patternElement.getAttribute("abstract"))) {
+        if ("true".equalsIgnoreCase(abstractValue)) {
             isAbstract = true;
-        } else if (patternElement.hasAttribute("abstract") && "false".equalsIgnoreCase(patternElement.getAttribute("abstract"))) {
+        } else if ("false".equalsIgnoreCase(abstractValue)) {
             isAbstract = false;
-        } else if (patternElement.hasAttribute("abstract")) {
-            throw new SchematronParsingException("The 'abstract' attribute of the 'pattern' element shall be either true or false");
+        } else if (abstractValue != null) {
+            throw new SchematronParsingException(
+                "The 'abstract' attribute of the 'pattern' element shall be either true or false");
         } else {
             // Default value
             isAbstract = false;
         }
 
         return new SchematronPattern(
-            patternElement.getAttribute("id"),
+            attributes.getOrEmpty("id"),
             isAbstract,
-            patternElement.getAttribute("title")
+            attributes.getOrEmpty("title")
         );
     }
 
@@ -6,11 +6,6 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A report made about the context nodes.
@@ -39,9 +34,9 @@ public class SchematronReport extends SchematronRuleChild {
     private String see;
 
     /**
-     * The list of {@link Node}s (text or tag) that makes the report's detail message.
+     * The report's detail message.
      */
-    private List<Node> messageNodes;
+    private SchematronMessage message;
 
     /**
      * Clones the current object.
@@ -49,7 +44,7 @@ public class SchematronReport extends SchematronRuleChild {
      * @return the cloned object.
      */
     public SchematronReport clone() {
-        return new SchematronReport(role, test, see, messageNodes);
+        return new SchematronReport(role, test, see, message);
     }
 
     /**
@@ -63,28 +58,29 @@ public class SchematronReport extends SchematronRuleChild {
         if (!SchematronConstants.REPORT_TAG_NAME.equalsIgnoreCase(reportElement.getTagName())) {
             throw new SchematronParsingException("The given node is not an 'report' element");
         }
-        if (!reportElement.hasAttribute("test")) {
-            throw new SchematronParsingException("Missing attribute 'test' in 'report' element");
-        }
-
-        final String role;
-        if (reportElement.hasAttribute("role")) {
-            role = reportElement.getAttribute("role");
-        } else {
-            role = null;
-        }
+        return fromAttributes(SchematronAttributes.of(reportElement),
+            SchematronMessage.fromNodes(reportElement.getChildNodes()));
+    }
 
-        final List<Node> messageNodes = new ArrayList<>();
-        final NodeList nodes = reportElement.getChildNodes();
-        for (int i = 0; i < nodes.getLength(); ++i) {
-            messageNodes.add(nodes.item(i));
+    /**
+     * Constructs a new instance from the attributes and the message of a {@code report} element.
+     *
+     * @param attributes The element attributes.
+     * @param message    The detail message.
+     * @return a new instance of {@link SchematronReport}.
+     * @throws SchematronParsingException if the attributes are invalid.
+     */
+    public static SchematronReport fromAttributes(@NonNull final SchematronAttributes attributes,
+                                                  @NonNull final SchematronMessage message)
+        throws SchematronParsingException {
+        if (!attributes.has("test")) {
+            throw new SchematronParsingException("Missing attribute 'test' in 'report' element");
         }
-
         return new SchematronReport(
-            role,
-            reportElement.getAttribute("test"),
-            reportElement.getAttribute("see"),
-            messageNodes
+            attributes.get("role"),
+            attributes.get("test"),
+            attributes.getOrEmpty("see"),
+            message
         );
     }
 }
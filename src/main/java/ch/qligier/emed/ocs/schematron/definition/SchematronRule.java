@@ -86,28 +86,8 @@ public class SchematronRule implements Cloneable {
             throw new SchematronParsingException("The given node is not a 'rule' element");
         }
 
-        boolean isAbstract;
-        if (ruleElement.hasAttribute("abstract") && "true".equalsIgnoreCase(ruleElement.getAttribute("abstract"))) {
-            isAbstract = true;
-        } else if (ruleElement.hasAttribute("abstract") && "false".equalsIgnoreCase(ruleElement.getAttribute("abstract"))) {
-            isAbstract = false;
-        } else if (ruleElement.hasAttribute("abstract")) {
-            throw new SchematronParsingException("The 'abstract' attribute of the 'rule' element shall be either true or false");
-        } else {
-            // Default value
-            isAbstract = false;
-        }
-        if (isAbstract && ruleElement.hasAttribute("context")) {
-            throw new SchematronParsingException("An abstract 'rule' element shall not have a context");
-        }
-        if (!isAbstract && !ruleElement.hasAttribute("context")) {
-            throw new SchematronParsingException("A non-abstract 'rule' element shall have a context");
-        }
-        if (isAbstract && !ruleElement.hasAttribute("id")) {
-            throw new SchematronParsingException("An abstract 'rule' element shall have an ID");
-        }
-
-        final List<SchematronRuleChild> children = new ArrayList<>();
+        final SchematronRule rule = fromAttributes(SchematronAttributes.of(ruleElement));
+        final List<SchematronRuleChild> children = rule.getChildren();
         final NodeList nodes = ruleElement.getChildNodes();
         for (int i = 0; i < nodes.getLength(); ++i) {
             if (nodes.item(i).getNodeType() != Node.ELEMENT_NODE) {
@@ -131,19 +111,54 @@ public class SchematronRule implements Cloneable {
                     break;
             }
         }
+        return rule;
+    }
+
+    /**
+     * Constructs a new instance without children from the attributes of a {@code rule} element. The children can then
+     * be added to the mutable list of children.
+     *
+     * @param attributes The element attributes.
+     * @return a new instance of {@link SchematronRule}.
+     * @throws SchematronParsingException if the attributes are invalid.
+     */
+    public static SchematronRule fromAttributes(@NonNull final SchematronAttributes attributes)
+        throws SchematronParsingException {
+        final String abstractValue = attributes.get("abstract");
+        boolean isAbstract;
+        if ("true".equalsIgnoreCase(abstractValue)) {
+            isAbstract = true;
+        } else if ("false".equalsIgnoreCase(abstractValue)) {
+            isAbstract = false;
+        } else if (abstractValue != null) {
+            throw new SchematronParsingException(
+                "The 'abstract' attribute of the 'rule' element shall be either true or false");
+        } else {
+            // Default value
+            isAbstract = false;
+        }
+        if (isAbstract && attributes.has("context")) {
+            throw new SchematronParsingException("An abstract 'rule' element shall not have a context");
+        }
+        if (!isAbstract && !attributes.has("context")) {
+            throw new SchematronParsingException("A non-abstract 'rule' element shall have a context");
+        }
+        if (isAbstract && !attributes.has("id")) {
+            throw new SchematronParsingException("An abstract 'rule' element shall have an ID");
+        }
 
         final String id;
-        if (ruleElement.getAttribute("id").isEmpty()) {
+        if (attributes.getOrEmpty("id").isEmpty()) {
             id = "id_" + UUID.randomUUID().toString().replace("-", "_");
         } else {
-            id = ruleElement.getAttribute("id");
+            id = attributes.get("id");
         }
 
         return new SchematronRule(
             null,
             id,
-            ruleElement.hasAttribute("context") ? ruleElement.getAttribute("context") : null,
-            children,
+            attributes.get("context"),
+            new ArrayList<>(),
             isAbstract
         );
     }
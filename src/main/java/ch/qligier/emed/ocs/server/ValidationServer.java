@@ -0,0 +1,514 @@
+package ch.qligier.emed.ocs.server;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.batch.DocumentTypeDetector;
+import ch.qligier.emed.ocs.metrics.ConversionReport;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.SvrlFinding;
+import ch.qligier.emed.ocs.validator.ValidationReport;
+import ch.qligier.emed.ocs.validator.ValidationMetrics;
+import ch.qligier.emed.ocs.validator.ValidationResultCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.NonNull;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.trans.SaxonErrorCode;
+
+import javax.annotation.Nullable;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local validation server on the JDK HTTP server. A document is validated by posting it to
+ * {@code /validate/[name]}, where the name is the base name of a served XSLT file, e.g.
+ * {@code /validate/cdachemed-MTP-error}. The result is a compact JSON report, or the SVRL output with the query
+ * {@code ?format=svrl}.
+ * <p>
+ * The request body is streamed into the transformer, unless a JSON report is requested from a validator that has a
+ * result cache: the body is then read in memory, up to {@link #MAX_CACHED_BODY_BYTES}, and hashed to answer a
+ * resubmitted document from the cache without taking a transformation permit. A larger body bypasses the cache, its
+ * buffered head is streamed with the rest of it. The requests are handled on a cached pool of threads, that mostly
+ * wait on the network; the transformations are CPU-bound, their number is capped by a semaphore sized to the cores.
+ * A request that cannot start its transformation within the timeout is rejected with the status 503, a
+ * transformation that exceeds the timeout is answered with the status 504. A document that is not well-formed is
+ * rejected with the status 400; the other transformation errors, e.g. a value set file that cannot be loaded by the
+ * XSLT, are server faults and are answered with the status 500.
+ *
+ * @author Quentin Ligier
+ */
+public class ValidationServer {
+
+    private static final Logger LOG = Logger.getLogger(ValidationServer.class.getName());
+
+    /**
+     * The path prefix of the validation endpoint.
+     */
+    public static final String VALIDATE_PATH = "/validate/";
+
+    /**
+     * The path of the readiness endpoint.
+     */
+    public static final String READY_PATH = "/ready";
+
+    /**
+     * The query that selects the SVRL output.
+     */
+    public static final String SVRL_QUERY = "format=svrl";
+
+    /**
+     * The default timeout of a request.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * The maximum size of a request body that is read in memory to look up the result cache, in bytes.
+     */
+    public static final int MAX_CACHED_BODY_BYTES = 8 << 20;
+
+    /**
+     * The maximum number of entries of the result cache of the standalone server.
+     */
+    private static final int RESULT_CACHE_ENTRIES = 10_000;
+
+    /**
+     * The maximum estimated size of the result cache of the standalone server, in bytes.
+     */
+    private static final long RESULT_CACHE_BYTES = 64L << 20;
+
+    /**
+     * The average number of validations per validation whose rule evaluation time is sampled, in the standalone
+     * server.
+     */
+    private static final int METRICS_SAMPLING_PERIOD = 100;
+
+    /**
+     * The lookup of the validators by name. A validation uses the validator it has looked up until its end.
+     */
+    private final Function<String, CdaChEmedValidator> validators;
+
+    /**
+     * The permits of the running transformations.
+     */
+    private final Semaphore transformations;
+
+    /**
+     * The timeout of a request, from its reception to the end of its transformation.
+     */
+    private final Duration timeout;
+
+    /**
+     * The executor of the request handlers.
+     */
+    private final ExecutorService requestExecutor = Executors.newCachedThreadPool(daemonThreads("ocs-request"));
+
+    /**
+     * The executor of the transformations. Its size is bounded by the transformation permits.
+     */
+    private final ExecutorService transformationExecutor =
+        Executors.newCachedThreadPool(daemonThreads("ocs-transformation"));
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Whether the server is ready, as reported by the readiness endpoint.
+     */
+    private volatile boolean ready = true;
+
+    /**
+     * Constructor. The server is bound but not started.
+     *
+     * @param address                      The socket address, the port 0 binds an ephemeral port.
+     * @param validators                   The validators, by name.
+     * @param maxConcurrentTransformations The maximum number of transformations that run at the same time.
+     * @param timeout                      The timeout of a request.
+     * @throws IOException if the server cannot be bound.
+     */
+    public ValidationServer(@NonNull final InetSocketAddress address,
+                            @NonNull final Map<String, CdaChEmedValidator> validators,
+                            final int maxConcurrentTransformations,
+                            @NonNull final Duration timeout) throws IOException {
+        this(address, Map.copyOf(validators)::get, maxConcurrentTransformations, timeout);
+    }
+
+    /**
+     * Constructor. The server is bound but not started. The validators of the registry can be reloaded while the server
+     * runs.
+     *
+     * @param address                      The socket address, the port 0 binds an ephemeral port.
+     * @param registry                     The registry of the validators.
+     * @param maxConcurrentTransformations The maximum number of transformations that run at the same time.
+     * @param timeout                      The timeout of a request.
+     * @throws IOException if the server cannot be bound.
+     */
+    public ValidationServer(@NonNull final InetSocketAddress address,
+                            @NonNull final ValidatorRegistry registry,
+                            final int maxConcurrentTransformations,
+                            @NonNull final Duration timeout) throws IOException {
+        this(address, registry::get, maxConcurrentTransformations, timeout);
+    }
+
+    /**
+     * Constructor. The server is bound but not started.
+     *
+     * @param address                      The socket address, the port 0 binds an ephemeral port.
+     * @param validators                   The lookup of the validators by name.
+     * @param maxConcurrentTransformations The maximum number of transformations that run at the same time.
+     * @param timeout                      The timeout of a request.
+     * @throws IOException if the server cannot be bound.
+     */
+    private ValidationServer(@NonNull final InetSocketAddress address,
+                             @NonNull final Function<String, CdaChEmedValidator> validators,
+                             final int maxConcurrentTransformations,
+                             @NonNull final Duration timeout) throws IOException {
+        if (maxConcurrentTransformations < 1) {
+            throw new IllegalArgumentException("The maximum number of concurrent transformations shall be positive");
+        }
+        this.validators = validators;
+        this.transformations = new Semaphore(maxConcurrentTransformations, true);
+        this.timeout = timeout;
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(this.requestExecutor);
+        this.server.createContext(VALIDATE_PATH, this::handle);
+        this.server.createContext(READY_PATH, this::handleReady);
+    }
+
+    /**
+     * Starts a server that serves the XSLT files of a directory, except the hybrid ones. The directory is watched and
+     * the regenerated XSLT files are swapped in without restart. If the value set index is present in the directory,
+     * it's registered for the indexed XSLT files. The JSON reports of the resubmitted documents are cached.
+     * <p>
+     * The validators are warmed up with the sample documents, or with synthetic documents, before the server reports
+     * itself ready; the rule metrics of the warm-up are then reset. If the latency of a validator is still not stable
+     * after the warm-up runs, the server stays not ready.
+     *
+     * @param args The port, the XSLT directory and optionally the sample directory.
+     * @throws Exception if the directory cannot be read or the server cannot be started.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 2 && args.length != 3) {
+            throw new IllegalArgumentException("Usage: ValidationServer <port> <xslt directory> [sample directory]");
+        }
+        final ValidationMetrics metrics = new ValidationMetrics(METRICS_SAMPLING_PERIOD);
+        metrics.registerMBean(args[1]);
+        final ValidatorRegistry registry = new ValidatorRegistry(Path.of(args[1]),
+            new ValidationResultCache(RESULT_CACHE_ENTRIES, RESULT_CACHE_BYTES), metrics);
+        final ValidationServer server = new ValidationServer(new InetSocketAddress(Integer.parseInt(args[0])),
+            registry, Runtime.getRuntime().availableProcessors(), DEFAULT_TIMEOUT);
+        server.setReady(false);
+        server.start();
+        registry.reload();
+        registry.watch();
+
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        final Map<String, List<byte[]>> samples = args.length == 3
+            ? ValidatorWarmUp.loadSamples(Path.of(args[2]), detector)
+            : Map.of();
+        final ValidatorWarmUp warmUp = new ValidatorWarmUp(ValidatorWarmUp.DEFAULT_MAX_ITERATIONS,
+            ValidatorWarmUp.DEFAULT_WINDOW, ValidatorWarmUp.DEFAULT_TOLERANCE);
+        final boolean warmedUp = warmUp.runUntilStable(registry, ValidatorWarmUp.samples(detector, samples),
+            ValidatorWarmUp.DEFAULT_MAX_RUNS);
+        // The metrics only count the served validations
+        metrics.reset();
+        if (!warmedUp) {
+            LOG.severe("The validators are not warmed up, the server stays not ready on port "
+                + server.getAddress().getPort());
+            return;
+        }
+        server.setReady(true);
+        LOG.info("Validating " + registry.getNames() + " on port " + server.getAddress().getPort());
+    }
+
+    /**
+     * Starts the server.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops the server, without waiting for the running exchanges.
+     */
+    public void stop() {
+        this.server.stop(0);
+        this.requestExecutor.shutdownNow();
+        this.transformationExecutor.shutdownNow();
+    }
+
+    /**
+     * Sets whether the server is ready. The readiness endpoint answers with the status 503 while it's not, e.g. during
+     * the warm-up; the validation requests are served anyway.
+     *
+     * @param ready Whether the server is ready.
+     */
+    public void setReady(final boolean ready) {
+        this.ready = ready;
+    }
+
+    /**
+     * Returns the address the server is bound to.
+     *
+     * @return the socket address.
+     */
+    @NonNull
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Handles a validation request.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handle(@NonNull final HttpExchange exchange) throws IOException {
+        final long deadline = System.nanoTime() + this.timeout.toNanos();
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Only POST is supported");
+                return;
+            }
+            final String name = exchange.getRequestURI().getPath().substring(VALIDATE_PATH.length());
+            final CdaChEmedValidator validator = this.validators.apply(name);
+            if (validator == null) {
+                sendError(exchange, 404, "Unknown validator '" + name + "'");
+                return;
+            }
+            final boolean svrl = SVRL_QUERY.equals(exchange.getRequestURI().getQuery());
+
+            // The cached reports are answered without transformation permit
+            final byte[] bufferedBody = !svrl && validator.hasResultCache()
+                ? exchange.getRequestBody().readNBytes(MAX_CACHED_BODY_BYTES + 1)
+                : null;
+            final String contentHash = bufferedBody != null && bufferedBody.length <= MAX_CACHED_BODY_BYTES
+                ? Utils.contentHash(bufferedBody)
+                : null;
+            if (contentHash != null) {
+                final ValidationReport cachedReport = validator.getCachedReport(contentHash);
+                if (cachedReport != null) {
+                    sendResponse(exchange, false, toJson(cachedReport).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+            }
+
+            if (!this.transformations.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "The server is busy");
+                return;
+            }
+            final Future<byte[]> transformation;
+            try {
+                transformation = this.transformationExecutor.submit(() -> {
+                    try {
+                        return this.transform(validator, exchange, svrl, bufferedBody, contentHash);
+                    } finally {
+                        // The permit is held until the transformation really ends, even after a timeout
+                        this.transformations.release();
+                    }
+                });
+            } catch (final RejectedExecutionException exception) {
+                this.transformations.release();
+                throw exception;
+            }
+
+            final byte[] response;
+            try {
+                response = transformation.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException exception) {
+                transformation.cancel(true);
+                sendError(exchange, 504, "The validation has exceeded the timeout of " + this.timeout);
+                return;
+            } catch (final ExecutionException exception) {
+                if (exception.getCause() instanceof final SaxonApiException saxonException
+                    && isMalformedDocument(saxonException)) {
+                    sendError(exchange, 400, "The document cannot be parsed: " + saxonException.getMessage());
+                } else {
+                    LOG.log(Level.WARNING, "The validation has failed", exception.getCause());
+                    sendError(exchange, 500, "The validation has failed");
+                }
+                return;
+            }
+            sendResponse(exchange, svrl, response);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handles a readiness request.
+     *
+     * @param exchange The HTTP exchange.
+     * @throws IOException if the response cannot be sent.
+     */
+    private void handleReady(@NonNull final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final byte[] body = ("{\"ready\":" + this.ready + "}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(this.ready ? 200 : 503, body.length);
+            try (final OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    /**
+     * Validates the request body of an exchange and renders the result.
+     *
+     * @param validator    The validator.
+     * @param exchange     The HTTP exchange.
+     * @param svrl         Whether the SVRL output is rendered, or the JSON report.
+     * @param bufferedBody The whole request body or its head that has already been read, or {@code null}.
+     * @param contentHash  The hash of the whole request body if it has been read to look up the result cache, or
+     *                     {@code null}.
+     * @return the rendered result.
+     * @throws SaxonApiException if the document cannot be validated.
+     */
+    private byte[] transform(@NonNull final CdaChEmedValidator validator,
+                             @NonNull final HttpExchange exchange,
+                             final boolean svrl,
+                             @Nullable final byte[] bufferedBody,
+                             @Nullable final String contentHash) throws SaxonApiException {
+        if (bufferedBody != null && contentHash != null) {
+            return toJson(validator.validate(bufferedBody, contentHash)).getBytes(StandardCharsets.UTF_8);
+        }
+        final InputStream body = bufferedBody == null
+            ? exchange.getRequestBody()
+            : new SequenceInputStream(new ByteArrayInputStream(bufferedBody), exchange.getRequestBody());
+        if (!svrl) {
+            return toJson(validator.validate(new StreamSource(body))).getBytes(StandardCharsets.UTF_8);
+        }
+        final XdmNode svrlNode = validator.validateToSvrl(new StreamSource(body));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Serializer serializer = validator.getExecutable().getProcessor().newSerializer(output);
+        serializer.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "no");
+        serializer.serializeNode(svrlNode);
+        return output.toByteArray();
+    }
+
+    /**
+     * Returns whether a transformation has failed because the validated document is not well-formed. The errors of
+     * the documents that are loaded by the XSLT itself have another error code.
+     *
+     * @param exception The exception of the transformation.
+     * @return {@code true} if the validated document cannot be parsed, {@code false} otherwise.
+     */
+    static boolean isMalformedDocument(@NonNull final SaxonApiException exception) {
+        return exception.getErrorCode() != null
+            && SaxonErrorCode.SXXP0003.equals(exception.getErrorCode().getLocalName());
+    }
+
+    /**
+     * Renders a validation report as compact JSON.
+     *
+     * @param report The validation report.
+     * @return the JSON report.
+     */
+    @NonNull
+    static String toJson(@NonNull final ValidationReport report) {
+        final StringBuilder json = new StringBuilder(64 + 256 * report.getFindings().size());
+        json.append("{\"terminated\":").append(report.isTerminated()).append(",\"findings\":[");
+        for (int i = 0; i < report.getFindings().size(); ++i) {
+            final SvrlFinding finding = report.getFindings().get(i);
+            json.append(i == 0 ? "{" : ",{")
+                .append("\"kind\":").append(finding.getKind() == SvrlFinding.Kind.FAILED_ASSERT
+                    ? "\"failed-assert\"" : "\"successful-report\"");
+            appendMember(json, "role", finding.getRole());
+            appendMember(json, "location", finding.getLocation());
+            appendMember(json, "text", finding.getText());
+            appendMember(json, "ruleId", finding.getRuleId());
+            appendMember(json, "patternId", finding.getPatternId());
+            appendMember(json, "test", finding.getTest());
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Appends a string member to a JSON object, if its value is not {@code null}.
+     *
+     * @param json  The JSON builder.
+     * @param name  The member name.
+     * @param value The member value, or {@code null}.
+     */
+    private static void appendMember(@NonNull final StringBuilder json,
+                                     @NonNull final String name,
+                                     final String value) {
+        if (value != null) {
+            json.append(",\"").append(name).append("\":").append(ConversionReport.quote(value));
+        }
+    }
+
+    /**
+     * Sends a successful response.
+     *
+     * @param exchange The HTTP exchange.
+     * @param svrl     Whether the body is the SVRL output, or the JSON report.
+     * @param body     The response body.
+     * @throws IOException if the response cannot be sent.
+     */
+    private static void sendResponse(@NonNull final HttpExchange exchange,
+                                     final boolean svrl,
+                                     @NonNull final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", svrl ? "application/xml" : "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Sends an error response with a JSON body.
+     *
+     * @param exchange The HTTP exchange.
+     * @param status   The HTTP status.
+     * @param message  The error message.
+     * @throws IOException if the response cannot be sent.
+     */
+    private static void sendError(@NonNull final HttpExchange exchange,
+                                  final int status,
+                                  @NonNull final String message) throws IOException {
+        final byte[] body = ("{\"error\":" + ConversionReport.quote(message) + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (final OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Returns a factory of named daemon threads.
+     *
+     * @param prefix The prefix of the thread names.
+     * @return the thread factory.
+     */
+    @NonNull
+    private static ThreadFactory daemonThreads(@NonNull final String prefix) {
+        final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        return runnable -> {
+            final Thread thread = defaultFactory.newThread(runnable);
+            thread.setName(prefix + "-" + thread.getName());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
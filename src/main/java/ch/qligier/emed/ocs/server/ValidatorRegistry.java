@@ -0,0 +1,550 @@
+package ch.qligier.emed.ocs.server;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.fastpath.FastPathProgram;
+import ch.qligier.emed.ocs.profiling.MarkFunction;
+import ch.qligier.emed.ocs.profiling.ProfilingStylesheet;
+import ch.qligier.emed.ocs.schematron.IncludeManifest;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.ValidationMetrics;
+import ch.qligier.emed.ocs.validator.ValidationResultCache;
+import ch.qligier.emed.ocs.valueset.ValueSetFunction;
+import ch.qligier.emed.ocs.valueset.ValueSetIndex;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltExecutable;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * A registry of the validators of the XSLT files of a directory, e.g. {@code dist/1.0.2}, by base name. The registry
+ * is reloaded on demand or when the directory changes: the new and modified XSLT files are compiled in the background
+ * and each validator is swapped atomically. The validations that have started keep the validator they have looked up,
+ * so they finish on the previous version of their XSLT file.
+ * <p>
+ * The XSLT files are compiled in parallel, and the include documents listed in their manifests are preloaded and
+ * shared by their validators; the value set index is loaded in memory. The hybrid XSLT files, that have a fast path
+ * program, are not registered. If the value set index is modified, all XSLT files are recompiled with the new index;
+ * if an include document or a manifest is modified, the XSLT files that list it are recompiled. The watched directory
+ * may be deleted and created again, e.g. by a new conversion; a reload that fails is retried after a delay.
+ * The index shall be replaced atomically (written to a temporary file and moved), because the previous one is
+ * memory-mapped by the running validators. With {@link ValidationMetrics}, the profiling variant of each XSLT file is
+ * compiled too, to sample the evaluation time of its rules.
+ *
+ * @author Quentin Ligier
+ */
+public class ValidatorRegistry implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ValidatorRegistry.class.getName());
+
+    /**
+     * The time without change in the directory after which it's reloaded, to let the writers finish.
+     */
+    private static final long QUIET_PERIOD_MILLIS = 1000;
+
+    /**
+     * The delay after which a failed background reload is retried.
+     */
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    /**
+     * The subdirectory of the include documents.
+     */
+    private static final String INCLUDE_DIRECTORY = "include";
+
+    /**
+     * The directory of the XSLT files.
+     */
+    private final Path directory;
+
+    /**
+     * The cache of the validation reports, or {@code null}.
+     */
+    @Nullable
+    private final ValidationResultCache resultCache;
+
+    /**
+     * The runtime metrics of the rules, or {@code null}.
+     */
+    @Nullable
+    private final ValidationMetrics metrics;
+
+    /**
+     * The registered validators, by name.
+     */
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * The executor of the background reloads, with a single thread that serializes them.
+     */
+    private final ScheduledExecutorService reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "ocs-registry-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The number of changes of the directory that have been detected. A failed reload is only retried until the next
+     * change, that schedules its own reload.
+     */
+    private final AtomicLong changeCount = new AtomicLong();
+
+    /**
+     * The watcher of the directory, or {@code null} if it's not watched.
+     */
+    @Nullable
+    private WatchService watchService;
+
+    /**
+     * Constructor. The registry is empty until it's reloaded.
+     *
+     * @param directory   The directory of the XSLT files.
+     * @param resultCache The cache of the validation reports, or {@code null}.
+     */
+    public ValidatorRegistry(@NonNull final Path directory,
+                             @Nullable final ValidationResultCache resultCache) {
+        this(directory, resultCache, null);
+    }
+
+    /**
+     * Constructor. The registry is empty until it's reloaded.
+     *
+     * @param directory   The directory of the XSLT files.
+     * @param resultCache The cache of the validation reports, or {@code null}.
+     * @param metrics     The runtime metrics of the rules, or {@code null}.
+     */
+    public ValidatorRegistry(@NonNull final Path directory,
+                             @Nullable final ValidationResultCache resultCache,
+                             @Nullable final ValidationMetrics metrics) {
+        this.directory = directory;
+        this.resultCache = resultCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the validator of an XSLT file.
+     *
+     * @param name The base name of the XSLT file, e.g. {@code cdachemed-MTP-error}.
+     * @return the validator, or {@code null} if there is no such XSLT file.
+     */
+    @Nullable
+    public CdaChEmedValidator get(@NonNull final String name) {
+        final Registration registration = this.registrations.get(name);
+        return registration == null ? null : registration.validator;
+    }
+
+    /**
+     * Returns the names of the registered validators.
+     *
+     * @return the sorted names.
+     */
+    @NonNull
+    public SortedSet<String> getNames() {
+        return new TreeSet<>(this.registrations.keySet());
+    }
+
+    /**
+     * Reloads the registry in the background.
+     *
+     * @return the future number of swapped, added or removed validators.
+     */
+    @NonNull
+    public Future<Integer> reloadAsync() {
+        return this.reloadExecutor.submit(this::reloadFiles);
+    }
+
+    /**
+     * Reloads the registry on the reload thread and waits for it: the new and modified XSLT files are compiled and
+     * swapped, the validators of the removed ones are removed. The XSLT files that cannot be compiled keep their
+     * previous validator.
+     *
+     * @return the number of swapped, added or removed validators.
+     * @throws Exception if the directory cannot be read or the reload is interrupted.
+     */
+    public int reload() throws Exception {
+        try {
+            return this.reloadAsync().get();
+        } catch (final ExecutionException exception) {
+            if (exception.getCause() instanceof final Exception cause) {
+                throw cause;
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Starts to watch the directory: it's reloaded in the background after each burst of changes of its XSLT files,
+     * manifests, include documents (if its {@code include/} directory exists) or of the value set index. The parent
+     * directory is watched too, to watch the directory again if it's deleted and created again.
+     *
+     * @throws IOException if the directory cannot be watched.
+     */
+    public synchronized void watch() throws IOException {
+        if (this.watchService != null) {
+            return;
+        }
+        final WatchService service = this.directory.getFileSystem().newWatchService();
+        final Path parentDirectory = this.directory.toAbsolutePath().getParent();
+        if (parentDirectory != null) {
+            parentDirectory.register(service, StandardWatchEventKinds.ENTRY_CREATE);
+        }
+        this.registerDirectories(service);
+        this.watchService = service;
+        final Thread watcher = new Thread(() -> this.watchLoop(service), "ocs-registry-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the directory and the background reloads. The registered validators stay usable.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.reloadExecutor.shutdownNow();
+        if (this.watchService != null) {
+            this.watchService.close();
+            this.watchService = null;
+        }
+    }
+
+    /**
+     * Waits for the changes of the directory and reloads it after each quiet period.
+     *
+     * @param service The watch service.
+     */
+    private void watchLoop(@NonNull final WatchService service) {
+        final Path parentDirectory = this.directory.toAbsolutePath().getParent();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean relevant = false;
+                // Collects the burst of events until the quiet period
+                while (key != null) {
+                    final boolean isParent = parentDirectory != null && parentDirectory.equals(key.watchable());
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            relevant = true;
+                        } else if (event.context() instanceof final Path path) {
+                            // In the parent directory, only the creation of the directory is relevant
+                            relevant |= isParent
+                                ? path.equals(this.directory.getFileName())
+                                : isRelevant(path.toString()) || INCLUDE_DIRECTORY.equals(path.toString());
+                        }
+                    }
+                    if (!key.reset()) {
+                        // The directory has been deleted, it's watched again when it's created again
+                        LOG.warning("The directory " + key.watchable() + " is no longer watched");
+                    }
+                    key = service.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (relevant) {
+                    try {
+                        this.registerDirectories(service);
+                    } catch (final NoSuchFileException exception) {
+                        LOG.warning("The directory " + exception.getFile() + " does not exist, it's not watched");
+                    } catch (final IOException exception) {
+                        LOG.log(Level.WARNING, "The directory " + this.directory + " cannot be watched", exception);
+                    }
+                    this.reloadAfterChange();
+                }
+            }
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException | RejectedExecutionException exception) {
+            // The registry is closed
+        }
+    }
+
+    /**
+     * Registers the directory and its {@code include/} directory, if it exists, to a watch service. A directory that
+     * is already registered keeps its watch key.
+     *
+     * @param service The watch service.
+     * @throws IOException if a directory cannot be registered.
+     */
+    private void registerDirectories(@NonNull final WatchService service) throws IOException {
+        this.directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        final Path includeDirectory = this.directory.resolve(INCLUDE_DIRECTORY);
+        if (Files.isDirectory(includeDirectory)) {
+            includeDirectory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
+
+    /**
+     * Reloads the registry in the background after a change of the directory.
+     */
+    private void reloadAfterChange() {
+        final long change = this.changeCount.incrementAndGet();
+        this.reloadExecutor.execute(() -> this.reloadOrRetry(change));
+    }
+
+    /**
+     * Reloads the registry, or schedules a retry if the reload fails. Only called on the reload thread.
+     *
+     * @param change The number of the change that has scheduled the reload; it's skipped if a newer change has been
+     *               detected since.
+     */
+    private void reloadOrRetry(final long change) {
+        if (change != this.changeCount.get()) {
+            return;
+        }
+        try {
+            this.reloadFiles();
+        } catch (final Exception exception) {
+            LOG.log(Level.WARNING, "The directory " + this.directory + " cannot be reloaded, retrying in "
+                + RETRY_DELAY_MILLIS + " ms", exception);
+            try {
+                this.reloadExecutor.schedule(() -> this.reloadOrRetry(change), RETRY_DELAY_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException rejectedException) {
+                // The registry is closed
+            }
+        }
+    }
+
+    /**
+     * Reloads the registry. Only called on the reload thread.
+     *
+     * @return the number of swapped, added or removed validators.
+     * @throws IOException if the directory cannot be read.
+     */
+    private int reloadFiles() throws IOException {
+        final Path indexFile = this.directory.resolve(ValueSetIndex.FILE_NAME);
+        final String indexHash = Files.isRegularFile(indexFile) ? Utils.contentHash(indexFile) : null;
+
+        final Map<String, Path> xsltFiles = new TreeMap<>();
+        try (final Stream<Path> files = Files.list(this.directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".xslt")).forEach(file -> {
+                final String name = file.getFileName().toString().replaceFirst("\\.xslt$", "");
+                if (!Files.exists(file.resolveSibling(name + FastPathProgram.FILE_EXTENSION))) {
+                    xsltFiles.put(name, file);
+                }
+            });
+        }
+
+        final Map<String, FileHashes> changedFiles = new TreeMap<>();
+        final Map<Path, String> includeHashes = new HashMap<>();
+        for (final Map.Entry<String, Path> xsltFile : xsltFiles.entrySet()) {
+            final FileHashes hashes = new FileHashes(Utils.contentHash(xsltFile.getValue()), indexHash,
+                this.hashIncludes(xsltFile.getKey(), includeHashes));
+            final Registration current = this.registrations.get(xsltFile.getKey());
+            // A validator that has failed to be recompiled with new dependencies is retried at each reload
+            if (current == null || !current.hashes.equals(hashes)) {
+                changedFiles.put(xsltFile.getKey(), hashes);
+            }
+        }
+
+        int changes = 0;
+        if (!changedFiles.isEmpty()) {
+            final Processor processor = new Processor(false);
+            if (indexHash != null) {
+                final ValueSetIndex index = ValueSetIndex.open(indexFile);
+                index.preload();
+                ValueSetFunction.register(processor, index);
+            }
+            if (this.metrics != null) {
+                MarkFunction.register(processor);
+            }
+            // The XSLT files are compiled in parallel, the include documents are parsed once for all of them
+            final ConcurrentMap<Path, Optional<XdmNode>> documents = new ConcurrentHashMap<>();
+            final List<Map.Entry<String, Registration>> compiled = changedFiles.entrySet().parallelStream()
+                .<Map.Entry<String, Registration>>map(file -> new AbstractMap.SimpleEntry<>(file.getKey(),
+                    this.compile(processor, xsltFiles.get(file.getKey()), file.getValue(), documents)))
+                .filter(entry -> entry.getValue() != null)
+                .toList();
+            for (final Map.Entry<String, Registration> registration : compiled) {
+                this.registrations.put(registration.getKey(), registration.getValue());
+                ++changes;
+            }
+        }
+        for (final String name : this.registrations.keySet()) {
+            if (!xsltFiles.containsKey(name)) {
+                this.registrations.remove(name);
+                ++changes;
+            }
+        }
+        if (changes > 0) {
+            LOG.info("Reloaded " + changes + " validators from " + this.directory);
+        }
+        return changes;
+    }
+
+    /**
+     * Compiles an XSLT file and preloads the include documents of its manifest, if any.
+     *
+     * @param processor The Saxon processor.
+     * @param xsltFile  The XSLT file.
+     * @param hashes    The content hashes of the XSLT file and of its dependencies.
+     * @param documents The include documents that are already parsed, by path.
+     * @return the registration, or {@code null} if the XSLT file cannot be compiled.
+     */
+    @Nullable
+    private Registration compile(@NonNull final Processor processor,
+                                 @NonNull final Path xsltFile,
+                                 @NonNull final FileHashes hashes,
+                                 @NonNull final ConcurrentMap<Path, Optional<XdmNode>> documents) {
+        CdaChEmedValidator validator;
+        try {
+            validator = CdaChEmedValidator.fromFile(processor, xsltFile.toFile());
+        } catch (final SaxonApiException exception) {
+            LOG.log(Level.WARNING, "The XSLT file " + xsltFile + " cannot be compiled, the previous version is kept",
+                exception);
+            return null;
+        }
+        final String name = xsltFile.getFileName().toString().replaceFirst("\\.xslt$", "");
+        final Path manifestFile = xsltFile.resolveSibling(name + IncludeManifest.FILE_EXTENSION);
+        if (Files.isRegularFile(manifestFile)) {
+            final Map<Path, XdmNode> preloadedDocuments = new HashMap<>();
+            try {
+                for (final String include : IncludeManifest.read(manifestFile).getIncludes()) {
+                    final Path includeFile = this.directory.resolve(include).toAbsolutePath().normalize();
+                    documents.computeIfAbsent(includeFile, file -> parse(processor, file))
+                        .ifPresent(document -> preloadedDocuments.put(includeFile, document));
+                }
+            } catch (final IOException exception) {
+                LOG.log(Level.WARNING, "The manifest " + manifestFile + " cannot be read", exception);
+            }
+            validator = validator.withPreloadedDocuments(preloadedDocuments);
+        }
+        if (this.resultCache != null) {
+            validator = validator.withResultCache(this.resultCache, name + "@" + hashes.contentHash + "@"
+                + hashes.indexHash + "@" + hashes.includesHash);
+        }
+        if (this.metrics != null) {
+            XsltExecutable profilingExecutable = null;
+            try {
+                profilingExecutable = ProfilingStylesheet.compile(processor, xsltFile.toFile());
+            } catch (final Exception exception) {
+                LOG.log(Level.WARNING, "The profiling variant of " + xsltFile + " cannot be compiled, the evaluation "
+                    + "time of its rules is not sampled", exception);
+            }
+            validator = validator.withMetrics(this.metrics, name, profilingExecutable);
+        }
+        return new Registration(hashes, validator);
+    }
+
+    /**
+     * Hashes the include documents listed in the manifest of an XSLT file, with their paths.
+     *
+     * @param name          The base name of the XSLT file.
+     * @param includeHashes The content hashes of the include documents that are already hashed, by path.
+     * @return the hash of the include documents, or {@code null} if the XSLT file has no readable manifest.
+     * @throws IOException if an include document cannot be read.
+     */
+    @Nullable
+    private String hashIncludes(@NonNull final String name,
+                                @NonNull final Map<Path, String> includeHashes) throws IOException {
+        final Path manifestFile = this.directory.resolve(name + IncludeManifest.FILE_EXTENSION);
+        if (!Files.isRegularFile(manifestFile)) {
+            return null;
+        }
+        final SortedSet<String> includes;
+        try {
+            includes = IncludeManifest.read(manifestFile).getIncludes();
+        } catch (final IOException exception) {
+            LOG.log(Level.WARNING, "The manifest " + manifestFile + " cannot be read", exception);
+            return null;
+        }
+        final MessageDigest digest = Utils.newContentDigest();
+        for (final String include : includes) {
+            final Path includeFile = this.directory.resolve(include).toAbsolutePath().normalize();
+            String includeHash = includeHashes.get(includeFile);
+            if (includeHash == null) {
+                includeHash = Files.isRegularFile(includeFile) ? Utils.contentHash(includeFile) : "";
+                includeHashes.put(includeFile, includeHash);
+            }
+            digest.update((include + '\0' + includeHash + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Parses an include document.
+     *
+     * @param processor The Saxon processor.
+     * @param file      The include file.
+     * @return the document, or an empty optional if it cannot be parsed.
+     */
+    @NonNull
+    private static Optional<XdmNode> parse(@NonNull final Processor processor,
+                                           @NonNull final Path file) {
+        try {
+            return Optional.of(processor.newDocumentBuilder().build(file.toFile()));
+        } catch (final SaxonApiException exception) {
+            LOG.log(Level.WARNING, "The include document " + file + " cannot be preloaded", exception);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns whether a changed file affects the registry.
+     *
+     * @param fileName The name of the changed file.
+     * @return {@code true} if it's an XSLT file, a fast path program, a manifest, an include document or the value set
+     * index.
+     */
+    private static boolean isRelevant(@NonNull final String fileName) {
+        return fileName.endsWith(".xslt") || fileName.endsWith(FastPathProgram.FILE_EXTENSION)
+            || fileName.endsWith(IncludeManifest.FILE_EXTENSION) || fileName.equals(ValueSetIndex.FILE_NAME)
+            || (fileName.startsWith("voc-") && fileName.endsWith(".xml"));
+    }
+
+    /**
+     * A registered validator, with the content hashes it's compiled with.
+     */
+    @AllArgsConstructor
+    private static class Registration {
+
+        /**
+         * The content hashes of the XSLT file and of its dependencies.
+         */
+        private final FileHashes hashes;
+
+        /**
+         * The validator.
+         */
+        private final CdaChEmedValidator validator;
+    }
+
+    /**
+     * The content hashes of an XSLT file and of its dependencies: a validator is recompiled if one of them changes.
+     */
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class FileHashes {
+
+        /**
+         * The content hash of the XSLT file.
+         */
+        private final String contentHash;
+
+        /**
+         * The content hash of the value set index, or {@code null} if there is no index.
+         */
+        @Nullable
+        private final String indexHash;
+
+        /**
+         * The hash of the include documents listed in the manifest, or {@code null} if there is no manifest.
+         */
+        @Nullable
+        private final String includesHash;
+    }
+}
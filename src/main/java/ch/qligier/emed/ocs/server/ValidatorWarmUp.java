@@ -0,0 +1,343 @@
+package ch.qligier.emed.ocs.server;
+
+import ch.qligier.emed.ocs.batch.DocumentTypeDetector;
+import ch.qligier.emed.ocs.generator.DocumentGenerator;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.SaxonApiException;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A warm-up of the validators of a registry, to run before a validation service is declared ready. Each validator
+ * validates sample documents of its type until its latency is stable: the median latency of a window of validations
+ * is compared to the one of the previous window. The validators are warmed up in parallel, which also lets the JIT
+ * compile the transformation engine before the first request.
+ * <p>
+ * The samples are the documents of a sample directory, by detected type, or synthetic documents of the type that are
+ * generated by the {@link DocumentGenerator}, with several sizes and with or without errors, to exercise the rules as
+ * the real documents would.
+ *
+ * @author Quentin Ligier
+ */
+public class ValidatorWarmUp {
+
+    private static final Logger LOG = Logger.getLogger(ValidatorWarmUp.class.getName());
+
+    /**
+     * The default maximum number of validations per validator.
+     */
+    public static final int DEFAULT_MAX_ITERATIONS = 500;
+
+    /**
+     * The default number of validations per window.
+     */
+    public static final int DEFAULT_WINDOW = 20;
+
+    /**
+     * The default relative tolerance between the median latencies of two consecutive windows.
+     */
+    public static final double DEFAULT_TOLERANCE = 0.1;
+
+    /**
+     * The default maximum number of warm-up runs until the latencies of all validators are stable.
+     */
+    public static final int DEFAULT_MAX_RUNS = 3;
+
+    /**
+     * The pattern of the validator names, to extract their document type, e.g. 'MTP' in 'cdachemed-MTP-error'.
+     */
+    private static final Pattern TYPE_IN_NAME = Pattern.compile("^cdachemed-([A-Za-z]+)-");
+
+    /**
+     * The numbers of entries of the synthetic samples.
+     */
+    private static final int[] SYNTHETIC_ENTRIES = {1, 10, 50};
+
+    /**
+     * The error density of the invalid synthetic samples.
+     */
+    private static final double SYNTHETIC_ERROR_DENSITY = 0.2;
+
+    /**
+     * The maximum number of validations per validator.
+     */
+    private final int maxIterations;
+
+    /**
+     * The number of validations per window.
+     */
+    private final int window;
+
+    /**
+     * The relative tolerance between the median latencies of two consecutive windows.
+     */
+    private final double tolerance;
+
+    /**
+     * Constructor.
+     *
+     * @param maxIterations The maximum number of validations per validator.
+     * @param window        The number of validations per window.
+     * @param tolerance     The relative tolerance between the median latencies of two consecutive windows.
+     */
+    public ValidatorWarmUp(final int maxIterations,
+                           final int window,
+                           final double tolerance) {
+        if (window < 1 || maxIterations < 2 * window || tolerance <= 0) {
+            throw new IllegalArgumentException("The warm-up shall have at least two windows and a positive tolerance");
+        }
+        this.maxIterations = maxIterations;
+        this.window = window;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Warms up the validators of a registry in parallel.
+     *
+     * @param registry The validator registry.
+     * @param samples  The sample documents of each validator, by validator name.
+     * @return the warm-up result of each validator, by name.
+     * @throws InterruptedException if the warm-up is interrupted.
+     */
+    @NonNull
+    public SortedMap<String, Result> run(@NonNull final ValidatorRegistry registry,
+                                         @NonNull final Function<String, List<byte[]>> samples)
+        throws InterruptedException {
+        return this.run(registry, samples, registry.getNames());
+    }
+
+    /**
+     * Warms up the validators of a registry until their latencies are stable. The validators whose latency is not
+     * stable after a run, or whose warm-up has failed, are warmed up again, up to a maximum number of runs.
+     *
+     * @param registry The validator registry.
+     * @param samples  The sample documents of each validator, by validator name.
+     * @param maxRuns  The maximum number of runs.
+     * @return {@code true} if the latencies of all validators are stable, {@code false} otherwise.
+     * @throws InterruptedException if the warm-up is interrupted.
+     */
+    public boolean runUntilStable(@NonNull final ValidatorRegistry registry,
+                                  @NonNull final Function<String, List<byte[]>> samples,
+                                  final int maxRuns) throws InterruptedException {
+        Set<String> names = registry.getNames();
+        for (int run = 0; run < maxRuns && !names.isEmpty(); ++run) {
+            final SortedMap<String, Result> results = this.run(registry, samples, names);
+            results.forEach((name, result) -> LOG.info("Warmed up " + name + ": " + result));
+            names = new TreeSet<>(results.keySet());
+            names.removeIf(name -> results.get(name).isStable());
+        }
+        if (!names.isEmpty()) {
+            LOG.warning("The latency of " + names + " is not stable after " + maxRuns + " warm-up runs");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Warms up some validators of a registry in parallel.
+     *
+     * @param registry The validator registry.
+     * @param samples  The sample documents of each validator, by validator name.
+     * @param names    The names of the validators to warm up.
+     * @return the warm-up result of each validator, by name.
+     * @throws InterruptedException if the warm-up is interrupted.
+     */
+    @NonNull
+    private SortedMap<String, Result> run(@NonNull final ValidatorRegistry registry,
+                                          @NonNull final Function<String, List<byte[]>> samples,
+                                          @NonNull final Set<String> names) throws InterruptedException {
+        final SortedMap<String, Future<Result>> futures = new TreeMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (final String name : names) {
+                final CdaChEmedValidator validator = registry.get(name);
+                if (validator != null) {
+                    futures.put(name, executor.submit(() -> this.warmUp(name, validator, samples.apply(name))));
+                }
+            }
+            final SortedMap<String, Result> results = new TreeMap<>();
+            for (final Map.Entry<String, Future<Result>> future : futures.entrySet()) {
+                try {
+                    results.put(future.getKey(), future.getValue().get());
+                } catch (final ExecutionException exception) {
+                    LOG.log(Level.WARNING, "The warm-up of " + future.getKey() + " has failed", exception.getCause());
+                    results.put(future.getKey(), new Result(0, false, 0));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Warms up a validator until its latency is stable or the maximum number of validations is reached.
+     *
+     * @param name      The validator name.
+     * @param validator The validator.
+     * @param samples   The sample documents.
+     * @return the warm-up result.
+     * @throws SaxonApiException if a sample cannot be validated.
+     */
+    @NonNull
+    private Result warmUp(@NonNull final String name,
+                          @NonNull final CdaChEmedValidator validator,
+                          @NonNull final List<byte[]> samples) throws SaxonApiException {
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("There is no sample document for " + name);
+        }
+        final long[] latencies = new long[this.window];
+        long previousMedian = -1;
+        int iterations = 0;
+        while (iterations < this.maxIterations) {
+            for (int i = 0; i < latencies.length; ++i) {
+                final byte[] sample = samples.get(iterations % samples.size());
+                final long start = System.nanoTime();
+                // The sources bypass the result cache, that would answer the repeated samples
+                validator.validate(new StreamSource(new ByteArrayInputStream(sample)));
+                latencies[i] = System.nanoTime() - start;
+                ++iterations;
+            }
+            Arrays.sort(latencies);
+            final long median = latencies[latencies.length / 2];
+            if (previousMedian > 0 && Math.abs(median - previousMedian) <= this.tolerance * previousMedian) {
+                return new Result(iterations, true, median);
+            }
+            previousMedian = median;
+        }
+        LOG.warning("The latency of " + name + " is not stable after " + iterations + " validations");
+        return new Result(iterations, false, previousMedian);
+    }
+
+    /**
+     * Returns the sample documents of the validators: the samples of their document type, or synthetic documents of
+     * their type if there is none. The synthetic documents of a type that the generator does not support, or of an
+     * unknown type, only declare its templateId.
+     *
+     * @param detector      The detector of the document types, that knows their templateId.
+     * @param samplesByType The sample documents, by document type.
+     * @return the sample documents, by validator name.
+     */
+    @NonNull
+    public static Function<String, List<byte[]>> samples(@NonNull final DocumentTypeDetector detector,
+                                                         @NonNull final Map<String, List<byte[]>> samplesByType) {
+        final DocumentGenerator generator = new DocumentGenerator(detector, 0);
+        // The validators of the same type share their synthetic samples, they're generated on first use
+        final Map<String, List<byte[]>> syntheticSamples = new ConcurrentHashMap<>();
+        return name -> {
+            final Matcher matcher = TYPE_IN_NAME.matcher(name);
+            final String type = matcher.find() ? matcher.group(1) : null;
+            if (type != null && !samplesByType.getOrDefault(type, List.of()).isEmpty()) {
+                return samplesByType.get(type);
+            }
+            if (type != null && generator.supports(type)) {
+                return syntheticSamples.computeIfAbsent(type, key -> generateSamples(generator, key));
+            }
+            final String templateId = type == null ? null : detector.getTemplateId(type);
+            final String synthetic = "<ClinicalDocument xmlns=\"urn:hl7-org:v3\">"
+                + (templateId == null ? "" : "<templateId root=\"" + templateId + "\"/>")
+                + "</ClinicalDocument>";
+            return List.of(synthetic.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    /**
+     * Generates the synthetic samples of a document type: a valid and an invalid document of each size.
+     *
+     * @param generator The document generator.
+     * @param type      The document type, supported by the generator.
+     * @return the synthetic samples.
+     */
+    @NonNull
+    private static List<byte[]> generateSamples(@NonNull final DocumentGenerator generator,
+                                                @NonNull final String type) {
+        final List<byte[]> samples = new ArrayList<>(2 * SYNTHETIC_ENTRIES.length);
+        try {
+            for (final int entries : SYNTHETIC_ENTRIES) {
+                samples.add(generator.generate(type, entries, 0, 0));
+                samples.add(generator.generate(type, entries, 0, SYNTHETIC_ERROR_DENSITY));
+            }
+        } catch (final XMLStreamException exception) {
+            throw new IllegalStateException("The synthetic samples of " + type + " cannot be generated", exception);
+        }
+        return samples;
+    }
+
+    /**
+     * Loads the sample documents of a directory, by detected document type. The documents of unknown type are
+     * ignored.
+     *
+     * @param directory The sample directory.
+     * @param detector  The detector of the document types.
+     * @return the sample documents, by document type.
+     * @throws IOException if the directory cannot be read.
+     */
+    @NonNull
+    public static Map<String, List<byte[]>> loadSamples(@NonNull final Path directory,
+                                                        @NonNull final DocumentTypeDetector detector)
+        throws IOException {
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(file -> file.getFileName().toString().endsWith(".xml")).sorted().toList();
+        }
+        final Map<String, List<byte[]>> samples = new HashMap<>();
+        for (final Path file : files) {
+            final byte[] content = Files.readAllBytes(file);
+            try {
+                final String type = detector.detect(new ByteArrayInputStream(content));
+                if (type != null) {
+                    samples.computeIfAbsent(type, key -> new ArrayList<>()).add(content);
+                }
+            } catch (final XMLStreamException exception) {
+                LOG.warning("The sample " + file + " is not well-formed");
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * The warm-up result of a validator.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+
+        /**
+         * The number of validations.
+         */
+        private final int iterations;
+
+        /**
+         * Whether the latency has stabilized.
+         */
+        private final boolean stable;
+
+        /**
+         * The median latency of the last window, in nanoseconds.
+         */
+        private final long medianNanos;
+
+        @Override
+        public String toString() {
+            return String.format("%d validations, %s, median %.2f ms", this.iterations,
+                this.stable ? "stable" : "not stable", this.medianNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * A lightweight HTTP server that validates CDA-CH-EMED documents with the optimized XSLT files.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.server;
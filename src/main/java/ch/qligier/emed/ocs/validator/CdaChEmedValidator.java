@@ -0,0 +1,347 @@
+package ch.qligier.emed.ocs.validator;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.profiling.MarkFunction;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.lib.ResourceRequest;
+import net.sf.saxon.s9api.*;
+
+import javax.annotation.Nullable;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A validator of CDA-CH-EMED documents that runs an optimized XSLT file. The compiled XSLT is thread-safe and shared,
+ * each validation uses its own transformer.
+ * <p>
+ * Fail-fast XSLT files terminate the transformation at the first failed assert; the validator then returns a report
+ * that only contains that failed assert.
+ * <p>
+ * A validator can use a {@link ValidationResultCache}: the documents that are validated from their bytes are then
+ * hashed, and the report of an identical document is returned without transformation. It can also
+ * use preloaded documents, e.g. the value set files: the XSLT loads them with {@code doc()} without parsing them.
+ * Finally, it can record the rule fires, failures and sampled evaluation time in {@link ValidationMetrics}.
+ *
+ * @author Quentin Ligier
+ */
+public class CdaChEmedValidator {
+
+    /**
+     * The compiled XSLT.
+     */
+    @Getter
+    private final XsltExecutable executable;
+
+    /**
+     * The cache of the validation reports, or {@code null}.
+     */
+    @Nullable
+    private final ValidationResultCache resultCache;
+
+    /**
+     * The identity of the XSLT in the result cache, or {@code null}.
+     */
+    @Nullable
+    private final String stylesheetIdentity;
+
+    /**
+     * The preloaded documents, by normalized absolute path.
+     */
+    @NonNull
+    private final Map<Path, XdmNode> preloadedDocuments;
+
+    /**
+     * The runtime metrics of the rules, or {@code null}.
+     */
+    @Nullable
+    private final ValidationMetrics metrics;
+
+    /**
+     * The name of the XSLT in the metrics, or {@code null}.
+     */
+    @Nullable
+    private final String metricsName;
+
+    /**
+     * The compiled profiling variant of the XSLT, that runs the sampled validations, or {@code null}.
+     */
+    @Nullable
+    private final XsltExecutable profilingExecutable;
+
+    /**
+     * Constructor.
+     *
+     * @param executable The compiled XSLT.
+     */
+    public CdaChEmedValidator(@NonNull final XsltExecutable executable) {
+        this(executable, null, null, Map.of(), null, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executable          The compiled XSLT.
+     * @param resultCache         The cache of the validation reports, or {@code null}.
+     * @param stylesheetIdentity  The identity of the XSLT in the result cache, or {@code null}.
+     * @param preloadedDocuments  The preloaded documents, by normalized absolute path.
+     * @param metrics             The runtime metrics of the rules, or {@code null}.
+     * @param metricsName         The name of the XSLT in the metrics, or {@code null}.
+     * @param profilingExecutable The compiled profiling variant of the XSLT, or {@code null}.
+     */
+    private CdaChEmedValidator(@NonNull final XsltExecutable executable,
+                               @Nullable final ValidationResultCache resultCache,
+                               @Nullable final String stylesheetIdentity,
+                               @NonNull final Map<Path, XdmNode> preloadedDocuments,
+                               @Nullable final ValidationMetrics metrics,
+                               @Nullable final String metricsName,
+                               @Nullable final XsltExecutable profilingExecutable) {
+        this.executable = executable;
+        this.resultCache = resultCache;
+        this.stylesheetIdentity = stylesheetIdentity;
+        this.preloadedDocuments = preloadedDocuments;
+        this.metrics = metrics;
+        this.metricsName = metricsName;
+        this.profilingExecutable = profilingExecutable;
+    }
+
+    /**
+     * Creates a validator from an XSLT file.
+     *
+     * @param processor The Saxon processor.
+     * @param xsltFile  The optimized XSLT file.
+     * @return the validator.
+     * @throws SaxonApiException if the XSLT file cannot be compiled.
+     */
+    @NonNull
+    public static CdaChEmedValidator fromFile(@NonNull final Processor processor,
+                                              @NonNull final File xsltFile) throws SaxonApiException {
+        return new CdaChEmedValidator(processor.newXsltCompiler().compile(new StreamSource(xsltFile)));
+    }
+
+    /**
+     * Returns a validator of the same XSLT that uses a result cache. The identity shall distinguish the XSLT from the
+     * other ones that use the same cache, e.g. {@code 1.0.2/cdachemed-MTP-error}.
+     *
+     * @param resultCache        The cache of the validation reports.
+     * @param stylesheetIdentity The identity of the XSLT in the result cache.
+     * @return the caching validator.
+     */
+    @NonNull
+    public CdaChEmedValidator withResultCache(@NonNull final ValidationResultCache resultCache,
+                                              @NonNull final String stylesheetIdentity) {
+        return new CdaChEmedValidator(this.executable, resultCache, stylesheetIdentity, this.preloadedDocuments,
+            this.metrics, this.metricsName, this.profilingExecutable);
+    }
+
+    /**
+     * Returns a validator of the same XSLT that uses preloaded documents: when the XSLT loads one of these files with
+     * {@code doc()} or {@code document()}, the preloaded tree is used instead of parsing the file. The documents shall
+     * be built by the processor that has compiled the XSLT; they're shared by the concurrent validations.
+     *
+     * @param preloadedDocuments The preloaded documents, by file path.
+     * @return the validator with preloaded documents.
+     */
+    @NonNull
+    public CdaChEmedValidator withPreloadedDocuments(@NonNull final Map<Path, XdmNode> preloadedDocuments) {
+        final Map<Path, XdmNode> documents = new HashMap<>(preloadedDocuments.size());
+        preloadedDocuments.forEach((path, document) -> documents.put(path.toAbsolutePath().normalize(), document));
+        return new CdaChEmedValidator(this.executable, this.resultCache, this.stylesheetIdentity,
+            Collections.unmodifiableMap(documents), this.metrics, this.metricsName, this.profilingExecutable);
+    }
+
+    /**
+     * Returns a validator of the same XSLT that records the runtime metrics of its rules. Without profiling variant,
+     * the evaluation time is not sampled.
+     *
+     * @param metrics             The runtime metrics of the rules.
+     * @param metricsName         The name of the XSLT in the metrics, e.g. {@code cdachemed-MTP-error}.
+     * @param profilingExecutable The profiling variant of the XSLT (see
+     *                            {@link ch.qligier.emed.ocs.profiling.ProfilingStylesheet#compile}), or {@code null}.
+     * @return the validator with metrics.
+     */
+    @NonNull
+    public CdaChEmedValidator withMetrics(@NonNull final ValidationMetrics metrics,
+                                          @NonNull final String metricsName,
+                                          @Nullable final XsltExecutable profilingExecutable) {
+        return new CdaChEmedValidator(this.executable, this.resultCache, this.stylesheetIdentity,
+            this.preloadedDocuments, metrics, metricsName, profilingExecutable);
+    }
+
+    /**
+     * Returns whether the validator uses a result cache.
+     *
+     * @return {@code true} if the reports are cached, {@code false} otherwise.
+     */
+    public boolean hasResultCache() {
+        return this.resultCache != null && this.stylesheetIdentity != null;
+    }
+
+    /**
+     * Returns the cached report of a document, without transformation.
+     *
+     * @param contentHash The hash of the document bytes, see {@link Utils#contentHash(byte[])}.
+     * @return the cached report, or {@code null} if it's not cached or if the validator has no result cache.
+     */
+    @Nullable
+    public ValidationReport getCachedReport(@NonNull final String contentHash) {
+        if (!this.hasResultCache()) {
+            return null;
+        }
+        return this.resultCache.get(this.stylesheetIdentity, contentHash);
+    }
+
+    /**
+     * Validates a document from its bytes. If the validator has a result cache, the report of an identical document
+     * is returned from the cache.
+     *
+     * @param content The document to validate.
+     * @return the validation report.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public ValidationReport validate(@NonNull final byte[] content) throws SaxonApiException {
+        if (!this.hasResultCache()) {
+            return this.validate(new StreamSource(new ByteArrayInputStream(content)));
+        }
+        final String contentHash = Utils.contentHash(content);
+        final ValidationReport cachedReport = this.getCachedReport(contentHash);
+        if (cachedReport != null) {
+            return cachedReport;
+        }
+        return this.validate(content, contentHash);
+    }
+
+    /**
+     * Validates a document from its bytes, without looking up the result cache, e.g. after a miss of
+     * {@link #getCachedReport(String)}. If the validator has a result cache, the report is cached.
+     *
+     * @param content     The document to validate.
+     * @param contentHash The hash of the document bytes, see {@link Utils#contentHash(byte[])}.
+     * @return the validation report.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public ValidationReport validate(@NonNull final byte[] content,
+                                     @NonNull final String contentHash) throws SaxonApiException {
+        final ValidationReport report = this.validate(new StreamSource(new ByteArrayInputStream(content)));
+        if (this.hasResultCache()) {
+            this.resultCache.put(this.stylesheetIdentity, contentHash, report);
+        }
+        return report;
+    }
+
+    /**
+     * Validates a document.
+     *
+     * @param source The document to validate.
+     * @return the validation report.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public ValidationReport validate(@NonNull final Source source) throws SaxonApiException {
+        final SvrlOutput output = this.transform(source);
+        return ValidationReport.fromSvrl(output.getNode(), output.isTerminated());
+    }
+
+    /**
+     * Validates a document and returns the SVRL output. If the validation is terminated at the first failed assert
+     * (fail-fast XSLT), the termination message is returned instead, it contains that failed assert.
+     *
+     * @param source The document to validate.
+     * @return the SVRL document node or the termination message.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public XdmNode validateToSvrl(@NonNull final Source source) throws SaxonApiException {
+        return this.transform(source).getNode();
+    }
+
+    /**
+     * Runs the XSLT on a document.
+     *
+     * @param source The document to validate.
+     * @return the SVRL output.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    private SvrlOutput transform(@NonNull final Source source) throws SaxonApiException {
+        final ValidationMetrics.Sampler sampler = this.metrics != null && this.profilingExecutable != null
+            && this.metrics.shouldSample() ? this.metrics.newSampler() : null;
+        final Xslt30Transformer transformer =
+            (sampler == null ? this.executable : Objects.requireNonNull(this.profilingExecutable)).load30();
+        if (!this.preloadedDocuments.isEmpty()) {
+            transformer.setResourceResolver(this::resolvePreloadedDocument);
+        }
+        final List<XdmNode> terminationMessages = new ArrayList<>(1);
+        transformer.setMessageHandler(message -> {
+            if (message.isTerminate()) {
+                terminationMessages.add(message.getContent());
+            }
+        });
+
+        final XdmDestination destination = new XdmDestination();
+        SvrlOutput output;
+        MarkFunction.setListener(sampler);
+        try {
+            transformer.transform(source, destination);
+            output = new SvrlOutput(destination.getXdmNode(), false);
+        } catch (final SaxonApiException exception) {
+            if (terminationMessages.isEmpty()) {
+                throw exception;
+            }
+            output = new SvrlOutput(terminationMessages.get(0), true);
+        } finally {
+            MarkFunction.setListener(null);
+        }
+        if (this.metrics != null && this.metricsName != null) {
+            this.metrics.record(this.metricsName, output.getNode(), sampler);
+        }
+        return output;
+    }
+
+    /**
+     * Resolves a document that is loaded by the XSLT to its preloaded tree.
+     *
+     * @param request The resource request.
+     * @return the preloaded tree, or {@code null} to load the document normally.
+     */
+    @Nullable
+    private Source resolvePreloadedDocument(@NonNull final ResourceRequest request) {
+        if (request.uri == null || !request.uri.startsWith("file:")) {
+            return null;
+        }
+        final XdmNode document;
+        try {
+            document = this.preloadedDocuments.get(Path.of(URI.create(request.uri)).normalize());
+        } catch (final IllegalArgumentException exception) {
+            return null;
+        }
+        return document == null ? null : document.getUnderlyingNode();
+    }
+
+    /**
+     * The SVRL output of a transformation.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static class SvrlOutput {
+
+        /**
+         * The SVRL document node, or the termination message.
+         */
+        @NonNull
+        private final XdmNode node;
+
+        /**
+         * Whether the validation was terminated at the first failed assert.
+         */
+        private final boolean terminated;
+    }
+}
@@ -0,0 +1,491 @@
+package ch.qligier.emed.ocs.validator;
+
+import ch.qligier.emed.ocs.schematron.AmbuTransformer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.*;
+
+import javax.annotation.Nullable;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A differential harness that validates documents with the reference XSLT, compiled from the unoptimized Schematron
+ * file by the ISO skeleton implementation, and with the optimized XSLT. It checks that both report the same failed
+ * asserts and successful reports, compared by kind, rule ID, role and location, and measures the speed-up of the
+ * optimized XSLT. The other finding properties are not compared: the optimizer may rewrite the tests and merge the
+ * patterns. The optimizer also promotes the template ID assert from warning to error: the warning of the anonymous
+ * rule whose context is the document node, located on the document element, may be matched by the same failed assert
+ * with the 'error' role, once per document; it's counted apart.
+ * <p>
+ * The optimized XSLT files are built from definitions that are transformed by the {@link AmbuTransformer}: its
+ * forbidden rules are removed, so their findings are dropped from the reference report, and some value sets are
+ * replaced, so their asserts may fail on other nodes. An unmatched reference finding whose test references a replaced
+ * value set may be paired with an unmatched optimized finding of the same kind, role and rule, whose test references
+ * the replacement; the pairs are counted apart instead of being differences.
+ * <p>
+ * The optimized XSLT shall keep all roles and not be fail-fast, otherwise the findings legitimately differ.
+ *
+ * @author Quentin Ligier
+ */
+public class DifferentialHarness {
+
+    private static final Logger LOG = Logger.getLogger(DifferentialHarness.class.getName());
+
+    /**
+     * The header of the result lines.
+     */
+    public static final String RESULT_HEADER =
+        "document\tequivalent\tmissing\tunexpected\tpromoted\treplaced\treference_micros\toptimized_micros\tspeed_up";
+
+    /**
+     * The stylesheets of the ISO skeleton implementation, in the order they're applied to a Schematron file.
+     */
+    private static final List<String> REFERENCE_PIPELINE = List.of(
+        "iso_dsdl_include.xsl",
+        "iso_abstract_expand.xsl",
+        "iso_svrl_for_xslt2.xsl"
+    );
+
+    /**
+     * The pattern of the IDs that the optimizer generates for the anonymous patterns and rules.
+     */
+    private static final Pattern GENERATED_ID = Pattern.compile("id_[0-9a-f]{8}(_[0-9a-f]{4}){3}_[0-9a-f]{12}");
+
+    /**
+     * The rule key of the anonymous rules.
+     */
+    private static final String ANONYMOUS_RULE = "-";
+
+    /**
+     * The reference validator.
+     */
+    private final CdaChEmedValidator reference;
+
+    /**
+     * The optimized validator.
+     */
+    private final CdaChEmedValidator optimized;
+
+    /**
+     * The number of timed validations per document and validator; the fastest one is kept.
+     */
+    private final int repetitions;
+
+    /**
+     * The IDs of the rules that are removed from the optimized XSLT.
+     */
+    private final Set<String> removedRules;
+
+    /**
+     * The value set OIDs that are replaced in the optimized XSLT, mapped to their replacement.
+     */
+    private final Map<String, String> valueSetReplacements;
+
+    /**
+     * Constructor. The optimized XSLT is built with the {@link AmbuTransformer}.
+     *
+     * @param reference   The reference validator.
+     * @param optimized   The optimized validator.
+     * @param repetitions The number of timed validations per document and validator.
+     */
+    public DifferentialHarness(@NonNull final CdaChEmedValidator reference,
+                               @NonNull final CdaChEmedValidator optimized,
+                               final int repetitions) {
+        this(reference, optimized, repetitions, AmbuTransformer.getForbiddenRules(),
+            AmbuTransformer.getValueSetReplacementMap());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param reference            The reference validator.
+     * @param optimized            The optimized validator.
+     * @param repetitions          The number of timed validations per document and validator.
+     * @param removedRules         The IDs of the rules that are removed from the optimized XSLT.
+     * @param valueSetReplacements The value set OIDs that are replaced in the optimized XSLT, mapped to their
+     *                             replacement.
+     */
+    public DifferentialHarness(@NonNull final CdaChEmedValidator reference,
+                               @NonNull final CdaChEmedValidator optimized,
+                               final int repetitions,
+                               @NonNull final Set<String> removedRules,
+                               @NonNull final Map<String, String> valueSetReplacements) {
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("The number of repetitions shall be positive");
+        }
+        this.reference = reference;
+        this.optimized = optimized;
+        this.repetitions = repetitions;
+        this.removedRules = Set.copyOf(removedRules);
+        this.valueSetReplacements = Map.copyOf(valueSetReplacements);
+    }
+
+    /**
+     * Compares the reference and optimized XSLT on a corpus, and fails if a document is not validated equivalently.
+     *
+     * @param args The directory of the ISO skeleton XSLT files, the unoptimized Schematron file, the optimized XSLT
+     *             file, the corpus directory and the result file.
+     * @throws Exception if the comparison cannot be run or a document is not validated equivalently.
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length != 5) {
+            throw new IllegalArgumentException("Usage: DifferentialHarness <iso skeleton directory> "
+                + "<schematron file> <optimized xslt> <corpus directory> <result file>");
+        }
+        final Processor processor = new Processor(false);
+        final DifferentialHarness harness = new DifferentialHarness(
+            new CdaChEmedValidator(compileReference(processor, Path.of(args[0]), new File(args[1]))),
+            CdaChEmedValidator.fromFile(processor, new File(args[2])),
+            5);
+        final Summary summary;
+        try (final Writer results = Files.newBufferedWriter(Path.of(args[4]), StandardCharsets.UTF_8)) {
+            summary = harness.run(Path.of(args[3]), results);
+        }
+        LOG.info(summary.toString());
+        if (summary.getDifferent() > 0) {
+            throw new IllegalStateException(summary.getDifferent() + " documents are not validated equivalently");
+        }
+    }
+
+    /**
+     * Compiles a Schematron file to the reference XSLT, with the ISO skeleton implementation: the includes are
+     * resolved, the abstract patterns are expanded and the result is converted to an SVRL-producing XSLT. The
+     * reference XSLT has the base URI of the Schematron file, to resolve the documents it loads.
+     *
+     * @param processor      The Saxon processor.
+     * @param isoDirectory   The directory of the ISO skeleton XSLT files.
+     * @param schematronFile The unoptimized Schematron file.
+     * @return the compiled reference XSLT.
+     * @throws SaxonApiException if the Schematron file cannot be compiled.
+     */
+    @NonNull
+    public static XsltExecutable compileReference(@NonNull final Processor processor,
+                                                  @NonNull final Path isoDirectory,
+                                                  @NonNull final File schematronFile) throws SaxonApiException {
+        final XsltCompiler compiler = processor.newXsltCompiler();
+        XdmNode document = processor.newDocumentBuilder().build(schematronFile);
+        for (final String stylesheet : REFERENCE_PIPELINE) {
+            final Xslt30Transformer transformer =
+                compiler.compile(new StreamSource(isoDirectory.resolve(stylesheet).toFile())).load30();
+            final XdmDestination destination = new XdmDestination();
+            destination.setBaseURI(schematronFile.toURI());
+            transformer.transform(document.asSource(), destination);
+            document = destination.getXdmNode();
+        }
+        return compiler.compile(document.asSource());
+    }
+
+    /**
+     * Compares the validators on the XML files of a corpus, and writes a tab-separated result line per document.
+     *
+     * @param corpus  The corpus directory.
+     * @param results The writer of the result lines. It's not closed.
+     * @return the summary of the comparison.
+     * @throws IOException       if the corpus cannot be read or the results cannot be written.
+     * @throws SaxonApiException if a document cannot be validated.
+     */
+    @NonNull
+    public Summary run(@NonNull final Path corpus,
+                       @NonNull final Writer results) throws IOException, SaxonApiException {
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.walk(corpus)) {
+            files = stream.filter(file -> file.getFileName().toString().endsWith(".xml")).sorted().toList();
+        }
+        results.write(RESULT_HEADER);
+        results.write('\n');
+        int different = 0;
+        double logSpeedUps = 0;
+        for (final Path file : files) {
+            final Comparison comparison = this.compare(Files.readAllBytes(file));
+            if (!comparison.isEquivalent()) {
+                ++different;
+                LOG.warning("The document " + file + " is not validated equivalently, missing: "
+                    + comparison.getMissing() + ", unexpected: " + comparison.getUnexpected());
+            }
+            logSpeedUps += Math.log(comparison.getSpeedUp());
+            results.write(String.join("\t", corpus.relativize(file).toString(),
+                String.valueOf(comparison.isEquivalent()), String.valueOf(comparison.getMissing().size()),
+                String.valueOf(comparison.getUnexpected().size()), String.valueOf(comparison.getPromoted()),
+                String.valueOf(comparison.getReplaced()),
+                String.valueOf(comparison.getReferenceNanos() / 1000),
+                String.valueOf(comparison.getOptimizedNanos() / 1000),
+                String.format(Locale.ROOT, "%.2f", comparison.getSpeedUp())));
+            results.write('\n');
+        }
+        results.flush();
+        return new Summary(files.size(), different, files.isEmpty() ? 1 : Math.exp(logSpeedUps / files.size()));
+    }
+
+    /**
+     * Validates a document with both validators and compares their findings and latencies.
+     *
+     * @param document The document content.
+     * @return the comparison.
+     * @throws SaxonApiException if the document cannot be validated.
+     */
+    @NonNull
+    public Comparison compare(@NonNull final byte[] document) throws SaxonApiException {
+        long referenceNanos = Long.MAX_VALUE;
+        long optimizedNanos = Long.MAX_VALUE;
+        ValidationReport referenceReport = null;
+        ValidationReport optimizedReport = null;
+        // The validators are alternated, so that a slower period of the machine penalizes both
+        for (int i = 0; i < this.repetitions; ++i) {
+            long start = System.nanoTime();
+            referenceReport = this.reference.validate(new StreamSource(new ByteArrayInputStream(document)));
+            referenceNanos = Math.min(referenceNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            optimizedReport = this.optimized.validate(new StreamSource(new ByteArrayInputStream(document)));
+            optimizedNanos = Math.min(optimizedNanos, System.nanoTime() - start);
+        }
+
+        // The findings of the removed rules are not expected from the optimized XSLT
+        final List<SvrlFinding> referenceFindings = referenceReport.getFindings().stream()
+            .filter(finding -> finding.getRuleId() == null || !this.removedRules.contains(finding.getRuleId()))
+            .toList();
+
+        // The findings are compared as multisets: each optimized finding matches one reference finding
+        final Map<String, Deque<SvrlFinding>> unexpected = new TreeMap<>();
+        for (final SvrlFinding finding : optimizedReport.getFindings()) {
+            unexpected.computeIfAbsent(key(finding), key -> new ArrayDeque<>()).add(finding);
+        }
+        final List<SvrlFinding> missing = new ArrayList<>();
+        for (final SvrlFinding finding : referenceFindings) {
+            if (removeMatch(unexpected, key(finding), candidate -> true) == null) {
+                missing.add(finding);
+            }
+        }
+        // The optimizer promotes the template ID assert from warning to error, it's not a difference
+        int promoted = 0;
+        for (final Iterator<SvrlFinding> iterator = missing.iterator(); iterator.hasNext() && promoted == 0; ) {
+            final SvrlFinding finding = iterator.next();
+            if (isTemplateIdAssert(finding) && removeMatch(unexpected, String.join(" ",
+                SvrlFinding.Kind.FAILED_ASSERT.name(), "error", ANONYMOUS_RULE, finding.getLocation()),
+                candidate -> true) != null) {
+                iterator.remove();
+                ++promoted;
+            }
+        }
+        // The asserts that look up a replaced value set may fail on other nodes, the rewritten asserts are paired
+        int replaced = 0;
+        for (final Iterator<SvrlFinding> iterator = missing.iterator(); iterator.hasNext(); ) {
+            final SvrlFinding finding = iterator.next();
+            final List<String> replacements = this.valueSetReplacements.entrySet().stream()
+                .filter(replacement -> finding.getTest() != null && finding.getTest().contains(replacement.getKey()))
+                .map(Map.Entry::getValue)
+                .toList();
+            if (replacements.isEmpty()) {
+                continue;
+            }
+            final String ruleKey = ruleKey(finding);
+            final String pairKey = unexpected.keySet().stream()
+                .filter(key -> key.startsWith(ruleKey + " "))
+                .filter(key -> unexpected.get(key).stream().anyMatch(candidate -> references(candidate, replacements)))
+                .findFirst()
+                .orElse(null);
+            if (pairKey != null) {
+                removeMatch(unexpected, pairKey, candidate -> references(candidate, replacements));
+                iterator.remove();
+                ++replaced;
+            }
+        }
+        return new Comparison(
+            missing.stream().map(DifferentialHarness::key).sorted().toList(),
+            unexpected.values().stream().flatMap(Deque::stream).map(DifferentialHarness::key).toList(),
+            promoted, replaced, referenceNanos, optimizedNanos);
+    }
+
+    /**
+     * Removes the first finding of a key that matches a predicate.
+     *
+     * @param findingsByKey The findings, by comparison key. Mutated.
+     * @param key           The comparison key.
+     * @param predicate     The predicate of the finding to remove.
+     * @return the removed finding, or {@code null} if there is no such finding.
+     */
+    @Nullable
+    private static SvrlFinding removeMatch(@NonNull final Map<String, Deque<SvrlFinding>> findingsByKey,
+                                           @NonNull final String key,
+                                           @NonNull final Predicate<SvrlFinding> predicate) {
+        final Deque<SvrlFinding> findings = findingsByKey.get(key);
+        if (findings == null) {
+            return null;
+        }
+        for (final Iterator<SvrlFinding> iterator = findings.iterator(); iterator.hasNext(); ) {
+            final SvrlFinding finding = iterator.next();
+            if (predicate.test(finding)) {
+                iterator.remove();
+                if (findings.isEmpty()) {
+                    findingsByKey.remove(key);
+                }
+                return finding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a reference finding is the failed template ID assert, that the optimizer promotes from warning
+     * to error: the warning of an anonymous rule whose context is the document node, that is located on the document
+     * element.
+     *
+     * @param finding The reference finding.
+     * @return {@code true} if the finding may be promoted, {@code false} otherwise.
+     */
+    private static boolean isTemplateIdAssert(@NonNull final SvrlFinding finding) {
+        return finding.getKind() == SvrlFinding.Kind.FAILED_ASSERT
+            && "warning".equals(finding.getRole())
+            && ANONYMOUS_RULE.equals(ruleId(finding))
+            && finding.getLocation() != null
+            && finding.getLocation().startsWith("/")
+            && !finding.getLocation().contains("]/");
+    }
+
+    /**
+     * Returns the comparison key of a finding: its rule key and its location.
+     *
+     * @param finding The finding.
+     * @return the key.
+     */
+    @NonNull
+    private static String key(@NonNull final SvrlFinding finding) {
+        return ruleKey(finding) + " " + finding.getLocation();
+    }
+
+    /**
+     * Returns the rule key of a finding: its kind, its role and its rule ID.
+     *
+     * @param finding The finding.
+     * @return the rule key.
+     */
+    @NonNull
+    private static String ruleKey(@NonNull final SvrlFinding finding) {
+        return String.join(" ", finding.getKind().name(), String.valueOf(finding.getRole()), ruleId(finding));
+    }
+
+    /**
+     * Returns the compared rule ID of a finding. The rule IDs that the optimizer has generated for the anonymous rules
+     * are not compared.
+     *
+     * @param finding The finding.
+     * @return the rule ID, or {@link #ANONYMOUS_RULE} for an anonymous rule.
+     */
+    @NonNull
+    private static String ruleId(@NonNull final SvrlFinding finding) {
+        return finding.getRuleId() == null || GENERATED_ID.matcher(finding.getRuleId()).matches()
+            ? ANONYMOUS_RULE
+            : finding.getRuleId();
+    }
+
+    /**
+     * Returns whether the test of a finding references one of the given value sets.
+     *
+     * @param finding The finding.
+     * @param oids    The value set OIDs.
+     * @return {@code true} if the test contains one of the OIDs, {@code false} otherwise.
+     */
+    private static boolean references(@NonNull final SvrlFinding finding,
+                                      @NonNull final Collection<String> oids) {
+        return finding.getTest() != null && oids.stream().anyMatch(finding.getTest()::contains);
+    }
+
+    /**
+     * The comparison of the validations of a document.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Comparison {
+
+        /**
+         * The findings of the reference validator that the optimized one has not reported.
+         */
+        private final List<String> missing;
+
+        /**
+         * The findings of the optimized validator that the reference one has not reported.
+         */
+        private final List<String> unexpected;
+
+        /**
+         * The number of failed asserts that the optimized validator has reported with the 'error' role instead of the
+         * 'warning' one.
+         */
+        private final int promoted;
+
+        /**
+         * The number of pairs of a reference finding whose test references a replaced value set and an optimized
+         * finding of the same rule whose test references its replacement.
+         */
+        private final int replaced;
+
+        /**
+         * The fastest latency of the reference validator, in nanoseconds.
+         */
+        private final long referenceNanos;
+
+        /**
+         * The fastest latency of the optimized validator, in nanoseconds.
+         */
+        private final long optimizedNanos;
+
+        /**
+         * Returns whether both validators have reported the same findings.
+         *
+         * @return {@code true} if the findings are equivalent, {@code false} otherwise.
+         */
+        public boolean isEquivalent() {
+            return this.missing.isEmpty() && this.unexpected.isEmpty();
+        }
+
+        /**
+         * Returns the speed-up of the optimized validator.
+         *
+         * @return the ratio of the reference latency to the optimized latency.
+         */
+        public double getSpeedUp() {
+            return (double) this.referenceNanos / Math.max(1, this.optimizedNanos);
+        }
+    }
+
+    /**
+     * The summary of a comparison on a corpus.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Summary {
+
+        /**
+         * The number of compared documents.
+         */
+        private final int documents;
+
+        /**
+         * The number of documents that are not validated equivalently.
+         */
+        private final int different;
+
+        /**
+         * The geometric mean of the speed-ups.
+         */
+        private final double meanSpeedUp;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d documents, %d not equivalent, mean speed-up %.2f", this.documents,
+                this.different, this.meanSpeedUp);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ch.qligier.emed.ocs.validator;
+
+import ch.qligier.emed.ocs.schematron.TemplateIdDispatch;
+import lombok.NonNull;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The incremental variant of the optimized XSLT files.
+ * <p>
+ * A global parameter {@code inc:scope} receives the changed node of an edited document. The recursive
+ * {@code xsl:apply-templates} of the patterns then only visit the ancestors of the changed node, the node itself and
+ * its descendants: the pattern templates act as the index of the rule contexts, and only the rules that match a
+ * visited node are evaluated. The traversals that start from the anchor elements of the patterns (see
+ * {@link TemplateIdDispatch}) are filtered the same way. Without scope, the whole document is visited.
+ *
+ * @author Quentin Ligier
+ */
+public class IncrementalStylesheet {
+
+    /**
+     * The namespace of the incremental parameters.
+     */
+    public static final String NAMESPACE = "urn:ch:qligier:emed:ocs:incremental";
+
+    /**
+     * The local name of the scope parameter.
+     */
+    public static final String SCOPE_PARAMETER = "scope";
+
+    /**
+     * The prefix of the incremental parameters in the XSLT files.
+     */
+    static final String PREFIX = "inc";
+
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+
+    /**
+     * The selection of the recursive {@code xsl:apply-templates} of the patterns.
+     */
+    private static final String PATTERN_SELECT = "@*|*|comment()|processing-instruction()";
+
+    /**
+     * The start of the selection of the traversals that start from the anchor elements of the patterns.
+     */
+    private static final String DISPATCH_SELECT_START = "key('" + TemplateIdDispatch.KEY_NAME + "'";
+
+    /**
+     * The filter of the visited nodes: the nodes on the path to the scope, and the descendants of the scope.
+     */
+    private static final String SCOPE_FILTER = "[empty($" + PREFIX + ":" + SCOPE_PARAMETER + ") or exists(. intersect $"
+        + PREFIX + ":path) or exists(ancestor::node() intersect $" + PREFIX + ":" + SCOPE_PARAMETER + ")]";
+
+    private IncrementalStylesheet() {}
+
+    /**
+     * Instruments an optimized XSLT document for incremental validation.
+     *
+     * @param xsltDocument The XSLT document. Mutated.
+     */
+    public static void instrument(@NonNull final Document xsltDocument) {
+        final Element stylesheet = xsltDocument.getDocumentElement();
+        stylesheet.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:" + PREFIX, NAMESPACE);
+        final String excludedPrefixes = stylesheet.getAttribute("exclude-result-prefixes");
+        stylesheet.setAttribute("exclude-result-prefixes", (excludedPrefixes + " " + PREFIX).strip());
+
+        final Element scope = xsltDocument.createElementNS(XSLT_NAMESPACE, "xsl:param");
+        scope.setAttribute("name", PREFIX + ":" + SCOPE_PARAMETER);
+        scope.setAttribute("as", "node()?");
+        scope.setAttribute("select", "()");
+        final Element path = xsltDocument.createElementNS(XSLT_NAMESPACE, "xsl:variable");
+        path.setAttribute("name", PREFIX + ":path");
+        path.setAttribute("select", "$" + PREFIX + ":" + SCOPE_PARAMETER + "/ancestor-or-self::node()");
+        stylesheet.insertBefore(path, stylesheet.getFirstChild());
+        stylesheet.insertBefore(scope, path);
+
+        final NodeList nodes = stylesheet.getElementsByTagNameNS(XSLT_NAMESPACE, "apply-templates");
+        final List<Element> applyTemplates = new ArrayList<>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            applyTemplates.add((Element) nodes.item(i));
+        }
+        for (final Element element : applyTemplates) {
+            final String select = element.getAttribute("select");
+            if (PATTERN_SELECT.equals(select) || select.startsWith(DISPATCH_SELECT_START)) {
+                element.setAttribute("select", "(" + select + ")" + SCOPE_FILTER);
+            } else if (!element.hasAttribute("select") && !element.hasAttribute("mode")) {
+                // The default mode only strips the text nodes, its traversal of the document is useless
+                element.getParentNode().removeChild(element);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package ch.qligier.emed.ocs.validator;
+
+import ch.qligier.emed.ocs.Utils;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.*;
+import org.w3c.dom.Document;
+
+import javax.xml.transform.dom.DOMSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A validator of edited CDA-CH-EMED documents, e.g. in an editor that revalidates the document after each edit. After
+ * a full validation, an edited document is revalidated from the previous report and the changed node: the XSLT only
+ * evaluates the rules whose context is the changed node, one of its descendants or one of its ancestors, and the
+ * previous findings of the other nodes are kept. The revalidation time then depends on the size of the changed node,
+ * not on the size of the document.
+ * <p>
+ * The kept findings are assumed to be unaffected by the edit: their asserts shall only look at the descendants of
+ * their context node, as the template rules usually do. The changed node shall contain all edits;
+ * if nodes are inserted or removed, it shall be their parent, so that the locations of their following siblings are
+ * revalidated too. The XSLT file shall not be fail-fast.
+ *
+ * @author Quentin Ligier
+ */
+public class IncrementalValidator {
+
+    /**
+     * The Saxon processor, used to parse the documents.
+     */
+    @Getter
+    @NonNull
+    private final Processor processor;
+
+    /**
+     * The compiled incremental XSLT.
+     */
+    @NonNull
+    private final XsltExecutable executable;
+
+    /**
+     * Constructor.
+     *
+     * @param processor  The Saxon processor, used to parse the documents.
+     * @param executable The compiled XSLT, instrumented by {@link IncrementalStylesheet}.
+     */
+    public IncrementalValidator(@NonNull final Processor processor,
+                                @NonNull final XsltExecutable executable) {
+        this.processor = processor;
+        this.executable = executable;
+    }
+
+    /**
+     * Creates an incremental validator from an optimized XSLT file, that is instrumented in memory.
+     *
+     * @param processor The Saxon processor.
+     * @param xsltFile  The optimized XSLT file.
+     * @return the incremental validator.
+     * @throws Exception if the XSLT file cannot be read or compiled.
+     */
+    @NonNull
+    public static IncrementalValidator fromFile(@NonNull final Processor processor,
+                                                @NonNull final File xsltFile) throws Exception {
+        final Document xsltDocument = Utils.newSafeDocumentBuilder().parse(xsltFile);
+        IncrementalStylesheet.instrument(xsltDocument);
+        return new IncrementalValidator(processor,
+            processor.newXsltCompiler().compile(new DOMSource(xsltDocument, xsltFile.toURI().toString())));
+    }
+
+    /**
+     * Validates a whole document. The document shall be built by the processor of the validator, and be revalidated
+     * from that tree after its edits.
+     *
+     * @param document The document to validate.
+     * @return the validation report.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public ValidationReport validate(@NonNull final XdmNode document) throws SaxonApiException {
+        return this.transform(document.getRoot(), null);
+    }
+
+    /**
+     * Revalidates an edited document. The findings of the previous report that are located on the changed node, its
+     * descendants or its ancestors are replaced by the findings of their revalidation; the other ones are kept.
+     *
+     * @param previousReport The report of the previous version of the document.
+     * @param changedNode    The changed node in the edited document, that contains all edits.
+     * @return the validation report of the edited document.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    public ValidationReport revalidate(@NonNull final ValidationReport previousReport,
+                                       @NonNull final XdmNode changedNode) throws SaxonApiException {
+        if (previousReport.isTerminated()) {
+            throw new IllegalArgumentException("A terminated report cannot be revalidated");
+        }
+        final String changedLocation = location(changedNode);
+        final List<SvrlFinding> findings = new ArrayList<>();
+        for (final SvrlFinding finding : previousReport.getFindings()) {
+            if (!isInOrAbove(finding.getLocation(), changedLocation)) {
+                findings.add(finding);
+            }
+        }
+        findings.addAll(this.transform(changedNode.getRoot(), changedNode).getFindings());
+        return new ValidationReport(findings, false);
+    }
+
+    /**
+     * Runs the incremental XSLT on a document.
+     *
+     * @param document The document node.
+     * @param scope    The changed node, or {@code null} to validate the whole document.
+     * @return the validation report of the visited nodes.
+     * @throws SaxonApiException if the transformation fails.
+     */
+    @NonNull
+    private ValidationReport transform(@NonNull final XdmNode document,
+                                       final XdmNode scope) throws SaxonApiException {
+        final Xslt30Transformer transformer = this.executable.load30();
+        if (scope != null) {
+            transformer.setStylesheetParameters(Map.of(
+                new QName(IncrementalStylesheet.NAMESPACE, IncrementalStylesheet.SCOPE_PARAMETER), scope));
+        }
+        final XdmDestination destination = new XdmDestination();
+        transformer.transform(document.asSource(), destination);
+        return ValidationReport.fromSvrl(destination.getXdmNode(), false);
+    }
+
+    /**
+     * Returns whether a finding location is the changed location, one of its descendants or one of its ancestors.
+     *
+     * @param location        The finding location.
+     * @param changedLocation The changed location.
+     * @return {@code true} if the finding shall be revalidated, {@code false} otherwise.
+     */
+    static boolean isInOrAbove(@NonNull final String location,
+                               @NonNull final String changedLocation) {
+        return isSelfOrAncestor(location, changedLocation) || isSelfOrAncestor(changedLocation, location);
+    }
+
+    /**
+     * Returns whether a location is the same as or an ancestor of another location.
+     *
+     * @param ancestor   The possible ancestor location.
+     * @param descendant The possible descendant location.
+     * @return {@code true} if the first location is the same as or an ancestor of the second one.
+     */
+    private static boolean isSelfOrAncestor(@NonNull final String ancestor,
+                                            @NonNull final String descendant) {
+        return descendant.startsWith(ancestor)
+            && (descendant.length() == ancestor.length() || descendant.charAt(ancestor.length()) == '/');
+    }
+
+    /**
+     * Returns the location of a node, in the notation of the SVRL locations, e.g.
+     * {@code /*:ClinicalDocument[namespace-uri()='urn:hl7-org:v3'][1]/*:id[namespace-uri()='urn:hl7-org:v3'][1]}.
+     *
+     * @param node The element or attribute node.
+     * @return the location, or an empty string for the document node.
+     */
+    @NonNull
+    static String location(@NonNull final XdmNode node) {
+        final XdmNode parent = node.getParent();
+        final String parentLocation = parent == null ? "" : location(parent);
+        final QName name = node.getNodeName();
+        return switch (node.getNodeKind()) {
+            case ELEMENT -> {
+                int position = 1;
+                for (final XdmNode sibling : (Iterable<XdmNode>) () -> node.axisIterator(Axis.PRECEDING_SIBLING)) {
+                    if (sibling.getNodeKind() == XdmNodeKind.ELEMENT && name.equals(sibling.getNodeName())) {
+                        ++position;
+                    }
+                }
+                yield parentLocation + (name.getNamespaceURI().isEmpty()
+                    ? "/" + name.getLocalName()
+                    : "/*:" + name.getLocalName() + "[namespace-uri()='" + name.getNamespaceURI() + "']")
+                    + "[" + position + "]";
+            }
+            case ATTRIBUTE -> parentLocation + (name.getNamespaceURI().isEmpty()
+                ? "/@" + name.getLocalName()
+                : "/@*[local-name()='" + name.getLocalName() + "' and namespace-uri()='" + name.getNamespaceURI()
+                + "']");
+            case DOCUMENT -> "";
+            default -> throw new IllegalArgumentException("The changed node shall be an element or an attribute");
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package ch.qligier.emed.ocs.validator;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A finding of a validation, i.e. a failed assert or a successful report of the SVRL output.
+ *
+ * @author Quentin Ligier
+ */
+@Data
+@AllArgsConstructor
+public class SvrlFinding {
+
+    /**
+     * The kind of finding.
+     */
+    private Kind kind;
+
+    /**
+     * The ID of the active pattern, or {@code null} if it is unknown.
+     */
+    private String patternId;
+
+    /**
+     * The ID of the fired rule, or {@code null} if it is unknown.
+     */
+    private String ruleId;
+
+    /**
+     * The test of the assert or report as an XPath expression.
+     */
+    private String test;
+
+    /**
+     * The role of the assert or report, or {@code null} if it's not specified.
+     */
+    private String role;
+
+    /**
+     * The location of the context node in the validated document, as an XPath expression.
+     */
+    private String location;
+
+    /**
+     * The detail message.
+     */
+    private String text;
+
+    /**
+     * The kinds of findings.
+     */
+    public enum Kind {
+        FAILED_ASSERT,
+        SUCCESSFUL_REPORT
+    }
+}
@@ -0,0 +1,361 @@
+package ch.qligier.emed.ocs.validator;
+
+import ch.qligier.emed.ocs.profiling.MarkFunction;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The runtime metrics of the rules of the validators, per stylesheet (e.g. {@code cdachemed-MTP-error}), pattern and
+ * rule ID: the fires, the failures by role and the sampled evaluation time.
+ * <p>
+ * The fires and failures are counted from the SVRL output of each validation. The evaluation time is only measured
+ * on a sample of the validations, that run the profiling variant of the XSLT (see
+ * {@link ch.qligier.emed.ocs.profiling.ProfilingStylesheet}). The counters are {@link LongAdder}s in a concurrent map,
+ * the validations of the worker threads do not contend on a lock. The metrics are available with
+ * {@link #getRules()} and as an MXBean.
+ *
+ * @author Quentin Ligier
+ */
+public class ValidationMetrics implements ValidationMetricsMXBean {
+
+    private static final QName ID_ATTRIBUTE = new QName("id");
+    private static final QName ROLE_ATTRIBUTE = new QName("role");
+
+    /**
+     * The role of the failed asserts that have none.
+     */
+    private static final String NO_ROLE = "none";
+
+    /**
+     * The average number of validations per sampled validation.
+     */
+    private final int samplingPeriod;
+
+    /**
+     * The counters of the rules, by stylesheet, pattern and rule ID.
+     */
+    private final ConcurrentMap<String, RuleCounters> rules = new ConcurrentHashMap<>();
+
+    /**
+     * The number of validations.
+     */
+    private final LongAdder validations = new LongAdder();
+
+    /**
+     * The number of sampled validations, whose rules are timed.
+     */
+    private final LongAdder sampledValidations = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param samplingPeriod The average number of validations per sampled validation, e.g. 100 to measure the
+     *                       evaluation time of 1% of the validations.
+     */
+    public ValidationMetrics(final int samplingPeriod) {
+        if (samplingPeriod < 1) {
+            throw new IllegalArgumentException("The sampling period shall be positive");
+        }
+        this.samplingPeriod = samplingPeriod;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server.
+     *
+     * @param name The name of the metrics, e.g. the served directory.
+     * @return the object name of the MBean.
+     * @throws JMException if the MBean cannot be registered.
+     */
+    @NonNull
+    public ObjectName registerMBean(@NonNull final String name) throws JMException {
+        final ObjectName objectName =
+            new ObjectName("ch.qligier.emed.ocs:type=ValidationMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Returns whether the next validation shall be sampled. The decision is random, not to share a counter between
+     * the worker threads.
+     *
+     * @return {@code true} if the evaluation time of the next validation shall be measured.
+     */
+    boolean shouldSample() {
+        return ThreadLocalRandom.current().nextInt(this.samplingPeriod) == 0;
+    }
+
+    /**
+     * Records the fires and failures of a validation, and the evaluation time of its rules if it was sampled.
+     *
+     * @param stylesheet The name of the stylesheet.
+     * @param svrlNode   The SVRL output of the validation.
+     * @param sampler    The sampler of the evaluation time, or {@code null} if the validation was not sampled.
+     */
+    void record(@NonNull final String stylesheet,
+                @NonNull final XdmNode svrlNode,
+                @Nullable final Sampler sampler) {
+        this.validations.increment();
+        final Map<String, RuleCounters> firedRules = new HashMap<>();
+        String patternId = null;
+        RuleCounters rule = null;
+        for (final XdmNode element : (Iterable<XdmNode>) () -> svrlNode.axisIterator(Axis.DESCENDANT_OR_SELF)) {
+            if (element.getNodeKind() != XdmNodeKind.ELEMENT
+                || !ValidationReport.SVRL_NAMESPACE.equals(element.getNodeName().getNamespaceURI())) {
+                continue;
+            }
+            switch (element.getNodeName().getLocalName()) {
+                case "active-pattern" -> patternId = element.getAttributeValue(ID_ATTRIBUTE);
+                case "fired-rule" -> {
+                    rule = this.getCounters(stylesheet, patternId, element.getAttributeValue(ID_ATTRIBUTE));
+                    rule.fires.increment();
+                    if (sampler != null) {
+                        rule.sampledFires.increment();
+                        firedRules.putIfAbsent(rule.ruleId, rule);
+                    }
+                }
+                case "failed-assert" -> {
+                    if (rule == null) {
+                        rule = this.getCounters(stylesheet, patternId, null);
+                    }
+                    final String role = element.getAttributeValue(ROLE_ATTRIBUTE);
+                    rule.failures.computeIfAbsent(role == null ? NO_ROLE : role, key -> new LongAdder()).increment();
+                }
+                default -> {
+                }
+            }
+        }
+        if (sampler != null) {
+            this.sampledValidations.increment();
+            sampler.nanosByRule.forEach((ruleId, nanos) -> {
+                final RuleCounters firedRule = firedRules.get(ruleId);
+                if (firedRule != null) {
+                    firedRule.sampledNanos.add(nanos[0]);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the counters of a rule, created on first use.
+     *
+     * @param stylesheet The name of the stylesheet.
+     * @param patternId  The pattern ID, or {@code null}.
+     * @param ruleId     The rule ID, or {@code null}.
+     * @return the rule counters.
+     */
+    @NonNull
+    private RuleCounters getCounters(@NonNull final String stylesheet,
+                                     @Nullable final String patternId,
+                                     @Nullable final String ruleId) {
+        final String key = stylesheet + '\0' + patternId + '\0' + ruleId;
+        final RuleCounters counters = this.rules.get(key);
+        if (counters != null) {
+            return counters;
+        }
+        return this.rules.computeIfAbsent(key, k -> new RuleCounters(stylesheet, patternId, ruleId));
+    }
+
+    /**
+     * Creates the sampler of the evaluation time of a validation.
+     *
+     * @return a new sampler, that shall be used by a single transformation.
+     */
+    @NonNull
+    Sampler newSampler() {
+        return new Sampler();
+    }
+
+    @Override
+    public long getValidations() {
+        return this.validations.sum();
+    }
+
+    @Override
+    public long getSampledValidations() {
+        return this.sampledValidations.sum();
+    }
+
+    @Override
+    public List<RuleSnapshot> getRules() {
+        final List<RuleSnapshot> snapshots = new ArrayList<>(this.rules.size());
+        for (final RuleCounters counters : this.rules.values()) {
+            final Map<String, Long> failures = new TreeMap<>();
+            counters.failures.forEach((role, count) -> failures.put(role, count.sum()));
+            snapshots.add(new RuleSnapshot(counters.stylesheet, Objects.requireNonNullElse(counters.patternId, ""),
+                Objects.requireNonNullElse(counters.ruleId, ""), counters.fires.sum(), failures,
+                counters.sampledFires.sum(), counters.sampledNanos.sum()));
+        }
+        snapshots.sort(Comparator.comparing(RuleSnapshot::getStylesheet)
+            .thenComparing(RuleSnapshot::getPatternId)
+            .thenComparing(RuleSnapshot::getRuleId));
+        return snapshots;
+    }
+
+    @Override
+    public void reset() {
+        this.rules.clear();
+        this.validations.reset();
+        this.sampledValidations.reset();
+    }
+
+    /**
+     * The counters of a rule.
+     */
+    private static class RuleCounters {
+
+        /**
+         * The name of the stylesheet.
+         */
+        private final String stylesheet;
+
+        /**
+         * The pattern ID, or {@code null}.
+         */
+        @Nullable
+        private final String patternId;
+
+        /**
+         * The rule ID, or {@code null}.
+         */
+        @Nullable
+        private final String ruleId;
+
+        /**
+         * The number of fires.
+         */
+        private final LongAdder fires = new LongAdder();
+
+        /**
+         * The number of failed asserts, by role.
+         */
+        private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+        /**
+         * The number of fires in the sampled validations.
+         */
+        private final LongAdder sampledFires = new LongAdder();
+
+        /**
+         * The cumulative evaluation time of the fires in the sampled validations, in nanoseconds.
+         */
+        private final LongAdder sampledNanos = new LongAdder();
+
+        /**
+         * Constructor.
+         *
+         * @param stylesheet The name of the stylesheet.
+         * @param patternId  The pattern ID, or {@code null}.
+         * @param ruleId     The rule ID, or {@code null}.
+         */
+        private RuleCounters(@NonNull final String stylesheet,
+                             @Nullable final String patternId,
+                             @Nullable final String ruleId) {
+            this.stylesheet = stylesheet;
+            this.patternId = patternId;
+            this.ruleId = ruleId;
+        }
+    }
+
+    /**
+     * The sampler of the evaluation time of the rules in a validation, that receives the marks of the profiling XSLT.
+     * The time between the first and the last mark of a rule template is attributed to the rule; the traversal of the
+     * descendants is not.
+     */
+    static class Sampler implements MarkFunction.Listener {
+
+        /**
+         * The cumulative evaluation time, by rule ID.
+         */
+        private final Map<String, long[]> nanosByRule = new HashMap<>();
+
+        /**
+         * The ID of the rule that fired last, or {@code null}.
+         */
+        @Nullable
+        private String currentRuleId;
+
+        /**
+         * The time of the last mark, in nanoseconds.
+         */
+        private long lastMarkNanos;
+
+        @Override
+        public void mark(@NonNull final String ruleId,
+                         final int index) {
+            final long nanos = System.nanoTime();
+            if (index == 0) {
+                this.currentRuleId = ruleId;
+            } else if (ruleId.equals(this.currentRuleId)) {
+                this.nanosByRule.computeIfAbsent(ruleId, key -> new long[1])[0] += nanos - this.lastMarkNanos;
+            }
+            this.lastMarkNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of a rule.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class RuleSnapshot {
+
+        /**
+         * The name of the stylesheet.
+         */
+        private final String stylesheet;
+
+        /**
+         * The pattern ID, or an empty string if it's unknown.
+         */
+        private final String patternId;
+
+        /**
+         * The rule ID, or an empty string if it's unknown.
+         */
+        private final String ruleId;
+
+        /**
+         * The number of fires.
+         */
+        private final long fires;
+
+        /**
+         * The number of failed asserts, by role.
+         */
+        private final Map<String, Long> failures;
+
+        /**
+         * The number of fires in the sampled validations.
+         */
+        private final long sampledFires;
+
+        /**
+         * The cumulative evaluation time of the sampled fires, in nanoseconds.
+         */
+        private final long sampledNanos;
+
+        /**
+         * Returns the mean evaluation time of a fire, estimated from the sampled validations.
+         *
+         * @return the mean evaluation time in nanoseconds, or 0 if no fire was sampled.
+         */
+        public long getMeanNanos() {
+            return this.sampledFires == 0 ? 0 : this.sampledNanos / this.sampledFires;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ch.qligier.emed.ocs.validator;
+
+import java.util.List;
+
+/**
+ * The JMX interface of {@link ValidationMetrics}.
+ *
+ * @author Quentin Ligier
+ */
+public interface ValidationMetricsMXBean {
+
+    /**
+     * Returns the number of recorded validations.
+     *
+     * @return the number of validations.
+     */
+    long getValidations();
+
+    /**
+     * Returns the number of recorded validations whose evaluation time was sampled.
+     *
+     * @return the number of sampled validations.
+     */
+    long getSampledValidations();
+
+    /**
+     * Returns a snapshot of the rule metrics.
+     *
+     * @return the rule metrics, sorted by stylesheet, pattern and rule ID.
+     */
+    List<ValidationMetrics.RuleSnapshot> getRules();
+
+    /**
+     * Resets all metrics.
+     */
+    void reset();
+}
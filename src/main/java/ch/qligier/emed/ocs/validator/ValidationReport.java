@@ -0,0 +1,131 @@
+package ch.qligier.emed.ocs.validator;
+
+import lombok.Data;
+import lombok.NonNull;
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The report of a validation: the failed asserts and successful reports of the SVRL output.
+ *
+ * @author Quentin Ligier
+ */
+@Data
+public class ValidationReport {
+
+    /**
+     * The namespace of the SVRL elements.
+     */
+    static final String SVRL_NAMESPACE = "http://purl.oclc.org/dsdl/svrl";
+
+    private static final QName ID_ATTRIBUTE = new QName("id");
+    private static final QName TEST_ATTRIBUTE = new QName("test");
+    private static final QName ROLE_ATTRIBUTE = new QName("role");
+    private static final QName LOCATION_ATTRIBUTE = new QName("location");
+
+    /**
+     * The list of findings, in the order of the SVRL output.
+     */
+    @NonNull
+    private final List<SvrlFinding> findings;
+
+    /**
+     * Whether the validation was terminated at the first failed assert (fail-fast XSLT). In that case, the findings
+     * only contain that failed assert.
+     */
+    private final boolean terminated;
+
+    /**
+     * Returns the failed asserts.
+     *
+     * @return a list of failed asserts.
+     */
+    @NonNull
+    public List<SvrlFinding> getFailedAsserts() {
+        return this.findings.stream()
+            .filter(finding -> finding.getKind() == SvrlFinding.Kind.FAILED_ASSERT)
+            .toList();
+    }
+
+    /**
+     * Returns whether the report contains a failed assert with the given role.
+     *
+     * @param role The role to look for.
+     * @return {@code true} if such a failed assert exists, {@code false} otherwise.
+     */
+    public boolean hasFailedAssert(@NonNull final String role) {
+        return this.findings.stream()
+            .anyMatch(finding -> finding.getKind() == SvrlFinding.Kind.FAILED_ASSERT
+                && role.equals(finding.getRole()));
+    }
+
+    /**
+     * Creates a report from an SVRL node. The node may be the SVRL document, or any node that contains SVRL elements
+     * (e.g. a termination message).
+     *
+     * @param svrlNode   The SVRL node.
+     * @param terminated Whether the validation was terminated at the first failed assert.
+     * @return the validation report.
+     */
+    @NonNull
+    public static ValidationReport fromSvrl(@NonNull final XdmNode svrlNode,
+                                            final boolean terminated) {
+        final List<SvrlFinding> findings = new ArrayList<>();
+        String patternId = null;
+        String ruleId = null;
+        for (final XdmNode element : (Iterable<XdmNode>) () -> svrlNode.axisIterator(Axis.DESCENDANT_OR_SELF)) {
+            if (element.getNodeKind() != XdmNodeKind.ELEMENT
+                || !SVRL_NAMESPACE.equals(element.getNodeName().getNamespaceURI())) {
+                continue;
+            }
+            switch (element.getNodeName().getLocalName()) {
+                case "active-pattern" -> patternId = element.getAttributeValue(ID_ATTRIBUTE);
+                case "fired-rule" -> ruleId = element.getAttributeValue(ID_ATTRIBUTE);
+                case "failed-assert" ->
+                    findings.add(toFinding(SvrlFinding.Kind.FAILED_ASSERT, patternId, ruleId, element));
+                case "successful-report" ->
+                    findings.add(toFinding(SvrlFinding.Kind.SUCCESSFUL_REPORT, patternId, ruleId, element));
+                default -> {
+                }
+            }
+        }
+        return new ValidationReport(findings, terminated);
+    }
+
+    /**
+     * Converts an SVRL element to a finding.
+     *
+     * @param kind      The kind of finding.
+     * @param patternId The ID of the active pattern, or {@code null}.
+     * @param ruleId    The ID of the fired rule, or {@code null}.
+     * @param element   The SVRL 'failed-assert' or 'successful-report' element.
+     * @return the finding.
+     */
+    private static SvrlFinding toFinding(@NonNull final SvrlFinding.Kind kind,
+                                         final String patternId,
+                                         final String ruleId,
+                                         @NonNull final XdmNode element) {
+        String text = null;
+        for (final XdmNode child : element.children("text")) {
+            if (SVRL_NAMESPACE.equals(child.getNodeName().getNamespaceURI())) {
+                text = child.getStringValue().strip();
+                break;
+            }
+        }
+        return new SvrlFinding(
+            kind,
+            patternId,
+            ruleId,
+            element.getAttributeValue(TEST_ATTRIBUTE),
+            element.getAttributeValue(ROLE_ATTRIBUTE),
+            Objects.requireNonNullElse(element.getAttributeValue(LOCATION_ATTRIBUTE), ""),
+            text
+        );
+    }
+}
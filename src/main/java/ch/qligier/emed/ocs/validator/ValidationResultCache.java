@@ -0,0 +1,274 @@
+package ch.qligier.emed.ocs.validator;
+
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of validation reports, keyed by the identity of the stylesheet (e.g. its spec version, document type and
+ * profile) and the hash of the document bytes. A document that is submitted again, byte for byte, is then neither
+ * parsed nor transformed.
+ * <p>
+ * The cache is bounded by its number of entries and by the estimated size of the cached reports; the least recently
+ * used entries are evicted first. The findings are mutable, so the reports are copied in and out of the cache: a
+ * caller can't alter a cached report. The cache is thread-safe.
+ *
+ * @author Quentin Ligier
+ */
+public class ValidationResultCache {
+
+    /**
+     * The estimated size of a cache entry without its findings, in bytes.
+     */
+    private static final long ENTRY_OVERHEAD = 256;
+
+    /**
+     * The estimated size of a finding without its strings, in bytes.
+     */
+    private static final long FINDING_OVERHEAD = 64;
+
+    /**
+     * The maximum number of entries.
+     */
+    private final int maxEntries;
+
+    /**
+     * The maximum estimated size of the cached reports, in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * The cached entries, from the least to the most recently used.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The estimated size of the cached reports, in bytes. Guarded by {@link #entries}.
+     */
+    private long bytes;
+
+    /**
+     * The number of lookups that found a cached report.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that found no cached report.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of entries evicted to respect the cache bounds.
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries The maximum number of entries.
+     * @param maxBytes   The maximum estimated size of the cached reports, in bytes.
+     */
+    public ValidationResultCache(final int maxEntries,
+                                 final long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("The cache bounds shall be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a copy of the cached report of a document, and counts the hit or the miss.
+     *
+     * @param stylesheetIdentity The identity of the stylesheet.
+     * @param contentHash        The hash of the document bytes.
+     * @return the cached report, or {@code null}.
+     */
+    @Nullable
+    public ValidationReport get(@NonNull final String stylesheetIdentity,
+                                @NonNull final String contentHash) {
+        final Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(key(stylesheetIdentity, contentHash));
+        }
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return copy(entry.report);
+    }
+
+    /**
+     * Caches a copy of the report of a document, and evicts the least recently used entries that exceed the bounds. A
+     * report that alone exceeds the size bound is not cached.
+     *
+     * @param stylesheetIdentity The identity of the stylesheet.
+     * @param contentHash        The hash of the document bytes.
+     * @param report             The validation report.
+     */
+    public void put(@NonNull final String stylesheetIdentity,
+                    @NonNull final String contentHash,
+                    @NonNull final ValidationReport report) {
+        final String key = key(stylesheetIdentity, contentHash);
+        final Entry entry = new Entry(copy(report),
+            ENTRY_OVERHEAD + 2L * key.length() + estimateBytes(report));
+        if (entry.bytes > this.maxBytes) {
+            return;
+        }
+        synchronized (this.entries) {
+            final Entry previous = this.entries.put(key, entry);
+            this.bytes += entry.bytes - (previous == null ? 0 : previous.bytes);
+            final Iterator<Entry> iterator = this.entries.values().iterator();
+            while (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) {
+                this.bytes -= iterator.next().bytes;
+                iterator.remove();
+                this.evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries. The counters are kept.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.bytes = 0;
+        }
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the estimated size of the cached reports.
+     *
+     * @return the estimated size, in bytes.
+     */
+    public long getEstimatedBytes() {
+        synchronized (this.entries) {
+            return this.bytes;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that have found a cached report.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that have not found a cached report.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Returns the number of entries that have been evicted to respect the bounds.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries (%d KiB), %d hits, %d misses, %d evictions", this.size(),
+            this.getEstimatedBytes() >> 10, this.getHits(), this.getMisses(), this.getEvictions());
+    }
+
+    /**
+     * Estimates the memory size of a report.
+     *
+     * @param report The validation report.
+     * @return the estimated size, in bytes.
+     */
+    private static long estimateBytes(@NonNull final ValidationReport report) {
+        long bytes = 0;
+        for (final SvrlFinding finding : report.getFindings()) {
+            bytes += FINDING_OVERHEAD + 2L * (length(finding.getPatternId()) + length(finding.getRuleId())
+                + length(finding.getTest()) + length(finding.getRole()) + length(finding.getLocation())
+                + length(finding.getText()));
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies a report and its findings.
+     *
+     * @param report The validation report.
+     * @return the copy, with an unmodifiable list of findings.
+     */
+    @NonNull
+    private static ValidationReport copy(@NonNull final ValidationReport report) {
+        final List<SvrlFinding> findings = new ArrayList<>(report.getFindings().size());
+        for (final SvrlFinding finding : report.getFindings()) {
+            findings.add(new SvrlFinding(finding.getKind(), finding.getPatternId(), finding.getRuleId(),
+                finding.getTest(), finding.getRole(), finding.getLocation(), finding.getText()));
+        }
+        return new ValidationReport(Collections.unmodifiableList(findings), report.isTerminated());
+    }
+
+    /**
+     * Returns the length of a nullable string.
+     *
+     * @param value The string, or {@code null}.
+     * @return the length of the string, or 0 if it's {@code null}.
+     */
+    private static int length(@Nullable final String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Returns the key of a cache entry.
+     *
+     * @param stylesheetIdentity The identity of the stylesheet.
+     * @param contentHash        The hash of the validated document content.
+     * @return the cache key.
+     */
+    @NonNull
+    private static String key(@NonNull final String stylesheetIdentity,
+                              @NonNull final String contentHash) {
+        return stylesheetIdentity + '\0' + contentHash;
+    }
+
+    /**
+     * A cache entry: a report and its estimated size.
+     */
+    @AllArgsConstructor
+    private static class Entry {
+
+        /**
+         * The cached report.
+         */
+        private final ValidationReport report;
+
+        /**
+         * The estimated size of the entry, in bytes.
+         */
+        private final long bytes;
+    }
+}
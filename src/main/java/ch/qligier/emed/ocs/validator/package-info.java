@@ -0,0 +1,6 @@
+/**
+ * A validator of CDA-CH-EMED documents that runs the optimized XSLT files.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.validator;
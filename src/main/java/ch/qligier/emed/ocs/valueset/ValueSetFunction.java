@@ -0,0 +1,179 @@
+package ch.qligier.emed.ocs.valueset;
+
+import lombok.NonNull;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.Literal;
+import net.sf.saxon.expr.StaticContext;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.str.UnicodeString;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.SequenceType;
+
+import javax.annotation.Nullable;
+
+/**
+ * The XPath extension function {@code vsi:contains($valueSet, $codes, $codeSystems)}, that returns whether a value set
+ * of a {@link ValueSetIndex} contains a concept with one of the codes and one of the code systems. It's equivalent to
+ * {@code exists(doc($valueSet)//valueSet[1][conceptList/concept[@code = $codes][@codeSystem = $codeSystems]])}.
+ * <p>
+ * When the value set is a string literal, which is the case in the optimized stylesheets, it's resolved once when the
+ * stylesheet is compiled: a missing value set is a static error.
+ *
+ * @author Quentin Ligier
+ */
+public class ValueSetFunction extends ExtensionFunctionDefinition {
+
+    /**
+     * The namespace of the extension function.
+     */
+    public static final String NAMESPACE = "urn:ch:qligier:emed:ocs:valueset";
+
+    /**
+     * The namespace prefix of the extension function in the optimized stylesheets.
+     */
+    public static final String PREFIX = "vsi";
+
+    /**
+     * The local name of the extension function.
+     */
+    public static final String LOCAL_NAME = "contains";
+
+    /**
+     * The value set index.
+     */
+    @NonNull
+    private final ValueSetIndex index;
+
+    /**
+     * Constructor.
+     *
+     * @param index The value set index.
+     */
+    public ValueSetFunction(@NonNull final ValueSetIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Registers the extension function of a value set index in a Saxon processor. The stylesheets that are compiled
+     * by the processor afterwards can use it.
+     *
+     * @param processor The Saxon processor.
+     * @param index     The value set index.
+     */
+    public static void register(@NonNull final Processor processor,
+                                @NonNull final ValueSetIndex index) {
+        processor.registerExtensionFunction(new ValueSetFunction(index));
+    }
+
+    @Override
+    public StructuredQName getFunctionQName() {
+        return new StructuredQName(PREFIX, NAMESPACE, LOCAL_NAME);
+    }
+
+    @Override
+    public SequenceType[] getArgumentTypes() {
+        return new SequenceType[]{SequenceType.SINGLE_STRING, SequenceType.ATOMIC_SEQUENCE,
+            SequenceType.ATOMIC_SEQUENCE};
+    }
+
+    @Override
+    public SequenceType getResultType(final SequenceType[] suppliedArgumentTypes) {
+        return SequenceType.SINGLE_BOOLEAN;
+    }
+
+    @Override
+    public ExtensionFunctionCall makeCallExpression() {
+        return new Call();
+    }
+
+    /**
+     * A call of the extension function.
+     */
+    private class Call extends ExtensionFunctionCall {
+
+        /**
+         * The value set if it's given as a string literal, {@code null} otherwise.
+         */
+        @Nullable
+        private ValueSetIndex.ValueSet staticValueSet;
+
+        @Override
+        public void supplyStaticContext(final StaticContext context,
+                                        final int locationId,
+                                        final Expression[] arguments) throws XPathException {
+            if (arguments[0] instanceof final Literal literal) {
+                this.staticValueSet = getValueSet(literal.getGroundedValue().getStringValue());
+            }
+        }
+
+        @Override
+        public void copyLocalData(final ExtensionFunctionCall destination) {
+            ((Call) destination).staticValueSet = this.staticValueSet;
+        }
+
+        @Override
+        public Sequence call(final XPathContext context,
+                             final Sequence[] arguments) throws XPathException {
+            final ValueSetIndex.ValueSet valueSet = this.staticValueSet != null
+                ? this.staticValueSet
+                : getValueSet(arguments[0].head().getStringValue());
+            return BooleanValue.get(contains(valueSet, arguments[1], arguments[2]));
+        }
+
+        /**
+         * Returns whether a value set contains a concept with one of the codes and one of the code systems.
+         *
+         * @param valueSet    The value set.
+         * @param codes       The codes.
+         * @param codeSystems The code systems.
+         * @return {@code true} if a concept is found, {@code false} otherwise.
+         * @throws XPathException if a sequence cannot be read.
+         */
+        private static boolean contains(@NonNull final ValueSetIndex.ValueSet valueSet,
+                                        @NonNull final Sequence codes,
+                                        @NonNull final Sequence codeSystems) throws XPathException {
+            // Single items, the usual case, are not iterated
+            if (codes instanceof final Item code && codeSystems instanceof final Item codeSystem) {
+                return valueSet.contains(code.getUnicodeStringValue(), codeSystem.getUnicodeStringValue());
+            }
+            final SequenceIterator codeIterator = codes.iterate();
+            for (Item code = codeIterator.next(); code != null; code = codeIterator.next()) {
+                final UnicodeString codeValue = code.getUnicodeStringValue();
+                final SequenceIterator codeSystemIterator = codeSystems.iterate();
+                for (Item codeSystem = codeSystemIterator.next(); codeSystem != null;
+                     codeSystem = codeSystemIterator.next()) {
+                    if (valueSet.contains(codeValue, codeSystem.getUnicodeStringValue())) {
+                        codeSystemIterator.close();
+                        codeIterator.close();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns a value set of the index.
+     *
+     * @param name The value set name.
+     * @return the value set.
+     * @throws XPathException if the value set is not indexed.
+     */
+    @NonNull
+    private ValueSetIndex.ValueSet getValueSet(@NonNull final String name) throws XPathException {
+        final ValueSetIndex.ValueSet valueSet = this.index.getValueSet(name);
+        if (valueSet == null) {
+            throw new XPathException("The value set '" + name + "' is not in the value set index");
+        }
+        return valueSet;
+    }
+}
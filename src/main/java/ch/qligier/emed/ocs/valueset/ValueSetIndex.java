@@ -0,0 +1,296 @@
+package ch.qligier.emed.ocs.valueset;
+
+import lombok.Getter;
+import lombok.NonNull;
+import net.sf.saxon.str.StringView;
+import net.sf.saxon.str.UnicodeString;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A memory-mapped index of value sets, that answers whether a (code, code system) pair is in a value set. The index
+ * file is written by the {@link ValueSetIndexWriter}; it's mapped read-only, so the JVMs that open the same file share
+ * the page cache. The lookups don't allocate and the index is thread-safe.
+ * <p>
+ * The file starts with a header: the magic number, the format version, the number of value sets and, for each value
+ * set, its name (the reference used by the stylesheets, e.g. {@code include/voc-2.16.756.5.30.1.1.11.2-DYNAMIC.xml}),
+ * the offset and the number of its entries. Each entry is the hash of the pair and the offset of the pair strings; the
+ * entries of a value set are sorted by hash and searched by bisection, the strings are compared on hash matches.
+ *
+ * @author Quentin Ligier
+ */
+public class ValueSetIndex {
+
+    /**
+     * The default name of the index file, in the directory of the stylesheets.
+     */
+    public static final String FILE_NAME = "valuesets.vsi";
+
+    /**
+     * The magic number of the index files ("VSIX").
+     */
+    static final int MAGIC = 0x56534958;
+
+    /**
+     * The version of the index file format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of an entry: the hash (long) and the offset of the strings (int).
+     */
+    static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The mapped index file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The value sets, by name.
+     */
+    private final Map<String, ValueSet> valueSets;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer The content of an index file.
+     * @throws IOException if the content is not a valid index.
+     */
+    ValueSetIndex(@NonNull final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < 3 * Integer.BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("The file is not a value set index");
+        }
+        if (buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Unsupported value set index version: " + buffer.getInt(Integer.BYTES));
+        }
+        final int valueSetCount = buffer.getInt(2 * Integer.BYTES);
+        final Map<String, ValueSet> valueSets = new HashMap<>(valueSetCount * 2);
+        int position = 3 * Integer.BYTES;
+        for (int i = 0; i < valueSetCount; ++i) {
+            final char[] name = new char[buffer.getShort(position)];
+            position += Short.BYTES;
+            for (int j = 0; j < name.length; ++j) {
+                name[j] = buffer.getChar(position);
+                position += Character.BYTES;
+            }
+            final ValueSet valueSet = new ValueSet(new String(name), buffer.getInt(position),
+                buffer.getInt(position + Integer.BYTES));
+            position += 2 * Integer.BYTES;
+            if (valueSet.entriesOffset < 0 || valueSet.size < 0
+                || (long) valueSet.entriesOffset + (long) valueSet.size * ENTRY_SIZE > buffer.limit()) {
+                throw new IOException("The value set '" + valueSet.name + "' is out of the index bounds");
+            }
+            valueSets.put(valueSet.name, valueSet);
+        }
+        this.valueSets = Collections.unmodifiableMap(valueSets);
+    }
+
+    /**
+     * Memory-maps an index file.
+     *
+     * @param indexFile The index file.
+     * @return the index.
+     * @throws IOException if the file cannot be mapped or is not a valid index.
+     */
+    @NonNull
+    public static ValueSetIndex open(@NonNull final Path indexFile) throws IOException {
+        try (final FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new ValueSetIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Loads the mapped index in physical memory, so that the first lookups don't fault its pages in.
+     */
+    public void preload() {
+        if (this.buffer instanceof final MappedByteBuffer mappedBuffer) {
+            mappedBuffer.load();
+        }
+    }
+
+    /**
+     * Returns the names of the indexed value sets.
+     *
+     * @return the value set names.
+     */
+    @NonNull
+    public Set<String> getValueSetNames() {
+        return this.valueSets.keySet();
+    }
+
+    /**
+     * Returns a value set.
+     *
+     * @param name The value set name.
+     * @return the value set or {@code null} if it's not indexed.
+     */
+    @Nullable
+    public ValueSet getValueSet(@NonNull final String name) {
+        return this.valueSets.get(name);
+    }
+
+    /**
+     * Returns whether a (code, code system) pair is in a value set.
+     *
+     * @param name       The value set name.
+     * @param code       The code.
+     * @param codeSystem The code system.
+     * @return {@code true} if the pair is in the value set, {@code false} otherwise.
+     * @throws IllegalArgumentException if the value set is not indexed.
+     */
+    public boolean contains(@NonNull final String name,
+                            @NonNull final String code,
+                            @NonNull final String codeSystem) {
+        final ValueSet valueSet = this.valueSets.get(name);
+        if (valueSet == null) {
+            throw new IllegalArgumentException("The value set '" + name + "' is not indexed");
+        }
+        return valueSet.contains(StringView.of(code), StringView.of(codeSystem));
+    }
+
+    /**
+     * Hashes a (code, code system) pair with the 64-bit FNV-1a function, over the code points of the code system, a
+     * separator and the code.
+     *
+     * @param code       The code.
+     * @param codeSystem The code system.
+     * @return the hash of the pair.
+     */
+    static long hash(@NonNull final UnicodeString code,
+                     @NonNull final UnicodeString codeSystem) {
+        long hash = 0xcbf29ce484222325L;
+        for (long i = 0; i < codeSystem.length(); ++i) {
+            hash = (hash ^ codeSystem.codePointAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ 0x110000) * 0x100000001b3L; // Not a code point
+        for (long i = 0; i < code.length(); ++i) {
+            hash = (hash ^ code.codePointAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * A value set of the index.
+     */
+    public final class ValueSet {
+
+        /**
+         * The value set name.
+         */
+        @Getter
+        private final String name;
+
+        /**
+         * The offset of the first entry.
+         */
+        private final int entriesOffset;
+
+        /**
+         * The number of entries, i.e. the number of distinct (code, code system) pairs.
+         */
+        @Getter
+        private final int size;
+
+        /**
+         * Constructor.
+         *
+         * @param name          The value set name.
+         * @param entriesOffset The offset of the first entry.
+         * @param size          The number of entries.
+         */
+        private ValueSet(@NonNull final String name,
+                         final int entriesOffset,
+                         final int size) {
+            this.name = name;
+            this.entriesOffset = entriesOffset;
+            this.size = size;
+        }
+
+        /**
+         * Returns whether a (code, code system) pair is in the value set.
+         *
+         * @param code       The code.
+         * @param codeSystem The code system.
+         * @return {@code true} if the pair is in the value set, {@code false} otherwise.
+         */
+        public boolean contains(@NonNull final UnicodeString code,
+                                @NonNull final UnicodeString codeSystem) {
+            final ByteBuffer buffer = ValueSetIndex.this.buffer;
+            final long hash = hash(code, codeSystem);
+
+            // Find the first entry with that hash
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (buffer.getLong(this.entriesOffset + middle * ENTRY_SIZE) < hash) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            // Compare the strings of all the entries with that hash
+            for (int i = low; i < this.size; ++i) {
+                final int entryOffset = this.entriesOffset + i * ENTRY_SIZE;
+                if (buffer.getLong(entryOffset) != hash) {
+                    return false;
+                }
+                final int codeSystemOffset = buffer.getInt(entryOffset + Long.BYTES);
+                if (stringEquals(buffer, codeSystemOffset, codeSystem)) {
+                    final int codeOffset =
+                        codeSystemOffset + Short.BYTES + buffer.getShort(codeSystemOffset) * Character.BYTES;
+                    if (stringEquals(buffer, codeOffset, code)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Compares a string of the index to a given string.
+         *
+         * @param buffer The content of the index.
+         * @param offset The offset of the string length, followed by its UTF-16 chars.
+         * @param string The given string.
+         * @return {@code true} if both strings are equal, {@code false} otherwise.
+         */
+        private static boolean stringEquals(@NonNull final ByteBuffer buffer,
+                                      final int offset,
+                                      @NonNull final UnicodeString string) {
+            final int end = offset + Short.BYTES + buffer.getShort(offset) * Character.BYTES;
+            int position = offset + Short.BYTES;
+            for (long i = 0; i < string.length(); ++i) {
+                final int codePoint = string.codePointAt(i);
+                if (Character.isBmpCodePoint(codePoint)) {
+                    if (position >= end || buffer.getChar(position) != codePoint) {
+                        return false;
+                    }
+                    position += Character.BYTES;
+                } else {
+                    if (position + Character.BYTES >= end
+                        || buffer.getChar(position) != Character.highSurrogate(codePoint)
+                        || buffer.getChar(position + Character.BYTES) != Character.lowSurrogate(codePoint)) {
+                        return false;
+                    }
+                    position += 2 * Character.BYTES;
+                }
+            }
+            return position == end;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package ch.qligier.emed.ocs.valueset;
+
+import ch.qligier.emed.ocs.Utils;
+import lombok.NonNull;
+import net.sf.saxon.str.StringView;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A compiler of value set files into a {@link ValueSetIndex} file.
+ * <p>
+ * The value set files are the ART-DECOR exports that are looked up by the stylesheets with
+ * {@code doc('include/voc-...')//valueSet[1][conceptList/concept[@code = $theCode][@codeSystem = $theCodeSystem]]}:
+ * the (code, code system) pairs of the concepts of the first value set of each file are indexed. The parsed value set
+ * files can be shared by multiple writers through a {@link Cache}, e.g. the identical value sets of multiple versions.
+ *
+ * @author Quentin Ligier
+ */
+public class ValueSetIndexWriter {
+
+    /**
+     * The value sets to index, by name. Each value set is the list of its distinct (code system, code) pairs.
+     */
+    private final SortedMap<String, Set<List<String>>> valueSets = new TreeMap<>();
+
+    /**
+     * The cache of the parsed value set files.
+     */
+    @NonNull
+    private final Cache cache;
+
+    /**
+     * Constructor, with its own cache.
+     */
+    public ValueSetIndexWriter() {
+        this(new Cache());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cache The cache of the parsed value set files, that can be shared by multiple writers.
+     */
+    public ValueSetIndexWriter(@NonNull final Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Adds a value set file to the index.
+     *
+     * @param name         The value set name, i.e. the reference used by the stylesheets.
+     * @param valueSetFile The value set file.
+     * @return this instance.
+     * @throws IOException        if the file cannot be read.
+     * @throws XMLStreamException if the file is not well-formed.
+     */
+    @NonNull
+    public ValueSetIndexWriter addValueSet(@NonNull final String name,
+                                           @NonNull final Path valueSetFile) throws IOException, XMLStreamException {
+        checkLength(name);
+        final String contentHash = Utils.contentHash(valueSetFile);
+        Set<List<String>> concepts = this.cache.valueSets.get(contentHash);
+        if (concepts != null) {
+            this.cache.hits.increment();
+        } else {
+            final Set<List<String>> readConcepts = new LinkedHashSet<>();
+            try (final InputStream inputStream = Files.newInputStream(valueSetFile)) {
+                final XMLStreamReader reader = Utils.newSafeXmlInputFactory().createXMLStreamReader(inputStream);
+                try {
+                    readFirstValueSet(reader, readConcepts);
+                } finally {
+                    reader.close();
+                }
+            }
+            concepts = Collections.unmodifiableSet(readConcepts);
+            this.cache.valueSets.put(contentHash, concepts);
+        }
+        this.valueSets.put(name, concepts);
+        return this;
+    }
+
+    /**
+     * Adds the value set files that are referenced by the stylesheets of a directory.
+     *
+     * @param baseDirectory The directory to which the references are relative.
+     * @param references    The references to the value set files, e.g. {@code include/voc-...xml}.
+     * @return this instance.
+     * @throws IOException        if a file cannot be read.
+     * @throws XMLStreamException if a file is not well-formed.
+     */
+    @NonNull
+    public ValueSetIndexWriter addValueSets(@NonNull final Path baseDirectory,
+                                            @NonNull final Collection<String> references)
+        throws IOException, XMLStreamException {
+        for (final String reference : references) {
+            this.addValueSet(reference, baseDirectory.resolve(reference));
+        }
+        return this;
+    }
+
+    /**
+     * Writes the index file.
+     *
+     * @param indexFile The index file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(@NonNull final Path indexFile) throws IOException {
+        // Sort the entries of each value set by hash, and compute the offsets of the entries and strings
+        final List<long[]> hashes = new ArrayList<>(this.valueSets.size());
+        final List<List<List<String>>> sortedConcepts = new ArrayList<>(this.valueSets.size());
+        int headerSize = 3 * Integer.BYTES;
+        int entryCount = 0;
+        for (final Map.Entry<String, Set<List<String>>> valueSet : this.valueSets.entrySet()) {
+            headerSize += Short.BYTES + valueSet.getKey().length() * Character.BYTES + 2 * Integer.BYTES;
+            final List<List<String>> concepts = new ArrayList<>(valueSet.getValue());
+            concepts.sort(Comparator.comparingLong(ValueSetIndexWriter::hash));
+            sortedConcepts.add(concepts);
+            hashes.add(concepts.stream().mapToLong(ValueSetIndexWriter::hash).toArray());
+            entryCount += concepts.size();
+        }
+
+        try (final DataOutputStream output =
+                 new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            output.writeInt(ValueSetIndex.MAGIC);
+            output.writeInt(ValueSetIndex.VERSION);
+            output.writeInt(this.valueSets.size());
+            int entriesOffset = headerSize;
+            int i = 0;
+            for (final String name : this.valueSets.keySet()) {
+                writeString(output, name);
+                output.writeInt(entriesOffset);
+                output.writeInt(sortedConcepts.get(i).size());
+                entriesOffset += sortedConcepts.get(i).size() * ValueSetIndex.ENTRY_SIZE;
+                ++i;
+            }
+
+            int stringsOffset = headerSize + entryCount * ValueSetIndex.ENTRY_SIZE;
+            for (i = 0; i < sortedConcepts.size(); ++i) {
+                final List<List<String>> concepts = sortedConcepts.get(i);
+                for (int j = 0; j < concepts.size(); ++j) {
+                    output.writeLong(hashes.get(i)[j]);
+                    output.writeInt(stringsOffset);
+                    stringsOffset += 2 * Short.BYTES
+                        + (concepts.get(j).get(0).length() + concepts.get(j).get(1).length()) * Character.BYTES;
+                }
+            }
+            for (final List<List<String>> concepts : sortedConcepts) {
+                for (final List<String> concept : concepts) {
+                    writeString(output, concept.get(0));
+                    writeString(output, concept.get(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the (code system, code) pairs of the concepts of the first value set of a value set file.
+     *
+     * @param reader   The stream reader of the value set file.
+     * @param concepts The set in which to add the pairs.
+     * @throws XMLStreamException if the file is not well-formed.
+     */
+    private static void readFirstValueSet(@NonNull final XMLStreamReader reader,
+                                          @NonNull final Set<List<String>> concepts) throws XMLStreamException {
+        // The depth relative to the value set element, or -1 before it
+        int depth = -1;
+        boolean inConceptList = false;
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final boolean noNamespace = reader.getNamespaceURI() == null || reader.getNamespaceURI().isEmpty();
+                if (depth < 0) {
+                    if (noNamespace && "valueSet".equals(reader.getLocalName())) {
+                        depth = 0;
+                    }
+                    continue;
+                }
+                ++depth;
+                if (depth == 1) {
+                    inConceptList = noNamespace && "conceptList".equals(reader.getLocalName());
+                } else if (depth == 2 && inConceptList && noNamespace && "concept".equals(reader.getLocalName())) {
+                    final String code = reader.getAttributeValue(null, "code");
+                    final String codeSystem = reader.getAttributeValue(null, "codeSystem");
+                    if (code != null && codeSystem != null) {
+                        checkLength(code);
+                        checkLength(codeSystem);
+                        concepts.add(List.of(codeSystem, code));
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && depth >= 0) {
+                if (depth == 0) {
+                    return;
+                }
+                --depth;
+            }
+        }
+    }
+
+    /**
+     * Hashes a (code system, code) pair.
+     *
+     * @param concept The pair.
+     * @return the hash of the pair.
+     */
+    private static long hash(@NonNull final List<String> concept) {
+        return ValueSetIndex.hash(StringView.of(concept.get(1)), StringView.of(concept.get(0)));
+    }
+
+    /**
+     * Writes a string: its length and its UTF-16 chars.
+     *
+     * @param output The output.
+     * @param string The string.
+     * @throws IOException if the string cannot be written.
+     */
+    private static void writeString(@NonNull final DataOutputStream output,
+                                    @NonNull final String string) throws IOException {
+        output.writeShort(string.length());
+        output.writeChars(string);
+    }
+
+    /**
+     * Checks that a string can be written in the index.
+     *
+     * @param string The string.
+     * @throws IllegalArgumentException if the string is too long.
+     */
+    private static void checkLength(@NonNull final String string) {
+        if (string.length() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The string is too long to be indexed: " + string.substring(0, 64));
+        }
+    }
+
+    /**
+     * A cache of the parsed value set files, by content hash. It's thread-safe.
+     */
+    public static final class Cache {
+
+        /**
+         * The (code system, code) pairs of the parsed value set files, by content hash.
+         */
+        private final ConcurrentMap<String, Set<List<String>>> valueSets = new ConcurrentHashMap<>();
+
+        /**
+         * The number of value set files that have been found in the cache.
+         */
+        private final LongAdder hits = new LongAdder();
+
+        /**
+         * Returns the number of value set files that have been found in the cache instead of being parsed.
+         *
+         * @return the number of cache hits.
+         */
+        public long getHits() {
+            return this.hits.sum();
+        }
+
+        /**
+         * Returns the number of distinct parsed value set files.
+         *
+         * @return the cache size.
+         */
+        public int size() {
+            return this.valueSets.size();
+        }
+    }
+}
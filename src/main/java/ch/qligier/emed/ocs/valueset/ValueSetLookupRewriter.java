@@ -0,0 +1,111 @@
+package ch.qligier.emed.ocs.valueset;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The rewriter of the value set lookups of a Schematron definition: the ART-DECOR lookups
+ * {@code exists(doc('include/voc-...')//valueSet[1][conceptList/concept[@code = $c][@codeSystem = $cs]])} are replaced
+ * by calls of the {@link ValueSetFunction}, that are answered by the {@link ValueSetIndex} instead of loading the value
+ * set file. The other lookups are kept.
+ *
+ * @author Quentin Ligier
+ */
+public class ValueSetLookupRewriter {
+
+    /**
+     * The name of the rewrite in the expression table.
+     */
+    private static final String REWRITE_NAME = "value-set-index";
+
+    /**
+     * The pattern of the value set lookups: the value set reference and the code and code system variables.
+     */
+    private static final Pattern LOOKUP = Pattern.compile(
+        "exists\\(\\s*doc\\('(include/[^']+)'\\)//valueSet\\[1]"
+            + "\\[conceptList/concept\\[@code\\s*=\\s*(\\$[\\w.-]+)]\\[@codeSystem\\s*=\\s*(\\$[\\w.-]+)]]\\s*\\)");
+
+    private ValueSetLookupRewriter() {}
+
+    /**
+     * Rewrites the value set lookups of the assert and report tests and of the variables of a definition, and declares
+     * the namespace of the extension function if any lookup has been rewritten.
+     *
+     * @param definition The Schematron definition. Mutated.
+     * @return the number of rewritten expressions.
+     */
+    public static int rewrite(@NonNull final SchematronDefinition definition) {
+        final UnaryOperator<String> rewrite = definition.getExpressionTable().memoize(REWRITE_NAME,
+            ValueSetLookupRewriter::rewrite);
+        int rewritten = 0;
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            for (final SchematronRuleChild child : rule.getChildren()) {
+                if (child instanceof final SchematronAssert schematronAssert) {
+                    final String test = rewriteIfNeeded(rewrite, schematronAssert.getTest());
+                    if (test != null) {
+                        schematronAssert.setTest(test);
+                        ++rewritten;
+                    }
+                } else if (child instanceof final SchematronReport schematronReport) {
+                    final String test = rewriteIfNeeded(rewrite, schematronReport.getTest());
+                    if (test != null) {
+                        schematronReport.setTest(test);
+                        ++rewritten;
+                    }
+                } else if (child instanceof final SchematronLet schematronLet) {
+                    final String value = rewriteIfNeeded(rewrite, schematronLet.getValue());
+                    if (value != null) {
+                        schematronLet.setValue(value);
+                        ++rewritten;
+                    }
+                }
+            }
+        }
+        if (rewritten > 0) {
+            definition.getNamespaces().put(ValueSetFunction.PREFIX, ValueSetFunction.NAMESPACE);
+        }
+        return rewritten;
+    }
+
+    /**
+     * Rewrites the value set lookups of an XPath expression.
+     *
+     * @param expression The XPath expression.
+     * @return the rewritten expression, or the expression itself if it has no lookup.
+     */
+    @NonNull
+    public static String rewrite(@NonNull final String expression) {
+        if (!expression.contains("//valueSet[1]")) {
+            return expression;
+        }
+        final Matcher matcher = LOOKUP.matcher(expression);
+        if (!matcher.find()) {
+            return expression;
+        }
+        return matcher.replaceAll(match -> Matcher.quoteReplacement(ValueSetFunction.PREFIX + ":"
+            + ValueSetFunction.LOCAL_NAME + "('" + match.group(1) + "', " + match.group(2) + ", " + match.group(3)
+            + ")"));
+    }
+
+    /**
+     * Applies a rewrite to an expression.
+     *
+     * @param rewrite    The rewrite.
+     * @param expression The expression, or {@code null}.
+     * @return the rewritten expression, or {@code null} if the expression is unchanged.
+     */
+    @Nullable
+    private static String rewriteIfNeeded(@NonNull final UnaryOperator<String> rewrite,
+                                          @Nullable final String expression) {
+        if (expression == null) {
+            return null;
+        }
+        final String rewrittenExpression = rewrite.apply(expression);
+        return rewrittenExpression.equals(expression) ? null : rewrittenExpression;
+    }
+}
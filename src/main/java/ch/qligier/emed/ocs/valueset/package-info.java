@@ -0,0 +1,8 @@
+/**
+ * The value set index: the value set files that are referenced by the stylesheets are compiled into a single binary
+ * index, that is memory-mapped by the validators and queried by the stylesheets through an extension function instead
+ * of loading the value set files.
+ *
+ * @author Quentin Ligier
+ */
+package ch.qligier.emed.ocs.valueset;
@@ -0,0 +1,63 @@
+package ch.qligier.emed.ocs;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ContentDeduplicator}.
+ *
+ * @author Quentin Ligier
+ */
+class ContentDeduplicatorTest {
+
+    /**
+     * Ensures that the identical files of two versions are stored once, and that the other files are copied.
+     */
+    @Test
+    @DisplayName("Identical files are linked")
+    void testCopy(@TempDir final Path directory) throws Exception {
+        final Path first = Files.writeString(directory.resolve("first.xml"), "<valueSet/>");
+        final Path second = Files.writeString(directory.resolve("second.xml"), "<valueSet/>");
+        final Path other = Files.writeString(directory.resolve("other.xml"), "<other/>");
+        final Path v1 = Files.createDirectories(directory.resolve("v1"));
+        final Path v2 = Files.createDirectories(directory.resolve("v2"));
+        final ContentDeduplicator deduplicator = new ContentDeduplicator();
+
+        deduplicator.copy(first, v1.resolve("voc.xml"));
+        deduplicator.copy(second, v2.resolve("voc.xml"));
+        deduplicator.copy(other, v2.resolve("other.xml"));
+        deduplicator.copy(first, v1.resolve("voc.xml"));
+
+        assertEquals("<valueSet/>", Files.readString(v1.resolve("voc.xml")));
+        assertEquals("<valueSet/>", Files.readString(v2.resolve("voc.xml")));
+        assertEquals("<other/>", Files.readString(v2.resolve("other.xml")));
+        assertEquals(1, deduplicator.getLinks());
+        assertEquals(11, deduplicator.getSavedBytes());
+        assertTrue(Files.isSameFile(v1.resolve("voc.xml"), v2.resolve("voc.xml")));
+    }
+
+    /**
+     * Ensures that a version can be deleted and converted again, without losing the files linked by another version.
+     */
+    @Test
+    @DisplayName("Deleting a version keeps the linked files")
+    void testDeleteVersion(@TempDir final Path directory) throws Exception {
+        final Path source = Files.writeString(directory.resolve("voc.xml"), "<valueSet/>");
+        final Path v1 = Files.createDirectories(directory.resolve("v1/include"));
+        final Path v2 = Files.createDirectories(directory.resolve("v2/include"));
+        final ContentDeduplicator deduplicator = new ContentDeduplicator();
+        deduplicator.copy(source, v1.resolve("voc.xml"));
+        deduplicator.copy(source, v2.resolve("voc.xml"));
+        Files.writeString(directory.resolve("v1/report.json"), "{}");
+
+        Utils.deleteRecursively(directory.resolve("v1"));
+        assertFalse(Files.exists(directory.resolve("v1")));
+        assertEquals("<valueSet/>", Files.readString(v2.resolve("voc.xml")));
+    }
+}
@@ -0,0 +1,110 @@
+package ch.qligier.emed.ocs.batch;
+
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link BatchValidator}.
+ *
+ * @author Quentin Ligier
+ */
+class BatchValidatorTest {
+
+    private final DocumentTypeDetector detector = new DocumentTypeDetector(Map.of("2.16.756.5.30.1.1.10.1.3", "TEST"));
+
+    /**
+     * Ensures that the document types are detected from the head of the documents.
+     */
+    @Test
+    @DisplayName("Document type detection")
+    void testDetection() throws Exception {
+        assertEquals("TEST", this.detect("""
+            <ClinicalDocument xmlns="urn:hl7-org:v3"><realmCode code="CH"/><typeId root="2.16.840.1.113883.1.3"/>
+            <templateId root="2.16.756.5.30.1.1.10.1.1"/><templateId root="2.16.756.5.30.1.1.10.1.3"/>
+            </ClinicalDocument>"""));
+        assertNull(this.detect("""
+            <ClinicalDocument xmlns="urn:hl7-org:v3"><id root="1"/><templateId root="2.16.756.5.30.1.1.10.1.3"/>
+            </ClinicalDocument>"""));
+        assertNull(this.detect("<ClinicalDocument><templateId root=\"2.16.756.5.30.1.1.10.1.3\"/></ClinicalDocument>"));
+        assertTrue(DocumentTypeDetector.loadDefault().getTypes().containsAll(List.of("MTP", "PRE", "DIS", "PADV")));
+    }
+
+    /**
+     * Ensures that the files and archive entries of a corpus are validated.
+     */
+    @Test
+    @DisplayName("Corpus validation")
+    void testCorpus(@TempDir final Path corpus) throws Exception {
+        Files.createDirectories(corpus.resolve("sub"));
+        Files.copy(document("valid.xml"), corpus.resolve("valid.xml"));
+        Files.copy(document("invalid.xml"), corpus.resolve("sub/invalid.xml"));
+        Files.writeString(corpus.resolve("broken.xml"), "<ClinicalDocument xmlns=\"urn:hl7-org:v3\">");
+        Files.writeString(corpus.resolve("notes.txt"), "ignored");
+        try (final OutputStream output = Files.newOutputStream(corpus.resolve("archive.zip"));
+             final ZipOutputStream zip = new ZipOutputStream(output)) {
+            for (final String name : List.of("valid.xml", "untyped.xml")) {
+                zip.putNextEntry(new ZipEntry("documents/" + name));
+                Files.copy(document(name), zip);
+                zip.closeEntry();
+            }
+        }
+
+        final CdaChEmedValidator validator =
+            CdaChEmedValidator.fromFile(new Processor(false), buildCdaChEmedXslt("error", false));
+        final BatchValidator batchValidator = new BatchValidator(Map.of("TEST", validator::validate), this.detector, 3);
+        final StringWriter results = new StringWriter();
+        final BatchSummary summary = batchValidator.validate(corpus, results);
+
+        assertEquals(5, summary.getDocuments());
+        assertEquals(2, summary.getValid());
+        assertEquals(1, summary.getInvalid());
+        assertEquals(1, summary.getUnknown());
+        assertEquals(1, summary.getFailed());
+        assertTrue(summary.getP99Nanos() >= summary.getP50Nanos());
+        assertTrue(summary.getPeakHeapBytes() > 0);
+
+        final List<String> lines = results.toString().lines().toList();
+        assertEquals(BatchValidator.RESULT_HEADER, lines.get(0));
+        assertEquals(6, lines.size());
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("archive.zip!/documents/valid.xml\tTEST\tvalid\t")));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("archive.zip!/documents/untyped.xml\t-\tunknown")));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("sub/invalid.xml\tTEST\tinvalid\t4\t4\t")));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("broken.xml\t-\tfailed\t")));
+    }
+
+    /**
+     * Ensures that the latency percentiles use the nearest rank.
+     */
+    @Test
+    @DisplayName("Latency percentiles")
+    void testPercentile() {
+        assertEquals(0, BatchSummary.percentile(new long[0], 50));
+        assertEquals(5, BatchSummary.percentile(new long[]{9, 1, 5, 3, 7, 2, 8, 4, 6, 10}, 50));
+        assertEquals(10, BatchSummary.percentile(new long[]{9, 1, 5, 3, 7, 2, 8, 4, 6, 10}, 99));
+    }
+
+    private String detect(final String document) throws Exception {
+        return this.detector.detect(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Path document(final String documentName) {
+        return loadResource(CDACHEMED_DIR + "documents/" + documentName).toPath();
+    }
+}
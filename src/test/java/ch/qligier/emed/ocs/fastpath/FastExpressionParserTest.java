@@ -0,0 +1,80 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.streams.Steps;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link FastExpressionParser}.
+ *
+ * @author Quentin Ligier
+ */
+class FastExpressionParserTest {
+
+    private static final Map<String, String> NAMESPACES = Map.of("hl7", "urn:hl7-org:v3");
+
+    @Test
+    @DisplayName("Classification of the tests")
+    void testSupportedTests() {
+        assertTrue(FastExpressionParser.parseTest("count(hl7:templateId[@root='1.2.3']) = 1", NAMESPACES).isPresent());
+        assertTrue(FastExpressionParser.parseTest("@root or @nullFlavor", NAMESPACES).isPresent());
+        assertTrue(FastExpressionParser.parseTest("not(@nullFlavor) and (hl7:code/@code != 'x')", NAMESPACES)
+            .isPresent());
+        assertTrue(FastExpressionParser.parseTest("string-length(@extension) > 0", NAMESPACES).isPresent());
+
+        assertFalse(FastExpressionParser.parseTest("hl7:entry[1]", NAMESPACES).isPresent());
+        assertFalse(FastExpressionParser.parseTest("@code = $theCode", NAMESPACES).isPresent());
+        assertFalse(FastExpressionParser.parseTest("exists(doc('voc.xml')//valueSet)", NAMESPACES).isPresent());
+        assertFalse(FastExpressionParser.parseTest("descendant-or-self::hl7:id", NAMESPACES).isPresent());
+        assertFalse(FastExpressionParser.parseTest("cda:id", NAMESPACES).isPresent());
+        assertFalse(FastExpressionParser.parseTest("hl7:id//hl7:item", NAMESPACES).isPresent());
+
+        assertTrue(FastExpressionParser.parseContext("/", NAMESPACES).isPresent());
+        assertTrue(FastExpressionParser.parseContext("//*[hl7:templateId[@root='1.2.3']]/hl7:id", NAMESPACES)
+            .isPresent());
+        assertFalse(FastExpressionParser.parseContext("hl7:id/@root", NAMESPACES).isPresent());
+        assertFalse(FastExpressionParser.parseContext("hl7:id | hl7:code", NAMESPACES).isPresent());
+    }
+
+    @Test
+    @DisplayName("Evaluation of the tests and contexts")
+    void testEvaluation() throws Exception {
+        final XdmNode document = new Processor(false).newDocumentBuilder().build(new StreamSource(new StringReader("""
+            <ClinicalDocument xmlns="urn:hl7-org:v3">
+                <templateId root="1.2.3"/>
+                <id root="4.5.6" extension=""/>
+                <section><code code="a"/><code code="b"/></section>
+            </ClinicalDocument>""")));
+        final XdmNode root = document.children().iterator().next();
+        final XdmNode id = root.select(Steps.child("urn:hl7-org:v3", "id")).asNode();
+
+        assertTrue(evaluate("count(hl7:templateId[@root='1.2.3']) = 1", root));
+        assertFalse(evaluate("count(hl7:templateId[@root='1.2.4']) >= 1", root));
+        assertTrue(evaluate("count(hl7:section/hl7:code) = 2", root));
+        assertTrue(evaluate("hl7:section/hl7:code/@code = 'b'", root));
+        assertFalse(evaluate("hl7:title", root));
+        assertTrue(evaluate("@root or @nullFlavor", id));
+        assertFalse(evaluate("not(@extension) or string-length(@extension) > 0", id));
+
+        final FastContext context = FastExpressionParser.parseContext("//*[hl7:templateId[@root='1.2.3']]/hl7:id",
+            NAMESPACES).orElseThrow();
+        assertTrue(context.matches(id));
+        assertFalse(context.matches(root));
+        assertFalse(FastExpressionParser.parseContext("/hl7:id", NAMESPACES).orElseThrow().matches(id));
+        assertTrue(FastExpressionParser.parseContext("/", NAMESPACES).orElseThrow().matches(document));
+        assertEquals("/*:ClinicalDocument[namespace-uri()='urn:hl7-org:v3'][1]"
+            + "/*:id[namespace-uri()='urn:hl7-org:v3'][1]", FastPathProgram.getLocation(id));
+    }
+
+    private boolean evaluate(final String test, final XdmNode context) {
+        return FastExpressionParser.parseTest(test, NAMESPACES).orElseThrow().evaluate(context);
+    }
+}
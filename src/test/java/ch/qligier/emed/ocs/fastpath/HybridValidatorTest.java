@@ -0,0 +1,81 @@
+package ch.qligier.emed.ocs.fastpath;
+
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.SvrlFinding;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link HybridValidator}.
+ *
+ * @author Quentin Ligier
+ */
+class HybridValidatorTest {
+
+    private final Processor processor = new Processor(false);
+
+    @Test
+    @DisplayName("Fast path program of the test definition")
+    void testFastPathProgram() throws Exception {
+        final File xsltFile = buildCdaChEmedXslt(
+            new OutputProfile("all-hybrid", Set.of(), Set.of(), Set.of(), Set.of(), false, true, false, false));
+        final FastPathProgram program = HybridValidator.fromFile(this.processor, xsltFile).getProgram();
+
+        // The document template ID, value set and string-length asserts are left to the XSLT
+        assertEquals(List.of("template-2.16.756.5.30.1.1.10.1.3-2022-02-01",
+                "template-2.16.756.5.30.1.1.10.3.1-2022-02-01"),
+            program.getPatterns().stream().map(FastPattern::getId).toList());
+        assertEquals(4, program.getPatterns().get(0).getRules().get(0).getAsserts().size());
+        final List<FastRule> rules = program.getPatterns().get(1).getRules();
+        assertEquals(3, rules.size());
+        assertEquals("@root or @nullFlavor", rules.get(0).getAsserts().get(0).getTest());
+        assertTrue(rules.get(1).getAsserts().isEmpty());
+        assertEquals(3, rules.get(2).getAsserts().size());
+        assertEquals(8, program.countAsserts());
+    }
+
+    @Test
+    @DisplayName("Hybrid validation is equivalent to the XSLT validation, in the same order")
+    void testEquivalence() throws Exception {
+        for (final String role : new String[]{null, "error"}) {
+            final CdaChEmedValidator xsltValidator =
+                CdaChEmedValidator.fromFile(this.processor, buildCdaChEmedXslt(role, false));
+            final OutputProfile hybridProfile = OutputProfile.forRole(role, false);
+            hybridProfile.setFastPath(true);
+            final HybridValidator hybridValidator =
+                HybridValidator.fromFile(this.processor, buildCdaChEmedXslt(hybridProfile));
+
+            for (final String document : List.of("valid.xml", "invalid.xml", "untyped.xml")) {
+                final List<SvrlFinding> expected =
+                    withoutGeneratedIds(xsltValidator.validate(source(document)).getFindings());
+                final List<SvrlFinding> actual =
+                    withoutGeneratedIds(hybridValidator.validate(source(document)).getFindings());
+                assertEquals(expected, actual, document);
+            }
+        }
+    }
+
+    /**
+     * Removes the rule IDs that are generated by the parser, they differ between two parsings.
+     */
+    private List<SvrlFinding> withoutGeneratedIds(final List<SvrlFinding> findings) {
+        findings.stream()
+            .filter(finding -> finding.getRuleId() != null && finding.getRuleId().startsWith("id_"))
+            .forEach(finding -> finding.setRuleId(null));
+        return findings;
+    }
+
+    private StreamSource source(final String documentName) {
+        return new StreamSource(loadResource(CDACHEMED_DIR + "documents/" + documentName));
+    }
+}
@@ -0,0 +1,95 @@
+package ch.qligier.emed.ocs.generator;
+
+import ch.qligier.emed.ocs.batch.DocumentTypeDetector;
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.ValidationReport;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.buildXslt;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link DocumentGenerator}.
+ *
+ * @author Quentin Ligier
+ */
+class DocumentGeneratorTest {
+
+    /**
+     * Ensures that the generated documents have the requested type, entries, attachment and errors.
+     */
+    @Test
+    @DisplayName("Document generation")
+    void testGeneration() throws Exception {
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        final DocumentGenerator generator = new DocumentGenerator(detector, 42);
+        for (final String type : detector.getTypes()) {
+            final byte[] document = generator.generate(type, 3, 0, 0);
+            assertEquals(type, detector.detect(new ByteArrayInputStream(document)));
+        }
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(26, generator.generate("PRE", 100, 10_000, 0.25, outputStream));
+        final String content = outputStream.toString(StandardCharsets.UTF_8);
+        assertEquals(101, count(content, "<entry>"));
+        assertEquals(25, count(content, "<id extension=") + count(content, "extension=\"\""));
+        final Matcher attachment = Pattern.compile("representation=\"B64\">([^<]*)<").matcher(content);
+        assertTrue(attachment.find());
+        assertEquals(10_000, Base64.getDecoder().decode(attachment.group(1)).length);
+
+        // The same seed generates the same documents
+        assertArrayEquals(outputStream.toByteArray(), generator.generate("PRE", 100, 10_000, 0.25));
+        assertThrows(IllegalArgumentException.class, () -> generator.generate("PRE", 0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> generator.generate("PRE", 1, 0, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> generator.generate("XYZ", 1, 0, 0));
+    }
+
+    /**
+     * Ensures that each injected error fails an assert of the test definition of the generated documents, for all
+     * document types, and that the valid documents are valid.
+     */
+    @Test
+    @DisplayName("Generated document validation")
+    void testValidation() throws Exception {
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        final DocumentGenerator generator = new DocumentGenerator(detector, 42);
+        final CdaChEmedValidator validator = CdaChEmedValidator.fromFile(new Processor(false),
+            buildXslt("schematron/generator/generated-TEST.sch", OutputProfile.forRole(null, false)));
+
+        for (final String type : detector.getTypes()) {
+            for (final int entries : new int[]{1, 7, 40}) {
+                for (final double errorDensity : new double[]{0, 0.1, 0.5, 1}) {
+                    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                    final int errors = generator.generate(type, entries, 1024, errorDensity, outputStream);
+                    final ValidationReport report = validator.validate(source(outputStream.toByteArray()));
+                    final String document = type + " with " + entries + " entries and density " + errorDensity;
+                    assertEquals(errors, report.getFailedAsserts().size(), document);
+                    assertEquals(errorDensity > 0, errors > 0, document);
+                }
+            }
+        }
+    }
+
+    private static StreamSource source(final byte[] document) {
+        return new StreamSource(new ByteArrayInputStream(document));
+    }
+
+    private static int count(final String content, final String value) {
+        int count = 0;
+        for (int index = content.indexOf(value); index >= 0; index = content.indexOf(value, index + 1)) {
+            ++count;
+        }
+        return count;
+    }
+}
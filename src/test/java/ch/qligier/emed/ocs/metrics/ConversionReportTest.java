@@ -0,0 +1,79 @@
+package ch.qligier.emed.ocs.metrics;
+
+import ch.qligier.emed.ocs.schematron.CdaChEmedSchematronOptimizer;
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.CDACHEMED_DIR;
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ConversionReport}, {@link StageRecorder} and {@link DefinitionStatistics}.
+ *
+ * @author Quentin Ligier
+ */
+class ConversionReportTest {
+
+    @Test
+    @DisplayName("Recording of the conversion stages")
+    void testConversionStages() throws Exception {
+        final ConversionReport report = new ConversionReport();
+        final DocumentMetrics document = report.addDocument("cdachemed-TEST");
+        final SchematronDefinition definition = CdaChEmedSchematronOptimizer.parseDefinition(
+            loadResource(CDACHEMED_DIR + "cdachemed-TEST.sch"), document.getStages());
+        assertEquals(List.of("parse"), stageNames(document.getStages()));
+
+        final VariantMetrics variant = document.addVariant("error-hybrid");
+        variant.setBefore(DefinitionStatistics.of(definition));
+        final File optimizedFile = File.createTempFile("cdachemed_", "_sch");
+        optimizedFile.deleteOnExit();
+        CdaChEmedSchematronOptimizer.optimizeDefinition(definition, optimizedFile, List.of(),
+            OutputProfile.loadDefaultProfiles().get(3), variant.getStages());
+        variant.setAfter(DefinitionStatistics.of(definition));
+        assertEquals(List.of("rewrite", "fastPathExtraction", "writeSchematron"),
+            stageNames(variant.getStages()));
+        assertTrue(variant.getStages().getTotalNanos() > 0);
+
+        final DefinitionStatistics before = variant.getBefore();
+        final DefinitionStatistics after = variant.getAfter();
+        assertNotNull(before);
+        assertNotNull(after);
+        assertEquals(before.getRules(), after.getRules());
+        assertTrue(after.getAsserts() < before.getAsserts());
+        assertTrue(after.getXpathLength() < before.getXpathLength());
+
+        final String json = report.toJson();
+        assertTrue(json.startsWith("{\n"));
+        assertTrue(json.contains("\"name\": \"cdachemed-TEST\""));
+        assertTrue(json.contains("\"profile\": \"error-hybrid\""));
+        assertTrue(json.contains("{\"name\": \"parse\", \"nanos\": "));
+        assertTrue(json.contains("\"after\": {\"patterns\": " + after.getPatterns() + ", \"rules\": "));
+        assertEquals(json.chars().filter(c -> c == '{').count(), json.chars().filter(c -> c == '}').count());
+        assertEquals(json.chars().filter(c -> c == '[').count(), json.chars().filter(c -> c == ']').count());
+    }
+
+    @Test
+    @DisplayName("Counting of the descendant axis steps")
+    void testCountDescendantAxes() {
+        assertEquals(0, DefinitionStatistics.countDescendantAxes("hl7:entry/hl7:act"));
+        assertEquals(2, DefinitionStatistics.countDescendantAxes("//hl7:entry[.//hl7:act]"));
+        assertEquals(1, DefinitionStatistics.countDescendantAxes("//*[@value='http://x']"));
+        assertEquals(1, DefinitionStatistics.countDescendantAxes("//*[@value=\"a'//\"]"));
+    }
+
+    @Test
+    @DisplayName("Escaping of the JSON strings")
+    void testQuote() {
+        assertEquals("\"a\\\"b\\\\c\\n\\u0001\"", ConversionReport.quote("a\"b\\c\n\u0001"));
+    }
+
+    private static List<String> stageNames(final StageRecorder recorder) {
+        return recorder.getStages().stream().map(StageMetrics::getName).toList();
+    }
+}
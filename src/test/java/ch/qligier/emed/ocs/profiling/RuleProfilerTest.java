@@ -0,0 +1,69 @@
+package ch.qligier.emed.ocs.profiling;
+
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link RuleProfiler} and {@link RuleProfile}.
+ *
+ * @author Quentin Ligier
+ */
+class RuleProfilerTest {
+
+    @Test
+    @DisplayName("Profiling of the test corpus")
+    void testProfiling() throws Exception {
+        final File xsltFile = buildCdaChEmedXslt(
+            new OutputProfile("all-profiling", Set.of(), Set.of(), Set.of(), Set.of(), false, false, true, false));
+        final Processor processor = new Processor(false);
+        final RuleProfiler profiler = new RuleProfiler(processor, xsltFile);
+        for (final String document : List.of("valid.xml", "invalid.xml", "untyped.xml")) {
+            final StreamSource source = new StreamSource(loadResource(CDACHEMED_DIR + "documents/" + document));
+            profiler.profile(source);
+        }
+
+        final RuleProfile profile = profiler.getProfile();
+        assertEquals(3, profile.getDocuments());
+        final RuleStatistics rule = profile.getRule("d1e10-false-d20e0");
+        assertNotNull(rule);
+        assertEquals(2, rule.getFires());
+        assertEquals(4, rule.getAsserts().size());
+        assertEquals(2, rule.getAsserts().get(0).getEvaluations());
+        assertEquals(1, rule.getAssert("hl7:title").getFailures());
+        assertTrue(rule.getNanos() > 0);
+        assertFalse(profile.getTopCostRules(1).isEmpty());
+
+        // The profiling variant produces the same SVRL as the regular XSLT
+        final StreamSource invalid = new StreamSource(loadResource(CDACHEMED_DIR + "documents/invalid.xml"));
+        assertEquals(CdaChEmedValidator.fromFile(processor, buildCdaChEmedXslt(null, false))
+                .validate(invalid).getFindings().size(),
+            profiler.profile(new StreamSource(loadResource(CDACHEMED_DIR + "documents/invalid.xml"))).getFindings()
+                .size());
+
+        final File profileFile = File.createTempFile("profile_", ".tsv");
+        profileFile.deleteOnExit();
+        profile.write(profileFile);
+        final RuleProfile readProfile = RuleProfile.read(profileFile);
+        assertEquals(profile.getDocuments(), readProfile.getDocuments());
+        assertEquals(profile.getRules(), readProfile.getRules());
+    }
+
+    @Test
+    @DisplayName("Escaping of the profile values")
+    void testEscaping() {
+        final String test = "a\tb\\n\nc";
+        assertFalse(RuleProfile.escape(test).contains("\t"));
+        assertEquals(test, RuleProfile.unescape(RuleProfile.escape(test)));
+    }
+}
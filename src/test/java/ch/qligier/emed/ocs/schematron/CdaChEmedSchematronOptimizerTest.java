@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * The test bed for {@link CdaChEmedSchematronOptimizer}.
@@ -60,4 +61,16 @@ public class CdaChEmedSchematronOptimizerTest {
         );
     }
 
+    /**
+     * Ensures that descendant axis steps and document lookups make an expression more expensive.
+     */
+    @Test
+    @DisplayName("Expression cost estimation")
+    void testExpressionCostEstimation() {
+        assertEquals(6, CdaChEmedSchematronOptimizer.estimateExpressionCost("hl7:id"));
+        assertTrue(CdaChEmedSchematronOptimizer.estimateExpressionCost("//hl7:id")
+            > CdaChEmedSchematronOptimizer.estimateExpressionCost("hl7:id/hl7:id"));
+        assertTrue(CdaChEmedSchematronOptimizer.estimateExpressionCost("doc('include/voc.xml')//valueSet")
+            > CdaChEmedSchematronOptimizer.estimateExpressionCost("//hl7:id//hl7:id//hl7:id"));
+    }
 }
@@ -0,0 +1,127 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.SchematronAssert;
+import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link IncludeCache}.
+ *
+ * @author Quentin Ligier
+ */
+class IncludeCacheTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String NAMESPACE = "xmlns=\"http://purl.oclc.org/dsdl/schematron\"";
+
+    /**
+     * Ensures that the included files are parsed once by the parsers that share a cache, and that the parsed rules
+     * are not shared by the definitions.
+     */
+    @Test
+    @DisplayName("Included files are parsed once")
+    void testIncludesParsedOnce() throws Exception {
+        final File definitionFile = loadResource("schematron/parsing_tests/simple/main.sch");
+        final IncludeCache cache = new IncludeCache();
+
+        final SchematronDefinition first = new StreamingSchematronParser(cache).parse(definitionFile);
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+        final SchematronDefinition second = new StreamingSchematronParser(cache).parse(definitionFile);
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.size());
+
+        assertEquals(new SchematronParser().parse(definitionFile), second);
+        assertEquals(first, second);
+        ((SchematronAssert) first.getDefinedRules().get("rule1").getChildren().get(0)).setRole("warning");
+        assertEquals("error",
+            ((SchematronAssert) second.getDefinedRules().get("rule1").getChildren().get(0)).getRole());
+    }
+
+    /**
+     * Ensures that a modified included file is parsed again.
+     */
+    @Test
+    @DisplayName("Modified included files are parsed again")
+    void testModifiedInclude(@TempDir final Path directory) throws Exception {
+        final Path definitionPath = directory.resolve("main.sch");
+        final Path includePath = directory.resolve("include.sch");
+        Files.writeString(definitionPath, HEADER + "<schema " + NAMESPACE + "><pattern id=\"p\">"
+            + "<include href=\"include.sch\"/></pattern></schema>");
+        Files.writeString(includePath, HEADER + "<rule " + NAMESPACE + " id=\"r\" context=\"/\">"
+            + "<assert test=\"a\"/></rule>");
+        final IncludeCache cache = new IncludeCache();
+
+        final SchematronDefinition before = new StreamingSchematronParser(cache).parse(definitionPath.toFile());
+        assertEquals("a", ((SchematronAssert) before.getDefinedRules().get("r").getChildren().get(0)).getTest());
+
+        Files.writeString(includePath, HEADER + "<rule " + NAMESPACE + " id=\"r\" context=\"/\">"
+            + "<assert test=\"b and c\"/></rule>");
+        Files.setLastModifiedTime(includePath, FileTime.from(Instant.now().plusSeconds(10)));
+        final SchematronDefinition after = new StreamingSchematronParser(cache).parse(definitionPath.toFile());
+        assertEquals("b and c", ((SchematronAssert) after.getDefinedRules().get("r").getChildren().get(0)).getTest());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /**
+     * Ensures that a file included twice gets new generated IDs, like the files that are not cached.
+     */
+    @Test
+    @DisplayName("Generated IDs are not shared")
+    void testGeneratedIds(@TempDir final Path directory) throws Exception {
+        final Path definitionPath = directory.resolve("main.sch");
+        Files.writeString(definitionPath, HEADER + "<schema " + NAMESPACE + "><pattern id=\"p\">"
+            + "<include href=\"include.sch\"/><include href=\"include.sch\"/></pattern></schema>");
+        Files.writeString(directory.resolve("include.sch"), HEADER + "<rule " + NAMESPACE + " context=\"/\">"
+            + "<assert test=\"a\"/></rule>");
+        final IncludeCache cache = new IncludeCache();
+
+        final SchematronDefinition definition = new StreamingSchematronParser(cache).parse(definitionPath.toFile());
+        final List<String> ruleIds = definition.getRulesPerPattern().get("p");
+        assertEquals(2, ruleIds.size());
+        assertNotEquals(ruleIds.get(0), ruleIds.get(1));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Ensures that the identical files of two directories are parsed once, and that their nested includes are still
+     * resolved in their own directory.
+     */
+    @Test
+    @DisplayName("Identical files are parsed once")
+    void testIdenticalContent(@TempDir final Path directory) throws Exception {
+        final IncludeCache cache = new IncludeCache();
+        final List<String> tests = new ArrayList<>();
+        for (final String version : List.of("v1", "v2")) {
+            final Path versionDir = Files.createDirectories(directory.resolve(version));
+            Files.writeString(versionDir.resolve("main.sch"), HEADER + "<schema " + NAMESPACE + ">"
+                + "<include href=\"pattern.sch\"/></schema>");
+            Files.writeString(versionDir.resolve("pattern.sch"), HEADER + "<pattern " + NAMESPACE + " id=\"p\">"
+                + "<include href=\"rule.sch\"/></pattern>");
+            Files.writeString(versionDir.resolve("rule.sch"), HEADER + "<rule " + NAMESPACE + " id=\"r\" context=\"/\">"
+                + "<assert test=\"" + version + "\"/></rule>");
+            final SchematronDefinition definition =
+                new StreamingSchematronParser(cache).parse(versionDir.resolve("main.sch").toFile());
+            tests.add(((SchematronAssert) definition.getDefinedRules().get("r").getChildren().get(0)).getTest());
+        }
+        assertEquals(List.of("v1", "v2"), tests);
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getContentHits());
+        assertEquals(4, cache.size());
+    }
+}
@@ -0,0 +1,76 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link IncludeManifest}.
+ *
+ * @author Quentin Ligier
+ */
+class IncludeManifestTest {
+
+    /**
+     * Ensures that the references are collected from the written rules only, with their extends resolved.
+     */
+    @Test
+    @DisplayName("Reference collection")
+    void testCollect() {
+        final SchematronDefinition definition = new SchematronDefinition();
+        definition.getDefinedRules().put("abstract", new SchematronRule("pattern", "abstract", null,
+            new ArrayList<>(List.of(
+                new SchematronAssert("error", "@code = doc('include/voc-1.xml')//@code", null, null),
+                new SchematronLet("vs", "document(\"include/voc-2.xml\")")
+            )), true));
+        definition.getDefinedRules().put("unused", new SchematronRule("pattern", "unused", null,
+            new ArrayList<>(List.of(
+                new SchematronAssert("error", "doc('include/voc-3.xml')", null, null)
+            )), true));
+        definition.getDefinedRules().put("rule", new SchematronRule("pattern", "rule", "//a",
+            new ArrayList<>(List.of(
+                new SchematronExtends("abstract"),
+                new SchematronReport("error", "doc('include/voc-1.xml') and doc('include/voc-4.xml')", null, null),
+                new SchematronAssert("error", "'include/voc-5.xml'", null, null)
+            )), false));
+
+        final IncludeManifest manifest = IncludeManifest.of(definition);
+        assertEquals(List.of("include/voc-1.xml", "include/voc-2.xml", "include/voc-4.xml"),
+            List.copyOf(manifest.getIncludes()));
+    }
+
+    /**
+     * Ensures that a manifest is written and read back, and that only the referenced files are copied.
+     */
+    @Test
+    @DisplayName("Manifest files and copy")
+    void testWriteAndCopy(@TempDir final Path directory) throws Exception {
+        final Path sourceDir = directory.resolve("source");
+        Files.createDirectories(sourceDir.resolve("include"));
+        Files.writeString(sourceDir.resolve("include/voc-1.xml"), "<a/>");
+        Files.writeString(sourceDir.resolve("include/voc-2.xml"), "<b/>");
+
+        final SchematronDefinition definition = new SchematronDefinition();
+        definition.getDefinedRules().put("rule", new SchematronRule("pattern", "rule", "//a",
+            new ArrayList<>(List.of(new SchematronAssert(null, "doc('include/voc-1.xml')", null, null))), false));
+        final Path manifestFile = directory.resolve("test" + IncludeManifest.FILE_EXTENSION);
+        IncludeManifest.of(definition).write(manifestFile);
+
+        final IncludeManifest manifest = IncludeManifest.read(manifestFile);
+        assertEquals(Set.of("include/voc-1.xml"), manifest.getIncludes());
+
+        final Path targetDir = directory.resolve("target");
+        manifest.copyIncludes(sourceDir, targetDir);
+        assertEquals("<a/>", Files.readString(targetDir.resolve("include/voc-1.xml")));
+        assertFalse(Files.exists(targetDir.resolve("include/voc-2.xml")));
+    }
+}
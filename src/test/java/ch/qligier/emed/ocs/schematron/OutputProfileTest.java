@@ -0,0 +1,115 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.CDACHEMED_DIR;
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link OutputProfile}.
+ *
+ * @author Quentin Ligier
+ */
+class OutputProfileTest {
+
+    @Test
+    @DisplayName("Default profiles")
+    void testDefaultProfiles() throws Exception {
+        final List<OutputProfile> profiles = OutputProfile.loadDefaultProfiles();
+        assertEquals(List.of("all", "error", "error-failfast", "error-hybrid", "error-indexed"),
+            profiles.stream().map(OutputProfile::getName).toList());
+        assertFalse(profiles.get(0).filtersRoles());
+        assertEquals(Set.of("error"), profiles.get(1).getRoles());
+        assertFalse(profiles.get(1).isFailFast());
+        assertTrue(profiles.get(2).isFailFast());
+        assertTrue(profiles.get(3).isFastPath());
+        assertFalse(profiles.get(3).isFailFast());
+        assertFalse(profiles.get(3).isValueSetIndex());
+        assertTrue(profiles.get(4).isValueSetIndex());
+    }
+
+    @Test
+    @DisplayName("Parsing of the properties")
+    void testFromProperties() throws Exception {
+        final Properties properties = new Properties();
+        properties.load(new StringReader("""
+            profiles = gateway, , full
+            profile.gateway.roles = error, fatal
+            profile.gateway.excludedPatterns = p2
+            profile.gateway.forbiddenRules = r1,r2
+            profile.full.includedPatterns = p1
+            """));
+        final List<OutputProfile> profiles = OutputProfile.fromProperties(properties);
+        assertEquals(2, profiles.size());
+
+        final OutputProfile gateway = profiles.get(0);
+        assertEquals("gateway", gateway.getName());
+        assertTrue(gateway.keepsRole("fatal"));
+        assertFalse(gateway.keepsRole("warning"));
+        assertFalse(gateway.keepsRole(null));
+        assertTrue(gateway.keepsPattern("p1"));
+        assertFalse(gateway.keepsPattern("p2"));
+        assertEquals(Set.of("r1", "r2"), gateway.getForbiddenRuleIds());
+
+        final OutputProfile full = profiles.get(1);
+        assertTrue(full.keepsRole(null));
+        assertTrue(full.keepsPattern("p1"));
+        assertFalse(full.keepsPattern("p2"));
+    }
+
+    @Test
+    @DisplayName("Invalid properties")
+    void testInvalidProperties() {
+        final Properties properties = new Properties();
+        assertThrows(IllegalArgumentException.class, () -> OutputProfile.fromProperties(properties));
+        properties.setProperty("profiles", "a,a");
+        assertThrows(IllegalArgumentException.class, () -> OutputProfile.fromProperties(properties));
+        properties.setProperty("profiles", "a");
+        properties.setProperty("profile.a.failFast", "maybe");
+        assertThrows(IllegalArgumentException.class, () -> OutputProfile.fromProperties(properties));
+        properties.setProperty("profile.a.failFast", "true");
+        properties.setProperty("profile.a.fastPath", "true");
+        assertThrows(IllegalArgumentException.class, () -> OutputProfile.fromProperties(properties));
+    }
+
+    @Test
+    @DisplayName("Profiles applied to a shared definition")
+    void testProfilesOnSharedDefinition() throws Exception {
+        final SchematronDefinition definition =
+            CdaChEmedSchematronOptimizer.parseDefinition(loadResource(CDACHEMED_DIR + "cdachemed-TEST.sch"));
+
+        final OutputProfile profile = new OutputProfile("small", Set.of("error"), Set.of(),
+            Set.of("template-2.16.756.5.30.1.1.10.3.1-2022-02-01"), Set.of("d1e10-false-d20e0"), false, false, false,
+            false);
+        final Document small = optimize(definition, profile);
+        assertEquals(1, small.getElementsByTagName("pattern").getLength());
+        assertEquals(1, small.getElementsByTagName("rule").getLength());
+        assertEquals(0, small.getElementsByTagName("report").getLength());
+
+        // The shared definition is left untouched
+        final Document all = optimize(definition, OutputProfile.forRole(null, false));
+        assertEquals(3, all.getElementsByTagName("pattern").getLength());
+        assertEquals(5, all.getElementsByTagName("rule").getLength());
+        assertEquals(1, all.getElementsByTagName("report").getLength());
+    }
+
+    private Document optimize(final SchematronDefinition definition,
+                              final OutputProfile profile) throws Exception {
+        final File tempFile = File.createTempFile("schematron_", ".sch");
+        CdaChEmedSchematronOptimizer.optimizeDefinition(definition.copy(), tempFile, List.of(), profile);
+        final Document document = Utils.newSafeDocumentBuilder().parse(tempFile);
+        tempFile.delete();
+        return document;
+    }
+}
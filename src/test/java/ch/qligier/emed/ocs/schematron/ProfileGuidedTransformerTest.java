@@ -0,0 +1,59 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.profiling.RuleProfile;
+import ch.qligier.emed.ocs.schematron.definition.SchematronAssert;
+import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
+import ch.qligier.emed.ocs.schematron.definition.SchematronPattern;
+import ch.qligier.emed.ocs.schematron.definition.SchematronReport;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.CDACHEMED_DIR;
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ProfileGuidedTransformer}.
+ *
+ * @author Quentin Ligier
+ */
+class ProfileGuidedTransformerTest {
+
+    @Test
+    @DisplayName("Ordering of patterns and asserts from a rule profile")
+    void testOrdering() throws Exception {
+        final File profileFile = File.createTempFile("profile_", ".tsv");
+        profileFile.deleteOnExit();
+        Files.writeString(profileFile.toPath(), """
+            documents\t10
+            rule_id\tfires\tassert_index\tevaluations\tfailures\tnanos\ttest
+            d1e10-false-d20e0\t10\t0\t10\t0\t100000\tcount(hl7:templateId[@root='2.16.756.5.30.1.1.10.1.3']) = 1
+            d1e70-false-d80e0\t10\t0\t10\t0\t9000\tcount(hl7:code) = 1
+            d1e70-false-d80e0\t10\t1\t10\t9\t1000\tnot(@nullFlavor)
+            d1e70-false-d80e0\t10\t2\t10\t0\t1000\thl7:entry
+            """);
+        final SchematronDefinition definition =
+            CdaChEmedSchematronOptimizer.parseDefinition(loadResource(CDACHEMED_DIR + "cdachemed-TEST.sch"));
+
+        final ProfileGuidedTransformer transformer = new ProfileGuidedTransformer(RuleProfile.read(profileFile));
+        assertTrue(transformer.ordersPatterns());
+        transformer.transform(definition);
+
+        // The cheap and likely-to-fail assert comes first, the costly one last
+        final List<String> tests = definition.getDefinedRules().get("d1e70-false-d80e0").getChildren().stream()
+            .map(child -> child instanceof final SchematronAssert schematronAssert
+                ? schematronAssert.getTest()
+                : ((SchematronReport) child).getTest())
+            .toList();
+        assertEquals(List.of("not(@nullFlavor)", "hl7:entry", "count(hl7:code) = 1"), tests);
+
+        // The template ID pattern stays first, the costly pattern goes after the cheap one
+        assertEquals(List.of("all-templates", "template-2.16.756.5.30.1.1.10.3.1-2022-02-01",
+                "template-2.16.756.5.30.1.1.10.1.3-2022-02-01"),
+            definition.getPatterns().stream().map(SchematronPattern::getId).toList());
+    }
+}
@@ -0,0 +1,94 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link RewritePipeline}.
+ *
+ * @author Quentin Ligier
+ */
+class RewritePipelineTest {
+
+    /**
+     * Ensures that the literal replacer matches the leftmost-longest literals, once.
+     */
+    @Test
+    @DisplayName("Literal replacer")
+    void testLiteralReplacer() {
+        final LiteralReplacer replacer = new LiteralReplacer();
+        assertTrue(replacer.isEmpty());
+        replacer.add("ab", "x", input -> true);
+        replacer.add("abc", "y", input -> true);
+        replacer.add("c", "ab", input -> true);
+        replacer.add("d", "z", input -> input.startsWith("guarded"));
+        assertFalse(replacer.isEmpty());
+
+        assertEquals("y-x-ab", replacer.replace("abc-ab-c"));
+        assertEquals("d", replacer.replace("d"));
+        assertEquals("guarzez", replacer.replace("guarded"));
+        final String unchanged = "nothing";
+        assertSame(unchanged, replacer.replace(unchanged));
+    }
+
+    /**
+     * Ensures that the rewrites of a profile and of the ambulatory transformer are applied together.
+     */
+    @Test
+    @DisplayName("Fused rewrites")
+    void testFusedRewrites() {
+        final SchematronAssert valueSetAssert =
+            new SchematronAssert("error", "doc('include/voc-2.16.756.5.30.1.1.11.2.xml')", null, null);
+        final SchematronAssert otherAssert =
+            new SchematronAssert("error", "@code='2.16.756.5.30.1.1.11.2'", null, null);
+        final SchematronAssert warningAssert = new SchematronAssert("warning", "true()", null, null);
+        final SchematronReport report = new SchematronReport("info", "false()", null, null);
+        final SchematronLet let = new SchematronLet("a", "1");
+        final SchematronDefinition definition = new SchematronDefinition();
+        definition.getDefinedRules().put("rule", new SchematronRule("pattern", "rule", "*/a", new ArrayList<>(List.of(
+            valueSetAssert, warningAssert, let, otherAssert, report
+        )), false));
+        definition.getDefinedRules().put("d141e6943-true-d269204e0",
+            new SchematronRule("pattern", "d141e6943-true-d269204e0", "/", new ArrayList<>(), false));
+        definition.getEnabledRules().addAll(definition.getDefinedRules().keySet());
+
+        final ExpressionRewrites profileRewrites = new ExpressionRewrites()
+            .keepRoles(Set.of("error", "info"))
+            .changeRole("info", "warning");
+        new RewritePipeline(CdaChEmedSchematronOptimizer::transform,
+            List.of(profileRewrites, new AmbuTransformer().getRewrites())).apply(definition);
+
+        assertEquals(Set.of("rule"), definition.getDefinedRules().keySet());
+        assertEquals(Set.of("rule"), definition.getEnabledRules());
+        final SchematronRule rule = definition.getDefinedRules().get("rule");
+        assertEquals("//*/a", rule.getContext());
+        assertEquals(List.of(valueSetAssert, let, otherAssert, report), rule.getChildren());
+        assertEquals("doc('include/voc-2.16.756.5.30.1.127.77.12.11.1.xml')", valueSetAssert.getTest());
+        assertEquals("@code='2.16.756.5.30.1.1.11.2'", otherAssert.getTest());
+        assertEquals("warning", report.getRole());
+    }
+
+    /**
+     * Ensures that the ambulatory transformer still works alone.
+     */
+    @Test
+    @DisplayName("Standalone transformer")
+    void testStandaloneTransformer() {
+        final SchematronAssert valueSetAssert =
+            new SchematronAssert(null, "doc('include/voc-2.16.756.5.30.1.127.77.4.11.2.xml')", null, null);
+        final SchematronDefinition definition = new SchematronDefinition();
+        definition.getDefinedRules().put("rule", new SchematronRule(null, "rule", null,
+            new ArrayList<>(List.of(valueSetAssert)), true));
+
+        new AmbuTransformer().transform(definition);
+        assertEquals("doc('include/voc-2.16.756.5.30.1.127.77.12.11.2.xml')", valueSetAssert.getTest());
+        assertEquals(List.of(valueSetAssert), definition.getDefinedRules().get("rule").getChildren());
+    }
+}
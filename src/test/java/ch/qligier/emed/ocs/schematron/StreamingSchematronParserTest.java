@@ -0,0 +1,120 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.schematron.definition.SchematronDefinition;
+import ch.qligier.emed.ocs.schematron.definition.SchematronPattern;
+import ch.qligier.emed.ocs.schematron.definition.SchematronRule;
+import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link StreamingSchematronParser}.
+ *
+ * @author Quentin Ligier
+ */
+class StreamingSchematronParserTest {
+
+    /**
+     * Ensures that the streaming parser produces the same definitions as the DOM parser.
+     */
+    @Test
+    @DisplayName("Same definitions as the DOM parser")
+    void testSameDefinitions() throws Exception {
+        for (final String resourceName : List.of(
+            "schematron/parsing_tests/simple/main.sch",
+            "schematron/converter/schematron1.sch",
+            "schematron/converter/schematron2.sch",
+            "schematron/converter/schematron3.sch",
+            "schematron/cdachemed/cdachemed-TEST.sch"
+        )) {
+            final File definitionFile = loadResource(resourceName);
+            final SchematronDefinition expected = withoutGeneratedIds(new SchematronParser().parse(definitionFile));
+            final SchematronDefinition actual =
+                withoutGeneratedIds(new StreamingSchematronParser().parse(definitionFile));
+            assertEquals(expected, actual, resourceName);
+            assertEquals(new ArrayList<>(expected.getPatterns()), new ArrayList<>(actual.getPatterns()), resourceName);
+            assertEquals(new ArrayList<>(expected.getEnabledRules()), new ArrayList<>(actual.getEnabledRules()),
+                resourceName);
+        }
+    }
+
+    /**
+     * Ensures that the streaming parser throws the same exceptions as the DOM parser.
+     */
+    @Test
+    @DisplayName("Same exceptions as the DOM parser")
+    void testSameExceptions() throws Exception {
+        for (final String content : List.of(
+            "<schema xmlns=\"http://purl.oclc.org/dsdl/schematron\"><include/></schema>",
+            "<schema xmlns=\"http://purl.oclc.org/dsdl/schematron\"><ns prefix=\"a\"/></schema>",
+            "<schema xmlns=\"http://purl.oclc.org/dsdl/schematron\"><rule context=\"/\"><assert/></rule></schema>",
+            "<schema xmlns=\"http://purl.oclc.org/dsdl/schematron\"><pattern><rule/></pattern></schema>",
+            "<schema xmlns=\"http://purl.oclc.org/dsdl/schematron\"><rule abstract=\"no\"/></schema>"
+        )) {
+            final File definitionFile = File.createTempFile("schematron_", ".sch");
+            definitionFile.deleteOnExit();
+            Files.writeString(definitionFile.toPath(), content);
+            final Exception expected = assertThrows(SchematronParsingException.class,
+                () -> new SchematronParser().parse(definitionFile));
+            final Exception actual = assertThrows(SchematronParsingException.class,
+                () -> new StreamingSchematronParser().parse(definitionFile));
+            assertEquals(expected.getMessage(), actual.getMessage(), content);
+        }
+
+        final File cyclicFile = loadResource("schematron/parsing_tests/cyclic/main.sch");
+        assertThrows(SchematronParsingException.class, () -> new StreamingSchematronParser().parse(cyclicFile));
+    }
+
+    /**
+     * Replaces the generated IDs of patterns and rules by stable IDs, in the definition order.
+     *
+     * @param definition The Schematron definition.
+     * @return a copy of the definition with stable IDs.
+     */
+    private static SchematronDefinition withoutGeneratedIds(final SchematronDefinition definition) {
+        final Map<String, String> stableIds = new HashMap<>();
+        for (final SchematronPattern pattern : definition.getPatterns()) {
+            stableIds.computeIfAbsent(pattern.getId(), id -> "generated_" + stableIds.size());
+            for (final String ruleId : definition.getRulesPerPattern().get(pattern.getId())) {
+                stableIds.computeIfAbsent(ruleId, id -> "generated_" + stableIds.size());
+            }
+        }
+        for (final String ruleId : definition.getEnabledRules()) {
+            stableIds.computeIfAbsent(ruleId, id -> "generated_" + stableIds.size());
+        }
+        stableIds.entrySet().removeIf(entry -> !entry.getKey().startsWith("id_"));
+
+        final SchematronDefinition copy = new SchematronDefinition();
+        for (final SchematronRule rule : definition.getDefinedRules().values()) {
+            final SchematronRule ruleCopy = rule.clone();
+            ruleCopy.setId(stableIds.getOrDefault(rule.getId(), rule.getId()));
+            if (rule.getPattern() != null) {
+                ruleCopy.setPattern(stableIds.getOrDefault(rule.getPattern(), rule.getPattern()));
+            }
+            copy.getDefinedRules().put(ruleCopy.getId(), ruleCopy);
+        }
+        for (final SchematronPattern pattern : definition.getPatterns()) {
+            final SchematronPattern patternCopy = pattern.clone();
+            patternCopy.setId(stableIds.getOrDefault(pattern.getId(), pattern.getId()));
+            copy.getPatterns().add(patternCopy);
+        }
+        for (final String ruleId : definition.getEnabledRules()) {
+            copy.getEnabledRules().add(stableIds.getOrDefault(ruleId, ruleId));
+        }
+        for (final Map.Entry<String, List<String>> entry : definition.getRulesPerPattern().entrySet()) {
+            copy.getRulesPerPattern().put(stableIds.getOrDefault(entry.getKey(), entry.getKey()),
+                entry.getValue().stream().map(ruleId -> stableIds.getOrDefault(ruleId, ruleId)).toList());
+        }
+        copy.getNamespaces().putAll(definition.getNamespaces());
+        copy.setTitle(definition.getTitle());
+        copy.setQueryBinding(definition.getQueryBinding());
+        return copy;
+    }
+}
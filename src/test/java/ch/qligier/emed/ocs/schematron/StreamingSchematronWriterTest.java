@@ -0,0 +1,100 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.schematron.definition.*;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link StreamingSchematronWriter}.
+ *
+ * @author Quentin Ligier
+ */
+class StreamingSchematronWriterTest {
+
+    /**
+     * Ensures that the streaming writer produces the same documents as the DOM writer.
+     */
+    @Test
+    @DisplayName("Same documents as the DOM writer")
+    void testSameDocuments() throws Exception {
+        for (final String resourceName : List.of(
+            "schematron/converter/schematron1.sch",
+            "schematron/converter/schematron2.sch",
+            "schematron/converter/schematron3.sch",
+            "schematron/cdachemed/cdachemed-TEST.sch"
+        )) {
+            final SchematronDefinition definition = new SchematronParser().parse(loadResource(resourceName));
+            assertSameDocuments(definition, resourceName);
+        }
+    }
+
+    /**
+     * Ensures that the messages with inline elements and the missing attributes are written like the DOM writer.
+     */
+    @Test
+    @DisplayName("Same messages and missing attributes as the DOM writer")
+    void testSameMessages() throws Exception {
+        final SchematronMessage message = SchematronMessage.of(List.of(
+            SchematronMessage.Part.text("Expected "),
+            SchematronMessage.Part.valueOf("@code"),
+            SchematronMessage.Part.text(" in "),
+            SchematronMessage.Part.name(null),
+            SchematronMessage.Part.element(SchematronConstants.SCHEMATRON_NAMESPACE, "emph", Map.of("class", "a"),
+                List.of(SchematronMessage.Part.text("emphasized"))),
+            SchematronMessage.Part.element("urn:other", "span", Map.of(),
+                List.of(SchematronMessage.Part.name("..")))
+        ));
+        final SchematronRule rule = new SchematronRule("pattern1", "rule1", "/", new ArrayList<>(List.of(
+            new SchematronLet("a", "1"),
+            new SchematronAssert(null, "true()", null, message),
+            new SchematronReport("error", "false()", null, null)
+        )), false);
+        final SchematronDefinition definition = new SchematronDefinition();
+        definition.setQueryBinding("xslt2");
+        definition.getNamespaces().put("hl7", "urn:hl7-org:v3");
+        definition.getPatterns().add(new SchematronPattern("pattern1", false, null));
+        definition.getPatterns().add(new SchematronPattern("empty", false, null));
+        definition.getDefinedRules().put(rule.getId(), rule);
+        definition.getRulesPerPattern().put("pattern1", List.of(rule.getId()));
+        definition.getRulesPerPattern().put("empty", List.of());
+
+        assertSameDocuments(definition, "inline");
+    }
+
+    /**
+     * Writes a definition with both writers and compares the parsed documents.
+     *
+     * @param definition The Schematron definition.
+     * @param name       The name of the definition, for the assertion messages.
+     */
+    private static void assertSameDocuments(final SchematronDefinition definition,
+                                            final String name) throws Exception {
+        final DocumentBuilder documentBuilder = Utils.newSafeDocumentBuilder();
+        final File domFile = File.createTempFile("schematron_dom_", ".sch");
+        final File streamingFile = File.createTempFile("schematron_streaming_", ".sch");
+        try {
+            new SchematronWriter().writeSchematron(definition, domFile);
+            new StreamingSchematronWriter().writeSchematron(definition, streamingFile);
+
+            final Document expected = documentBuilder.parse(domFile);
+            final Document actual = documentBuilder.parse(streamingFile);
+            expected.normalizeDocument();
+            actual.normalizeDocument();
+            assertTrue(expected.isEqualNode(actual), name);
+        } finally {
+            domFile.delete();
+            streamingFile.delete();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ch.qligier.emed.ocs.schematron;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link TemplateIdDispatch}.
+ *
+ * @author Quentin Ligier
+ */
+class TemplateIdDispatchTest {
+
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+
+    /**
+     * Ensures that the anchor roots of the rule contexts are found.
+     */
+    @Test
+    @DisplayName("Anchor roots of the rule contexts")
+    void testAnchorRoots() {
+        assertEquals(Set.of("1.3"), TemplateIdDispatch.findAnchorRoots("//*[hl7:templateId[@root='1.3']]"));
+        assertEquals(Set.of("1.3"), TemplateIdDispatch.findAnchorRoots("//*[hl7:templateId[@root='1.3']]/hl7:id"));
+        assertEquals(Set.of("3.1"), TemplateIdDispatch.findAnchorRoots(
+            "//*/hl7:section[hl7:templateId[@root = '3.1']][hl7:entry]/hl7:entry//hl7:code/@code"));
+        assertEquals(Set.of("1.3", "3.1"), TemplateIdDispatch.findAnchorRoots(
+            "hl7:observation[hl7:templateId[@root=\"1.3\"]] | //*[hl7:templateId[@root='3.1']]/hl7:value"));
+
+        assertNull(TemplateIdDispatch.findAnchorRoots("/"));
+        assertNull(TemplateIdDispatch.findAnchorRoots("//hl7:id"));
+        assertNull(TemplateIdDispatch.findAnchorRoots("//*[hl7:templateId[@root='1.3'] or hl7:code]"));
+        assertNull(TemplateIdDispatch.findAnchorRoots("//*[hl7:templateId[@root='1.3']] | //hl7:id"));
+        assertNull(TemplateIdDispatch.findAnchorRoots("//*[hl7:templateId[@root='1.3']] except //hl7:id"));
+        assertNull(TemplateIdDispatch.findAnchorRoots("//*[hl7:templateId[@root='1.3']"));
+    }
+
+    /**
+     * Ensures that only the traversals of the anchored patterns are rewritten.
+     */
+    @Test
+    @DisplayName("Rewrite of the pattern traversals")
+    void testRewrite() throws Exception {
+        final Document xsltDocument = Utils.newSafeDocumentBuilder().parse(buildCdaChEmedXslt(null, false));
+        final Map<String, String> selects = new HashMap<>();
+        final NodeList applyTemplates = xsltDocument.getElementsByTagNameNS(XSLT_NAMESPACE, "apply-templates");
+        for (int i = 0; i < applyTemplates.getLength(); ++i) {
+            final Element element = (Element) applyTemplates.item(i);
+            final Element template = (Element) element.getParentNode().getParentNode();
+            if ("/".equals(template.getAttribute("match")) && !template.hasAttribute("mode")
+                && element.hasAttribute("mode")) {
+                selects.put(element.getAttribute("mode"), element.getAttribute("select"));
+            }
+        }
+        assertEquals(3, selects.size());
+        // The pattern of the document rule traverses the whole document
+        assertEquals("/", selects.get("M3"));
+        assertEquals("key('dsp:templateId', ('2.16.756.5.30.1.1.10.1.3'))"
+            + "[not(ancestor::*[hl7:templateId/@root = ('2.16.756.5.30.1.1.10.1.3')])]", selects.get("M4"));
+        assertTrue(selects.get("M5").startsWith(
+            "key('dsp:templateId', ('2.16.756.5.30.1.1.10.1.3', '2.16.756.5.30.1.1.10.3.1'))"));
+
+        final NodeList keys = xsltDocument.getElementsByTagNameNS(XSLT_NAMESPACE, "key");
+        assertEquals(1, keys.getLength());
+        assertEquals(TemplateIdDispatch.KEY_NAME, ((Element) keys.item(0)).getAttribute("name"));
+
+        // The XSLT is already rewritten
+        assertEquals(0, TemplateIdDispatch.rewrite(xsltDocument));
+    }
+
+    /**
+     * Ensures that the rewritten traversals report the same findings as the traversals of the whole document.
+     */
+    @Test
+    @DisplayName("Equivalent validation with and without dispatch")
+    void testEquivalence() throws Exception {
+        final File dispatchedFile = buildCdaChEmedXslt(null, false);
+        final Document xsltDocument = Utils.newSafeDocumentBuilder().parse(dispatchedFile);
+        int restored = 0;
+        final NodeList applyTemplates = xsltDocument.getElementsByTagNameNS(XSLT_NAMESPACE, "apply-templates");
+        for (int i = 0; i < applyTemplates.getLength(); ++i) {
+            final Element element = (Element) applyTemplates.item(i);
+            if (element.getAttribute("select").startsWith("key('" + TemplateIdDispatch.KEY_NAME + "'")) {
+                element.setAttribute("select", "/");
+                ++restored;
+            }
+        }
+        assertEquals(2, restored);
+        // The XSLT without dispatch is written alongside the value set files
+        final File undispatchedFile = new File(dispatchedFile.getParentFile(), "undispatched.xslt");
+        Utils.newTransformer().transform(new DOMSource(xsltDocument), new StreamResult(undispatchedFile));
+
+        final Processor processor = new Processor(false);
+        final CdaChEmedValidator dispatched = CdaChEmedValidator.fromFile(processor, dispatchedFile);
+        final CdaChEmedValidator undispatched = CdaChEmedValidator.fromFile(processor, undispatchedFile);
+        for (final String name : List.of("valid.xml", "invalid.xml", "untyped.xml")) {
+            final byte[] content = Files.readAllBytes(loadResource(CDACHEMED_DIR + "documents/" + name).toPath());
+            assertEquals(undispatched.validate(content).getFindings(), dispatched.validate(content).getFindings(),
+                name);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import ch.qligier.emed.ocs.schematron.StreamingSchematronParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.loadResource;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ExpressionTable}.
+ *
+ * @author Quentin Ligier
+ */
+class ExpressionTableTest {
+
+    /**
+     * Ensures that the expressions are interned and that the rewrites run once per distinct expression.
+     */
+    @Test
+    @DisplayName("Interns expressions and memoizes rewrites")
+    void testInternAndMemoize() {
+        final ExpressionTable table = new ExpressionTable();
+        final String expression = new String("a/b");
+        assertSame(expression, table.intern(expression));
+        assertSame(expression, table.intern(new String("a/b")));
+        assertNull(table.intern(null));
+        assertEquals(1, table.size());
+
+        final AtomicInteger calls = new AtomicInteger();
+        final UnaryOperator<String> rewrite = table.memoize("upper", value -> {
+            calls.incrementAndGet();
+            return value.toUpperCase();
+        });
+        assertEquals("A/B", rewrite.apply(new String("a/b")));
+        final String rewritten = rewrite.apply(new String("a/b"));
+        assertEquals("A/B", rewritten);
+        assertSame(rewritten, table.memoize("upper", UnaryOperator.identity()).apply("a/b"));
+        assertEquals(1, calls.get());
+        assertEquals(1, table.getRewriteMisses());
+        assertEquals(2, table.getRewriteHits());
+        assertEquals("a/b", table.memoize("other", UnaryOperator.identity()).apply("a/b"));
+    }
+
+    /**
+     * Ensures that the parsed definitions share their expressions, and that the copies share the table.
+     */
+    @Test
+    @DisplayName("Definitions share their expressions")
+    void testSharedExpressions() throws Exception {
+        final File definitionFile = loadResource("schematron/cdachemed/cdachemed-TEST.sch");
+        final SchematronDefinition first = new StreamingSchematronParser().parse(definitionFile);
+        final SchematronDefinition second = new StreamingSchematronParser().parse(definitionFile);
+        assertSame(first.getExpressionTable(), second.getExpressionTable());
+        assertSame(first.getExpressionTable(), first.copy().getExpressionTable());
+
+        final List<String> firstTests = new ArrayList<>();
+        final List<String> secondTests = new ArrayList<>();
+        for (final String ruleId : first.getDefinedRules().keySet()) {
+            if (!second.getDefinedRules().containsKey(ruleId)) {
+                continue; // A generated ID
+            }
+            collectTests(first.getDefinedRules().get(ruleId), firstTests);
+            collectTests(second.getDefinedRules().get(ruleId), secondTests);
+        }
+        assertFalse(firstTests.isEmpty());
+        for (int i = 0; i < firstTests.size(); ++i) {
+            assertSame(firstTests.get(i), secondTests.get(i));
+        }
+    }
+
+    /**
+     * Collects the assert tests of a rule.
+     *
+     * @param rule  The rule.
+     * @param tests The collected tests.
+     */
+    private static void collectTests(final SchematronRule rule,
+                                     final List<String> tests) {
+        for (final SchematronRuleChild child : rule.getChildren()) {
+            if (child instanceof final SchematronAssert schematronAssert) {
+                tests.add(schematronAssert.getTest());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import ch.qligier.emed.ocs.schematron.exceptions.SchematronParsingException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ExtendsResolver}.
+ *
+ * @author Quentin Ligier
+ */
+class ExtendsResolverTest {
+
+    /**
+     * Ensures that the 'extends' are replaced by the resolved children of the extended rules, in order.
+     */
+    @Test
+    @DisplayName("Resolves the extends in order")
+    void testResolve() throws SchematronParsingException {
+        final SchematronLet let1 = new SchematronLet("a", "1");
+        final SchematronLet let2 = new SchematronLet("b", "2");
+        final SchematronLet let3 = new SchematronLet("c", "3");
+        final SchematronLet let4 = new SchematronLet("d", "4");
+        final SchematronDefinition definition = newDefinition(
+            new SchematronRule(null, "base", null, List.of(let1), true),
+            new SchematronRule(null, "middle", null, List.of(new SchematronExtends("base"), let2), true),
+            new SchematronRule(null, "other", null, List.of(let3), true),
+            new SchematronRule("pattern", "concrete", "/", List.of(
+                new SchematronExtends("middle"), let4, new SchematronExtends("other")
+            ), false)
+        );
+
+        final ExtendsResolver resolver = new ExtendsResolver(definition);
+        final List<SchematronRuleChild> children = resolver.resolve("concrete");
+        assertEquals(List.of(let1, let2, let4, let3), children);
+        assertSame(children, resolver.resolve("concrete"));
+        assertThrows(UnsupportedOperationException.class, () -> children.add(let1));
+
+        final SchematronRule rule = resolver.getResolvedRule("concrete");
+        assertEquals("pattern", rule.getPattern());
+        assertEquals("/", rule.getContext());
+        assertFalse(rule.isAbstract());
+        assertEquals(children, rule.getChildren());
+        assertFalse(rule.hasExtends());
+        assertEquals(rule, definition.getResolvedRule("concrete"));
+    }
+
+    /**
+     * Ensures that the cyclic and dangling 'extends' are reported.
+     */
+    @Test
+    @DisplayName("Reports the invalid extends")
+    void testInvalidExtends() {
+        final SchematronDefinition cyclicDefinition = newDefinition(
+            new SchematronRule(null, "a", null, List.of(new SchematronExtends("b")), true),
+            new SchematronRule(null, "b", null, List.of(new SchematronExtends("a")), true)
+        );
+        final Exception cyclicException = assertThrows(SchematronParsingException.class,
+            () -> new ExtendsResolver(cyclicDefinition).resolveAll());
+        assertTrue(cyclicException.getMessage().contains("extends itself"));
+        assertThrows(IllegalStateException.class, () -> cyclicDefinition.getResolvedRule("a"));
+
+        final SchematronDefinition danglingDefinition = newDefinition(
+            new SchematronRule("pattern", "a", "/", List.of(new SchematronExtends("missing")), false)
+        );
+        final Exception danglingException = assertThrows(SchematronParsingException.class,
+            () -> new ExtendsResolver(danglingDefinition).resolve("a"));
+        assertEquals("The rule 'a' extends the undefined rule 'missing'", danglingException.getMessage());
+
+        assertThrows(IllegalArgumentException.class, () -> new ExtendsResolver(danglingDefinition).resolve("b"));
+    }
+
+    /**
+     * Creates a definition from rules.
+     *
+     * @param rules The defined rules.
+     * @return the Schematron definition.
+     */
+    private static SchematronDefinition newDefinition(final SchematronRule... rules) {
+        final SchematronDefinition definition = new SchematronDefinition();
+        for (final SchematronRule rule : rules) {
+            definition.getDefinedRules().put(rule.getId(), rule);
+        }
+        return definition;
+    }
+}
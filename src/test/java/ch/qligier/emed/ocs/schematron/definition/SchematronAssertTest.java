@@ -6,7 +6,6 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Element;
 
-import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,7 +22,7 @@ class SchematronAssertTest {
     @Test
     @DisplayName("Is a data object")
     void testIsADataObject() {
-        final SchematronAssert schematronAssert = new SchematronAssert("warn", "II", "see", new ArrayList<>());
+        final SchematronAssert schematronAssert = new SchematronAssert("warn", "II", "see", SchematronMessage.EMPTY);
         final SchematronAssert schematronAssert2 = new SchematronAssert("fatal", "AA", null, null);
         assertTrue(schematronAssert.canEqual(schematronAssert2));
 
@@ -32,7 +31,7 @@ class SchematronAssertTest {
         assertEquals("warn", schematronAssert.getRole());
         assertEquals("II", schematronAssert.getTest());
         assertEquals("see", schematronAssert.getSee());
-        assertEquals(0, schematronAssert.getMessageNodes().size());
+        assertEquals(0, schematronAssert.getMessage().getParts().size());
         assertNotEquals(schematronAssert, schematronAssert2);
 
         schematronAssert.setRole("fatal");
@@ -41,8 +40,8 @@ class SchematronAssertTest {
         assertEquals("AA", schematronAssert.getTest());
         schematronAssert.setSee(null);
         assertNull(schematronAssert.getSee());
-        schematronAssert.setMessageNodes(null);
-        assertNull(schematronAssert.getMessageNodes());
+        schematronAssert.setMessage(null);
+        assertNull(schematronAssert.getMessage());
         assertEquals(schematronAssert, schematronAssert2);
 
         assertTrue(schematronAssert.toString().length() > 0);
@@ -65,7 +64,9 @@ class SchematronAssertTest {
         assertEquals("warning", schematronAssert.getRole());
         assertEquals("II", schematronAssert.getTest());
         assertEquals("http", schematronAssert.getSee());
-        assertEquals(2, schematronAssert.getMessageNodes().size());
+        assertEquals(2, schematronAssert.getMessage().getParts().size());
+        assertEquals(SchematronMessage.Part.text("Found: "), schematronAssert.getMessage().getParts().get(0));
+        assertEquals(SchematronMessage.Part.valueOf("@root"), schematronAssert.getMessage().getParts().get(1));
     }
 
     /**
@@ -0,0 +1,62 @@
+package ch.qligier.emed.ocs.schematron.definition;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.schematron.utils.SimpleXmlParser;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link SchematronMessage}.
+ *
+ * @author Quentin Ligier
+ */
+class SchematronMessageTest {
+
+    /**
+     * Ensures that the message is parsed to text runs and placeholders, and written back identically.
+     */
+    @Test
+    @DisplayName("Parsing and writing of a message")
+    void testParsingAndWriting() throws Exception {
+        final Element assertElement = SimpleXmlParser.parseString(
+            "<assert xmlns=\"http://purl.oclc.org/dsdl/schematron\" test=\"II\">Found <name/> <!-- comment -->"
+            + "<emph class=\"x\">with <value-of select=\"@root\"/></emph><name path=\"..\"/></assert>")
+            .getDocumentElement();
+        final SchematronMessage message = SchematronMessage.fromNodes(assertElement.getChildNodes());
+        assertEquals(List.of(
+            SchematronMessage.Part.text("Found "),
+            SchematronMessage.Part.name(null),
+            SchematronMessage.Part.text(" "),
+            SchematronMessage.Part.element(SchematronConstants.SCHEMATRON_NAMESPACE, "emph", Map.of("class", "x"),
+                List.of(SchematronMessage.Part.text("with "), SchematronMessage.Part.valueOf("@root"))),
+            SchematronMessage.Part.name("..")
+        ), message.getParts());
+        assertThrows(UnsupportedOperationException.class, () -> message.getParts().clear());
+
+        final Document document = Utils.newSafeDocumentBuilder().newDocument();
+        final Element writtenElement = document.createElementNS(SchematronConstants.SCHEMATRON_NAMESPACE, "assert");
+        document.appendChild(writtenElement);
+        message.appendTo(writtenElement);
+        assertEquals("Found  with ", writtenElement.getTextContent());
+        assertEquals(SchematronConstants.SCHEMATRON_NAMESPACE,
+            writtenElement.getElementsByTagName("value-of").item(0).getNamespaceURI());
+        assertEquals(message, SchematronMessage.fromNodes(writtenElement.getChildNodes()));
+    }
+
+    /**
+     * Ensures that an empty content is the empty message.
+     */
+    @Test
+    @DisplayName("Empty message")
+    void testEmptyMessage() throws Exception {
+        final Element assertElement = SimpleXmlParser.parseString("<assert test=\"II\"/>").getDocumentElement();
+        assertSame(SchematronMessage.EMPTY, SchematronMessage.fromNodes(assertElement.getChildNodes()));
+    }
+}
@@ -6,7 +6,6 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Element;
 
-import java.util.ArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,7 +22,7 @@ class SchematronReportTest {
     @Test
     @DisplayName("Is a data object")
     void testIsADataObject() {
-        final SchematronReport schematronReport = new SchematronReport("warn", "II", "see", new ArrayList<>());
+        final SchematronReport schematronReport = new SchematronReport("warn", "II", "see", SchematronMessage.EMPTY);
         final SchematronReport schematronReport2 = new SchematronReport("fatal", "AA", null, null);
         assertTrue(schematronReport.canEqual(schematronReport2));
 
@@ -32,7 +31,7 @@ class SchematronReportTest {
         assertEquals("warn", schematronReport.getRole());
         assertEquals("II", schematronReport.getTest());
         assertEquals("see", schematronReport.getSee());
-        assertEquals(0, schematronReport.getMessageNodes().size());
+        assertEquals(0, schematronReport.getMessage().getParts().size());
         assertNotEquals(schematronReport, schematronReport2);
 
         schematronReport.setRole("fatal");
@@ -41,8 +40,8 @@ class SchematronReportTest {
         assertEquals("AA", schematronReport.getTest());
         schematronReport.setSee(null);
         assertNull(schematronReport.getSee());
-        schematronReport.setMessageNodes(null);
-        assertNull(schematronReport.getMessageNodes());
+        schematronReport.setMessage(null);
+        assertNull(schematronReport.getMessage());
         assertEquals(schematronReport, schematronReport2);
 
         assertFalse(schematronReport.toString().isEmpty());
@@ -65,7 +64,7 @@ class SchematronReportTest {
         assertEquals("warning", schematronReport.getRole());
         assertEquals("II", schematronReport.getTest());
         assertEquals("http", schematronReport.getSee());
-        assertEquals(2, schematronReport.getMessageNodes().size());
+        assertEquals(2, schematronReport.getMessage().getParts().size());
     }
 
     /**
@@ -0,0 +1,108 @@
+package ch.qligier.emed.ocs.schematron.utils;
+
+import ch.qligier.emed.ocs.fastpath.FastPathProgram;
+import ch.qligier.emed.ocs.schematron.CdaChEmedSchematronOptimizer;
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Builds the optimized XSLT files of the test Schematron definitions, for tests only.
+ *
+ * @author Quentin Ligier
+ */
+public class TestStylesheets {
+
+    /**
+     * The resource path of the CDA-CH-EMED test definition.
+     */
+    public static final String CDACHEMED_DIR = "schematron/cdachemed/";
+
+    private TestStylesheets() {}
+
+    /**
+     * Returns a file from the test resources.
+     *
+     * @param resourceName The resource name.
+     * @return the resource file.
+     */
+    public static File loadResource(@NonNull final String resourceName) {
+        return new File(Objects.requireNonNull(TestStylesheets.class.getClassLoader().getResource(resourceName))
+            .getFile());
+    }
+
+    /**
+     * Optimizes and converts the CDA-CH-EMED test definition to an XSLT file in a new temporary directory, alongside
+     * its value set files.
+     *
+     * @param roleToKeep The only assert/report role to keep, or {@code null} to disable filtering.
+     * @param failFast   Whether the XSLT shall terminate at the first failed assert.
+     * @return the XSLT file.
+     * @throws Exception if the optimization or the conversion fails.
+     */
+    public static File buildCdaChEmedXslt(final String roleToKeep,
+                                          final boolean failFast) throws Exception {
+        return buildCdaChEmedXslt(OutputProfile.forRole(roleToKeep, failFast));
+    }
+
+    /**
+     * Optimizes and converts the CDA-CH-EMED test definition for an output profile to an XSLT file in a new temporary
+     * directory, alongside its value set files and its fast path program if the profile uses it.
+     *
+     * @param profile The output profile.
+     * @return the XSLT file.
+     * @throws Exception if the optimization or the conversion fails.
+     */
+    public static File buildCdaChEmedXslt(@NonNull final OutputProfile profile) throws Exception {
+        return buildXslt(CDACHEMED_DIR + "cdachemed-TEST.sch", profile);
+    }
+
+    /**
+     * Optimizes and converts a test definition for an output profile to an XSLT file in a new temporary directory,
+     * alongside the value set files of the CDA-CH-EMED test definition and its fast path program if the profile uses
+     * it.
+     *
+     * @param resourceName The resource name of the Schematron file.
+     * @param profile      The output profile.
+     * @return the XSLT file.
+     * @throws Exception if the optimization or the conversion fails.
+     */
+    public static File buildXslt(@NonNull final String resourceName,
+                                 @NonNull final OutputProfile profile) throws Exception {
+        final Path outputDir = Files.createTempDirectory("cdachemed_");
+        copyValueSets(outputDir);
+        final File schematronFile = loadResource(resourceName);
+        final String baseName = schematronFile.getName().replaceFirst("\\.sch$", "");
+        final File optimizedFile = outputDir.resolve(baseName + ".sch").toFile();
+        final File xsltFile = outputDir.resolve(baseName + ".xslt").toFile();
+        final FastPathProgram fastPathProgram = CdaChEmedSchematronOptimizer.optimizeDefinition(
+            CdaChEmedSchematronOptimizer.parseDefinition(schematronFile), optimizedFile, List.of(), profile);
+        if (fastPathProgram != null) {
+            fastPathProgram.write(outputDir.resolve(baseName + FastPathProgram.FILE_EXTENSION).toFile());
+        }
+        CdaChEmedSchematronOptimizer.convertToXslt(optimizedFile, xsltFile, profile.isFailFast(),
+            profile.isProfiling());
+        return xsltFile;
+    }
+
+    /**
+     * Copies the value set files of the CDA-CH-EMED test definition in the 'include/' directory of a given directory.
+     *
+     * @param outputDir The directory in which the XSLT file is written.
+     * @throws IOException if any IO error occurs.
+     */
+    public static void copyValueSets(@NonNull final Path outputDir) throws IOException {
+        final Path includeDir = Files.createDirectories(outputDir.resolve("include"));
+        for (final File file : Objects.requireNonNull(loadResource(CDACHEMED_DIR + "include").listFiles())) {
+            if (file.getName().startsWith("voc-")) {
+                Files.copy(file.toPath(), includeDir.resolve(file.getName()));
+            }
+        }
+    }
+}
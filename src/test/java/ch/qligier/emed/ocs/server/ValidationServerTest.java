@@ -0,0 +1,227 @@
+package ch.qligier.emed.ocs.server;
+
+import ch.qligier.emed.ocs.Utils;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.ValidationReport;
+import ch.qligier.emed.ocs.validator.ValidationResultCache;
+import net.sf.saxon.s9api.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ValidationServer}.
+ *
+ * @author Quentin Ligier
+ */
+class ValidationServerTest {
+
+    private static final String XSLT_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private ValidationServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        final Processor processor = new Processor(false);
+        final CdaChEmedValidator validator = CdaChEmedValidator.fromFile(processor, buildCdaChEmedXslt(null, false));
+        // The XSLT loads a missing document: the transformation fails whatever the validated document
+        final CdaChEmedValidator failing = new CdaChEmedValidator(compile(processor,
+            "<xsl:template match='/'><xsl:copy-of select=\"doc('missing-voc.xml')\"/></xsl:template>"));
+        this.server = new ValidationServer(new InetSocketAddress("localhost", 0),
+            Map.of("cdachemed-TEST", validator, "failing", failing), 2, Duration.ofSeconds(30));
+        this.server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        this.server.stop();
+    }
+
+    /**
+     * Ensures that the documents are validated, with the JSON and SVRL outputs.
+     */
+    @Test
+    @DisplayName("Validation requests")
+    void testValidation() throws Exception {
+        final HttpResponse<String> valid = this.post("cdachemed-TEST", "", "valid.xml");
+        assertEquals(200, valid.statusCode());
+        assertEquals("application/json", valid.headers().firstValue("Content-Type").orElseThrow());
+        assertTrue(valid.body().startsWith("{\"terminated\":false,\"findings\":[{\"kind\":\"successful-report\""));
+        assertFalse(valid.body().contains("failed-assert"));
+
+        final HttpResponse<String> invalid = this.post("cdachemed-TEST", "", "invalid.xml");
+        assertEquals(200, invalid.statusCode());
+        assertTrue(invalid.body().contains("{\"kind\":\"failed-assert\",\"role\":\"warning\""));
+        assertTrue(invalid.body().contains("\"test\":\"hl7:title\""));
+
+        final HttpResponse<String> svrl = this.post("cdachemed-TEST", "?" + ValidationServer.SVRL_QUERY, "invalid.xml");
+        assertEquals(200, svrl.statusCode());
+        assertTrue(svrl.body().contains("failed-assert"));
+        assertTrue(svrl.body().contains("http://purl.oclc.org/dsdl/svrl"));
+    }
+
+    /**
+     * Ensures that the invalid requests are rejected.
+     */
+    @Test
+    @DisplayName("Invalid requests")
+    void testInvalidRequests() throws Exception {
+        assertEquals(404, this.post("cdachemed-MISSING", "", "valid.xml").statusCode());
+
+        final HttpResponse<String> malformed = this.client.send(HttpRequest.newBuilder(this.uri("cdachemed-TEST", ""))
+            .POST(HttpRequest.BodyPublishers.ofString("<ClinicalDocument")).build(),
+            HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, malformed.statusCode());
+        assertTrue(malformed.body().startsWith("{\"error\":"));
+
+        final HttpResponse<String> get = this.client.send(HttpRequest.newBuilder(this.uri("cdachemed-TEST", ""))
+            .GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, get.statusCode());
+
+        // The errors of the XSLT are not the client's fault
+        final HttpResponse<String> failing = this.post("failing", "", "valid.xml");
+        assertEquals(500, failing.statusCode());
+        assertTrue(failing.body().startsWith("{\"error\":"));
+    }
+
+    /**
+     * Ensures that the requests that wait for a transformation permit are rejected with 503, and that the
+     * transformations that exceed the timeout are answered with 504.
+     */
+    @Test
+    @DisplayName("Busy and timed out requests")
+    void testBusyAndTimeout() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final Processor processor = new Processor(false);
+        processor.registerExtensionFunction(new ExtensionFunction() {
+            @Override
+            public QName getName() {
+                return new QName("urn:test", "block");
+            }
+
+            @Override
+            public SequenceType getResultType() {
+                return SequenceType.makeSequenceType(ItemType.BOOLEAN, OccurrenceIndicator.ONE);
+            }
+
+            @Override
+            public SequenceType[] getArgumentTypes() {
+                return new SequenceType[0];
+            }
+
+            @Override
+            public XdmValue call(final XdmValue[] arguments) {
+                started.countDown();
+                // Like a long transformation, the cancellation is ignored: the permit is held until the release
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        released.await();
+                        break;
+                    } catch (final InterruptedException exception) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return new XdmAtomicValue(true);
+            }
+        });
+        final CdaChEmedValidator blocking = new CdaChEmedValidator(compile(processor,
+            "<xsl:template match='/' xmlns:test='urn:test'><r><xsl:value-of select='test:block()'/></r>"
+                + "</xsl:template>"));
+        // A cached report is answered without transformation permit
+        final ValidationResultCache cache = new ValidationResultCache(10, 1 << 20);
+        cache.put("blocking", Utils.contentHash("<cached/>".getBytes(StandardCharsets.UTF_8)),
+            new ValidationReport(List.of(), false));
+        final ValidationServer busyServer = new ValidationServer(new InetSocketAddress("localhost", 0),
+            Map.of("blocking", blocking.withResultCache(cache, "blocking")), 1, Duration.ofMillis(500));
+        busyServer.start();
+        try {
+            final URI uri = URI.create("http://localhost:" + busyServer.getAddress().getPort()
+                + ValidationServer.VALIDATE_PATH + "blocking");
+            final HttpRequest request = HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofString("<ClinicalDocument/>")).build();
+
+            // The first request holds the only permit, even after its timeout
+            final CompletableFuture<HttpResponse<String>> first =
+                this.client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            final HttpResponse<String> busy = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+            assertEquals(503, busy.statusCode());
+            assertEquals("1", busy.headers().firstValue("Retry-After").orElseThrow());
+            final HttpResponse<String> cached = this.client.send(HttpRequest.newBuilder(uri)
+                    .POST(HttpRequest.BodyPublishers.ofString("<cached/>")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, cached.statusCode());
+            assertEquals("{\"terminated\":false,\"findings\":[]}", cached.body());
+            assertEquals(1, cache.getHits());
+
+            final HttpResponse<String> timedOut = first.get(10, TimeUnit.SECONDS);
+            assertEquals(504, timedOut.statusCode());
+            assertTrue(timedOut.body().startsWith("{\"error\":"));
+        } finally {
+            released.countDown();
+            busyServer.stop();
+        }
+    }
+
+    /**
+     * Ensures that the readiness endpoint reports the readiness of the server.
+     */
+    @Test
+    @DisplayName("Readiness")
+    void testReadiness() throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:"
+            + this.server.getAddress().getPort() + ValidationServer.READY_PATH)).GET().build();
+        assertEquals(200, this.client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        this.server.setReady(false);
+        final HttpResponse<String> notReady = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(503, notReady.statusCode());
+        assertEquals("{\"ready\":false}", notReady.body());
+    }
+
+    private HttpResponse<String> post(final String name,
+                                      final String query,
+                                      final String documentName) throws Exception {
+        final HttpRequest request = HttpRequest.newBuilder(this.uri(name, query))
+            .POST(HttpRequest.BodyPublishers.ofFile(
+                loadResource(CDACHEMED_DIR + "documents/" + documentName).toPath()))
+            .build();
+        return this.client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static XsltExecutable compile(final Processor processor,
+                                          final String templates) throws SaxonApiException {
+        return processor.newXsltCompiler().compile(new StreamSource(new StringReader(
+            "<xsl:stylesheet version='3.0' xmlns:xsl='" + XSLT_NAMESPACE + "'>" + templates + "</xsl:stylesheet>")));
+    }
+
+    private URI uri(final String name, final String query) {
+        return URI.create("http://localhost:" + this.server.getAddress().getPort() + ValidationServer.VALIDATE_PATH
+            + name + query);
+    }
+}
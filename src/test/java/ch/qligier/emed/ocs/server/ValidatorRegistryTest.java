@@ -0,0 +1,211 @@
+package ch.qligier.emed.ocs.server;
+
+import ch.qligier.emed.ocs.fastpath.FastPathProgram;
+import ch.qligier.emed.ocs.schematron.IncludeManifest;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.valueset.ValueSetIndex;
+import ch.qligier.emed.ocs.valueset.ValueSetIndexWriter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ValidatorRegistry}.
+ *
+ * @author Quentin Ligier
+ */
+class ValidatorRegistryTest {
+
+    private static final String NAME = "cdachemed-TEST-all";
+
+    private static final String LANGUAGES = "include/voc-2.16.756.5.30.1.1.11.85-DYNAMIC.xml";
+
+    /**
+     * Ensures that the modified XSLT files are swapped on reload, while the previous validators stay usable.
+     */
+    @Test
+    @DisplayName("Explicit reload")
+    void testReload(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        final File allXslt = buildCdaChEmedXslt(null, false);
+        final File errorXslt = buildCdaChEmedXslt("error", false);
+        Files.copy(allXslt.toPath(), directory.resolve(NAME + ".xslt"));
+        Files.copy(allXslt.toPath(), directory.resolve("cdachemed-TEST-hybrid.xslt"));
+        Files.writeString(directory.resolve("cdachemed-TEST-hybrid" + FastPathProgram.FILE_EXTENSION), "");
+
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            assertNull(registry.get(NAME));
+            assertEquals(1, registry.reload());
+            assertEquals(Set.of(NAME), registry.getNames());
+            final CdaChEmedValidator previous = registry.get(NAME);
+            assertNotNull(previous);
+            assertEquals(0, registry.reload());
+            assertSame(previous, registry.get(NAME));
+
+            Files.copy(errorXslt.toPath(), directory.resolve(NAME + ".xslt"), StandardCopyOption.REPLACE_EXISTING);
+            assertEquals(1, registry.reload());
+            final CdaChEmedValidator current = registry.get(NAME);
+            assertNotSame(previous, current);
+            assertEquals(5, previous.validate(source("invalid.xml")).getFailedAsserts().size());
+            assertEquals(4, current.validate(source("invalid.xml")).getFailedAsserts().size());
+
+            // An XSLT file that cannot be compiled keeps its previous validator
+            Files.writeString(directory.resolve(NAME + ".xslt"), "<xsl:stylesheet");
+            assertEquals(0, registry.reload());
+            assertSame(current, registry.get(NAME));
+
+            Files.delete(directory.resolve(NAME + ".xslt"));
+            assertEquals(1, registry.reload());
+            assertNull(registry.get(NAME));
+        }
+    }
+
+    /**
+     * Ensures that an XSLT file that has failed to be recompiled with a new value set index is retried at the next
+     * reload, even if neither the file nor the index have changed since.
+     */
+    @Test
+    @DisplayName("Retry after a failed recompilation with a new index")
+    void testRetryAfterIndexChange(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        final Path partFile = directory.resolve("part.xsl");
+        final String part = "<xsl:stylesheet version='3.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:template match='/'><r/></xsl:template></xsl:stylesheet>";
+        Files.writeString(partFile, part);
+        Files.writeString(directory.resolve(NAME + ".xslt"), "<xsl:stylesheet version='3.0' "
+            + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'><xsl:include href='part.xsl'/></xsl:stylesheet>");
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            assertEquals(1, registry.reload());
+            final CdaChEmedValidator previous = registry.get(NAME);
+
+            new ValueSetIndexWriter().addValueSets(directory, List.of(LANGUAGES))
+                .write(directory.resolve(ValueSetIndex.FILE_NAME));
+            Files.writeString(partFile, "<xsl:stylesheet");
+            assertEquals(0, registry.reload());
+            assertSame(previous, registry.get(NAME));
+
+            Files.writeString(partFile, part);
+            assertEquals(1, registry.reload());
+            assertNotSame(previous, registry.get(NAME));
+            assertEquals(0, registry.reload());
+        }
+    }
+
+    /**
+     * Ensures that the include documents of the manifests are preloaded.
+     */
+    @Test
+    @DisplayName("Preloaded include documents")
+    void testPreloadedIncludes(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        Files.copy(buildCdaChEmedXslt(null, false).toPath(), directory.resolve(NAME + ".xslt"));
+        Files.writeString(directory.resolve(NAME + IncludeManifest.FILE_EXTENSION), LANGUAGES + "\n");
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            registry.reload();
+            // The value set file is emptied after the reload, the preloaded one is still used
+            Files.writeString(directory.resolve(LANGUAGES),
+                "<valueSets><valueSet><conceptList/></valueSet></valueSets>");
+            final CdaChEmedValidator validator = registry.get(NAME);
+            assertNotNull(validator);
+            assertTrue(validator.validate(source("valid.xml")).getFailedAsserts().isEmpty());
+
+            // The modified include document is preloaded again
+            assertEquals(1, registry.reload());
+            assertNotSame(validator, registry.get(NAME));
+            assertFalse(registry.get(NAME).validate(source("valid.xml")).getFailedAsserts().isEmpty());
+            assertEquals(0, registry.reload());
+        }
+    }
+
+    /**
+     * Ensures that the watched directory is reloaded after its XSLT files, manifests or include documents are modified.
+     */
+    @Test
+    @DisplayName("Directory watching")
+    void testWatch(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        Files.copy(buildCdaChEmedXslt(null, false).toPath(), directory.resolve(NAME + ".xslt"));
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            registry.reload();
+            registry.watch();
+            final CdaChEmedValidator previous = registry.get(NAME);
+
+            Files.copy(buildCdaChEmedXslt("error", false).toPath(), directory.resolve(NAME + ".xslt"),
+                StandardCopyOption.REPLACE_EXISTING);
+            final CdaChEmedValidator current = awaitSwap(registry, previous);
+
+            // The manifests and their include documents are watched too
+            Files.writeString(directory.resolve(NAME + IncludeManifest.FILE_EXTENSION), LANGUAGES + "\n");
+            final CdaChEmedValidator withManifest = awaitSwap(registry, current);
+            Files.writeString(directory.resolve(LANGUAGES),
+                "<valueSets><valueSet><conceptList/></valueSet></valueSets>");
+            awaitSwap(registry, withManifest);
+        }
+    }
+
+    /**
+     * Ensures that the watched directory is still reloaded after it's deleted and created again, like a new conversion
+     * does.
+     */
+    @Test
+    @DisplayName("Watching a recreated directory")
+    void testWatchRecreatedDirectory(@TempDir final Path parentDirectory) throws Exception {
+        final Path directory = parentDirectory.resolve("1.0.2");
+        Files.createDirectory(directory);
+        copyValueSets(directory);
+        Files.copy(buildCdaChEmedXslt(null, false).toPath(), directory.resolve(NAME + ".xslt"));
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            registry.reload();
+            registry.watch();
+            final CdaChEmedValidator previous = registry.get(NAME);
+
+            deleteRecursively(directory);
+            Files.createDirectory(directory);
+            copyValueSets(directory);
+            Files.copy(buildCdaChEmedXslt("error", false).toPath(), directory.resolve(NAME + ".xslt"));
+            final CdaChEmedValidator current = awaitSwap(registry, previous);
+
+            // The new directory and its include documents are watched
+            Files.writeString(directory.resolve(NAME + IncludeManifest.FILE_EXTENSION), LANGUAGES + "\n");
+            final CdaChEmedValidator withManifest = awaitSwap(registry, current);
+            Files.writeString(directory.resolve(LANGUAGES),
+                "<valueSets><valueSet><conceptList/></valueSet></valueSets>");
+            awaitSwap(registry, withManifest);
+        }
+    }
+
+    private static void deleteRecursively(final Path directory) throws Exception {
+        try (final Stream<Path> files = Files.walk(directory)) {
+            for (final Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static CdaChEmedValidator awaitSwap(final ValidatorRegistry registry,
+                                                final CdaChEmedValidator previous) throws Exception {
+        final long deadline = System.nanoTime() + 30_000_000_000L;
+        while (registry.get(NAME) == previous && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertNotSame(previous, registry.get(NAME));
+        return registry.get(NAME);
+    }
+
+    private static StreamSource source(final String documentName) {
+        return new StreamSource(loadResource(CDACHEMED_DIR + "documents/" + documentName));
+    }
+}
@@ -0,0 +1,100 @@
+package ch.qligier.emed.ocs.server;
+
+import ch.qligier.emed.ocs.batch.DocumentTypeDetector;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Function;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ValidatorWarmUp}.
+ *
+ * @author Quentin Ligier
+ */
+class ValidatorWarmUpTest {
+
+    /**
+     * Ensures that the validators are warmed up until their latency is stable.
+     */
+    @Test
+    @DisplayName("Warm-up of a registry")
+    void testWarmUp(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        Files.copy(buildCdaChEmedXslt(null, false).toPath(), directory.resolve("cdachemed-MTP-all.xslt"));
+        Files.createDirectories(directory.resolve("samples"));
+        Files.copy(loadResource(CDACHEMED_DIR + "documents/valid.xml").toPath(),
+            directory.resolve("samples/valid.xml"));
+        Files.copy(loadResource(CDACHEMED_DIR + "documents/untyped.xml").toPath(),
+            directory.resolve("samples/untyped.xml"));
+
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        final Map<String, List<byte[]>> samplesByType = ValidatorWarmUp.loadSamples(directory.resolve("samples"),
+            detector);
+        assertEquals(1, samplesByType.size());
+        assertEquals(1, samplesByType.get("MTP").size());
+
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            registry.reload();
+            // A tolerance of 10 times the previous median is reached at the second window
+            final SortedMap<String, ValidatorWarmUp.Result> results = new ValidatorWarmUp(100, 5, 10)
+                .run(registry, ValidatorWarmUp.samples(detector, samplesByType));
+            final ValidatorWarmUp.Result result = results.get("cdachemed-MTP-all");
+            assertTrue(result.isStable());
+            assertEquals(10, result.getIterations());
+            assertTrue(result.getMedianNanos() > 0);
+        }
+    }
+
+    /**
+     * Ensures that the warm-up only succeeds if the latencies of all validators are stable.
+     */
+    @Test
+    @DisplayName("Warm-up until stable")
+    void testRunUntilStable(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        Files.copy(buildCdaChEmedXslt(null, false).toPath(), directory.resolve("cdachemed-MTP-all.xslt"));
+        final byte[] sample = Files.readAllBytes(loadResource(CDACHEMED_DIR + "documents/valid.xml").toPath());
+
+        try (final ValidatorRegistry registry = new ValidatorRegistry(directory, null)) {
+            registry.reload();
+            final ValidatorWarmUp warmUp = new ValidatorWarmUp(100, 5, 10);
+            assertTrue(warmUp.runUntilStable(registry, name -> List.of(sample), 2));
+            // A failed warm-up is not stable
+            assertFalse(warmUp.runUntilStable(registry, name -> List.of(), 2));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ValidatorWarmUp(100, 5, 0));
+    }
+
+    /**
+     * Ensures that the synthetic samples are generated documents of the validator type, valid and invalid.
+     */
+    @Test
+    @DisplayName("Synthetic samples")
+    void testSyntheticSamples() throws Exception {
+        final Function<String, List<byte[]>> samples =
+            ValidatorWarmUp.samples(DocumentTypeDetector.loadDefault(), Map.of());
+        final List<byte[]> mtpSamples = samples.apply("cdachemed-MTP-error");
+        assertEquals(6, mtpSamples.size());
+        assertSame(mtpSamples, samples.apply("cdachemed-MTP-all"));
+        final DocumentTypeDetector detector = DocumentTypeDetector.loadDefault();
+        for (final byte[] sample : mtpSamples) {
+            assertEquals("MTP", detector.detect(new ByteArrayInputStream(sample)));
+        }
+        final String invalidSample = new String(mtpSamples.get(1), StandardCharsets.UTF_8);
+        assertTrue(invalidSample.contains("substanceAdministration"));
+        assertNotEquals(new String(mtpSamples.get(0), StandardCharsets.UTF_8), invalidSample);
+        assertEquals("<ClinicalDocument xmlns=\"urn:hl7-org:v3\"></ClinicalDocument>",
+            new String(samples.apply("other").get(0), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,101 @@
+package ch.qligier.emed.ocs.validator;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link CdaChEmedValidator}.
+ *
+ * @author Quentin Ligier
+ */
+class CdaChEmedValidatorTest {
+
+    private final Processor processor = new Processor(false);
+
+    @Test
+    @DisplayName("Complete validation")
+    void testCompleteValidation() throws Exception {
+        final CdaChEmedValidator validator =
+            CdaChEmedValidator.fromFile(this.processor, buildCdaChEmedXslt(null, false));
+
+        final ValidationReport validReport = validator.validate(source("valid.xml"));
+        assertFalse(validReport.isTerminated());
+        assertFalse(validReport.hasFailedAssert("error"));
+        assertEquals(1, validReport.getFindings().size());
+        assertEquals(SvrlFinding.Kind.SUCCESSFUL_REPORT, validReport.getFindings().get(0).getKind());
+
+        final ValidationReport invalidReport = validator.validate(source("invalid.xml"));
+        assertFalse(invalidReport.isTerminated());
+        final List<SvrlFinding> failedAsserts = invalidReport.getFailedAsserts();
+        assertEquals(5, failedAsserts.size());
+        assertEquals(4, failedAsserts.stream().filter(finding -> "error".equals(finding.getRole())).count());
+        assertEquals("d1e10-false-d20e0", failedAsserts.get(0).getRuleId());
+        assertEquals("template-2.16.756.5.30.1.1.10.1.3-2022-02-01", failedAsserts.get(0).getPatternId());
+        assertEquals("hl7:title", failedAsserts.get(0).getTest());
+        assertEquals("warning", failedAsserts.get(0).getRole());
+
+        final ValidationReport untypedReport = validator.validate(source("untyped.xml"));
+        assertTrue(untypedReport.hasFailedAssert("error"));
+    }
+
+    @Test
+    @DisplayName("Fail-fast validation")
+    void testFailFastValidation() throws Exception {
+        final CdaChEmedValidator validator =
+            CdaChEmedValidator.fromFile(this.processor, buildCdaChEmedXslt("error", true));
+
+        final ValidationReport validReport = validator.validate(source("valid.xml"));
+        assertFalse(validReport.isTerminated());
+        assertTrue(validReport.getFindings().isEmpty());
+
+        final ValidationReport invalidReport = validator.validate(source("invalid.xml"));
+        assertTrue(invalidReport.isTerminated());
+        assertEquals(1, invalidReport.getFindings().size());
+        final SvrlFinding failedAssert = invalidReport.getFindings().get(0);
+        assertEquals(SvrlFinding.Kind.FAILED_ASSERT, failedAssert.getKind());
+        assertEquals("error", failedAssert.getRole());
+        assertNotNull(failedAssert.getRuleId());
+        assertTrue(failedAssert.getLocation().startsWith("/*:ClinicalDocument"));
+
+        // The template-ID assert is promoted to 'error' and evaluated first
+        final ValidationReport untypedReport = validator.validate(source("untyped.xml"));
+        assertTrue(untypedReport.isTerminated());
+        assertEquals("descendant-or-self::*[hl7:templateId[@root='2.16.756.5.30.1.1.10.1.3']]",
+            untypedReport.getFindings().get(0).getTest());
+        assertEquals("/*:ClinicalDocument[namespace-uri()='urn:hl7-org:v3'][1]",
+            untypedReport.getFindings().get(0).getLocation());
+    }
+
+    @Test
+    @DisplayName("Validation with preloaded documents")
+    void testPreloadedDocuments() throws Exception {
+        final File xsltFile = buildCdaChEmedXslt(null, false);
+        final CdaChEmedValidator validator = CdaChEmedValidator.fromFile(this.processor, xsltFile);
+        assertTrue(validator.validate(source("valid.xml")).getFailedAsserts().isEmpty());
+
+        // The preloaded value set doesn't contain the language of the document, the file does
+        final XdmNode emptyValueSet = this.processor.newDocumentBuilder().build(new StreamSource(new StringReader(
+            "<valueSets><valueSet><conceptList/></valueSet></valueSets>")));
+        final Path valueSetFile = xsltFile.toPath().resolveSibling("include/voc-2.16.756.5.30.1.1.11.85-DYNAMIC.xml");
+        final CdaChEmedValidator preloadedValidator =
+            validator.withPreloadedDocuments(Map.of(valueSetFile, emptyValueSet));
+        assertEquals(1, preloadedValidator.validate(source("valid.xml")).getFailedAsserts().size());
+        assertTrue(validator.validate(source("valid.xml")).getFailedAsserts().isEmpty());
+    }
+
+    private StreamSource source(final String documentName) {
+        return new StreamSource(loadResource(CDACHEMED_DIR + "documents/" + documentName));
+    }
+}
@@ -0,0 +1,144 @@
+package ch.qligier.emed.ocs.validator;
+
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link DifferentialHarness}.
+ *
+ * @author Quentin Ligier
+ */
+class DifferentialHarnessTest {
+
+    private final Processor processor = new Processor(false);
+
+    /**
+     * Ensures that the optimized XSLT validates the test documents like the reference XSLT.
+     */
+    @Test
+    @DisplayName("Equivalent validation")
+    void testEquivalence() throws Exception {
+        final CdaChEmedValidator reference = new CdaChEmedValidator(DifferentialHarness.compileReference(this.processor,
+            loadResource("schematron/official").toPath(), loadResource(CDACHEMED_DIR + "cdachemed-TEST.sch")));
+        final CdaChEmedValidator optimized = CdaChEmedValidator.fromFile(this.processor,
+            buildCdaChEmedXslt(null, false));
+        final DifferentialHarness harness = new DifferentialHarness(reference, optimized, 2);
+
+        final StringWriter results = new StringWriter();
+        final DifferentialHarness.Summary summary =
+            harness.run(loadResource(CDACHEMED_DIR + "documents").toPath(), results);
+        assertEquals(3, summary.getDocuments());
+        assertEquals(0, summary.getDifferent(), results.toString());
+        final List<String> lines = results.toString().lines().toList();
+        assertEquals(DifferentialHarness.RESULT_HEADER, lines.get(0));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("invalid.xml\ttrue\t0\t0\t0\t0\t")));
+        // The optimizer has promoted the template ID assert of the untyped document to error
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("untyped.xml\ttrue\t0\t0\t1\t0\t")));
+
+        // The error-only XSLT misses the warnings of the reference XSLT
+        final DifferentialHarness errorHarness = new DifferentialHarness(reference,
+            CdaChEmedValidator.fromFile(this.processor, buildCdaChEmedXslt("error", false)), 1);
+        final DifferentialHarness.Comparison comparison = errorHarness.compare(
+            Files.readAllBytes(loadResource(CDACHEMED_DIR + "documents/invalid.xml").toPath()));
+        assertFalse(comparison.isEquivalent());
+        assertEquals(1, comparison.getMissing().size());
+        assertTrue(comparison.getUnexpected().isEmpty());
+    }
+
+    /**
+     * Ensures that the findings of the rules removed by the AmbuTransformer are dropped, and that the findings of the
+     * asserts whose value set is replaced are paired and counted apart.
+     */
+    @Test
+    @DisplayName("Removed rules and replaced value sets")
+    void testAmbuTransformations() throws Exception {
+        final CdaChEmedValidator reference = this.svrlValidator("""
+            <svrl:fired-rule id="d141e6943-true-d269204e0"/>
+            <svrl:failed-assert test="false()" role="error" location="/a"/>
+            <svrl:fired-rule id="r1"/>
+            <svrl:failed-assert test="doc('include/voc-2.16.756.5.30.1.1.11.2-DYNAMIC.xml')" role="error"
+                                location="/b"/>
+            <svrl:failed-assert test="hl7:id" role="error" location="/c"/>""");
+        final CdaChEmedValidator optimized = this.svrlValidator("""
+            <svrl:fired-rule id="r1"/>
+            <svrl:failed-assert test="doc('include/voc-2.16.756.5.30.1.127.77.12.11.1-DYNAMIC.xml')" role="error"
+                                location="/d"/>
+            <svrl:failed-assert test="hl7:id" role="error" location="/c"/>""");
+
+        final byte[] document = "<ClinicalDocument/>".getBytes(StandardCharsets.UTF_8);
+        final DifferentialHarness.Comparison comparison =
+            new DifferentialHarness(reference, optimized, 1).compare(document);
+        assertTrue(comparison.isEquivalent());
+        assertEquals(1, comparison.getReplaced());
+
+        // A finding of another rule that merely mentions a replaced value set is still a difference
+        final CdaChEmedValidator mentioning = this.svrlValidator("""
+            <svrl:fired-rule id="r1"/>
+            <svrl:failed-assert test="doc('include/voc-2.16.756.5.30.1.127.77.12.11.1-DYNAMIC.xml')" role="error"
+                                location="/d"/>
+            <svrl:failed-assert test="hl7:id" role="error" location="/c"/>
+            <svrl:fired-rule id="r2"/>
+            <svrl:failed-assert test="@codeSystem = '2.16.756.5.30.1.127.77.12.11.1'" role="error" location="/e"/>""");
+        final DifferentialHarness.Comparison mentioned =
+            new DifferentialHarness(reference, mentioning, 1).compare(document);
+        assertFalse(mentioned.isEquivalent());
+        assertEquals(List.of("FAILED_ASSERT error r2 /e"), mentioned.getUnexpected());
+        assertEquals(1, mentioned.getReplaced());
+
+        // Without the transformations, the findings differ
+        final DifferentialHarness.Comparison untransformed =
+            new DifferentialHarness(reference, optimized, 1, Set.of(), Map.of()).compare(document);
+        assertEquals(2, untransformed.getMissing().size());
+        assertEquals(1, untransformed.getUnexpected().size());
+        assertEquals(0, untransformed.getReplaced());
+    }
+
+    /**
+     * Ensures that only the template ID assert may be promoted from warning to error.
+     */
+    @Test
+    @DisplayName("Promoted template ID assert")
+    void testPromotion() throws Exception {
+        final CdaChEmedValidator reference = this.svrlValidator("""
+            <svrl:fired-rule context="/"/>
+            <svrl:failed-assert test="hl7:templateId" role="warning" location="/*:a[namespace-uri()='urn:x'][1]"/>
+            <svrl:fired-rule id="r1"/>
+            <svrl:failed-assert test="hl7:title" role="warning"
+                                location="/*:a[namespace-uri()='urn:x'][1]/*:b[namespace-uri()='urn:x'][1]"/>""");
+        final CdaChEmedValidator optimized = this.svrlValidator("""
+            <svrl:fired-rule id="id_0123abcd_0123_4567_89ab_0123456789ab"/>
+            <svrl:failed-assert test="hl7:templateId" role="error" location="/*:a[namespace-uri()='urn:x'][1]"/>
+            <svrl:fired-rule id="r1"/>
+            <svrl:failed-assert test="hl7:title" role="error"
+                                location="/*:a[namespace-uri()='urn:x'][1]/*:b[namespace-uri()='urn:x'][1]"/>""");
+
+        final DifferentialHarness.Comparison comparison = new DifferentialHarness(reference, optimized, 1)
+            .compare("<a xmlns='urn:x'><b/></a>".getBytes(StandardCharsets.UTF_8));
+        assertFalse(comparison.isEquivalent());
+        assertEquals(1, comparison.getPromoted());
+        assertEquals(1, comparison.getMissing().size());
+        assertEquals(1, comparison.getUnexpected().size());
+        assertTrue(comparison.getMissing().get(0).startsWith("FAILED_ASSERT warning r1 "));
+    }
+
+    private CdaChEmedValidator svrlValidator(final String svrl) throws Exception {
+        return new CdaChEmedValidator(this.processor.newXsltCompiler().compile(new StreamSource(new StringReader("""
+            <xsl:stylesheet version="3.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+                            xmlns:svrl="http://purl.oclc.org/dsdl/svrl">
+              <xsl:template match="/"><svrl:schematron-output>%s</svrl:schematron-output></xsl:template>
+            </xsl:stylesheet>""".formatted(svrl)))));
+    }
+}
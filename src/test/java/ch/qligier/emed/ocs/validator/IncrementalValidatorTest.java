@@ -0,0 +1,92 @@
+package ch.qligier.emed.ocs.validator;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XdmNode;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.List;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link IncrementalValidator}.
+ *
+ * @author Quentin Ligier
+ */
+class IncrementalValidatorTest {
+
+    private final Processor processor = new Processor(false);
+
+    /**
+     * Ensures that the revalidation of an edited document reports the same findings as its full validation.
+     */
+    @Test
+    @DisplayName("Incremental revalidation")
+    void testRevalidation() throws Exception {
+        final IncrementalValidator validator = IncrementalValidator.fromFile(this.processor,
+            buildCdaChEmedXslt(null, false));
+        final String valid = Files.readString(loadResource(CDACHEMED_DIR + "documents/valid.xml").toPath());
+        final XdmNode validDocument = this.parse(valid);
+        final ValidationReport validReport = validator.validate(validDocument);
+        assertTrue(validReport.getFailedAsserts().isEmpty());
+        assertEquals(1, validReport.getFindings().size());
+
+        // The document identifier is emptied: only the header rules are revalidated
+        final XdmNode editedDocument = this.parse(valid.replace("extension=\"doc-1\"", "extension=\"\""));
+        final XdmNode id = this.select(editedDocument, "/hl7:ClinicalDocument/hl7:id");
+        final ValidationReport editedReport = validator.revalidate(validReport, id);
+        assertEquals(1, editedReport.getFailedAsserts().size());
+        assertEquals(IncrementalValidator.location(id), editedReport.getFailedAsserts().get(0).getLocation());
+        assertEquals(sorted(validator.validate(editedDocument)), sorted(editedReport));
+
+        // The section code is removed: the section is revalidated, its entry report is kept
+        final XdmNode sectionDocument = this.parse(valid.replaceFirst("<code code=\"77604-7\"[^>]*/>", ""));
+        final XdmNode section = this.select(sectionDocument, "//hl7:section");
+        final ValidationReport sectionReport = validator.revalidate(validReport, section);
+        assertEquals(1, sectionReport.getFailedAsserts().size());
+        assertEquals(sorted(validator.validate(sectionDocument)), sorted(sectionReport));
+
+        // The identifier is fixed again
+        final XdmNode fixedId = this.select(validDocument, "/hl7:ClinicalDocument/hl7:id");
+        assertEquals(sorted(validReport), sorted(validator.revalidate(editedReport, fixedId)));
+    }
+
+    /**
+     * Ensures that the locations of the changed nodes use the notation of the SVRL locations.
+     */
+    @Test
+    @DisplayName("Node locations")
+    void testLocations() throws Exception {
+        final XdmNode document = this.parse("<a xmlns='urn:x'><b/><c/><b x='1'/></a>");
+        assertEquals("/*:a[namespace-uri()='urn:x'][1]/*:b[namespace-uri()='urn:x'][2]/@x",
+            IncrementalValidator.location(this.select(document, "//*:b[2]/@x")));
+        assertTrue(IncrementalValidator.isInOrAbove("/a[1]", "/a[1]/b[2]"));
+        assertTrue(IncrementalValidator.isInOrAbove("/a[1]/b[2]/@x", "/a[1]/b[2]"));
+        assertFalse(IncrementalValidator.isInOrAbove("/a[1]/b[1]", "/a[1]/b[2]"));
+        assertFalse(IncrementalValidator.isInOrAbove("/a[1]/b[12]", "/a[1]/b[1]"));
+    }
+
+    private XdmNode parse(final String document) throws Exception {
+        return this.processor.newDocumentBuilder().build(new StreamSource(new StringReader(document)));
+    }
+
+    private XdmNode select(final XdmNode document,
+                           final String xpath) throws Exception {
+        final XPathCompiler compiler = this.processor.newXPathCompiler();
+        compiler.declareNamespace("hl7", "urn:hl7-org:v3");
+        return (XdmNode) compiler.evaluateSingle(xpath, document);
+    }
+
+    private static List<SvrlFinding> sorted(final ValidationReport report) {
+        return report.getFindings().stream()
+            .sorted(Comparator.comparing(SvrlFinding::toString))
+            .toList();
+    }
+}
@@ -0,0 +1,92 @@
+package ch.qligier.emed.ocs.validator;
+
+import ch.qligier.emed.ocs.profiling.MarkFunction;
+import ch.qligier.emed.ocs.profiling.ProfilingStylesheet;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ValidationMetrics}.
+ *
+ * @author Quentin Ligier
+ */
+class ValidationMetricsTest {
+
+    private final Processor processor = new Processor(false);
+
+    /**
+     * Ensures that the fires, failures and sampled evaluation time of the rules are recorded and exposed.
+     */
+    @Test
+    @DisplayName("Rule metrics")
+    void testRuleMetrics() throws Exception {
+        final File xsltFile = buildCdaChEmedXslt(null, false);
+        MarkFunction.register(this.processor);
+        final ValidationMetrics metrics = new ValidationMetrics(1);
+        final CdaChEmedValidator validator = CdaChEmedValidator.fromFile(this.processor, xsltFile)
+            .withMetrics(metrics, "cdachemed", ProfilingStylesheet.compile(this.processor, xsltFile));
+
+        final int validations = 3;
+        for (int i = 0; i < validations; ++i) {
+            final ValidationReport report = validator.validate(
+                new StreamSource(loadResource(CDACHEMED_DIR + "documents/invalid.xml")));
+            assertEquals(5, report.getFailedAsserts().size());
+        }
+        assertEquals(validations, metrics.getValidations());
+        assertEquals(validations, metrics.getSampledValidations());
+
+        final List<ValidationMetrics.RuleSnapshot> rules = metrics.getRules();
+        assertFalse(rules.isEmpty());
+        assertEquals(4L * validations, rules.stream()
+            .mapToLong(rule -> rule.getFailures().getOrDefault("error", 0L)).sum());
+        final ValidationMetrics.RuleSnapshot titleRule = rules.stream()
+            .filter(rule -> "d1e10-false-d20e0".equals(rule.getRuleId()))
+            .findAny()
+            .orElseThrow();
+        assertEquals("cdachemed", titleRule.getStylesheet());
+        assertEquals("template-2.16.756.5.30.1.1.10.1.3-2022-02-01", titleRule.getPatternId());
+        assertEquals(validations, titleRule.getFires());
+        assertEquals(validations, titleRule.getSampledFires());
+        assertEquals(validations, titleRule.getFailures().get("warning"));
+        assertTrue(rules.stream().allMatch(rule -> rule.getFires() == rule.getSampledFires()));
+        assertTrue(rules.stream().anyMatch(rule -> rule.getSampledNanos() > 0));
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = metrics.registerMBean("test");
+        try {
+            assertEquals((long) validations, server.getAttribute(objectName, "Validations"));
+            server.invoke(objectName, "reset", null, null);
+            assertEquals(0L, server.getAttribute(objectName, "Validations"));
+            assertTrue(metrics.getRules().isEmpty());
+        } finally {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * Ensures that the evaluation time is not sampled without profiling variant.
+     */
+    @Test
+    @DisplayName("Rule metrics without sampling")
+    void testRuleMetricsWithoutSampling() throws Exception {
+        final ValidationMetrics metrics = new ValidationMetrics(1);
+        final CdaChEmedValidator validator = CdaChEmedValidator.fromFile(this.processor,
+            buildCdaChEmedXslt(null, false)).withMetrics(metrics, "cdachemed", null);
+        validator.validate(new StreamSource(loadResource(CDACHEMED_DIR + "documents/valid.xml")));
+        assertEquals(1, metrics.getValidations());
+        assertEquals(0, metrics.getSampledValidations());
+        assertTrue(metrics.getRules().stream().allMatch(rule -> rule.getFires() > 0 && rule.getSampledFires() == 0));
+        assertThrows(IllegalArgumentException.class, () -> new ValidationMetrics(0));
+    }
+}
@@ -0,0 +1,87 @@
+package ch.qligier.emed.ocs.validator;
+
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.List;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ValidationResultCache}.
+ *
+ * @author Quentin Ligier
+ */
+class ValidationResultCacheTest {
+
+    /**
+     * Ensures that the resubmitted documents are answered from the cache, per stylesheet identity.
+     */
+    @Test
+    @DisplayName("Cached validation")
+    void testCachedValidation() throws Exception {
+        final ValidationResultCache cache = new ValidationResultCache(100, 1 << 20);
+        final CdaChEmedValidator validator =
+            CdaChEmedValidator.fromFile(new Processor(false), buildCdaChEmedXslt(null, false));
+        final CdaChEmedValidator mtpValidator = validator.withResultCache(cache, "1.0.2/cdachemed-MTP-all");
+        final CdaChEmedValidator preValidator = validator.withResultCache(cache, "1.0.2/cdachemed-PRE-all");
+
+        final ValidationReport first = mtpValidator.validate(document("invalid.xml"));
+        assertEquals(5, first.getFailedAsserts().size());
+        final ValidationReport second = mtpValidator.validate(document("invalid.xml"));
+        assertEquals(first, second);
+        // The cached report is copied, it can't be altered by a caller
+        second.getFindings().get(0).setText("altered");
+        assertThrows(UnsupportedOperationException.class, () -> second.getFindings().clear());
+        assertEquals(first, mtpValidator.validate(document("invalid.xml")));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        preValidator.validate(document("invalid.xml"));
+        mtpValidator.validate(document("valid.xml"));
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.size());
+
+        // Without cache, the document is validated each time
+        assertNotSame(validator.validate(document("valid.xml")), validator.validate(document("valid.xml")));
+        assertEquals(3, cache.getMisses());
+    }
+
+    /**
+     * Ensures that the least recently used entries are evicted to respect the entry and size bounds.
+     */
+    @Test
+    @DisplayName("LRU eviction")
+    void testEviction() {
+        final ValidationResultCache cache = new ValidationResultCache(2, 4096);
+        final ValidationReport report = new ValidationReport(List.of(), false);
+        cache.put("xslt", "a", report);
+        cache.put("xslt", "b", report);
+        assertNotNull(cache.get("xslt", "a"));
+        cache.put("xslt", "c", report);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("xslt", "b"));
+        assertNotNull(cache.get("xslt", "a"));
+        assertEquals(1, cache.getEvictions());
+
+        final SvrlFinding finding = new SvrlFinding(SvrlFinding.Kind.FAILED_ASSERT, null, null, "true()", "error", "/",
+            "x".repeat(1800));
+        final ValidationReport largeReport = new ValidationReport(List.of(finding), false);
+        cache.put("xslt", "d", largeReport);
+        assertEquals(1, cache.size());
+        assertTrue(cache.getEstimatedBytes() <= 4096);
+        assertEquals(3, cache.getEvictions());
+
+        // A report that exceeds the size bound alone is not cached
+        cache.put("xslt", "e", new ValidationReport(List.of(finding, finding), false));
+        assertNull(cache.get("xslt", "e"));
+        assertNotNull(cache.get("xslt", "d"));
+    }
+
+    private static byte[] document(final String documentName) throws Exception {
+        return Files.readAllBytes(loadResource(CDACHEMED_DIR + "documents/" + documentName).toPath());
+    }
+}
@@ -0,0 +1,123 @@
+package ch.qligier.emed.ocs.valueset;
+
+import ch.qligier.emed.ocs.schematron.OutputProfile;
+import ch.qligier.emed.ocs.validator.CdaChEmedValidator;
+import ch.qligier.emed.ocs.validator.SvrlFinding;
+import net.sf.saxon.s9api.Processor;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static ch.qligier.emed.ocs.schematron.utils.TestStylesheets.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test bed for {@link ValueSetIndex}.
+ *
+ * @author Quentin Ligier
+ */
+class ValueSetIndexTest {
+
+    private static final String LANGUAGES = "include/voc-2.16.756.5.30.1.1.11.85-DYNAMIC.xml";
+
+    private static final String LANGUAGE_SYSTEM = "2.16.756.5.30.1.127.3.10.1.5";
+
+    /**
+     * Ensures that the value sets are compiled and looked up, with the strings of the hash matches compared.
+     */
+    @Test
+    @DisplayName("Index compilation and lookups")
+    void testIndex(@TempDir final Path directory) throws Exception {
+        copyValueSets(directory);
+        Files.writeString(directory.resolve("include/voc-unicode.xml"), """
+            <valueSets><valueSet id="1"><conceptList>
+              <concept code="é😀" codeSystem="1.2"/><concept code="a" codeSystem="1.2"/>
+              <concept code="a" codeSystem="1.2"/><concept code="b"/>
+            </conceptList></valueSet>
+            <valueSet id="2"><conceptList><concept code="c" codeSystem="1.2"/></conceptList></valueSet></valueSets>""");
+        final Path indexFile = directory.resolve(ValueSetIndex.FILE_NAME);
+        new ValueSetIndexWriter()
+            .addValueSets(directory, List.of(LANGUAGES, "include/voc-unicode.xml"))
+            .write(indexFile);
+
+        final ValueSetIndex index = ValueSetIndex.open(indexFile);
+        assertEquals(Set.of(LANGUAGES, "include/voc-unicode.xml"), index.getValueSetNames());
+        assertEquals(3, Objects.requireNonNull(index.getValueSet(LANGUAGES)).getSize());
+        assertTrue(index.contains(LANGUAGES, "de-CH", LANGUAGE_SYSTEM));
+        assertTrue(index.contains(LANGUAGES, "it-CH", LANGUAGE_SYSTEM));
+        assertFalse(index.contains(LANGUAGES, "en-US", LANGUAGE_SYSTEM));
+        assertFalse(index.contains(LANGUAGES, "de-CH", "2.16.756.5.30.1.127.3.10.1"));
+        assertFalse(index.contains(LANGUAGES, "de-C", LANGUAGE_SYSTEM));
+
+        // Only the concepts of the first value set are indexed, the concepts without code system are skipped
+        assertEquals(2, Objects.requireNonNull(index.getValueSet("include/voc-unicode.xml")).getSize());
+        assertTrue(index.contains("include/voc-unicode.xml", "é😀", "1.2"));
+        assertFalse(index.contains("include/voc-unicode.xml", "é", "1.2"));
+        assertFalse(index.contains("include/voc-unicode.xml", "c", "1.2"));
+        assertThrows(IllegalArgumentException.class, () -> index.contains("include/missing.xml", "a", "1.2"));
+    }
+
+    /**
+     * Ensures that only the ART-DECOR value set lookups are rewritten.
+     */
+    @Test
+    @DisplayName("Value set lookup rewriting")
+    void testRewrite() {
+        assertEquals("@nullFlavor or vsi:contains('" + LANGUAGES + "', $theCode, $theCodeSystem)",
+            ValueSetLookupRewriter.rewrite("@nullFlavor or exists(doc('" + LANGUAGES + "')//valueSet[1][conceptList/"
+                + "concept[@code = $theCode][@codeSystem = $theCodeSystem]])"));
+        final String otherLookup =
+            "exists(doc('" + LANGUAGES + "')//valueSet[1][completeCodeSystem[@codeSystem = $cs]])";
+        assertSame(otherLookup, ValueSetLookupRewriter.rewrite(otherLookup));
+    }
+
+    /**
+     * Ensures that the validation with the value set index gives the same findings as the validation with the value
+     * set files.
+     */
+    @Test
+    @DisplayName("Indexed validation is equivalent to the XSLT validation")
+    void testEquivalence() throws Exception {
+        final CdaChEmedValidator fileValidator =
+            CdaChEmedValidator.fromFile(new Processor(false), buildCdaChEmedXslt("error", false));
+
+        final OutputProfile indexedProfile = OutputProfile.forRole("error", false);
+        indexedProfile.setValueSetIndex(true);
+        final File indexedXslt = buildCdaChEmedXslt(indexedProfile);
+        assertTrue(Files.readString(indexedXslt.toPath()).contains("vsi:contains('" + LANGUAGES + "'"));
+        final Path outputDir = indexedXslt.getParentFile().toPath();
+        final Path indexFile = outputDir.resolve(ValueSetIndex.FILE_NAME);
+        new ValueSetIndexWriter().addValueSets(outputDir, List.of(LANGUAGES)).write(indexFile);
+        final Processor processor = new Processor(false);
+        ValueSetFunction.register(processor, ValueSetIndex.open(indexFile));
+        final CdaChEmedValidator indexedValidator = CdaChEmedValidator.fromFile(processor, indexedXslt);
+
+        for (final String document : List.of("valid.xml", "invalid.xml", "untyped.xml")) {
+            final List<String> expected = summarize(fileValidator.validate(source(document)).getFindings());
+            final List<String> actual = summarize(indexedValidator.validate(source(document)).getFindings());
+            assertEquals(expected, actual, document);
+        }
+    }
+
+    /**
+     * Summarizes the findings without their test, that is rewritten, and the rule IDs that are generated by the parser.
+     */
+    private List<String> summarize(final List<SvrlFinding> findings) {
+        return findings.stream()
+            .map(finding -> finding.getKind() + " " + finding.getLocation() + " " + finding.getText())
+            .sorted()
+            .toList();
+    }
+
+    private StreamSource source(final String documentName) {
+        return new StreamSource(loadResource(CDACHEMED_DIR + "documents/" + documentName));
+    }
+}